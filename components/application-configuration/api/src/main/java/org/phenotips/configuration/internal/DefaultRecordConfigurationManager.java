@@ -18,20 +18,37 @@
 package org.phenotips.configuration.internal;
 
 import org.phenotips.Constants;
+import org.phenotips.components.InvalidatableCache;
 import org.phenotips.configuration.RecordConfiguration;
 import org.phenotips.configuration.RecordConfigurationManager;
 import org.phenotips.configuration.internal.configured.ConfiguredRecordConfiguration;
 import org.phenotips.configuration.internal.configured.CustomConfiguration;
 import org.phenotips.configuration.internal.global.GlobalRecordConfiguration;
+import org.phenotips.data.Patient;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.uiextension.UIExtension;
 import org.xwiki.uiextension.UIExtensionFilter;
 import org.xwiki.uiextension.UIExtensionManager;
 
+import java.util.Arrays;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
@@ -41,17 +58,21 @@
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * Default implementation for the {@link RecordConfigurationManager} component.
+ * Default implementation for the {@link RecordConfigurationManager} component. Configurations remember their sections
+ * and fields once computed, so the configuration of each study, and the global configuration of each wiki, are kept
+ * and reused until the study document, the patient class, or the patient form extensions change. The global
+ * preferences aren't part of what is kept, since configurations read them again on every call.
  *
  * @version $Id$
  * @since 1.0M9
  */
-@Component
+@Component(roles = RecordConfigurationManager.class)
 @Singleton
-public class DefaultRecordConfigurationManager implements RecordConfigurationManager
+public class DefaultRecordConfigurationManager implements RecordConfigurationManager, Initializable, EventListener
 {
     /** Reference to the xclass which allows to bind a specific form customization to a patient record. */
     public static final EntityReference STUDY_BINDING_CLASS_REFERENCE = new EntityReference("StudyBindingClass",
@@ -88,6 +109,74 @@ public class DefaultRecordConfigurationManager implements RecordConfigurationMan
     @Named("current")
     private DocumentReferenceResolver<String> referenceParser;
 
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The global configuration of each wiki, indexed by wiki identifier. */
+    private final InvalidatableCache<String, RecordConfiguration> globalConfigurations = new InvalidatableCache<>();
+
+    /** The configuration of each study, indexed by the study document. */
+    private final InvalidatableCache<DocumentReference, RecordConfiguration> studyConfigurations =
+        new InvalidatableCache<>();
+
+    private final InvalidatableCache.Loader<String, RecordConfiguration, RuntimeException> globalLoader =
+        new InvalidatableCache.Loader<String, RecordConfiguration, RuntimeException>()
+        {
+            @Override
+            public RecordConfiguration load(String wiki)
+            {
+                return createGlobalConfiguration();
+            }
+        };
+
+    private final InvalidatableCache.Loader<DocumentReference, RecordConfiguration, XWikiException> studyLoader =
+        new InvalidatableCache.Loader<DocumentReference, RecordConfiguration, XWikiException>()
+        {
+            @Override
+            public RecordConfiguration load(DocumentReference studyReference) throws XWikiException
+            {
+                return createStudyConfiguration(studyReference);
+            }
+        };
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(this);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "record-configuration-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(), new ComponentDescriptorAddedEvent(UIExtension.class),
+            new ComponentDescriptorRemovedEvent(UIExtension.class));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (source instanceof XWikiDocument) {
+            XWikiDocument doc = (XWikiDocument) source;
+            DocumentReference reference = doc.getDocumentReference();
+            if (isStudy(doc) || isStudy(doc.getOriginalDocument())) {
+                this.studyConfigurations.invalidate(reference);
+            } else if (isPatientClass(reference)) {
+                clear();
+            }
+        } else {
+            // A patient form extension was registered or unregistered
+            clear();
+        }
+    }
+
     @Override
     public RecordConfiguration getActiveConfiguration()
     {
@@ -95,7 +184,11 @@ public RecordConfiguration getActiveConfiguration()
         if (boundConfig != null) {
             return boundConfig;
         }
-        return new GlobalRecordConfiguration(this.xcontextProvider, this.uixManager, this.orderFilter);
+        String wiki = this.xcontextProvider.get().getWikiId();
+        if (wiki == null) {
+            return createGlobalConfiguration();
+        }
+        return this.globalConfigurations.get(wiki, this.globalLoader);
     }
 
     /**
@@ -114,17 +207,9 @@ private RecordConfiguration getBoundConfiguration()
             (String) this.dab.getProperty(this.dab.getCurrentDocumentReference(),
                 this.resolver.resolve(STUDY_BINDING_CLASS_REFERENCE), "studyReference");
         if (StringUtils.isNotBlank(boundConfig)) {
+            DocumentReference studyReference = this.referenceParser.resolve(boundConfig);
             try {
-                XWikiContext context = this.xcontextProvider.get();
-                XWikiDocument doc = context.getWiki().getDocument(this.referenceParser.resolve(boundConfig), context);
-                if (doc == null || doc.isNew()) {
-                    // Inaccessible or deleted document, use default configuration
-                    return null;
-                }
-                CustomConfiguration configuration =
-                    new CustomConfiguration(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS));
-                return new ConfiguredRecordConfiguration(configuration, this.xcontextProvider, this.uixManager,
-                    this.orderFilter);
+                return this.studyConfigurations.get(studyReference, this.studyLoader);
             } catch (Exception ex) {
                 this.logger.warn("Failed to read the bound configuration [{}] for [{}]: {}", boundConfig,
                     this.dab.getCurrentDocumentReference(), ex.getMessage());
@@ -132,4 +217,48 @@ private RecordConfiguration getBoundConfiguration()
         }
         return null;
     }
+
+    private RecordConfiguration createGlobalConfiguration()
+    {
+        return new GlobalRecordConfiguration(this.xcontextProvider, this.uixManager, this.orderFilter);
+    }
+
+    /**
+     * Builds the configuration defined in a study document.
+     *
+     * @param studyReference the study document
+     * @return the study configuration, or {@code null} if the study document doesn't exist, in which case nothing is
+     *         remembered and the default configuration is used
+     * @throws XWikiException if the study document can't be read
+     */
+    private RecordConfiguration createStudyConfiguration(DocumentReference studyReference) throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        XWikiDocument doc = context.getWiki().getDocument(studyReference, context);
+        if (doc == null || doc.isNew()) {
+            // Inaccessible or deleted document, use default configuration
+            return null;
+        }
+        CustomConfiguration configuration =
+            new CustomConfiguration(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS));
+        return new ConfiguredRecordConfiguration(configuration, this.xcontextProvider, this.uixManager,
+            this.orderFilter);
+    }
+
+    private boolean isStudy(XWikiDocument doc)
+    {
+        return doc != null && doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS) != null;
+    }
+
+    private boolean isPatientClass(DocumentReference reference)
+    {
+        return Patient.CLASS_REFERENCE.getName().equals(reference.getName())
+            && Constants.CODE_SPACE_REFERENCE.getName().equals(reference.getLastSpaceReference().getName());
+    }
+
+    private void clear()
+    {
+        this.globalConfigurations.invalidateAll();
+        this.studyConfigurations.invalidateAll();
+    }
 }
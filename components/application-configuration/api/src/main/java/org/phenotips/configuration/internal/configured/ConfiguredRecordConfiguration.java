@@ -67,10 +67,10 @@ public ConfiguredRecordConfiguration(CustomConfiguration configuration, Provider
     }
 
     @Override
-    public List<RecordSection> getAllSections()
+    protected List<RecordSection> loadAllSections()
     {
         List<RecordSection> result = new ArrayList<RecordSection>();
-        List<RecordSection> allSections = super.getAllSections();
+        List<RecordSection> allSections = super.loadAllSections();
         final List<String> overrides = this.configuration.getSectionsOverride();
         for (RecordSection section : allSections) {
             result.add(new ConfiguredRecordSection(this.configuration, section.getExtension(), this.uixManager,
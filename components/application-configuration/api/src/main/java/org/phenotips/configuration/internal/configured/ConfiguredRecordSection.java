@@ -67,10 +67,10 @@ public boolean isEnabled()
     }
 
     @Override
-    public List<RecordElement> getAllElements()
+    protected List<RecordElement> loadAllElements()
     {
         List<RecordElement> result = new ArrayList<RecordElement>();
-        List<RecordElement> allElements = super.getAllElements();
+        List<RecordElement> allElements = super.loadAllElements();
         final List<String> overrides = this.configuration.getFieldsOverride();
         for (RecordElement element : allElements) {
             result.add(new ConfiguredRecordElement(this.configuration, element.getExtension(), this));
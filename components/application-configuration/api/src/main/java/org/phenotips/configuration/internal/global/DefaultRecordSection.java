@@ -47,6 +47,12 @@ public class DefaultRecordSection implements RecordSection
     /** Sorts fields by their declared order. */
     protected final UIExtensionFilter orderFilter;
 
+    /** @see #getAllElements() */
+    private volatile List<RecordElement> allElements;
+
+    /** @see #getEnabledElements() */
+    private volatile List<RecordElement> enabledElements;
+
     /**
      * Simple constructor passing all the needed components.
      *
@@ -92,6 +98,21 @@ public boolean isExpandedByDefault()
 
     @Override
     public List<RecordElement> getAllElements()
+    {
+        List<RecordElement> result = this.allElements;
+        if (result == null) {
+            result = loadAllElements();
+            this.allElements = result;
+        }
+        return result;
+    }
+
+    /**
+     * Lists the fields registered as extensions of this section, called only once per instance.
+     *
+     * @return an unmodifiable ordered list of elements, empty if this section doesn't contain any elements
+     */
+    protected List<RecordElement> loadAllElements()
     {
         List<RecordElement> result = new LinkedList<>();
         List<UIExtension> fields = this.uixManager.get(this.extension.getId());
@@ -105,13 +126,18 @@ public List<RecordElement> getAllElements()
     @Override
     public List<RecordElement> getEnabledElements()
     {
-        List<RecordElement> result = new LinkedList<>();
-        for (RecordElement element : getAllElements()) {
-            if (element.isEnabled()) {
-                result.add(element);
+        List<RecordElement> result = this.enabledElements;
+        if (result == null) {
+            List<RecordElement> elements = new LinkedList<>();
+            for (RecordElement element : getAllElements()) {
+                if (element.isEnabled()) {
+                    elements.add(element);
+                }
             }
+            result = Collections.unmodifiableList(elements);
+            this.enabledElements = result;
         }
-        return Collections.unmodifiableList(result);
+        return result;
     }
 
     @Override
@@ -49,7 +49,9 @@
 import com.xpn.xwiki.objects.classes.BaseClass;
 
 /**
- * Default (global) implementation of the {@link RecordConfiguration} role.
+ * Default (global) implementation of the {@link RecordConfiguration} role. The lists of sections and fields are computed
+ * when first requested and then remembered, so an instance is a snapshot of the configuration, which must be discarded
+ * when the patient form extensions or the patient class change.
  *
  * @version $Id$
  * @since 1.0M9
@@ -75,6 +77,21 @@ public class GlobalRecordConfiguration implements RecordConfiguration
     /** Logging helper object. */
     private Logger logger = LoggerFactory.getLogger(GlobalRecordConfiguration.class);
 
+    /** @see #getAllSections() */
+    private volatile List<RecordSection> allSections;
+
+    /** @see #getEnabledSections() */
+    private volatile List<RecordSection> enabledSections;
+
+    /** @see #getEnabledFieldNames() */
+    private volatile List<String> enabledFieldNames;
+
+    /** @see #getEnabledNonIdentifiableFieldNames() */
+    private volatile List<String> enabledNonIdentifiableFieldNames;
+
+    /** @see #getAllFieldNames() */
+    private volatile List<String> allFieldNames;
+
     /**
      * Simple constructor passing all the needed components.
      *
@@ -92,6 +109,21 @@ public GlobalRecordConfiguration(Provider<XWikiContext> xcontextProvider, UIExte
 
     @Override
     public List<RecordSection> getAllSections()
+    {
+        List<RecordSection> result = this.allSections;
+        if (result == null) {
+            result = loadAllSections();
+            this.allSections = result;
+        }
+        return result;
+    }
+
+    /**
+     * Lists the sections registered as patient form extensions, called only once per instance.
+     *
+     * @return an unmodifiable ordered list of sections, or an empty list if none are defined
+     */
+    protected List<RecordSection> loadAllSections()
     {
         List<RecordSection> result = new LinkedList<RecordSection>();
         List<UIExtension> sections = this.uixManager.get("org.phenotips.patientSheet.content");
@@ -106,48 +138,67 @@ public List<RecordSection> getAllSections()
     @Override
     public List<RecordSection> getEnabledSections()
     {
-        List<RecordSection> result = new LinkedList<RecordSection>();
-        for (RecordSection section : getAllSections()) {
-            if (section.isEnabled()) {
-                result.add(section);
+        List<RecordSection> result = this.enabledSections;
+        if (result == null) {
+            List<RecordSection> sections = new LinkedList<RecordSection>();
+            for (RecordSection section : getAllSections()) {
+                if (section.isEnabled()) {
+                    sections.add(section);
+                }
             }
+            result = Collections.unmodifiableList(sections);
+            this.enabledSections = result;
         }
-        return Collections.unmodifiableList(result);
+        return result;
     }
 
     @Override
     public List<String> getEnabledFieldNames()
     {
-        List<String> result = new LinkedList<String>();
-        for (RecordSection section : getEnabledSections()) {
-            for (RecordElement element : section.getEnabledElements()) {
-                result.addAll(element.getDisplayedFields());
+        List<String> result = this.enabledFieldNames;
+        if (result == null) {
+            List<String> fields = new LinkedList<String>();
+            for (RecordSection section : getEnabledSections()) {
+                for (RecordElement element : section.getEnabledElements()) {
+                    fields.addAll(element.getDisplayedFields());
+                }
             }
+            result = Collections.unmodifiableList(fields);
+            this.enabledFieldNames = result;
         }
-        return Collections.unmodifiableList(result);
+        return result;
     }
 
     @Override
     public List<String> getEnabledNonIdentifiableFieldNames()
     {
-        List<String> result = new LinkedList<String>();
-        for (RecordSection section : getEnabledSections()) {
-            for (RecordElement element : section.getEnabledElements()) {
-                if (!element.containsPrivateIdentifiableInformation()) {
-                    result.addAll(element.getDisplayedFields());
+        List<String> result = this.enabledNonIdentifiableFieldNames;
+        if (result == null) {
+            List<String> fields = new LinkedList<String>();
+            for (RecordSection section : getEnabledSections()) {
+                for (RecordElement element : section.getEnabledElements()) {
+                    if (!element.containsPrivateIdentifiableInformation()) {
+                        fields.addAll(element.getDisplayedFields());
+                    }
                 }
             }
+            result = Collections.unmodifiableList(fields);
+            this.enabledNonIdentifiableFieldNames = result;
         }
-        return Collections.unmodifiableList(result);
+        return result;
     }
 
     @Override
     public List<String> getAllFieldNames()
     {
+        if (this.allFieldNames != null) {
+            return this.allFieldNames;
+        }
         try {
             XWikiContext context = this.xcontextProvider.get();
             BaseClass patientClass = context.getWiki().getDocument(Patient.CLASS_REFERENCE, context).getXClass();
-            return Collections.unmodifiableList(Arrays.asList(patientClass.getPropertyNames()));
+            this.allFieldNames = Collections.unmodifiableList(Arrays.asList(patientClass.getPropertyNames()));
+            return this.allFieldNames;
         } catch (XWikiException ex) {
             this.logger.error("Failed to access the patient class: {}", ex.getMessage(), ex);
             return Collections.emptyList();
@@ -23,11 +23,15 @@
 import org.phenotips.configuration.internal.global.GlobalRecordConfiguration;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.uiextension.UIExtension;
 
 import java.util.Collections;
 
@@ -39,6 +43,8 @@
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -47,6 +53,8 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -105,6 +113,108 @@ public void getActiveConfigurationWithBoundConfiguration() throws ComponentLooku
         Assert.assertTrue(result instanceof ConfiguredRecordConfiguration);
     }
 
+    /** The configuration of a study is reused until the study document changes. */
+    @Test
+    public void boundConfigurationIsReusedUntilTheStudyChanges() throws ComponentLookupException, XWikiException
+    {
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        DocumentReference currentDocument = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference bindingClass = new DocumentReference("xwiki", "PhenoTips", "StudyBindingClass");
+        DocumentReference gr = new DocumentReference("xwiki", "Groups", "Dentists");
+        when(dab.getCurrentDocumentReference()).thenReturn(currentDocument);
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        when(resolver.resolve(DefaultRecordConfigurationManager.STUDY_BINDING_CLASS_REFERENCE))
+            .thenReturn(bindingClass);
+        when(dab.getProperty(currentDocument, bindingClass, "studyReference")).thenReturn("Groups.Dentists");
+        DocumentReferenceResolver<String> referenceParser =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(referenceParser.resolve("Groups.Dentists")).thenReturn(gr);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(gr);
+        when(this.xwiki.getDocument(gr, this.context)).thenReturn(doc);
+        BaseObject o = mock(BaseObject.class);
+        when(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS)).thenReturn(o);
+
+        RecordConfigurationManager manager = this.mocker.getComponentUnderTest();
+        RecordConfiguration result = manager.getActiveConfiguration();
+        Assert.assertTrue(result instanceof ConfiguredRecordConfiguration);
+        Assert.assertSame(result, manager.getActiveConfiguration());
+        verify(this.xwiki, times(1)).getDocument(gr, this.context);
+
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), doc, null);
+        RecordConfiguration updated = manager.getActiveConfiguration();
+        Assert.assertTrue(updated instanceof ConfiguredRecordConfiguration);
+        Assert.assertNotSame(result, updated);
+        verify(this.xwiki, times(2)).getDocument(gr, this.context);
+    }
+
+    /** A study configuration read while the study document changes isn't remembered. */
+    @Test
+    public void boundConfigurationReadWhileTheStudyChangesIsNotReused() throws ComponentLookupException,
+        XWikiException
+    {
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        DocumentReference currentDocument = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference bindingClass = new DocumentReference("xwiki", "PhenoTips", "StudyBindingClass");
+        DocumentReference gr = new DocumentReference("xwiki", "Groups", "Dentists");
+        when(dab.getCurrentDocumentReference()).thenReturn(currentDocument);
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        when(resolver.resolve(DefaultRecordConfigurationManager.STUDY_BINDING_CLASS_REFERENCE))
+            .thenReturn(bindingClass);
+        when(dab.getProperty(currentDocument, bindingClass, "studyReference")).thenReturn("Groups.Dentists");
+        DocumentReferenceResolver<String> referenceParser =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(referenceParser.resolve("Groups.Dentists")).thenReturn(gr);
+        final XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(gr);
+        BaseObject o = mock(BaseObject.class);
+        when(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS)).thenReturn(o);
+        final RecordConfigurationManager manager = this.mocker.getComponentUnderTest();
+        when(this.xwiki.getDocument(gr, this.context)).thenAnswer(new Answer<XWikiDocument>()
+        {
+            private boolean first = true;
+
+            @Override
+            public XWikiDocument answer(InvocationOnMock invocation)
+            {
+                if (this.first) {
+                    this.first = false;
+                    ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), doc, null);
+                }
+                return doc;
+            }
+        });
+
+        RecordConfiguration result = manager.getActiveConfiguration();
+        Assert.assertTrue(result instanceof ConfiguredRecordConfiguration);
+        RecordConfiguration reread = manager.getActiveConfiguration();
+        Assert.assertNotSame(result, reread);
+        Assert.assertSame(reread, manager.getActiveConfiguration());
+        verify(this.xwiki, times(2)).getDocument(gr, this.context);
+    }
+
+    /** The global configuration of a wiki is reused until a patient form extension is registered. */
+    @Test
+    public void globalConfigurationIsReusedUntilExtensionsChange() throws ComponentLookupException
+    {
+        when(this.context.getWikiId()).thenReturn("xwiki");
+
+        RecordConfigurationManager manager = this.mocker.getComponentUnderTest();
+        RecordConfiguration result = manager.getActiveConfiguration();
+        Assert.assertTrue(result instanceof GlobalRecordConfiguration);
+        Assert.assertSame(result, manager.getActiveConfiguration());
+
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(new DocumentReference("xwiki", "data", "P0000001"));
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), doc, null);
+        Assert.assertSame(result, manager.getActiveConfiguration());
+
+        ((EventListener) manager).onEvent(new ComponentDescriptorAddedEvent(UIExtension.class), null, null);
+        Assert.assertNotSame(result, manager.getActiveConfiguration());
+    }
+
     /**
      * {@link RecordConfigurationManager#getActiveConfiguration()} returns the global configuration when there's an
      * explicit binding in the current document, but reading the custom configuration fails.
@@ -55,6 +55,8 @@
 import com.xpn.xwiki.objects.classes.BaseClass;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -132,6 +134,40 @@ public void getEnabledSections() throws ComponentLookupException
         Assert.assertEquals("Prenatal history", result.get(2).getName());
     }
 
+    /** The sections and fields are only computed once per configuration instance. */
+    @Test
+    public void sectionsAndFieldsAreRemembered() throws ComponentLookupException
+    {
+        UIExtensionManager m = mock(UIExtensionManager.class);
+        UIExtensionFilter filter = mock(UIExtensionFilter.class, "sortByParameter");
+        RecordConfiguration c = new GlobalRecordConfiguration(this.xcp, m, filter);
+
+        UIExtension ex = mock(UIExtension.class);
+        when(ex.getId()).thenReturn("section1");
+        when(ex.getParameters()).thenReturn(new HashMap<String, String>());
+        List<UIExtension> sections = new LinkedList<UIExtension>();
+        sections.add(ex);
+        when(m.get("org.phenotips.patientSheet.content")).thenReturn(sections);
+        when(filter.filter(sections, "order")).thenReturn(sections);
+
+        UIExtension field = mock(UIExtension.class);
+        when(field.getId()).thenReturn("field1");
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("fields", "first_name,last_name");
+        when(field.getParameters()).thenReturn(params);
+        List<UIExtension> fields = new LinkedList<UIExtension>();
+        fields.add(field);
+        when(m.get("section1")).thenReturn(fields);
+        when(filter.filter(fields, "order")).thenReturn(fields);
+
+        Assert.assertEquals(1, c.getEnabledSections().size());
+        Assert.assertSame(c.getAllSections(), c.getAllSections());
+        Assert.assertEquals(2, c.getEnabledFieldNames().size());
+        Assert.assertSame(c.getEnabledFieldNames(), c.getEnabledFieldNames());
+        verify(m, times(1)).get("org.phenotips.patientSheet.content");
+        verify(m, times(1)).get("section1");
+    }
+
     /** {@link GlobalRecordConfiguration#getAllSections()} lists all the sections, in order. */
     @Test
     public void getAllSections() throws ComponentLookupException
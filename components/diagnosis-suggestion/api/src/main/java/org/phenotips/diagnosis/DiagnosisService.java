@@ -44,4 +44,17 @@
      * @return a list of suggested diagnoses
      */
     List<VocabularyTerm> getDiagnosis(List<String> phenotypes, List<String> nonstandardPhenotypes, int limit);
+
+    /**
+     * Get lists of plausible diagnoses for several patients at once. This is faster than computing the diagnoses of
+     * each patient separately, since the working state is reused, and all the suggested diagnoses are retrieved from
+     * the vocabulary together.
+     *
+     * @param phenotypes for each patient, a list of phenotype term IDs observed in that patient, in the same format as
+     *            for {@link #getDiagnosis(List, List, int)}
+     * @param limit the maximum number of diagnoses to return for each patient; must be a positive number
+     * @return for each patient, in the same order as the input, a list of suggested diagnoses
+     * @since 1.3
+     */
+    List<List<VocabularyTerm>> getDiagnoses(List<List<String>> phenotypes, int limit);
 }
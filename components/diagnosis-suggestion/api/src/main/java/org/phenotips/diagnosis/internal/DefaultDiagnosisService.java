@@ -18,32 +18,49 @@
 package org.phenotips.diagnosis.internal;
 
 import org.phenotips.diagnosis.DiagnosisService;
+import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -55,6 +72,16 @@
 /**
  * An implementation of {@link DiagnosisService} using BOQA, see
  * <a href="http://bioinformatics.oxfordjournals.org/content/28/19/2502.abstract">this article</a>.
+ * <p>
+ * Setting up the BOQA model takes a while, so it can be tuned with two settings in {@code xwiki.properties}:
+ * </p>
+ * <ul>
+ * <li>{@code phenotips.diagnosis.backgroundSetup}: whether the model is set up in a background thread, so that startup
+ * isn't delayed; requests received before the model is ready wait for it. Defaults to {@code true}; if {@code false},
+ * the model is set up while this component is initialized.</li>
+ * <li>{@code phenotips.diagnosis.warmup}: whether a warm-up query is run once the model is set up, so that the first
+ * actual diagnosis request doesn't pay for lazy initializations. Defaults to {@code true}.</li>
+ * </ul>
  *
  * @since 1.1M1
  * @version $Id$
@@ -63,12 +90,43 @@
 @Component
 public class DefaultDiagnosisService implements DiagnosisService, Initializable
 {
+    /** The setting deciding whether the model is set up in a background thread. */
+    private static final String BACKGROUND_SETUP_KEY = "phenotips.diagnosis.backgroundSetup";
+
+    /** The setting deciding whether a warm-up query is run once the model is set up. */
+    private static final String WARMUP_KEY = "phenotips.diagnosis.warmup";
+
+    /** The prefix of the files holding the extracted BOQA data. */
+    private static final String DATA_FILE_PREFIX = "phenotips_boqa_";
+
+    /** The suffix of the files holding the extracted BOQA data. */
+    private static final String DATA_FILE_SUFFIX = ".tmp";
+
+    /** A broad phenotype, used for the warm-up query. */
+    private static final String WARMUP_PHENOTYPE = "HP:0000118";
+
+    /** How BOQA identifies OMIM disorders. */
+    private static final String BOQA_OMIM_PREFIX = "OMIM:";
+
+    /** The identifier of the OMIM vocabulary. */
+    private static final String OMIM_PREFIX = "MIM";
+
+    /** Names of disorders that shouldn't be suggested, i.e. genes and phenotypes with uncertain molecular basis. */
+    private static final Pattern EXCLUDED_NAMES = Pattern.compile("[*+^]");
+
+    /** How many extra candidates to rank, to make up for the ones that will be discarded. */
+    private static final int CANDIDATES_MARGIN = 20;
+
     @Inject
     private Logger logger;
 
     private BOQA boqa;
 
-    private Map<Integer, ByteString> omimMap;
+    /** The OMIM identifiers of the disorders known to BOQA, indexed by their BOQA index; {@code null} for non-OMIM. */
+    private String[] omimIds;
+
+    /** How many OMIM disorders are known to BOQA. */
+    private int omimCount;
 
     @Inject
     private VocabularyManager vocabulary;
@@ -79,9 +137,40 @@ public class DefaultDiagnosisService implements DiagnosisService, Initializable
     @Inject
     private Utils utils;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Sets up the model, completes once the model is ready to be used. */
+    private FutureTask<Void> setup;
+
     @Override
     public void initialize() throws InitializationException
     {
+        boolean background = !Boolean.FALSE.equals(this.configuration.getProperty(BACKGROUND_SETUP_KEY, Boolean.class));
+        final boolean warmup = !Boolean.FALSE.equals(this.configuration.getProperty(WARMUP_KEY, Boolean.class));
+        this.setup = new FutureTask<>(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws InitializationException
+            {
+                setupModel(warmup);
+                return null;
+            }
+        });
+        if (background) {
+            Thread thread = new Thread(this.setup, "BOQA model setup");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            this.setup.run();
+            awaitModel();
+        }
+    }
+
+    private void setupModel(boolean warmup) throws InitializationException
+    {
+        long start = System.currentTimeMillis();
         // Initialize boqa
         this.boqa = new BOQA();
         this.boqa.setConsiderFrequenciesOnly(false);
@@ -95,11 +184,8 @@ public void initialize() throws InitializationException
         String annotationPath = null;
         String vocabularyPath = null;
         try {
-            annotationPath =
-                stream2file(BOQA.class.getClassLoader().getResourceAsStream("new_phenotype.gz"), "annotation")
-                    .getPath();
-            vocabularyPath =
-                stream2file(BOQA.class.getClassLoader().getResourceAsStream("hp.obo.gz"), "ontology").getPath();
+            annotationPath = extractResource("new_phenotype.gz", "annotation").getPath();
+            vocabularyPath = extractResource("hp.obo.gz", "ontology").getPath();
         } catch (IOException e) {
             throw new InitializationException(e.getMessage());
         }
@@ -117,10 +203,48 @@ public void initialize() throws InitializationException
 
         // Set up our index -> OMIM mapping by flipping the OMIM -> Index mapping in boqa
         Set<Map.Entry<ByteString, Integer>> omimtonum = this.boqa.item2Index.entrySet();
-        this.omimMap = new HashMap<>(omimtonum.size());
-
+        int maxIndex = -1;
         for (Map.Entry<ByteString, Integer> item : omimtonum) {
-            this.omimMap.put(item.getValue(), item.getKey());
+            maxIndex = Math.max(maxIndex, item.getValue());
+        }
+        String[] ids = new String[maxIndex + 1];
+        int count = 0;
+        for (Map.Entry<ByteString, Integer> item : omimtonum) {
+            String termId = String.valueOf(item.getKey());
+            // only keep OMIM diseases, and only their numeric identifier, as used in the OMIM vocabulary
+            if (termId.startsWith(BOQA_OMIM_PREFIX)) {
+                ids[item.getValue()] = termId.substring(BOQA_OMIM_PREFIX.length());
+                ++count;
+            }
+        }
+        this.omimIds = ids;
+        this.omimCount = count;
+
+        if (warmup) {
+            // Exercise the model once, so that the first real request doesn't pay for lazy initializations
+            Observations o = new Observations();
+            o.observations = new boolean[this.boqa.getOntology().getNumberOfTerms()];
+            if (addTermAndAncestors(this.boqa.getOntology().getTerm(WARMUP_PHENOTYPE), o)) {
+                this.boqa.assignMarginals(o, false, 1);
+            }
+        }
+        this.logger.info("BOQA model ready in [{}] ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Waits until the model is set up.
+     *
+     * @throws InitializationException if setting up the model failed
+     */
+    private void awaitModel() throws InitializationException
+    {
+        try {
+            this.setup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InitializationException("Interrupted while waiting for the BOQA model", e);
+        } catch (ExecutionException e) {
+            throw new InitializationException(e.getCause().getMessage(), e.getCause());
         }
     }
 
@@ -128,9 +252,77 @@ public void initialize() throws InitializationException
     public List<VocabularyTerm> getDiagnosis(List<String> phenotypes, List<String> nonstandardPhenotypes, int limit)
     {
         // TODO: use the `nonstandardPhenotypes` argument
+        List<VocabularyTerm> results = getDiagnoses(Collections.singletonList(phenotypes), limit).get(0);
+        this.logger.debug(String.valueOf(results));
+        return results;
+    }
+
+    @Override
+    public List<List<VocabularyTerm>> getDiagnoses(List<List<String>> phenotypes, int limit)
+    {
+        List<List<VocabularyTerm>> results = new ArrayList<>(phenotypes.size());
+        try {
+            awaitModel();
+        } catch (InitializationException e) {
+            this.logger.error("The BOQA model is not available: {}", e.getMessage());
+            for (int i = 0; i < phenotypes.size(); ++i) {
+                results.add(Collections.<VocabularyTerm>emptyList());
+            }
+            return results;
+        }
 
+        // The working state is shared by all the patients in the batch
         Observations o = new Observations();
         o.observations = new boolean[this.boqa.getOntology().getNumberOfTerms()];
+        TopScores top = new TopScores();
+        int window = limit > 0 ? Math.min(this.omimCount, limit + CANDIDATES_MARGIN) : 0;
+
+        // Rank the candidates for all the patients first, so that they can be resolved together
+        List<BOQA.Result> marginals = new ArrayList<>(phenotypes.size());
+        List<int[]> candidates = new ArrayList<>(phenotypes.size());
+        Set<String> toResolve = new HashSet<>();
+        for (List<String> patientPhenotypes : phenotypes) {
+            BOQA.Result res = computeMarginals(patientPhenotypes, o);
+            int[] ranked = res == null ? new int[0] : rank(res, window, top);
+            marginals.add(res);
+            candidates.add(ranked);
+            for (int index : ranked) {
+                toResolve.add(this.omimIds[index]);
+            }
+        }
+        Map<String, VocabularyTerm> resolved = new HashMap<>();
+        resolve(toResolve, resolved);
+
+        for (int i = 0; i < phenotypes.size(); ++i) {
+            int[] ranked = candidates.get(i);
+            List<VocabularyTerm> patientResults = collect(ranked, resolved, limit);
+            // Some candidates may have been discarded, look further down the ranking if needed
+            int patientWindow = window;
+            while (marginals.get(i) != null && patientResults.size() < limit && patientWindow < this.omimCount) {
+                patientWindow = Math.min(this.omimCount, patientWindow * 2);
+                ranked = rank(marginals.get(i), patientWindow, top);
+                toResolve.clear();
+                for (int index : ranked) {
+                    toResolve.add(this.omimIds[index]);
+                }
+                resolve(toResolve, resolved);
+                patientResults = collect(ranked, resolved, limit);
+            }
+            results.add(patientResults);
+        }
+        return results;
+    }
+
+    /**
+     * Computes the marginal probabilities of all the disorders given a set of observed phenotypes.
+     *
+     * @param phenotypes the observed phenotypes
+     * @param o reusable working space for the observations
+     * @return the marginals, or {@code null} if none of the phenotypes is known to BOQA
+     */
+    private BOQA.Result computeMarginals(List<String> phenotypes, Observations o)
+    {
+        Arrays.fill(o.observations, false);
         boolean searchIsEmpty = true;
 
         // Add all hpo terms with ancestors to array of booleans
@@ -140,71 +332,75 @@ public List<VocabularyTerm> getDiagnosis(List<String> phenotypes, List<String> n
         }
 
         if (searchIsEmpty) {
-            return Collections.emptyList();
+            return null;
         }
 
-        // Get marginals
-        final BOQA.Result res = this.boqa.assignMarginals(o, false, 1);
+        return this.boqa.assignMarginals(o, false, 1);
+    }
 
-        // All of this is sorting diseases by marginals
-        Integer[] order = new Integer[res.size()];
-        for (int i = 0; i < order.length; i++) {
-            order[i] = i;
+    /**
+     * Selects the OMIM disorders with the highest marginals.
+     *
+     * @param res the computed marginals
+     * @param k how many disorders to select
+     * @param top reusable selection working space
+     * @return the indices of the selected disorders, in decreasing order of their marginals
+     */
+    private int[] rank(BOQA.Result res, int k, TopScores top)
+    {
+        top.reset(k);
+        int size = Math.min(res.size(), this.omimIds.length);
+        for (int i = 0; i < size; i++) {
+            // ignore non-OMIM diseases (BOQA has ORPHANET and DECIPHER as well)
+            if (this.omimIds[i] != null) {
+                top.offer(i, res.getMarginal(i));
+            }
         }
+        return top.drain();
+    }
 
-        Arrays.sort(order, new Comparator<Integer>()
-        {
-            @Override
-            public int compare(Integer o1, Integer o2)
-            {
-                if (res.getMarginal(o1) < res.getMarginal(o2)) {
-                    return 1;
-                }
-                if (res.getMarginal(o1) > res.getMarginal(o2)) {
-                    return -1;
+    /**
+     * Resolves OMIM terms with a single vocabulary query, skipping the ones already resolved.
+     *
+     * @param ids the OMIM identifiers to resolve
+     * @param resolved the terms resolved so far, updated with the newly resolved terms; identifiers which can't be
+     *            resolved are mapped to {@code null}
+     */
+    private void resolve(Set<String> ids, Map<String, VocabularyTerm> resolved)
+    {
+        ids.removeAll(resolved.keySet());
+        if (ids.isEmpty()) {
+            return;
+        }
+        Vocabulary omim = this.vocabulary.getVocabulary(OMIM_PREFIX);
+        if (omim != null) {
+            for (VocabularyTerm term : omim.getTerms(ids)) {
+                if (term != null) {
+                    resolved.put(StringUtils.removeStart(term.getId(), OMIM_PREFIX + ':'), term);
                 }
-                return 0;
             }
-        });
+        }
+        for (String id : ids) {
+            if (!resolved.containsKey(id)) {
+                this.logger.warn("Unable to resolve OMIM term [{}] due to outdated OMIM vocabulary.", id);
+                resolved.put(id, null);
+            }
+        }
+    }
 
-        // Get top limit results
+    private List<VocabularyTerm> collect(int[] ranked, Map<String, VocabularyTerm> resolved, int limit)
+    {
         List<VocabularyTerm> results = new ArrayList<>();
-        for (int id : order) {
+        for (int index : ranked) {
             if (results.size() >= limit) {
                 break;
             }
-
-            String termId = String.valueOf(this.omimMap.get(id));
-            String vocabularyId = StringUtils.substringBefore(termId, ":");
-
-            // ignore non-OMIM diseases (BOQA has ORPHANIET and DECIPHER as well)
-            if (!"OMIM".equals(vocabularyId)) {
-                continue;
-            }
-
-            // Strip 'O' in "OMIM"
-            termId = termId.substring(1);
-
-            VocabularyTerm term = this.vocabulary.resolveTerm(termId);
-
-            if (term == null) {
-                this.logger.warn(String.format(
-                    "Unable to resolve OMIM term '%s' due to outdated OMIM vocabulary.", termId));
-                continue;
-            }
-
+            VocabularyTerm term = resolved.get(this.omimIds[index]);
             // Do not suggest diseases that start with *, +, and ^
-            Pattern pattern = Pattern.compile("[*+^]");
-            if (pattern.matcher(term.getName().substring(0, 1)).matches()) {
-                continue;
+            if (term != null && (term.getName() == null || !EXCLUDED_NAMES.matcher(term.getName()).lookingAt())) {
+                results.add(term);
             }
-
-            results.add(term);
-
         }
-
-        this.logger.debug(String.valueOf(results));
-
         return results;
     }
 
@@ -222,26 +418,113 @@ private boolean addTermAndAncestors(Term t, Observations o)
     }
 
     /**
-     * Convert a stream into a file.
+     * Extract a data file bundled with BOQA into a file. The file is kept in the permanent directory, if available, and
+     * is reused by later startups as long as the bundled resource doesn't change. The checksum of the resource is part
+     * of the file name, and the file is written under a temporary name and then renamed, so a file with the expected
+     * name is always a complete copy of the current resource.
      *
-     * @param in an inputstream
+     * @param resourceName the name of the bundled resource
+     * @param nameRoot a short name for the extracted file
      * @return a File
      * @throws IOException when we can't open file
      */
-    private File stream2file(InputStream in, String nameRoot) throws IOException
+    private File extractResource(String resourceName, String nameRoot) throws IOException
     {
-        File tempDir = this.env.getTemporaryDirectory();
-        final File tempFile;
-        if (tempDir != null) {
-            tempFile = new File(tempDir, String.format("phenotips_boqa_%s.tmp", nameRoot));
+        URL resource = BOQA.class.getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new IOException(String.format("Missing BOQA data file %s", resourceName));
+        }
+
+        File dataDir = this.env.getPermanentDirectory();
+        if (dataDir != null) {
+            dataDir = new File(dataDir, "boqa");
+            dataDir.mkdirs();
         } else {
-            tempFile = File.createTempFile("phenotips_boqa", ".tmp");
+            dataDir = this.env.getTemporaryDirectory();
+        }
+        if (dataDir == null) {
+            File dataFile = File.createTempFile(DATA_FILE_PREFIX, DATA_FILE_SUFFIX);
+            dataFile.deleteOnExit();
+            copy(resource, dataFile);
+            return dataFile;
+        }
+
+        String prefix = DATA_FILE_PREFIX + nameRoot + '_';
+        File dataFile = new File(dataDir, prefix + Long.toHexString(getChecksum(resource)) + DATA_FILE_SUFFIX);
+        if (!dataFile.isFile()) {
+            File partialFile = File.createTempFile(prefix, ".part", dataDir);
+            try {
+                copy(resource, partialFile);
+                move(partialFile, dataFile);
+            } finally {
+                Files.deleteIfExists(partialFile.toPath());
+            }
+            removeOutdatedFiles(dataDir, prefix, dataFile);
         }
-        tempFile.deleteOnExit();
+        return dataFile;
+    }
 
-        FileOutputStream out = new FileOutputStream(tempFile);
-        IOUtils.copy(in, out);
+    /**
+     * Computes the CRC-32 checksum of a bundled resource. For resources inside a JAR, the checksum is read from the JAR
+     * directory, otherwise it is computed from the resource content.
+     *
+     * @param resource the resource to check
+     * @return the checksum of the uncompressed resource content
+     * @throws IOException if reading the resource fails
+     */
+    private long getChecksum(URL resource) throws IOException
+    {
+        URLConnection connection = resource.openConnection();
+        if (connection instanceof JarURLConnection) {
+            connection.setUseCaches(false);
+            try (JarFile jar = ((JarURLConnection) connection).getJarFile()) {
+                JarEntry entry = jar.getJarEntry(((JarURLConnection) connection).getEntryName());
+                if (entry != null && entry.getCrc() != -1) {
+                    return entry.getCrc();
+                }
+            }
+        }
+        try (CheckedInputStream in = new CheckedInputStream(resource.openStream(), new CRC32())) {
+            IOUtils.copy(in, new NullOutputStream());
+            return in.getChecksum().getValue();
+        }
+    }
 
-        return tempFile;
+    private void copy(URL resource, File target) throws IOException
+    {
+        try (InputStream in = resource.openStream(); FileOutputStream out = new FileOutputStream(target)) {
+            IOUtils.copy(in, out);
+        }
+    }
+
+    private void move(File source, File target) throws IOException
+    {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the files extracted from older versions of a resource.
+     *
+     * @param dataDir the directory holding the extracted files
+     * @param prefix the prefix of the files extracted from the resource
+     * @param current the file extracted from the current version of the resource, which must be kept
+     */
+    private void removeOutdatedFiles(File dataDir, String prefix, File current)
+    {
+        File[] files = dataDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(DATA_FILE_SUFFIX) && !file.equals(current)
+                && !file.delete()) {
+                this.logger.debug("Failed to delete outdated BOQA data file [{}]", file);
+            }
+        }
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+/**
+ * Selects the indices of the {@code k} highest scores out of a larger set, without sorting or boxing all of them. The
+ * selection uses a bounded min-heap over primitive arrays, so it needs {@code O(n log k)} time and {@code O(k)} memory.
+ * Among equal scores, lower indices are preferred, which gives the same order as a stable descending sort. An instance
+ * can be reused for several selections, but is not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class TopScores
+{
+    private int[] indices = new int[0];
+
+    private double[] scores = new double[0];
+
+    private int size;
+
+    private int capacity;
+
+    /**
+     * Starts a new selection, discarding the previous one.
+     *
+     * @param k the number of top scores to keep
+     */
+    public void reset(int k)
+    {
+        if (this.indices.length < k) {
+            this.indices = new int[k];
+            this.scores = new double[k];
+        }
+        this.capacity = k;
+        this.size = 0;
+    }
+
+    /**
+     * Offers a candidate. The candidates must be offered in increasing index order.
+     *
+     * @param index the index of the candidate
+     * @param score the score of the candidate
+     */
+    public void offer(int index, double score)
+    {
+        if (this.capacity == 0) {
+            return;
+        }
+        if (this.size < this.capacity) {
+            this.indices[this.size] = index;
+            this.scores[this.size] = score;
+            siftUp(this.size++);
+        } else if (score > this.scores[0]) {
+            // Since indices are increasing, a candidate with a score equal to the worst kept score is not better
+            this.indices[0] = index;
+            this.scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the selected indices, ordered by decreasing score. This empties the selection.
+     *
+     * @return an array with at most {@code k} indices
+     */
+    public int[] drain()
+    {
+        int[] result = new int[this.size];
+        for (int i = this.size - 1; i >= 0; --i) {
+            result[i] = this.indices[0];
+            --this.size;
+            if (this.size > 0) {
+                this.indices[0] = this.indices[this.size];
+                this.scores[0] = this.scores[this.size];
+                siftDown(0);
+            }
+        }
+        return result;
+    }
+
+    /** Whether the element at position {@code a} should be dropped before the one at position {@code b}. */
+    private boolean isWorse(int a, int b)
+    {
+        return this.scores[a] < this.scores[b] || this.scores[a] == this.scores[b] && this.indices[a] > this.indices[b];
+    }
+
+    private void siftUp(int position)
+    {
+        int child = position;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (!isWorse(child, parent)) {
+                break;
+            }
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int position)
+    {
+        int parent = position;
+        while (true) {
+            int worst = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < this.size && isWorse(left, worst)) {
+                worst = left;
+            }
+            if (right < this.size && isWorse(right, worst)) {
+                worst = right;
+            }
+            if (worst == parent) {
+                return;
+            }
+            swap(parent, worst);
+            parent = worst;
+        }
+    }
+
+    private void swap(int a, int b)
+    {
+        int index = this.indices[a];
+        this.indices[a] = this.indices[b];
+        this.indices[b] = index;
+        double score = this.scores[a];
+        this.scores[a] = this.scores[b];
+        this.scores[b] = score;
+    }
+}
@@ -18,6 +18,7 @@
 package org.phenotips.diagnosis.internal;
 
 import org.phenotips.diagnosis.DiagnosisService;
+import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -29,26 +30,40 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import sonumina.boqa.calculation.BOQA;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 /**
  * Tests the validity of the results returned by BOQA.
@@ -63,6 +78,9 @@
     public final MockitoComponentMockingRule<Utils> workingUtils =
         new MockitoComponentMockingRule<Utils>(BoqaUtils.class);
 
+    @Rule
+    public final TemporaryFolder permanentDirectory = new TemporaryFolder();
+
     @Test
     public void returnsCorrectDiagnosis() throws ComponentLookupException, IOException, InterruptedException
     {
@@ -75,23 +93,23 @@ public void returnsCorrectDiagnosis() throws ComponentLookupException, IOExcepti
         disorderIds.add(Arrays.asList(new String[0]));
         phenotypes.add(
             Arrays.asList("HP:0000028", "HP:0000049", "HP:0000202", "HP:0000204", "HP:0000316", "HP:0001869"));
-        disorderIds.add(Arrays.asList("MIM:100050"));
+        disorderIds.add(Arrays.asList("100050"));
         phenotypes.add(
             Arrays.asList("HP:0000707", "HP:0001939", "HP:0003811"));
-        disorderIds.add(Arrays.asList("MIM:306300"));
+        disorderIds.add(Arrays.asList("306300"));
         phenotypes.add(Arrays.asList("HP:0001417", "HP:0001287"));
-        disorderIds.add(Arrays.asList("MIM:308250"));
+        disorderIds.add(Arrays.asList("308250"));
         /* Harder tests */
         phenotypes.add(Arrays.asList("HP:0001419", "HP:0001939", "HP:0001005"));
-        disorderIds.add(Arrays.asList("MIM:308600"));
+        disorderIds.add(Arrays.asList("308600"));
         phenotypes.add(Arrays.asList("HP:0011495", "HP:0000502", "HP:0001005", "HP:0000534"));
-        disorderIds.add(Arrays.asList("MIM:308800"));
+        disorderIds.add(Arrays.asList("308800"));
         /* An empty/invalid HPO term will fail to find a boqa index and should be handled correctly */
         phenotypes.add(Arrays.asList("HP:"));
         disorderIds.add(Arrays.asList(new String[0]));
         phenotypes.add(
             Arrays.asList("HP:0000028", "HP:0000049", "HP:", "HP:0000202", "HP:0000204", "HP:0000316", "HP:0001869"));
-        disorderIds.add(Arrays.asList("MIM:100050"));
+        disorderIds.add(Arrays.asList("100050"));
 
         int invalidPhenotypes = 2;
 
@@ -114,18 +132,23 @@ public void returnsCorrectDiagnosis() throws ComponentLookupException, IOExcepti
         doReturn(tempSpy).when(utilsEnv).getTemporaryDirectory();
         workingUtilsComponent.loadDataFiles(vocabularyPath, annotationPath);
 
-        doAnswer(new Answer<VocabularyTerm>()
+        Vocabulary omim = mock(Vocabulary.class);
+        doAnswer(new Answer<Set<VocabularyTerm>>()
         {
             @Override
-            public VocabularyTerm answer(InvocationOnMock invocationOnMock) throws Throwable
+            public Set<VocabularyTerm> answer(InvocationOnMock invocationOnMock) throws Throwable
             {
-                String id = (String) invocationOnMock.getArguments()[0];
-                VocabularyTerm term = mock(VocabularyTerm.class);
-                doReturn(id).when(term).getId();
-                doReturn("test").when(term).getName();
-                return term;
+                Set<VocabularyTerm> result = new LinkedHashSet<>();
+                for (Object id : (Collection<?>) invocationOnMock.getArguments()[0]) {
+                    VocabularyTerm term = mock(VocabularyTerm.class);
+                    doReturn(id).when(term).getId();
+                    doReturn("test").when(term).getName();
+                    result.add(term);
+                }
+                return result;
             }
-        }).when(vocabulary).resolveTerm(anyString());
+        }).when(omim).getTerms(anyCollectionOf(String.class));
+        doReturn(omim).when(vocabulary).getVocabulary("MIM");
 
         doReturn(tempSpy).when(env).getTemporaryDirectory();
         doReturn(workingUtilsComponent.getGraph()).when(utils).getGraph();
@@ -145,7 +168,70 @@ public VocabularyTerm answer(InvocationOnMock invocationOnMock) throws Throwable
             assertTrue(diagnosisIds.containsAll(disorderIds.get(i)));
             i++;
         }
-        verify(vocabulary, times(limit * (i - invalidPhenotypes))).resolveTerm(anyString());
+        // Only the top candidates of each valid query are resolved, with a single call
+        verify(omim, times(i - invalidPhenotypes)).getTerms(anyCollectionOf(String.class));
+        verify(vocabulary, never()).resolveTerm(anyString());
+
+        // Batched diagnoses give the same results, resolving all the candidates together
+        List<List<VocabularyTerm>> batch = diagnosisService.getDiagnoses(phenotypes, limit);
+        assertEquals(phenotypes.size(), batch.size());
+        for (i = 0; i < phenotypes.size(); ++i) {
+            List<String> diagnosisIds = new LinkedList<>();
+            for (VocabularyTerm diagnosis : batch.get(i)) {
+                diagnosisIds.add(diagnosis.getId());
+            }
+            assertTrue(diagnosisIds.containsAll(disorderIds.get(i)));
+            assertTrue(diagnosisIds.size() <= limit);
+        }
+        verify(omim, times(phenotypes.size() - invalidPhenotypes + 1)).getTerms(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void failedSetupReturnsNoDiagnosis() throws ComponentLookupException, IOException, InterruptedException
+    {
+        Environment env = this.mocker.getInstance(Environment.class);
+        doReturn(new File(System.getProperty("java.io.tmpdir"))).when(env).getTemporaryDirectory();
+        Utils utils = this.mocker.getInstance(Utils.class);
+        doThrow(new IOException("Couldn't open file")).when(utils).loadDataFiles(anyString(), anyString());
+
+        List<VocabularyTerm> diagnoses = this.mocker.getComponentUnderTest()
+            .getDiagnosis(Arrays.asList("HP:0000028"), Collections.<String>emptyList(), 3);
+        assertTrue(diagnoses.isEmpty());
+        verifyZeroInteractions(this.mocker.getInstance(VocabularyManager.class));
+    }
+
+    @Test
+    public void extractedDataFilesAreNamedAfterTheirChecksum() throws Exception
+    {
+        File boqaDir = this.permanentDirectory.newFolder("boqa");
+        File outdated = new File(boqaDir, "phenotips_boqa_annotation_0.tmp");
+        FileUtils.writeStringToFile(outdated, "outdated", "UTF-8");
+        Environment env = this.mocker.getInstance(Environment.class);
+        doReturn(this.permanentDirectory.getRoot()).when(env).getPermanentDirectory();
+        final List<String> paths = new ArrayList<>();
+        Utils utils = this.mocker.getInstance(Utils.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                paths.add((String) invocation.getArguments()[1]);
+                throw new IOException("Stop after extracting the data files");
+            }
+        }).when(utils).loadDataFiles(anyString(), anyString());
+
+        this.mocker.getComponentUnderTest().getDiagnosis(Arrays.asList("HP:0000028"),
+            Collections.<String>emptyList(), 3);
+
+        assertFalse(outdated.exists());
+        File annotation = new File(paths.get(0));
+        assertEquals(boqaDir, annotation.getParentFile());
+        assertTrue(annotation.getName().matches("phenotips_boqa_annotation_[0-9a-f]+\\.tmp"));
+        try (InputStream expected = BOQA.class.getClassLoader().getResourceAsStream("new_phenotype.gz")) {
+            assertArrayEquals(IOUtils.toByteArray(expected), FileUtils.readFileToByteArray(annotation));
+        }
+        // Only the annotation and the ontology files remain, no partially written file is left behind
+        assertEquals(2, boqaDir.list().length);
     }
 
     private File stream2file(InputStream in) throws IOException
@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.diagnosis.internal;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TopScores}.
+ */
+public class TopScoresTest
+{
+    @Test
+    public void selectsHighestScoresInDecreasingOrder()
+    {
+        TopScores top = new TopScores();
+        top.reset(3);
+        double[] scores = { 0.1, 0.7, 0.3, 0.9, 0.05, 0.5 };
+        for (int i = 0; i < scores.length; ++i) {
+            top.offer(i, scores[i]);
+        }
+        Assert.assertArrayEquals(new int[] { 3, 1, 5 }, top.drain());
+    }
+
+    @Test
+    public void tiesPreferLowerIndices()
+    {
+        TopScores top = new TopScores();
+        top.reset(2);
+        top.offer(0, 0.5);
+        top.offer(1, 0.5);
+        top.offer(2, 0.5);
+        top.offer(3, 0.6);
+        Assert.assertArrayEquals(new int[] { 3, 0 }, top.drain());
+    }
+
+    @Test
+    public void returnsFewerResultsWhenNotEnoughCandidates()
+    {
+        TopScores top = new TopScores();
+        top.reset(5);
+        top.offer(4, 0.2);
+        top.offer(7, 0.4);
+        Assert.assertArrayEquals(new int[] { 7, 4 }, top.drain());
+        top.reset(0);
+        top.offer(1, 1.0);
+        Assert.assertEquals(0, top.drain().length);
+    }
+
+    @Test
+    public void matchesStableSort()
+    {
+        Random random = new Random(42);
+        final double[] scores = new double[1000];
+        for (int i = 0; i < scores.length; ++i) {
+            // few distinct values, to get many ties
+            scores[i] = random.nextInt(50) / 50.0;
+        }
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return Double.compare(scores[o2], scores[o1]);
+            }
+        });
+
+        TopScores top = new TopScores();
+        for (int k : new int[] { 1, 10, 100, 1000 }) {
+            top.reset(k);
+            for (int i = 0; i < scores.length; ++i) {
+                top.offer(i, scores[i]);
+            }
+            int[] result = top.drain();
+            Assert.assertEquals(k, result.length);
+            for (int i = 0; i < k; ++i) {
+                Assert.assertEquals(order[i].intValue(), result[i]);
+            }
+        }
+    }
+}
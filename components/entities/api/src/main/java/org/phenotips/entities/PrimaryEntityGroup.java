@@ -83,4 +83,26 @@
      *         operation failed
      */
     boolean removeMember(E member);
+
+    /**
+     * Adds several members to the group at once. This is much faster than {@link #addMember(PrimaryEntity) adding} each
+     * member separately, since the changes are saved together whenever the storage allows it.
+     *
+     * @param members the members to add to the group
+     * @return {@code true} if all the members were successfully added, or were already members, {@code false} if the
+     *         operation failed for at least one member
+     * @since 1.3
+     */
+    boolean addAllMembers(Collection<E> members);
+
+    /**
+     * Removes several members from the group at once. This is much faster than {@link #removeMember(PrimaryEntity)
+     * removing} each member separately, since the changes are saved together whenever the storage allows it.
+     *
+     * @param members the members to remove from the group
+     * @return {@code true} if all the members were successfully removed, or weren't members, {@code false} if the
+     *         operation failed for at least one member
+     * @since 1.3
+     */
+    boolean removeAllMembers(Collection<E> members);
 }
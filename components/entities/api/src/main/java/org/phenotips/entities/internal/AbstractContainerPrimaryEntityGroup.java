@@ -29,7 +29,7 @@
 import org.xwiki.stability.Unstable;
 
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -77,9 +77,8 @@ protected AbstractContainerPrimaryEntityGroup(XWikiDocument document)
     }
 
     @Override
-    public Collection<E> getMembersOfType(EntityReference type)
+    protected List<String> getMemberIds(EntityReference type)
     {
-        Collection<E> result = new LinkedList<>();
         try {
             StringBuilder hql = new StringBuilder();
             hql.append("select distinct binding.name from BaseObject binding, StringProperty groupReference");
@@ -98,15 +97,14 @@ public Collection<E> getMembersOfType(EntityReference type)
             q.bindValue("memberClass", getLocalSerializer().serialize(getMembershipClass()));
             q.bindValue("referenceProperty", getMembershipProperty());
             q.bindValue("selfReference", getFullSerializer().serialize(getDocument()));
-            q.bindValue("entityType", getLocalSerializer().serialize(type));
-            List<String> memberIds = q.execute();
-            for (String memberId : memberIds) {
-                result.add(this.membersManager.get(memberId));
+            if (type != null) {
+                q.bindValue("entityType", getLocalSerializer().serialize(type));
             }
+            return q.execute();
         } catch (QueryException ex) {
             this.logger.warn("Failed to query members: {}", ex.getMessage());
         }
-        return result;
+        return Collections.emptyList();
     }
 
     @Override
@@ -148,6 +146,67 @@ public boolean removeMember(E member)
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the members are added to the group document, which is then saved only once.
+     * </p>
+     */
+    @Override
+    public boolean addAllMembers(Collection<E> members)
+    {
+        try {
+            int added = 0;
+            for (E member : members) {
+                String memberReference = getFullSerializer().serialize(member.getDocument());
+                if (this.document.getXObject(getMembershipClass(), getMembershipProperty(), memberReference,
+                    false) == null) {
+                    BaseObject obj = this.document.newXObject(getMembershipClass(), getXContext());
+                    obj.setStringValue(getMembershipProperty(), memberReference);
+                    ++added;
+                }
+            }
+            if (added > 0) {
+                getXContext().getWiki().saveDocument(this.document, "Added " + added + " members", true,
+                    getXContext());
+            }
+            return true;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to add members to group: {}", ex.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the members are removed from the group document, which is then saved only once.
+     * </p>
+     */
+    @Override
+    public boolean removeAllMembers(Collection<E> members)
+    {
+        try {
+            int removed = 0;
+            for (E member : members) {
+                BaseObject obj = this.document.getXObject(getMembershipClass(), getMembershipProperty(),
+                    getFullSerializer().serialize(member.getDocument()), false);
+                if (obj != null) {
+                    this.document.removeXObject(obj);
+                    ++removed;
+                }
+            }
+            if (removed > 0) {
+                getXContext().getWiki().saveDocument(this.document, "Removed " + removed + " members", true,
+                    getXContext());
+            }
+            return true;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to remove members from group: {}", ex.getMessage());
+        }
+        return false;
+    }
+
     @Override
     protected EntityReference getMembershipClass()
     {
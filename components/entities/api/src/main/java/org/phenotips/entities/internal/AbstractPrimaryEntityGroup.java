@@ -31,12 +31,17 @@
 import org.xwiki.query.QueryManager;
 import org.xwiki.stability.Unstable;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
@@ -71,6 +76,9 @@
 public abstract class AbstractPrimaryEntityGroup<E extends PrimaryEntity>
     extends AbstractPrimaryEntity implements PrimaryEntityGroup<E>
 {
+    /** How many member documents are fetched with one store search. */
+    protected static final int LOAD_PAGE_SIZE = 100;
+
     protected final PrimaryEntityManager<E> membersManager;
 
     protected AbstractPrimaryEntityGroup(XWikiDocument document)
@@ -108,7 +116,74 @@ public Collection<E> getMembers()
     @Override
     public Collection<E> getMembersOfType(EntityReference type)
     {
-        Collection<E> result = new LinkedList<>();
+        return loadMembers(getMemberIds(type));
+    }
+
+    @Override
+    public boolean addMember(E member)
+    {
+        DocumentAccessBridge dab = getDocumentAccessBridge();
+        return dab != null && addMembership(member, dab);
+    }
+
+    @Override
+    public boolean removeMember(E member)
+    {
+        DocumentAccessBridge dab = getDocumentAccessBridge();
+        return dab != null && removeMembership(member, dab);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Since members declare their membership in their own document, each member document is still saved, but only
+     * once, and only if it wasn't already a member.
+     * </p>
+     */
+    @Override
+    public boolean addAllMembers(Collection<E> members)
+    {
+        DocumentAccessBridge dab = getDocumentAccessBridge();
+        if (dab == null) {
+            return false;
+        }
+        boolean result = true;
+        for (E member : members) {
+            result &= addMembership(member, dab);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Since members declare their membership in their own document, each member document is still saved, but only
+     * once, and only if it was a member.
+     * </p>
+     */
+    @Override
+    public boolean removeAllMembers(Collection<E> members)
+    {
+        DocumentAccessBridge dab = getDocumentAccessBridge();
+        if (dab == null) {
+            return false;
+        }
+        boolean result = true;
+        for (E member : members) {
+            result &= removeMembership(member, dab);
+        }
+        return result;
+    }
+
+    /**
+     * Lists the identifiers of the members of this group, with a single query.
+     *
+     * @param type a reference to an XClass to filter members by; if {@code null}, all members are returned, regardless
+     *            of type
+     * @return the identifiers of the members, may be empty
+     */
+    protected List<String> getMemberIds(EntityReference type)
+    {
         try {
             StringBuilder hql = new StringBuilder();
             hql.append("select distinct binding.name from BaseObject binding, StringProperty groupReference");
@@ -130,22 +205,63 @@ public Collection<E> getMembersOfType(EntityReference type)
             if (type != null) {
                 q.bindValue("entityType", getLocalSerializer().serialize(type));
             }
-            List<String> memberIds = q.execute();
-            for (String memberId : memberIds) {
-                result.add(this.membersManager.get(memberId));
-            }
+            return q.execute();
         } catch (QueryException ex) {
             this.logger.warn("Failed to query members: {}", ex.getMessage());
         }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Loads the members with the given identifiers. The member documents are found with one store search per
+     * {@link #LOAD_PAGE_SIZE} members, and the entities are built from the found documents. The search doesn't filter
+     * out the documents that the current user cannot view, since group membership doesn't depend on the access rights
+     * of the user asking for it. The store still loads each found document on its own, so this saves the queries
+     * for the missing members and the separate lookups of each member, but not the loading of each member document.
+     *
+     * @param memberIds the identifiers of the members to load, the full names of their documents
+     * @return the loaded members, in the same order as the identifiers, skipping the members that don't exist anymore
+     */
+    protected Collection<E> loadMembers(List<String> memberIds)
+    {
+        if (memberIds.isEmpty() || this.membersManager == null) {
+            return Collections.emptyList();
+        }
+        Map<String, E> loaded = new HashMap<>(memberIds.size());
+        try {
+            XWikiContext context = getXContext();
+            for (int start = 0; start < memberIds.size(); start += LOAD_PAGE_SIZE) {
+                List<String> page = memberIds.subList(start, Math.min(memberIds.size(), start + LOAD_PAGE_SIZE));
+                String where = "where doc.fullName in (" + StringUtils.repeat("?", ", ", page.size()) + ')';
+                List<XWikiDocument> documents =
+                    context.getWiki().getStore().searchDocuments(where, true, false, false, 0, 0, page, context);
+                for (XWikiDocument doc : documents) {
+                    try {
+                        E member = this.membersManager.load(doc);
+                        if (member != null) {
+                            loaded.put(doc.getFullName(), member);
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        this.logger.debug("Skipping member [{}] of an unexpected type", doc.getFullName());
+                    }
+                }
+            }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to load members: {}", ex.getMessage());
+        }
+        Collection<E> result = new ArrayList<>(loaded.size());
+        for (String memberId : memberIds) {
+            E member = loaded.get(memberId);
+            if (member != null) {
+                result.add(member);
+            }
+        }
         return result;
     }
 
-    @Override
-    public boolean addMember(E member)
+    private boolean addMembership(E member, DocumentAccessBridge dab)
     {
         try {
-            DocumentAccessBridge dab =
-                ComponentManagerRegistry.getContextComponentManager().getInstance(DocumentAccessBridge.class);
             XWikiDocument doc = (XWikiDocument) dab.getDocument(member.getDocument());
             BaseObject obj = doc.getXObject(getMembershipClass(), getMembershipProperty(),
                 getFullSerializer().serialize(getDocument()), false);
@@ -162,12 +278,9 @@ public boolean addMember(E member)
         return false;
     }
 
-    @Override
-    public boolean removeMember(E member)
+    private boolean removeMembership(E member, DocumentAccessBridge dab)
     {
         try {
-            DocumentAccessBridge dab =
-                ComponentManagerRegistry.getContextComponentManager().getInstance(DocumentAccessBridge.class);
             XWikiDocument doc = (XWikiDocument) dab.getDocument(member.getDocument());
             BaseObject obj = doc.getXObject(getMembershipClass(), getMembershipProperty(),
                 getFullSerializer().serialize(getDocument()), false);
@@ -183,6 +296,16 @@ public boolean removeMember(E member)
         return false;
     }
 
+    private DocumentAccessBridge getDocumentAccessBridge()
+    {
+        try {
+            return ComponentManagerRegistry.getContextComponentManager().getInstance(DocumentAccessBridge.class);
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to access the document access bridge: {}", ex.getMessage(), ex);
+        }
+        return null;
+    }
+
     protected QueryManager getQueryManager()
     {
         try {
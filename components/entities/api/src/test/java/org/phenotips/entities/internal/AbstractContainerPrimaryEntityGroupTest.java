@@ -0,0 +1,291 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.entities.PrimaryEntity;
+import org.phenotips.entities.PrimaryEntityGroup;
+import org.phenotips.entities.PrimaryEntityManager;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.ArgumentMatcher;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AbstractContainerPrimaryEntityGroup} base class, where groups declare the members they contain.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class AbstractContainerPrimaryEntityGroupTest
+{
+    private static final EntityReference GROUP_TYPE =
+        new EntityReference("GroupClass", EntityType.DOCUMENT, new EntityReference("PhenoTips", EntityType.SPACE));
+
+    private static final EntityReference MEMBER_TYPE =
+        new EntityReference("PatientClass", EntityType.DOCUMENT, new EntityReference("PhenoTips", EntityType.SPACE));
+
+    private static final String GROUP = "xwiki:Groups.G1";
+
+    private static final String MEMBER1 = "xwiki:data.P0000001";
+
+    private static final String MEMBER2 = "xwiki:data.P0000002";
+
+    @Mock
+    private ComponentManager cm;
+
+    @Mock
+    private Provider<ComponentManager> cmProvider;
+
+    @Mock
+    private Provider<XWikiContext> contextProvider;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiStoreInterface store;
+
+    @Mock
+    private EntityReferenceSerializer<String> fullSerializer;
+
+    @Mock
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Mock
+    private QueryManager qm;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private PrimaryEntityManager<PrimaryEntity> membersManager;
+
+    @Mock
+    private XWikiDocument groupDocument;
+
+    @Mock
+    private PrimaryEntity member1;
+
+    @Mock
+    private PrimaryEntity member2;
+
+    @Mock
+    private XWikiDocument memberDocument1;
+
+    private DocumentReference memberReference1 = new DocumentReference("xwiki", "data", "P0000001");
+
+    private DocumentReference memberReference2 = new DocumentReference("xwiki", "data", "P0000002");
+
+    private PrimaryEntityGroup<PrimaryEntity> group;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.cmProvider);
+        when(this.cmProvider.get()).thenReturn(this.cm);
+        doReturn(this.contextProvider).when(this.cm).getInstance(XWikiContext.TYPE_PROVIDER);
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getStore()).thenReturn(this.store);
+        doReturn(this.fullSerializer).when(this.cm).getInstance(EntityReferenceSerializer.TYPE_STRING);
+        doReturn(this.localSerializer).when(this.cm).getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        doReturn(this.qm).when(this.cm).getInstance(QueryManager.class);
+        doReturn(this.membersManager).when(this.cm).getInstance(eq(PrimaryEntityManager.class), anyString());
+        when(this.qm.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+
+        DocumentReference groupReference = new DocumentReference("xwiki", "Groups", "G1");
+        when(this.groupDocument.getDocumentReference()).thenReturn(groupReference);
+        when(this.fullSerializer.serialize(groupReference)).thenReturn(GROUP);
+        when(this.member1.getDocument()).thenReturn(this.memberReference1);
+        when(this.member2.getDocument()).thenReturn(this.memberReference2);
+        when(this.fullSerializer.serialize(this.memberReference1)).thenReturn(MEMBER1);
+        when(this.fullSerializer.serialize(this.memberReference2)).thenReturn(MEMBER2);
+        when(this.memberDocument1.getFullName()).thenReturn("data.P0000001");
+
+        this.group = new TestGroup(this.groupDocument);
+    }
+
+    @Test
+    public void addAllMembersSavesGroupOnce() throws Exception
+    {
+        BaseObject existing = mock(BaseObject.class);
+        when(this.groupDocument.getXObject(AbstractContainerPrimaryEntityGroup.GROUP_MEMBER_CLASS,
+            PrimaryEntityGroup.REFERENCE_XPROPERTY, MEMBER1, false)).thenReturn(existing);
+        BaseObject added = mock(BaseObject.class);
+        when(this.groupDocument.newXObject(AbstractContainerPrimaryEntityGroup.GROUP_MEMBER_CLASS, this.context))
+            .thenReturn(added);
+
+        Assert.assertTrue(this.group.addAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(added).setStringValue(PrimaryEntityGroup.REFERENCE_XPROPERTY, MEMBER2);
+        verify(this.groupDocument, times(1)).newXObject(AbstractContainerPrimaryEntityGroup.GROUP_MEMBER_CLASS,
+            this.context);
+        verify(this.xwiki, times(1)).saveDocument(this.groupDocument, "Added 1 members", true, this.context);
+        verify(this.xwiki, times(1)).saveDocument(any(XWikiDocument.class), anyString(), eq(true),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    public void addAllMembersWithExistingMembersDoesntSave() throws Exception
+    {
+        BaseObject existing = mock(BaseObject.class);
+        when(this.groupDocument.getXObject(eq(AbstractContainerPrimaryEntityGroup.GROUP_MEMBER_CLASS),
+            eq(PrimaryEntityGroup.REFERENCE_XPROPERTY), anyString(), eq(false))).thenReturn(existing);
+
+        Assert.assertTrue(this.group.addAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(this.groupDocument, never()).newXObject(any(EntityReference.class), any(XWikiContext.class));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), eq(true),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    public void removeAllMembersSavesGroupOnce() throws Exception
+    {
+        BaseObject existing = mock(BaseObject.class);
+        when(this.groupDocument.getXObject(AbstractContainerPrimaryEntityGroup.GROUP_MEMBER_CLASS,
+            PrimaryEntityGroup.REFERENCE_XPROPERTY, MEMBER1, false)).thenReturn(existing);
+
+        Assert.assertTrue(this.group.removeAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(this.groupDocument, times(1)).removeXObject(existing);
+        verify(this.xwiki, times(1)).saveDocument(this.groupDocument, "Removed 1 members", true, this.context);
+        verify(this.xwiki, times(1)).saveDocument(any(XWikiDocument.class), anyString(), eq(true),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    public void removeAllMembersWithoutMembersDoesntSave() throws Exception
+    {
+        Assert.assertTrue(this.group.removeAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(this.groupDocument, never()).removeXObject(any(BaseObject.class));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), eq(true),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    public void getMembersOfAnyTypeDoesntBindEntityType() throws Exception
+    {
+        doReturn(Collections.emptyList()).when(this.query).execute();
+
+        Assert.assertTrue(this.group.getMembersOfType(null).isEmpty());
+
+        verify(this.qm).createQuery(argThat(new NotContaining(":entityType")), eq(Query.HQL));
+        verify(this.query, never()).bindValue(eq("entityType"), any());
+        verify(this.query).bindValue("selfReference", GROUP);
+    }
+
+    @Test
+    public void getMembersBindsMemberType() throws Exception
+    {
+        when(this.localSerializer.serialize(MEMBER_TYPE)).thenReturn("PhenoTips.PatientClass");
+        doReturn(Arrays.asList("data.P0000001")).when(this.query).execute();
+        when(this.store.searchDocuments(anyString(), anyListOf(Object.class), eq(this.context)))
+            .thenReturn(Arrays.asList(this.memberDocument1));
+        when(this.membersManager.load(this.memberDocument1)).thenReturn(this.member1);
+
+        Assert.assertEquals(Arrays.asList(this.member1), this.group.getMembers());
+
+        verify(this.query).bindValue("entityType", "PhenoTips.PatientClass");
+        verify(this.store, times(1)).searchDocuments(anyString(), anyListOf(Object.class), eq(this.context));
+    }
+
+    private static final class NotContaining extends ArgumentMatcher<String>
+    {
+        private final String fragment;
+
+        NotContaining(String fragment)
+        {
+            this.fragment = fragment;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            return argument instanceof String && !((String) argument).contains(this.fragment);
+        }
+    }
+
+    private static final class TestGroup extends AbstractContainerPrimaryEntityGroup<PrimaryEntity>
+    {
+        TestGroup(XWikiDocument document)
+        {
+            super(document);
+        }
+
+        @Override
+        public EntityReference getType()
+        {
+            return GROUP_TYPE;
+        }
+
+        @Override
+        public EntityReference getMemberType()
+        {
+            return MEMBER_TYPE;
+        }
+
+        @Override
+        public void updateFromJSON(JSONObject json)
+        {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.entities.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.entities.PrimaryEntity;
+import org.phenotips.entities.PrimaryEntityGroup;
+import org.phenotips.entities.PrimaryEntityManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AbstractPrimaryEntityGroup} base class, where members declare the groups they belong to.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class AbstractPrimaryEntityGroupTest
+{
+    private static final EntityReference GROUP_TYPE =
+        new EntityReference("GroupClass", EntityType.DOCUMENT, new EntityReference("PhenoTips", EntityType.SPACE));
+
+    private static final EntityReference MEMBER_TYPE =
+        new EntityReference("PatientClass", EntityType.DOCUMENT, new EntityReference("PhenoTips", EntityType.SPACE));
+
+    private static final String GROUP = "xwiki:Groups.G1";
+
+    @Mock
+    private ComponentManager cm;
+
+    @Mock
+    private Provider<ComponentManager> cmProvider;
+
+    @Mock
+    private Provider<XWikiContext> contextProvider;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiStoreInterface store;
+
+    @Mock
+    private EntityReferenceSerializer<String> fullSerializer;
+
+    @Mock
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Mock
+    private DocumentAccessBridge bridge;
+
+    @Mock
+    private QueryManager qm;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private PrimaryEntityManager<PrimaryEntity> membersManager;
+
+    @Mock
+    private XWikiDocument groupDocument;
+
+    @Mock
+    private PrimaryEntity member1;
+
+    @Mock
+    private PrimaryEntity member2;
+
+    @Mock
+    private XWikiDocument memberDocument1;
+
+    @Mock
+    private XWikiDocument memberDocument2;
+
+    private DocumentReference memberReference1 = new DocumentReference("xwiki", "data", "P0000001");
+
+    private DocumentReference memberReference2 = new DocumentReference("xwiki", "data", "P0000002");
+
+    private PrimaryEntityGroup<PrimaryEntity> group;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.cmProvider);
+        when(this.cmProvider.get()).thenReturn(this.cm);
+        doReturn(this.contextProvider).when(this.cm).getInstance(XWikiContext.TYPE_PROVIDER);
+        when(this.contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getStore()).thenReturn(this.store);
+        doReturn(this.fullSerializer).when(this.cm).getInstance(EntityReferenceSerializer.TYPE_STRING);
+        doReturn(this.localSerializer).when(this.cm).getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        doReturn(this.bridge).when(this.cm).getInstance(DocumentAccessBridge.class);
+        doReturn(this.qm).when(this.cm).getInstance(QueryManager.class);
+        doReturn(this.membersManager).when(this.cm).getInstance(eq(PrimaryEntityManager.class), anyString());
+        when(this.qm.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+
+        DocumentReference groupReference = new DocumentReference("xwiki", "Groups", "G1");
+        when(this.groupDocument.getDocumentReference()).thenReturn(groupReference);
+        when(this.fullSerializer.serialize(groupReference)).thenReturn(GROUP);
+        when(this.member1.getDocument()).thenReturn(this.memberReference1);
+        when(this.member2.getDocument()).thenReturn(this.memberReference2);
+        when(this.bridge.getDocument(this.memberReference1)).thenReturn(this.memberDocument1);
+        when(this.bridge.getDocument(this.memberReference2)).thenReturn(this.memberDocument2);
+        when(this.memberDocument1.getFullName()).thenReturn("data.P0000001");
+        when(this.memberDocument2.getFullName()).thenReturn("data.P0000002");
+
+        this.group = new TestGroup(this.groupDocument);
+    }
+
+    @Test
+    public void addAllMembersOnlySavesNewMembers() throws Exception
+    {
+        BaseObject existing = mock(BaseObject.class);
+        when(this.memberDocument1.getXObject(PrimaryEntityGroup.GROUP_MEMBERSHIP_CLASS,
+            PrimaryEntityGroup.REFERENCE_XPROPERTY, GROUP, false)).thenReturn(existing);
+        BaseObject added = mock(BaseObject.class);
+        when(this.memberDocument2.newXObject(PrimaryEntityGroup.GROUP_MEMBERSHIP_CLASS, this.context))
+            .thenReturn(added);
+
+        Assert.assertTrue(this.group.addAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(added).setStringValue(PrimaryEntityGroup.REFERENCE_XPROPERTY, GROUP);
+        verify(this.xwiki, times(1)).saveDocument(eq(this.memberDocument2), anyString(), eq(true),
+            eq(this.context));
+        verify(this.xwiki, never()).saveDocument(eq(this.memberDocument1), anyString(), eq(true),
+            eq(this.context));
+        verify(this.memberDocument1, never()).newXObject(any(EntityReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void removeAllMembersOnlySavesActualMembers() throws Exception
+    {
+        BaseObject existing = mock(BaseObject.class);
+        when(this.memberDocument1.getXObject(PrimaryEntityGroup.GROUP_MEMBERSHIP_CLASS,
+            PrimaryEntityGroup.REFERENCE_XPROPERTY, GROUP, false)).thenReturn(existing);
+
+        Assert.assertTrue(this.group.removeAllMembers(Arrays.asList(this.member1, this.member2)));
+
+        verify(this.memberDocument1).removeXObject(existing);
+        verify(this.xwiki, times(1)).saveDocument(eq(this.memberDocument1), anyString(), eq(true),
+            eq(this.context));
+        verify(this.xwiki, never()).saveDocument(eq(this.memberDocument2), anyString(), eq(true),
+            eq(this.context));
+    }
+
+    @Test
+    public void getMembersLoadsAllDocumentsTogether() throws Exception
+    {
+        doReturn(Arrays.asList("data.P0000001", "data.P0000002", "data.P0000003")).when(this.query).execute();
+        // The store returns the documents in any order, and skips missing documents
+        when(this.store.searchDocuments(anyString(), eq(true), eq(false), eq(false), eq(0), eq(0),
+            anyListOf(Object.class), eq(this.context)))
+            .thenReturn(Arrays.asList(this.memberDocument2, this.memberDocument1));
+        when(this.membersManager.load(this.memberDocument1)).thenReturn(this.member1);
+        when(this.membersManager.load(this.memberDocument2)).thenReturn(this.member2);
+
+        Collection<PrimaryEntity> members = this.group.getMembers();
+
+        Assert.assertEquals(Arrays.asList(this.member1, this.member2), members);
+        // Members are listed regardless of the access rights of the current user
+        verify(this.store, times(1)).searchDocuments(eq("where doc.fullName in (?, ?, ?)"), eq(true), eq(false),
+            eq(false), eq(0), eq(0), eq(Arrays.asList("data.P0000001", "data.P0000002", "data.P0000003")),
+            eq(this.context));
+        verify(this.membersManager, never()).get(anyString());
+    }
+
+    @Test
+    public void getMembersFetchesDocumentsInPages() throws Exception
+    {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 250; ++i) {
+            ids.add("data.P" + i);
+        }
+        doReturn(ids).when(this.query).execute();
+        when(this.store.searchDocuments(anyString(), eq(true), eq(false), eq(false), eq(0), eq(0),
+            anyListOf(Object.class), eq(this.context)))
+            .thenReturn(Collections.<XWikiDocument>emptyList());
+
+        Assert.assertTrue(this.group.getMembers().isEmpty());
+        verify(this.store, times(3)).searchDocuments(anyString(), eq(true), eq(false), eq(false), eq(0), eq(0),
+            anyListOf(Object.class), eq(this.context));
+    }
+
+    @Test
+    public void getMembersWithoutMembersDoesntFetchDocuments() throws Exception
+    {
+        doReturn(Collections.emptyList()).when(this.query).execute();
+
+        Assert.assertTrue(this.group.getMembers().isEmpty());
+        verify(this.store, never()).searchDocuments(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyInt(),
+            anyInt(), anyListOf(Object.class),
+            any(XWikiContext.class));
+    }
+
+    private static final class TestGroup extends AbstractPrimaryEntityGroup<PrimaryEntity>
+    {
+        TestGroup(XWikiDocument document)
+        {
+            super(document);
+        }
+
+        @Override
+        public EntityReference getType()
+        {
+            return GROUP_TYPE;
+        }
+
+        @Override
+        public EntityReference getMemberType()
+        {
+            return MEMBER_TYPE;
+        }
+
+        @Override
+        public void updateFromJSON(JSONObject json)
+        {
+            // Nothing to do
+        }
+    }
+}
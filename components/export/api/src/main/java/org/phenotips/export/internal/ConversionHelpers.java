@@ -33,7 +33,6 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -116,15 +115,8 @@ public void featureSetUp(Boolean positive, Boolean negative, Boolean mapCategori
         ComponentManager cm = getComponentManager();
         this.ontologyService = cm.getInstance(Vocabulary.class, "hpo");
         PhenotypeMappingService mappingService = cm.getInstance(ScriptService.class, "phenotypeMapping");
-        Object mappingObject = mappingService.get("phenotype");
-        if (mappingObject instanceof List) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, List<String>>> mapping = (List<Map<String, List<String>>>) mappingObject;
-            this.categoryMapping = new LinkedHashMap<>();
-            for (Map<String, List<String>> categoryEntry : mapping) {
-                this.categoryMapping.put(categoryEntry.get("title").toString(), categoryEntry.get("categories"));
-            }
-        } else {
+        this.categoryMapping = mappingService.getSectionCategories("phenotype");
+        if (this.categoryMapping.isEmpty()) {
             throw new Exception("The phenotype category list is not available");
         }
     }
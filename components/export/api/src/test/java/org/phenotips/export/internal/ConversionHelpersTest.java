@@ -29,6 +29,7 @@
 import org.xwiki.script.service.ScriptService;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -92,7 +93,7 @@ public void featureSetUpCategoriesError() throws Exception
 
         doReturn(manager).when(helpersSpy).getComponentManager();
         doReturn(phenotypeMappingService).when(manager).getInstance(eq(ScriptService.class), eq("phenotypeMapping"));
-        doReturn(null).when(phenotypeMappingService).get(anyString());
+        doReturn(Collections.emptyMap()).when(phenotypeMappingService).getSectionCategories("phenotype");
 
         helpersSpy.featureSetUp(true, true, true);
     }
@@ -196,15 +197,13 @@ public void sortFeaturesWithSections() throws Exception
 
         ComponentManager componentManager = mock(ComponentManager.class);
         Vocabulary ontologyService = mock(Vocabulary.class);
-        List<Map<String, List<String>>> mappingObj = new LinkedList<>();
-        List<Map<String, List<String>>> mappingObjSpy = spy(mappingObj);
         PhenotypeMappingService phenotypeMappingService = mock(PhenotypeMappingService.class);
 
         doReturn(componentManager).when(helpersSpy).getComponentManager();
         doReturn(ontologyService).when(componentManager).getInstance(eq(Vocabulary.class), eq("hpo"));
         doReturn(phenotypeMappingService).when(componentManager)
             .getInstance(eq(ScriptService.class), eq("phenotypeMapping"));
-        doReturn(mappingObjSpy).when(phenotypeMappingService).get(anyString());
+        doReturn(mapping).when(phenotypeMappingService).getSectionCategories("phenotype");
         doReturn(mapping).when(helpersSpy).getCategoryMapping();
 
         doReturn(true).when(featureOne).isPresent();
@@ -260,15 +259,13 @@ public void sortFeaturesWithSectionsNewPatientNotCalled() throws Exception
 
         ComponentManager componentManager = mock(ComponentManager.class);
         Vocabulary ontologyService = mock(Vocabulary.class);
-        List<Map<String, List<String>>> mappingObj = new LinkedList<>();
-        List<Map<String, List<String>>> mappingObjSpy = spy(mappingObj);
         PhenotypeMappingService phenotypeMappingService = mock(PhenotypeMappingService.class);
 
         doReturn(componentManager).when(helpersSpy).getComponentManager();
         doReturn(ontologyService).when(componentManager).getInstance(eq(Vocabulary.class), eq("hpo"));
         doReturn(phenotypeMappingService).when(componentManager)
             .getInstance(eq(ScriptService.class), eq("phenotypeMapping"));
-        doReturn(mappingObjSpy).when(phenotypeMappingService).get(anyString());
+        doReturn(mapping).when(phenotypeMappingService).getSectionCategories("phenotype");
         doReturn(mapping).when(helpersSpy).getCategoryMapping();
 
         doReturn(true).when(featureOne).isPresent();
@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.studies.family.Family;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * A unit of work for a pedigree update. All the patient documents affected by the update are loaded only once, all the
+ * changes (data from the pedigree JSON, family references, permissions) are performed on those in-memory documents,
+ * and at the end each modified document, as well as the family document, is saved exactly once.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class PedigreeUpdate
+{
+    private static final String COMMENT_SEPARATOR = "; ";
+
+    private final Family family;
+
+    private final XWikiContext context;
+
+    private final PatientRepository patientRepository;
+
+    private final DocumentReferenceResolver<String> referenceResolver;
+
+    private final Logger logger;
+
+    /** Loaded patient documents, keyed by patient identifier; {@code null} values mark missing patients. */
+    private final Map<String, XWikiDocument> documents = new HashMap<>();
+
+    /** Patients wrapping the loaded documents, keyed by patient identifier. */
+    private final Map<String, Patient> patients = new HashMap<>();
+
+    /** Patient documents which were modified, along with the history comment to use when saving them. */
+    private final Map<String, String> modified = new LinkedHashMap<>();
+
+    /**
+     * Simple constructor passing all the required services.
+     *
+     * @param family the family being updated
+     * @param context the current XWiki context
+     * @param patientRepository used for wrapping the loaded documents into {@link Patient} objects
+     * @param referenceResolver used for resolving patient identifiers into document references
+     * @param logger the logger to use for reporting errors
+     */
+    public PedigreeUpdate(Family family, XWikiContext context, PatientRepository patientRepository,
+        DocumentReferenceResolver<String> referenceResolver, Logger logger)
+    {
+        this.family = family;
+        this.context = context;
+        this.patientRepository = patientRepository;
+        this.referenceResolver = referenceResolver;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the family being updated.
+     *
+     * @return the target family
+     */
+    public Family getFamily()
+    {
+        return this.family;
+    }
+
+    /**
+     * Returns the document of the requested patient, loading it if this is the first time it is requested.
+     *
+     * @param patientId the identifier of the patient
+     * @return the in-memory patient document shared by all the steps of this update, or {@code null} if the patient
+     *         doesn't exist or can't be loaded
+     */
+    public XWikiDocument getDocument(String patientId)
+    {
+        if (StringUtils.isEmpty(patientId)) {
+            return null;
+        }
+        if (!this.documents.containsKey(patientId)) {
+            XWikiDocument document = null;
+            try {
+                DocumentReference reference = this.referenceResolver.resolve(patientId, Patient.DEFAULT_DATA_SPACE);
+                document = this.context.getWiki().getDocument(reference, this.context);
+                if (document.isNew() || document.getXObject(Patient.CLASS_REFERENCE) == null) {
+                    document = null;
+                }
+            } catch (XWikiException ex) {
+                this.logger.error("Can't get patient document for patient [{}]: {}", patientId, ex.getMessage());
+            }
+            this.documents.put(patientId, document);
+        }
+        return this.documents.get(patientId);
+    }
+
+    /**
+     * Returns the requested patient, backed by the shared in-memory {@link #getDocument(String) document}.
+     *
+     * @param patientId the identifier of the patient
+     * @return the patient, or {@code null} if the patient doesn't exist or can't be loaded
+     */
+    public Patient getPatient(String patientId)
+    {
+        Patient patient = this.patients.get(patientId);
+        if (patient == null) {
+            XWikiDocument document = getDocument(patientId);
+            if (document != null) {
+                patient = this.patientRepository.load(document);
+                this.patients.put(patientId, patient);
+            }
+        }
+        return patient;
+    }
+
+    /**
+     * Returns the in-memory documents of the requested patients, skipping the ones that can't be loaded.
+     *
+     * @param patientIds the identifiers of the patients
+     * @return a list of documents, may be empty
+     */
+    public List<XWikiDocument> getDocuments(Collection<String> patientIds)
+    {
+        List<XWikiDocument> result = new ArrayList<>(patientIds.size());
+        for (String patientId : patientIds) {
+            XWikiDocument document = getDocument(patientId);
+            if (document != null) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks a patient document as modified, so that it will be saved when the update is {@link #save(String)
+     * flushed}.
+     *
+     * @param patientId the identifier of the modified patient
+     * @param comment the history comment describing the change
+     */
+    public void markModified(String patientId, String comment)
+    {
+        String previous = this.modified.get(patientId);
+        this.modified.put(patientId, previous == null ? comment : previous + COMMENT_SEPARATOR + comment);
+    }
+
+    /**
+     * Saves all the modified patient documents and the family document, each exactly once. Patient documents are
+     * saved as minor edits, since the pedigree only updates derived data in them, while the family document keeps a
+     * major version for each saved pedigree.
+     *
+     * @param familyComment the history comment to use for the family document
+     * @return {@code true} if all the documents were successfully saved, {@code false} otherwise
+     */
+    public boolean save(String familyComment)
+    {
+        for (Map.Entry<String, String> entry : this.modified.entrySet()) {
+            XWikiDocument document = this.documents.get(entry.getKey());
+            if (document == null) {
+                continue;
+            }
+            try {
+                this.context.getWiki().saveDocument(document, entry.getValue(), true, this.context);
+            } catch (XWikiException ex) {
+                this.logger.error("Error saving patient [{}] document for commit {}: [{}]",
+                    entry.getKey(), entry.getValue(), ex.getMessage());
+                return false;
+            }
+        }
+        this.modified.clear();
+
+        try {
+            this.context.getWiki().saveDocument(this.family.getDocument(), familyComment, this.context);
+        } catch (XWikiException ex) {
+            this.logger.error("Error saving family [{}] document for commit {}: [{}]",
+                this.family.getId(), familyComment, ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
@@ -162,12 +162,35 @@ public void updatePermissions(Family family, XWikiContext context)
     {
         XWiki wiki = context.getWiki();
 
-        List<Patient> members = family.getMembers();
+        List<XWikiDocument> memberDocuments = new ArrayList<>();
+        for (Patient patient : family.getMembers()) {
+            try {
+                memberDocuments.add(wiki.getDocument(patient.getDocument(), context));
+            } catch (XWikiException e) {
+                this.logger.error("Can't retrieve patient document for patient {}: {}",
+                    patient.getId(), e.getMessage());
+            }
+        }
 
-        this.updatePermissionsForOneRightLevel(VIEW_RIGHTS, members, family.getDocument(), wiki, context);
+        this.updatePermissions(family, memberDocuments, context);
+    }
+
+    /**
+     * Same as {@link #updatePermissions(Family, XWikiContext)}, but uses the provided member documents instead of
+     * loading them again from the storage. This is used when the member documents are already loaded, and possibly
+     * modified in memory, for example during a pedigree update.
+     *
+     * @param family to update permissions
+     * @param memberDocuments the documents of all the current family members
+     * @param context XWiki context to be used. The documnt will not be saved to disk, only changes in memory for the
+     *            family document given will be made
+     */
+    public void updatePermissions(Family family, Collection<XWikiDocument> memberDocuments, XWikiContext context)
+    {
+        this.updatePermissionsForOneRightLevel(VIEW_RIGHTS, memberDocuments, family.getDocument(), context);
         // setting view-edit rights after view rights makes sure if a user has edit rights on one patient
         // and view rights on another the user still gets edit permissions for the family
-        this.updatePermissionsForOneRightLevel(VIEWEDIT_RIGHTS, members, family.getDocument(), wiki, context);
+        this.updatePermissionsForOneRightLevel(VIEWEDIT_RIGHTS, memberDocuments, family.getDocument(), context);
 
         DocumentReference creatorReference = family.getDocument().getCreatorReference();
         this.setOwnerPermissionsForUser(creatorReference == null ? "" : creatorReference.toString(),
@@ -184,7 +207,7 @@ private void setOwnerPermissionsForUser(String user, XWikiDocument familyDocumen
     }
 
     private void updatePermissionsForOneRightLevel(String rightsLevel,
-        List<Patient> members, XWikiDocument familyDocument, XWiki wiki, XWikiContext context)
+        Collection<XWikiDocument> memberDocuments, XWikiDocument familyDocument, XWikiContext context)
     {
         BaseObject rightsObject = getOrCreateRightsObject(familyDocument, rightsLevel, context);
         if (rightsObject == null) {
@@ -194,16 +217,7 @@ private void updatePermissionsForOneRightLevel(String rightsLevel,
         Set<String> usersUnion = new HashSet<>();
         Set<String> groupsUnion = new HashSet<>();
 
-        for (Patient patient : members) {
-            XWikiDocument patientDoc;
-            try {
-                patientDoc = wiki.getDocument(patient.getDocument(), context);
-            } catch (XWikiException e) {
-                this.logger.error("Can't retrieve patient document for patient {}: {}",
-                    patient.getId(), e.getMessage());
-                continue;
-            }
-
+        for (XWikiDocument patientDoc : memberDocuments) {
             // TODO: what about users who have VIEW but not EDIT rights?
             List<Set<String>> patientRights = this.getEntitiesWithAccess(patientDoc, rightsLevel);
 
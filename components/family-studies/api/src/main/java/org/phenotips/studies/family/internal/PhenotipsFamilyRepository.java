@@ -20,6 +20,7 @@
 import org.phenotips.Constants;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.internal.PhenoTipsPatient;
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.security.authorization.AuthorizationService;
 import org.phenotips.studies.family.Family;
@@ -232,15 +233,6 @@ public Family getFamilyForPatient(Patient patient)
 
     @Override
     public synchronized void addMember(Family family, Patient patient, User updatingUser) throws PTException
-    {
-        this.addMember(family, patient, updatingUser, false);
-    }
-
-    /**
-     * This method may be called either as a standalone invocation, or internally as part of family pedigree update. The
-     * latter invocation may add multiple patients (a "batch update")
-     */
-    private void addMember(Family family, Patient patient, User updatingUser, boolean batchUpdate) throws PTException
     {
         if (family == null) {
             throw new PTInvalidFamilyIdException(null);
@@ -248,11 +240,7 @@ private void addMember(Family family, Patient patient, User updatingUser, boolea
         if (patient == null) {
             throw new PTInvalidPatientIdException(null);
         }
-        if (!batchUpdate) {
-            // when called as part of a batch update all permissions have already been checked;
-            // otherwise perform the check, which may throw some exceptiuon in case of problems
-            this.checkIfPatientCanBeAddedToFamily(family, patient, updatingUser);
-        }
+        this.checkIfPatientCanBeAddedToFamily(family, patient, updatingUser);
 
         String patientId = patient.getId();
         XWikiContext context = this.provider.get();
@@ -280,16 +268,10 @@ private void addMember(Family family, Patient patient, User updatingUser, boolea
         BaseObject familyObject = family.getDocument().getXObject(Family.CLASS_REFERENCE);
         familyObject.set(PhenotipsFamily.FAMILY_MEMBERS_FIELD, members, context);
 
-        // only save family document if this add() is not performed as a part of a batch update
-        if (!batchUpdate) {
-            // updating permisisons is an expensive operation which takes all patients into account,
-            // so don't do it when doing a bulk add or remove, instead the calling code will do one
-            // update at the end
-            this.updateFamilyPermissions(family, context, false);
+        this.updateFamilyPermissions(family, context, false);
 
-            if (!saveFamilyDocument(family, "added " + patientId + " to the family", context)) {
-                throw new PTInternalErrorException();
-            }
+        if (!saveFamilyDocument(family, "added " + patientId + " to the family", context)) {
+            throw new PTInternalErrorException();
         }
     }
 
@@ -443,6 +425,15 @@ public boolean canDeleteFamily(Family family, User updatingUser,
     }
 
     private void checkIfPatientCanBeAddedToFamily(Family family, Patient patient, User updatingUser) throws PTException
+    {
+        this.checkIfPatientCanBeAddedToFamily(family, patient, getDocument(patient), updatingUser);
+    }
+
+    /*
+     * The patient document is passed explicitly so that pedigree updates can reuse the document they already loaded.
+     */
+    private void checkIfPatientCanBeAddedToFamily(Family family, Patient patient, XWikiDocument patientDocument,
+        User updatingUser) throws PTException
     {
         // check rights
         if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, family.getDocumentReference())) {
@@ -452,9 +443,9 @@ private void checkIfPatientCanBeAddedToFamily(Family family, Patient patient, Us
             throw new PTNotEnoughPermissionsOnPatientException(Right.EDIT, patient.getId());
         }
         // check for logical problems: patient in another family
-        Family familyForLinkedPatient = this.getFamilyForPatient(patient);
-        if (familyForLinkedPatient != null && !familyForLinkedPatient.getId().equals(family.getId())) {
-            throw new PTPatientAlreadyInAnotherFamilyException(patient.getId(), familyForLinkedPatient.getId());
+        DocumentReference familyReference = patientDocument == null ? null : getFamilyReference(patientDocument);
+        if (familyReference != null && !familyReference.getName().equals(family.getId())) {
+            throw new PTPatientAlreadyInAnotherFamilyException(patient.getId(), familyReference.getName());
         }
     }
 
@@ -473,8 +464,12 @@ private void checkIfPatientCanBeRemovedFromFamily(Family family, Patient patient
     @Override
     public synchronized void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
     {
-        // note: whenever available, internal versions of helper methods are used which modify the
-        // family document but do not save it to disk
+        // all the affected documents are loaded once into the update, all changes are performed in memory,
+        // and each modified document is saved only once at the end
+        XWikiContext context = this.provider.get();
+        PedigreeUpdate update =
+            new PedigreeUpdate(family, context, this.patientRepository, this.referenceResolver, this.logger);
+
         List<String> oldMembers = family.getMembersIds();
 
         List<String> currentMembers = pedigree.extractIds();
@@ -484,32 +479,26 @@ public synchronized void setPedigree(Family family, Pedigree pedigree, User upda
         patientsToAdd.addAll(currentMembers);
         patientsToAdd.removeAll(oldMembers);
 
-        this.checkValidity(family, patientsToAdd, updatingUser);
+        this.checkValidity(update, patientsToAdd, updatingUser);
 
         // update patient data from pedigree's JSON
         // (no links to families are set at this point, only patient dat ais updated)
-        this.updatePatientsFromJson(pedigree, updatingUser);
+        this.updatePatientsFromJson(update, pedigree, updatingUser);
 
         boolean firstPedigree = (family.getPedigree() == null);
 
-        XWikiContext context = this.provider.get();
-
-        this.setPedigreeObject(family, pedigree, context);
+        this.setPedigreeObject(update, pedigree, context);
 
         // Removed members who are no longer in the family
         List<String> patientsToRemove = new LinkedList<>();
         patientsToRemove.addAll(oldMembers);
         patientsToRemove.removeAll(currentMembers);
         for (String patientId : patientsToRemove) {
-            Patient patient = this.patientRepository.get(patientId);
-            // remove the memebr and update patient document, but don't write family document to disk yet
-            // and don't update permisisons (that will be done once afdter all patients are added/removed)
-            this.removeMember(family, patient, updatingUser, true);
+            this.removeMember(update, patientId, context);
         }
 
         for (String patientId : patientsToAdd) {
-            Patient patient = this.patientRepository.get(patientId);
-            this.addMember(family, patient, updatingUser, true);
+            this.addMember(update, patientId, context);
         }
 
         if (firstPedigree && StringUtils.isEmpty(family.getExternalId())) {
@@ -521,15 +510,75 @@ public synchronized void setPedigree(Family family, Pedigree pedigree, User upda
             }
         }
 
-        this.updateFamilyPermissions(family, context, false);
+        this.familyPermissions.updatePermissions(family, update.getDocuments(family.getMembersIds()), context);
+
+        if (!update.save("Updated family from saved pedigree")) {
+            throw new PTInternalErrorException();
+        }
+    }
+
+    /**
+     * Adds a patient to the family as part of a pedigree update: the patient document and the family document are only
+     * modified in memory, and permissions are not updated.
+     */
+    private void addMember(PedigreeUpdate update, String patientId, XWikiContext context) throws PTException
+    {
+        Family family = update.getFamily();
+        XWikiDocument patientDocument = update.getDocument(patientId);
+        if (patientDocument == null) {
+            throw new PTInvalidPatientIdException(patientId);
+        }
+
+        // Check if not already a member
+        List<String> members = family.getMembersIds();
+        if (members.contains(patientId)) {
+            this.logger.error("Patient [{}] already a member of the same family, not adding", patientId);
+            throw new PTPedigreeContainesSamePatientMultipleTimesException(patientId);
+        }
+
+        if (!this.setFamilyReference(patientDocument, family.getDocument(), context)) {
+            throw new PTInternalErrorException();
+        }
+        update.markModified(patientId, "added to family " + family.getId());
+
+        members.add(patientId);
+        BaseObject familyObject = family.getDocument().getXObject(Family.CLASS_REFERENCE);
+        familyObject.set(PhenotipsFamily.FAMILY_MEMBERS_FIELD, members, context);
+    }
+
+    /**
+     * Removes a patient from the family as part of a pedigree update: the patient document and the family document are
+     * only modified in memory, and permissions are not updated. The patient is not removed from the pedigree, since
+     * the new pedigree is already known not to contain it.
+     */
+    private void removeMember(PedigreeUpdate update, String patientId, XWikiContext context) throws PTException
+    {
+        Family family = update.getFamily();
+        XWikiDocument patientDocument = update.getDocument(patientId);
+        if (patientDocument == null) {
+            throw new PTInvalidPatientIdException(patientId);
+        }
 
-        if (!this.saveFamilyDocument(family, "Updated family from saved pedigree", context)) {
+        List<String> members = family.getMembersIds();
+        if (!members.contains(patientId)) {
+            this.logger.error("Can't remove patient [{}] from framily [{}]: patient not a member of the family",
+                patientId, family.getId());
+            throw new PTPatientNotInFamilyException(patientId);
+        }
+
+        if (!this.removeFamilyReference(patientDocument)) {
             throw new PTInternalErrorException();
         }
+        update.markModified(patientId, "removed from family");
+
+        members.remove(patientId);
+        BaseObject familyObject = family.getDocument().getXObject(Family.CLASS_REFERENCE);
+        familyObject.set(PhenotipsFamily.FAMILY_MEMBERS_FIELD, members, context);
     }
 
-    private void checkValidity(Family family, List<String> newMembers, User updatingUser) throws PTException
+    private void checkValidity(PedigreeUpdate update, List<String> newMembers, User updatingUser) throws PTException
     {
+        Family family = update.getFamily();
         // Checks that current user has edit permissions on family
         if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, family.getDocumentReference())) {
             throw new PTNotEnoughPermissionsOnFamilyException(Right.EDIT, family.getId());
@@ -543,13 +592,16 @@ private void checkValidity(Family family, List<String> newMembers, User updating
         // Check if every new member can be added to the family
         if (newMembers != null) {
             for (String patientId : newMembers) {
-                Patient patient = this.patientRepository.get(patientId);
-                checkIfPatientCanBeAddedToFamily(family, patient, updatingUser);
+                Patient patient = update.getPatient(patientId);
+                if (patient == null) {
+                    throw new PTInvalidPatientIdException(patientId);
+                }
+                this.checkIfPatientCanBeAddedToFamily(family, patient, update.getDocument(patientId), updatingUser);
             }
         }
     }
 
-    private void updatePatientsFromJson(Pedigree pedigree, User updatingUser)
+    private void updatePatientsFromJson(PedigreeUpdate update, Pedigree pedigree, User updatingUser)
     {
         String idKey = "id";
         try {
@@ -557,12 +609,19 @@ private void updatePatientsFromJson(Pedigree pedigree, User updatingUser)
 
             for (JSONObject singlePatient : patientsJson) {
                 if (singlePatient.has(idKey)) {
-                    Patient patient = this.patientRepository.get(singlePatient.getString(idKey));
+                    String patientId = singlePatient.getString(idKey);
+                    Patient patient = update.getPatient(patientId);
                     if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, patient.getDocument())) {
                         // skip patients the current user does not have edit rights for
                         continue;
                     }
-                    patient.updateFromJSON(singlePatient);
+                    if (patient instanceof PhenoTipsPatient) {
+                        // only update the in-memory document, it will be saved along with the other changes
+                        ((PhenoTipsPatient) patient).updateFromJSON(singlePatient, false);
+                        update.markModified(patientId, "Updated from JSON");
+                    } else {
+                        patient.updateFromJSON(singlePatient);
+                    }
                 }
             }
         } catch (Exception ex) {
@@ -584,7 +643,29 @@ private String findDuplicate(List<String> updatedMembers)
         return null;
     }
 
+    private boolean setPedigreeObject(PedigreeUpdate update, Pedigree pedigree, XWikiContext context)
+    {
+        if (!this.setPedigreeData(update.getFamily(), pedigree, context)) {
+            return false;
+        }
+        String probandId = pedigree.getProbandId();
+        Patient proband = StringUtils.isEmpty(probandId) ? null : update.getPatient(probandId);
+        this.setProbandId(update.getFamily(), probandId, proband);
+        return true;
+    }
+
     private boolean setPedigreeObject(Family family, Pedigree pedigree, XWikiContext context)
+    {
+        if (!this.setPedigreeData(family, pedigree, context)) {
+            return false;
+        }
+        String probandId = pedigree.getProbandId();
+        Patient proband = StringUtils.isEmpty(probandId) ? null : this.patientRepository.get(probandId);
+        this.setProbandId(family, probandId, proband);
+        return true;
+    }
+
+    private boolean setPedigreeData(Family family, Pedigree pedigree, XWikiContext context)
     {
         if (pedigree == null) {
             this.logger.error("Can not set NULL pedigree for family [{}]", family.getId());
@@ -595,20 +676,21 @@ private boolean setPedigreeObject(Family family, Pedigree pedigree, XWikiContext
         pedigreeObject.set(Pedigree.IMAGE, ((pedigree == null) ? "" : pedigree.getImage(null)), context);
         pedigreeObject.set(Pedigree.DATA, ((pedigree == null) ? "" : pedigree.getData().toString()), context);
 
+        return true;
+    }
+
+    private void setProbandId(Family family, String probandId, Patient proband)
+    {
         // update proband ID every time pedigree is changed
         BaseObject familyClassObject = family.getDocument().getXObject(Family.CLASS_REFERENCE);
         if (familyClassObject != null) {
-            String probandId = pedigree.getProbandId();
             if (!StringUtils.isEmpty(probandId)) {
-                Patient patient = this.patientRepository.get(probandId);
-                familyClassObject.setStringValue("proband_id", (patient == null) ? "" : patient.getDocument()
+                familyClassObject.setStringValue("proband_id", (proband == null) ? "" : proband.getDocument()
                     .toString());
             } else {
                 familyClassObject.setStringValue("proband_id", "");
             }
         }
-
-        return true;
     }
 
     private void setFamilyExternalId(String externalId, Family family, XWikiContext context)
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Base class for rewriters working on the elements generated by the pedigree editor, providing access to the pedigree
+ * node identifiers and patient links found in the element attributes.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public abstract class AbstractPedigreeRewriter implements SvgRewriter
+{
+    /** The attribute holding the pedigree node identifier on links and labels. */
+    protected static final String NODE_ID_ATTRIBUTE = "pedigreeNodeID";
+
+    /** The name of link elements. */
+    protected static final String LINK_ELEMENT = "a";
+
+    // matches links to patients, such as /bin/data/P0000001
+    private static final Pattern PATIENT_PAGE_LINK_PATTERN = Pattern.compile("^[\\w\\/]*?/(P\\d+)");
+
+    private static final Pattern LEADING_DIGITS = Pattern.compile("^\\d+");
+
+    @Override
+    public void complete(SvgElement element)
+    {
+        // Nothing to do by default
+    }
+
+    /**
+     * Returns the pedigree node identifier stored in the {@code pedigreeNodeID} attribute.
+     *
+     * @param element the element to inspect
+     * @return the numeric node identifier, or {@code null} if the element doesn't have one
+     */
+    protected String getNodeId(SvgElement element)
+    {
+        return leadingDigits(element.getAttribute(NODE_ID_ATTRIBUTE));
+    }
+
+    /**
+     * Returns the identifier of the patient record linked from a link element.
+     *
+     * @param element the link element to inspect
+     * @return the patient identifier, for example {@code P0000001}, or an empty string if the element doesn't link to
+     *         a patient record
+     */
+    protected String getLinkedPatientId(SvgElement element)
+    {
+        String href = element.getAttribute("href");
+        if (href != null) {
+            Matcher linkMatch = PATIENT_PAGE_LINK_PATTERN.matcher(href);
+            if (linkMatch.find()) {
+                return linkMatch.group(1);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Returns the link enclosing an element. The pedigree editor wraps the patient identifier label of a node in a
+     * link, so the node identifier is usually found on the label inside the link, and not on the link itself.
+     *
+     * @param element the element to inspect
+     * @return the element itself if it is a link, its closest enclosing link, or {@code null} if it isn't part of a
+     *         link
+     */
+    protected SvgElement getEnclosingLink(SvgElement element)
+    {
+        for (SvgElement current = element; current != null; current = current.getParent()) {
+            if (LINK_ELEMENT.equals(current.getName())) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a link points to the record of a patient.
+     *
+     * @param link the link element to inspect
+     * @param patientId the identifier of the expected patient; if {@code null}, any patient record matches
+     * @return {@code true} if the element links to the record of the requested patient
+     */
+    protected boolean linksToPatient(SvgElement link, String patientId)
+    {
+        String linkedPatientId = getLinkedPatientId(link);
+        return patientId == null ? StringUtils.isNotEmpty(linkedPatientId)
+            : patientId.equalsIgnoreCase(linkedPatientId);
+    }
+
+    /**
+     * Extracts the leading digits of a string.
+     *
+     * @param value the value to parse, may be {@code null}
+     * @return the leading digits, or {@code null} if the value doesn't start with a digit
+     */
+    protected static String leadingDigits(String value)
+    {
+        if (StringUtils.isEmpty(value)) {
+            return null;
+        }
+        Matcher digits = LEADING_DIGITS.matcher(value);
+        return digits.find() ? digits.group() : null;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+/**
+ * Sets the width and/or the height of the SVG image, as declared on the root {@code svg} element.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgDimensionsSetter implements SvgRewriter
+{
+    private final int width;
+
+    private final int height;
+
+    /**
+     * @param width target width in pixels, ignored if not a positive number
+     * @param height target height in pixels, ignored if not a positive number
+     */
+    public SvgDimensionsSetter(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean rewrite(SvgElement element)
+    {
+        if (element.isRoot() && "svg".equals(element.getName())) {
+            setDimension(element, "width", this.width);
+            setDimension(element, "height", this.height);
+        }
+        return false;
+    }
+
+    @Override
+    public void complete(SvgElement element)
+    {
+        // Nothing to do, all changes are done as soon as the root element is read
+    }
+
+    private void setDimension(SvgElement element, String attribute, int value)
+    {
+        String current = element.getAttribute(attribute);
+        // only replace dimensions expressed in pixels, as before
+        if (value > 0 && current != null && current.matches("\\d+")) {
+            element.setAttribute(attribute, String.valueOf(value));
+        }
+    }
+}
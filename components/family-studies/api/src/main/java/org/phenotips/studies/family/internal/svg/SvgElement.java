@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+
+/**
+ * A mutable view of an SVG element start tag, passed to each {@link SvgRewriter} in the pipeline. Rewriters may change
+ * the element's attributes, or request the removal of the whole element. The enclosing elements are available through
+ * {@link #getParent()}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgElement
+{
+    private final QName name;
+
+    private final List<Namespace> namespaces = new LinkedList<>();
+
+    /** Attributes keyed by their local name, in document order. */
+    private final Map<String, Attribute> attributes = new LinkedHashMap<>();
+
+    /** Values of the attributes, keyed by their local name; may differ from the original values. */
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    private final SvgElement parent;
+
+    private boolean empty;
+
+    private boolean removed;
+
+    /**
+     * Creates a mutable view of the given start element.
+     *
+     * @param start the original start element event
+     * @param parent the enclosing element, {@code null} for the document (outermost) element
+     */
+    public SvgElement(StartElement start, SvgElement parent)
+    {
+        this.name = start.getName();
+        this.parent = parent;
+        Iterator<?> ns = start.getNamespaces();
+        while (ns.hasNext()) {
+            this.namespaces.add((Namespace) ns.next());
+        }
+        Iterator<?> attrs = start.getAttributes();
+        while (attrs.hasNext()) {
+            Attribute attribute = (Attribute) attrs.next();
+            this.attributes.put(attribute.getName().getLocalPart(), attribute);
+            this.values.put(attribute.getName().getLocalPart(), attribute.getValue());
+        }
+    }
+
+    /**
+     * @return the local name of the element, for example {@code rect}
+     */
+    public String getName()
+    {
+        return this.name.getLocalPart();
+    }
+
+    /**
+     * @return {@code true} if this is the outermost element of the document
+     */
+    public boolean isRoot()
+    {
+        return this.parent == null;
+    }
+
+    /**
+     * @return the enclosing element, or {@code null} if this is the document (outermost) element
+     */
+    public SvgElement getParent()
+    {
+        return this.parent;
+    }
+
+    /**
+     * Returns the current value of an attribute, identified by its local name, regardless of its namespace.
+     *
+     * @param localName the local name of the attribute, for example {@code href} will match {@code xlink:href}
+     * @return the attribute value, or {@code null} if the element doesn't have such an attribute
+     */
+    public String getAttribute(String localName)
+    {
+        return this.values.get(localName);
+    }
+
+    /**
+     * @return the current values of all the attributes, keyed by their local names, in document order
+     */
+    public Collection<String> getAttributeValues()
+    {
+        return Collections.unmodifiableCollection(this.values.values());
+    }
+
+    /**
+     * Sets the value of an attribute. Existing attributes keep their position, new attributes are added at the end.
+     *
+     * @param localName the local name of the attribute
+     * @param value the new value
+     */
+    public void setAttribute(String localName, String value)
+    {
+        this.values.put(localName, value);
+    }
+
+    /**
+     * Removes an attribute, if present.
+     *
+     * @param localName the local name of the attribute
+     */
+    public void removeAttribute(String localName)
+    {
+        this.values.remove(localName);
+        this.attributes.remove(localName);
+    }
+
+    /**
+     * Marks this element, along with all of its content, for removal. The content of a removed element is still passed
+     * to the rewriters, already marked as removed, so that they can gather information from it, but it is not written
+     * to the output.
+     */
+    public void remove()
+    {
+        this.removed = true;
+    }
+
+    /**
+     * @return {@code true} if the element, or one of the enclosing elements, was marked for removal
+     */
+    public boolean isRemoved()
+    {
+        return this.removed || this.parent != null && this.parent.isRemoved();
+    }
+
+    void setEmpty(boolean empty)
+    {
+        this.empty = empty;
+    }
+
+    /**
+     * Serializes the start tag, with the current attribute values, to the given buffer.
+     *
+     * @param out where to write the serialized tag
+     */
+    void writeStartTag(StringBuilder out)
+    {
+        out.append('<');
+        SvgTransformer.appendName(this.name, out);
+        for (Namespace namespace : this.namespaces) {
+            out.append(" xmlns");
+            if (!namespace.isDefaultNamespaceDeclaration()) {
+                out.append(':').append(namespace.getPrefix());
+            }
+            out.append("=\"");
+            SvgTransformer.escape(namespace.getNamespaceURI(), true, out);
+            out.append('"');
+        }
+        for (Map.Entry<String, String> value : this.values.entrySet()) {
+            out.append(' ');
+            Attribute original = this.attributes.get(value.getKey());
+            if (original != null) {
+                SvgTransformer.appendName(original.getName(), out);
+            } else {
+                out.append(value.getKey());
+            }
+            out.append("=\"");
+            SvgTransformer.escape(value.getValue(), true, out);
+            out.append('"');
+        }
+        out.append(this.empty ? "/>" : ">");
+    }
+
+    /**
+     * Serializes the end tag.
+     *
+     * @param out where to write the serialized tag
+     */
+    void writeEndTag(StringBuilder out)
+    {
+        if (!this.empty) {
+            out.append("</");
+            SvgTransformer.appendName(this.name, out);
+            out.append('>');
+        }
+    }
+}
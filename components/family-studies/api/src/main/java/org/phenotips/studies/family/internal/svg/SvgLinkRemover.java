@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the links to a patient record, and shifts up the labels of the affected pedigree nodes to fill the space
+ * previously occupied by the link.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgLinkRemover extends AbstractPedigreeRewriter
+{
+    /** The number of pixels to shift text when a link is removed. */
+    private static final int SVG_LINK_HEIGHT_IN_PIXELS = 22;
+
+    private static final String Y_ATTRIBUTE = "y";
+
+    private final String patientId;
+
+    /** The nodes whose link was removed. */
+    private final Set<String> unlinkedNodes = new HashSet<>();
+
+    /** The links removed so far. */
+    private final Set<SvgElement> removedLinks = new HashSet<>();
+
+    /**
+     * @param patientId the identifier of the patient whose links must be removed; if {@code null}, all the links to
+     *            patient records are removed
+     */
+    public SvgLinkRemover(String patientId)
+    {
+        this.patientId = patientId;
+    }
+
+    @Override
+    public boolean rewrite(SvgElement element)
+    {
+        if (LINK_ELEMENT.equals(element.getName()) && !element.isRemoved()
+            && linksToPatient(element, this.patientId)) {
+            this.removedLinks.add(element);
+            element.remove();
+        }
+        String nodeId = getNodeId(element);
+        if (nodeId == null) {
+            return false;
+        }
+        SvgElement link = getEnclosingLink(element);
+        if (link != null) {
+            // the node identifier is found on the link itself, or on the label inside the link
+            if (this.removedLinks.contains(link)) {
+                this.unlinkedNodes.add(nodeId);
+            }
+            return false;
+        }
+        // labels may precede the link in the document, so wait until all the links are known
+        return "text".equals(element.getName());
+    }
+
+    @Override
+    public void complete(SvgElement element)
+    {
+        String y = element.getAttribute(Y_ATTRIBUTE);
+        if (y != null && this.unlinkedNodes.contains(getNodeId(element))) {
+            try {
+                Double newY = Double.parseDouble(y) - SVG_LINK_HEIGHT_IN_PIXELS;
+                element.setAttribute(Y_ATTRIBUTE, newY.toString());
+            } catch (NumberFormatException ex) {
+                // not a simple coordinate, leave it as is
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Visually marks the proband and the current patient in the pedigree by setting the stroke width of their node shapes.
+ * All other node shapes lose their explicit stroke width.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgPatientStyler extends AbstractPedigreeRewriter
+{
+    private static final String STROKE_ATTRIBUTE = "stroke-width";
+
+    private static final String NODE_SHAPE_TOKEN = "node-shape-";
+
+    private static final double PROBAND_STROKE_WIDTH = 2;
+
+    private static final double CURRENT_PATIENT_STROKE_WIDTH = 5;
+
+    private final String patientId;
+
+    /** The nodes linked to the current patient. */
+    private final Set<String> patientNodes = new HashSet<>();
+
+    /** The links to the current patient. */
+    private final Set<SvgElement> patientLinks = new HashSet<>();
+
+    private boolean probandFound;
+
+    /**
+     * @param patientId the identifier of the patient that should be visually marked as current
+     */
+    public SvgPatientStyler(String patientId)
+    {
+        this.patientId = patientId;
+    }
+
+    @Override
+    public boolean rewrite(SvgElement element)
+    {
+        if (element.isRemoved()) {
+            return false;
+        }
+        String nodeId = getNodeId(element);
+        if (nodeId != null) {
+            // the node identifier is found on the link itself, or on the label inside the link
+            SvgElement link = getEnclosingLink(element);
+            if (link != null && linksToPatient(link, this.patientId) && this.patientLinks.add(link)) {
+                this.patientNodes.add(nodeId);
+            }
+        }
+        if (!"rect".equals(element.getName()) && !"circle".equals(element.getName())
+            || getShapeToken(element) == null) {
+            return false;
+        }
+
+        element.removeAttribute(STROKE_ATTRIBUTE);
+        if (!this.probandFound && "true".equals(element.getAttribute("isProband"))) {
+            this.probandFound = true;
+            element.setAttribute(STROKE_ATTRIBUTE, String.valueOf(PROBAND_STROKE_WIDTH));
+        }
+        // the link to the current patient may come after the shape, so wait until all the links are known
+        return true;
+    }
+
+    @Override
+    public void complete(SvgElement element)
+    {
+        // TODO: not sure what to do if more than one link to the same patient ID
+        if (this.patientLinks.size() == 1 && this.patientNodes.contains(getShapeNodeId(element))) {
+            element.setAttribute(STROKE_ATTRIBUTE, String.valueOf(CURRENT_PATIENT_STROKE_WIDTH));
+        }
+    }
+
+    private String getShapeNodeId(SvgElement element)
+    {
+        String token = getShapeToken(element);
+        return token == null ? null : leadingDigits(token.substring(NODE_SHAPE_TOKEN.length()));
+    }
+
+    /** Returns the part of an attribute value starting with the node shape marker, if any. */
+    private String getShapeToken(SvgElement element)
+    {
+        for (String value : element.getAttributeValues()) {
+            int tokenStart = value.indexOf(NODE_SHAPE_TOKEN);
+            if (tokenStart != -1) {
+                return value.substring(tokenStart);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+/**
+ * A step in the {@link SvgTransformer} pipeline, rewriting or removing SVG elements as they are streamed.
+ * <p>
+ * Since the document is read only once, a rewriter may need information that only becomes available later in the
+ * document, for example the pedigree node linked to a patient, in order to decide how to change an element. In that
+ * case it can return {@code true} from {@link #rewrite(SvgElement)}, and the start tag of the element will be held back
+ * until the whole document was read, at which point {@link #complete(SvgElement)} is called.
+ * </p>
+ * <p>
+ * Every element is passed to every rewriter, in document order, including the content of
+ * {@link SvgElement#isRemoved() removed elements}. Rewriters that only change the output should ignore removed
+ * elements, since they will not be written anyway.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public interface SvgRewriter
+{
+    /**
+     * Inspects, and possibly changes or {@link SvgElement#remove() removes}, an element as soon as its start tag is
+     * read.
+     *
+     * @param element the element being processed
+     * @return {@code true} if {@link #complete(SvgElement)} must be called for this element once the whole document
+     *         has been read, {@code false} if this rewriter is done with this element
+     */
+    boolean rewrite(SvgElement element);
+
+    /**
+     * Finishes processing an element for which {@link #rewrite(SvgElement)} returned {@code true}. Elements can no
+     * longer be removed at this point, only their attributes can be changed.
+     *
+     * @param element the element being processed
+     */
+    void complete(SvgElement element);
+}
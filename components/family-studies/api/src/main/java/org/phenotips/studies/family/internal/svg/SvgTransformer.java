@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal.svg;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Single-pass SVG rewriting engine. The SVG document is streamed once with StAX, and each element is passed through a
+ * pipeline of {@link SvgRewriter rewriters}, instead of scanning the whole document once for each transformation.
+ * Everything that isn't changed by a rewriter is copied to the output unchanged.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgTransformer
+{
+    /** StAX factories aren't guaranteed to be thread safe, so each thread gets its own. */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>()
+    {
+        @Override
+        protected XMLInputFactory initialValue()
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            // pedigree images never need DTDs or external entities, and resolving them is both slow and unsafe
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            return factory;
+        }
+    };
+
+    /**
+     * The pedigree editor serializes images as HTML, which may contain non-breaking spaces as an entity unknown to XML.
+     */
+    private static final String NBSP_ENTITY = "&nbsp;";
+
+    private final List<SvgRewriter> rewriters;
+
+    /**
+     * Creates a transformer applying the given rewriters, in order, to each element.
+     *
+     * @param rewriters the pipeline of rewriters to apply
+     */
+    public SvgTransformer(SvgRewriter... rewriters)
+    {
+        this.rewriters = Arrays.asList(rewriters);
+    }
+
+    /**
+     * Applies all the rewriters to the given SVG document in a single pass.
+     *
+     * @param svg the SVG document to transform, must be well-formed XML
+     * @return the transformed document
+     * @throws XMLStreamException if the document cannot be parsed
+     */
+    public String transform(String svg) throws XMLStreamException
+    {
+        String input = StringUtils.replace(svg, NBSP_ENTITY, "&#160;");
+        XMLEventReader reader = FACTORY.get().createXMLEventReader(new StringReader(input));
+        try {
+            // the XML declaration isn't exposed reliably by all StAX implementations, copy it as is
+            String declaration = input.startsWith("<?xml") ? StringUtils.substringBefore(input, "?>") + "?>" : "";
+            return transform(reader, declaration);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String transform(XMLEventReader reader, String declaration) throws XMLStreamException
+    {
+        // The output is kept as a sequence of already serialized chunks and held back start tags
+        List<Object> parts = new ArrayList<>();
+        StringBuilder out = new StringBuilder(declaration);
+        Deque<SvgElement> open = new LinkedList<>();
+
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            // the content of removed elements is still passed to the rewriters, but isn't written
+            boolean skipped = !open.isEmpty() && open.peek().isRemoved();
+            if (skipped && !event.isStartElement() && !event.isEndElement()) {
+                continue;
+            }
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    SvgElement element = new SvgElement(event.asStartElement(), open.peek());
+                    element.setEmpty(reader.peek() != null && reader.peek().isEndElement());
+                    List<SvgRewriter> pending = applyRewriters(element);
+                    open.push(element);
+                    if (element.isRemoved()) {
+                        break;
+                    }
+                    if (pending.isEmpty()) {
+                        element.writeStartTag(out);
+                    } else {
+                        parts.add(out);
+                        parts.add(new DeferredElement(element, pending));
+                        out = new StringBuilder();
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (!skipped) {
+                        open.peek().writeEndTag(out);
+                    }
+                    open.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    writeCharacters(event.asCharacters(), out);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    out.append("<!--").append(((Comment) event).getText()).append("-->");
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    ProcessingInstruction pi = (ProcessingInstruction) event;
+                    out.append("<?").append(pi.getTarget());
+                    if (StringUtils.isNotEmpty(pi.getData())) {
+                        out.append(' ').append(pi.getData());
+                    }
+                    out.append("?>");
+                    break;
+                case XMLStreamConstants.DTD:
+                    out.append(((DTD) event).getDocumentTypeDeclaration());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    out.append('&').append(((EntityReference) event).getName()).append(';');
+                    break;
+                default:
+                    // START_DOCUMENT and END_DOCUMENT, nothing to write
+                    break;
+            }
+        }
+        parts.add(out);
+
+        return assemble(parts);
+    }
+
+    private List<SvgRewriter> applyRewriters(SvgElement element)
+    {
+        List<SvgRewriter> pending = new LinkedList<>();
+        for (SvgRewriter rewriter : this.rewriters) {
+            if (rewriter.rewrite(element)) {
+                pending.add(rewriter);
+            }
+        }
+        // removed elements are never written, so there's nothing to complete
+        return element.isRemoved() ? Collections.<SvgRewriter>emptyList() : pending;
+    }
+
+    private String assemble(List<Object> parts)
+    {
+        // Complete all held back elements first, in document order, then serialize them
+        for (Object part : parts) {
+            if (part instanceof DeferredElement) {
+                DeferredElement deferred = (DeferredElement) part;
+                for (SvgRewriter rewriter : deferred.rewriters) {
+                    rewriter.complete(deferred.element);
+                }
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof DeferredElement) {
+                ((DeferredElement) part).element.writeStartTag(result);
+            } else {
+                result.append((StringBuilder) part);
+            }
+        }
+        return result.toString();
+    }
+
+    private void writeCharacters(Characters characters, StringBuilder out)
+    {
+        if (characters.isCData()) {
+            out.append("<![CDATA[").append(characters.getData()).append("]]>");
+        } else {
+            escape(characters.getData(), false, out);
+        }
+    }
+
+    static void appendName(QName name, StringBuilder out)
+    {
+        if (StringUtils.isNotEmpty(name.getPrefix())) {
+            out.append(name.getPrefix()).append(':');
+        }
+        out.append(name.getLocalPart());
+    }
+
+    static void escape(String text, boolean attribute, StringBuilder out)
+    {
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append(attribute ? "&quot;" : "\"");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static final class DeferredElement
+    {
+        private final SvgElement element;
+
+        private final List<SvgRewriter> rewriters;
+
+        DeferredElement(SvgElement element, List<SvgRewriter> rewriters)
+        {
+            this.element = element;
+            this.rewriters = rewriters;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.studies.family.Family;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PedigreeUpdate} unit of work.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class PedigreeUpdateTest
+{
+    @Mock
+    private Family family;
+
+    @Mock
+    private XWikiDocument familyDocument;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki wiki;
+
+    @Mock
+    private PatientRepository patientRepository;
+
+    @Mock
+    private DocumentReferenceResolver<String> resolver;
+
+    @Mock
+    private Logger logger;
+
+    @Mock
+    private XWikiDocument document1;
+
+    @Mock
+    private XWikiDocument document2;
+
+    @Mock
+    private XWikiDocument missingDocument;
+
+    private PedigreeUpdate update;
+
+    @Before
+    public void setUp() throws XWikiException
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.context.getWiki()).thenReturn(this.wiki);
+        when(this.family.getId()).thenReturn("FAM0000001");
+        when(this.family.getDocument()).thenReturn(this.familyDocument);
+
+        mockPatientDocument("P0000001", this.document1);
+        mockPatientDocument("P0000002", this.document2);
+        DocumentReference missingReference = new DocumentReference("xwiki", "data", "P0000009");
+        when(this.resolver.resolve("P0000009", Patient.DEFAULT_DATA_SPACE)).thenReturn(missingReference);
+        when(this.wiki.getDocument(missingReference, this.context)).thenReturn(this.missingDocument);
+        when(this.missingDocument.isNew()).thenReturn(true);
+
+        this.update = new PedigreeUpdate(this.family, this.context, this.patientRepository, this.resolver, this.logger);
+    }
+
+    @Test
+    public void documentsAreLoadedOnlyOnce() throws XWikiException
+    {
+        Patient patient = mock(Patient.class);
+        when(this.patientRepository.load(this.document1)).thenReturn(patient);
+
+        Assert.assertSame(this.document1, this.update.getDocument("P0000001"));
+        Assert.assertSame(patient, this.update.getPatient("P0000001"));
+        Assert.assertSame(patient, this.update.getPatient("P0000001"));
+        Assert.assertEquals(Arrays.asList(this.document1, this.document2),
+            this.update.getDocuments(Arrays.asList("P0000001", "P0000009", "P0000002")));
+        Assert.assertNull(this.update.getDocument("P0000009"));
+
+        verify(this.wiki, times(1)).getDocument(new DocumentReference("xwiki", "data", "P0000001"), this.context);
+        verify(this.wiki, times(1)).getDocument(new DocumentReference("xwiki", "data", "P0000009"), this.context);
+        verify(this.patientRepository, times(1)).load(this.document1);
+    }
+
+    @Test
+    public void missingPatientsAreNull()
+    {
+        Assert.assertNull(this.update.getDocument("P0000009"));
+        Assert.assertNull(this.update.getPatient("P0000009"));
+        Assert.assertNull(this.update.getDocument(""));
+    }
+
+    @Test
+    public void eachModifiedDocumentIsSavedOnce() throws XWikiException
+    {
+        this.update.getDocument("P0000001");
+        this.update.getDocument("P0000002");
+        this.update.markModified("P0000001", "Updated from JSON");
+        this.update.markModified("P0000001", "added to family FAM0000001");
+
+        Assert.assertTrue(this.update.save("Updated family from saved pedigree"));
+
+        verify(this.wiki, times(1)).saveDocument(this.document1, "Updated from JSON; added to family FAM0000001",
+            true, this.context);
+        verify(this.wiki, times(1)).saveDocument(this.familyDocument, "Updated family from saved pedigree",
+            this.context);
+        verify(this.wiki, times(1)).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            any(XWikiContext.class));
+        verify(this.wiki, times(1)).saveDocument(any(XWikiDocument.class), anyString(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void failedPatientSaveStopsTheUpdate() throws XWikiException
+    {
+        this.update.getDocument("P0000001");
+        this.update.markModified("P0000001", "removed from family");
+        doThrow(new XWikiException()).when(this.wiki).saveDocument(this.document1, "removed from family", true,
+            this.context);
+
+        Assert.assertFalse(this.update.save("Updated family from saved pedigree"));
+
+        verify(this.wiki, never()).saveDocument(this.familyDocument, "Updated family from saved pedigree",
+            this.context);
+    }
+
+    private void mockPatientDocument(String id, XWikiDocument document) throws XWikiException
+    {
+        DocumentReference reference = new DocumentReference("xwiki", "data", id);
+        when(this.resolver.resolve(id, Patient.DEFAULT_DATA_SPACE)).thenReturn(reference);
+        when(this.wiki.getDocument(reference, this.context)).thenReturn(document);
+        when(document.getXObject(Patient.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+    }
+}
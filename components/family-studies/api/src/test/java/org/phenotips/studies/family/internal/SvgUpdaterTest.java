@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests for the {@link SvgUpdater} tools. The expected images were produced by the previous, string scanning,
+ * implementation on pedigrees exported by the pedigree editor. The only difference is in
+ * {@code three-generations-display-P0000013.svg}, where the previous implementation stopped looking for node shapes
+ * after the last circle, and failed to reset the stroke width of node 9.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class SvgUpdaterTest
+{
+    @Test
+    public void removeLinkMatchesGoldenOutput() throws Exception
+    {
+        assertSameImage("family-unlinked-P0000002.svg", SvgUpdater.removeLink(read("family.svg"), "P0000002"));
+        assertSameImage("three-generations-unlinked-P0000012.svg",
+            SvgUpdater.removeLink(read("three-generations.svg"), "P0000012"));
+    }
+
+    @Test
+    public void prepareForDisplayMatchesGoldenOutput() throws Exception
+    {
+        assertSameImage("family-display-P0000003.svg",
+            SvgUpdater.prepareForDisplay(read("family.svg"), "P0000003", 400, 300));
+        assertSameImage("three-generations-display-P0000013.svg",
+            SvgUpdater.prepareForDisplay(read("three-generations.svg"), "P0000013", 400, 300));
+    }
+
+    @Test
+    public void prepareForDisplayIsEquivalentToSeparateSteps() throws Exception
+    {
+        String svg = read("three-generations.svg");
+        String expected = SvgUpdater.setSVGHeight(
+            SvgUpdater.setSVGWidth(SvgUpdater.setCurrentPatientStylesInSvg(svg, "P0000013"), 400), 300);
+        Assert.assertTrue(parse(expected).isEqualNode(
+            parse(SvgUpdater.prepareForDisplay(svg, "P0000013", 400, 300))));
+    }
+
+    @Test
+    public void removeLinkForUnknownPatientDoesntChangeImage() throws Exception
+    {
+        String svg = read("family.svg");
+        Assert.assertTrue(parse(svg).isEqualNode(parse(SvgUpdater.removeLink(svg, "P0000099"))));
+    }
+
+    @Test
+    public void nonBreakingSpacesAreAccepted() throws Exception
+    {
+        String svg = read("family.svg").replace("John Smith", "John&nbsp;Smith");
+        String result = SvgUpdater.removeLink(svg, "P0000001");
+        Assert.assertTrue(result.contains("John\u00A0Smith"));
+        Assert.assertFalse(result.contains("P0000001"));
+    }
+
+    @Test
+    public void malformedImagesAreLeftUnchanged() throws Exception
+    {
+        String svg = read("family.svg").replace("</svg>", "");
+        Assert.assertSame(svg, SvgUpdater.removeLink(svg, "P0000001"));
+        Assert.assertSame(svg, SvgUpdater.prepareForDisplay(svg, "P0000001", 400, 300));
+    }
+
+    @Test
+    public void concurrentTransformationsAreIndependent() throws Exception
+    {
+        final String svg = read("three-generations.svg");
+        String expected = SvgUpdater.prepareForDisplay(svg, "P0000013", 400, 300);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                results.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call()
+                    {
+                        return SvgUpdater.prepareForDisplay(svg, "P0000013", 400, 300);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertSameImage(String expectedFile, String actual) throws Exception
+    {
+        String expected = read(expectedFile);
+        // Attribute order and the serialization of empty elements may differ, compare the parsed documents instead
+        if (!parse(expected).isEqualNode(parse(actual))) {
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    private String read(String name) throws Exception
+    {
+        return new String(Files.readAllBytes(Paths.get(getClass().getResource("/pedigree/" + name).toURI())),
+            StandardCharsets.UTF_8);
+    }
+
+    private Document parse(String svg) throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(svg)));
+        document.normalizeDocument();
+        return document;
+    }
+}
@@ -20,7 +20,11 @@
 import org.phenotips.data.Patient;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.stability.Unstable;
+import org.xwiki.users.User;
 
 import java.util.Collection;
 import java.util.Iterator;
@@ -89,6 +93,39 @@
      */
     Iterator<Patient> filterByVisibility(Iterator<Patient> patients, Visibility requiredVisibility);
 
+    /**
+     * Receives a collection of patients and returns only those on which a user has at least the requested access
+     * level, as would be computed by {@link PatientAccess#hasAccessLevel(EntityReference, AccessLevel)}. The access
+     * rights of all the patients are checked together, which is much faster than checking each patient separately.
+     *
+     * @param patients a collection of patients
+     * @param user the user whose access is checked, may be {@code null} for guest users
+     * @param requiredAccess minimum access level required
+     * @return a collection containing only the accessible patients; may be empty; preserves the order of the input
+     *         collection; if the required access level is {@code null}, the input collection is returned unaltered
+     * @since 1.3
+     */
+    Collection<Patient> filterAccessible(Collection<Patient> patients, EntityReference user,
+        AccessLevel requiredAccess);
+
+    /**
+     * Receives a collection of patient documents and returns only those on which a user has the requested right, as
+     * decided by {@link org.phenotips.security.authorization.AuthorizationService#hasAccess(User, Right,
+     * EntityReference)}. The owner, collaborators and visibility of all the patients are read together first, and the
+     * view right is granted to registered users without further checks on the documents where these give them view
+     * access and which don't hold explicit denials. All the other documents are checked one by one with the
+     * authorization service, so that XWiki rights and the other authorization modules are taken into account.
+     *
+     * @param patientDocuments a collection of patient documents
+     * @param user the user whose access is checked, may be {@code null} for guest users
+     * @param right the right to check
+     * @return a collection containing only the authorized documents; may be empty; preserves the order of the input
+     *         collection
+     * @since 1.3
+     */
+    Collection<DocumentReference> filterAuthorized(Collection<DocumentReference> patientDocuments, User user,
+        Right right);
+
     /**
      * Fires a right update event to notify interested parties that some permissions have changed. The idea is to fire
      * only one event after a bunch of updates have been performed.
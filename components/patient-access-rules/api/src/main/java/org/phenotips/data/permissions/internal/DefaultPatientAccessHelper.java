@@ -32,13 +32,21 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -71,6 +79,25 @@ public class DefaultPatientAccessHelper implements PatientAccessHelper
     private static final EntityReference GROUP_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
         new EntityReference(XWiki.SYSTEM_SPACE, EntityType.SPACE));
 
+    /** How many patients are checked with one query, to keep the query size reasonable. */
+    private static final int BATCH_SIZE = 100;
+
+    private static final String VISIBILITY_QUERY = "select doc.fullName, vis.visibility from Document doc, "
+        + "doc.object(PhenoTips.VisibilityClass) vis where doc.fullName in (:docs)";
+
+    private static final String OWNER_QUERY = "select doc.fullName, own.owner from Document doc, "
+        + "doc.object(PhenoTips.OwnerClass) own where doc.fullName in (:docs)";
+
+    private static final String COLLABORATORS_QUERY = "select doc.fullName, collab.collaborator, collab.access "
+        + "from Document doc, doc.object(PhenoTips.CollaboratorClass) collab where doc.fullName in (:docs)";
+
+    private static final String DENIALS_QUERY = "select doc.fullName, rights.levels from Document doc, "
+        + "doc.object(XWiki.XWikiRights) rights where doc.fullName in (:docs) and rights.allow = 0";
+
+    private static final String NO_ACCESS = "none";
+
+    private static final String OWNER_ACCESS = "owner";
+
     @Inject
     private Logger logger;
 
@@ -91,6 +118,13 @@ public class DefaultPatientAccessHelper implements PatientAccessHelper
     @Inject
     private EntityReferenceSerializer<String> entitySerializer;
 
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private QueryManager queryManager;
+
     @Inject
     private PermissionsManager manager;
 
@@ -186,31 +220,18 @@ public boolean setVisibility(Patient patient, Visibility visibility)
     @Override
     public AccessLevel getAccessLevel(Patient patient, EntityReference user)
     {
-        AccessLevel result = this.manager.resolveAccessLevel("none");
+        AccessLevel result = this.manager.resolveAccessLevel(NO_ACCESS);
         if (patient == null || user == null) {
             return result;
         }
         try {
             EntityReference owner = getOwner(patient).getUser();
             Collection<Collaborator> collaborators = getCollaborators(patient);
-            Set<DocumentReference> processedEntities = new HashSet<DocumentReference>();
-            Queue<DocumentReference> entitiesToCheck = new LinkedList<DocumentReference>();
-            entitiesToCheck.add((DocumentReference) user);
-            AccessLevel currentItemAccess = null;
-            DocumentReference currentItem;
-            XWikiContext context = getXWikiContext();
-            XWikiGroupService groupService = context.getWiki().getGroupService(context);
-            while (!entitiesToCheck.isEmpty()) {
-                currentItem = entitiesToCheck.poll();
-                currentItemAccess = getAccessLevel(currentItem, owner, collaborators);
+            for (DocumentReference userOrGroup : getUserAndGroups((DocumentReference) user)) {
+                AccessLevel currentItemAccess = getAccessLevel(userOrGroup, owner, collaborators);
                 if (currentItemAccess.compareTo(result) > 0) {
                     result = currentItemAccess;
                 }
-                processedEntities.add(currentItem);
-                Collection<DocumentReference> groups =
-                    groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context);
-                groups.removeAll(processedEntities);
-                entitiesToCheck.addAll(groups);
             }
         } catch (XWikiException ex) {
             this.logger.warn("Failed to compute access level for [{}] on [{}]: {}", user, patient.getDocument(),
@@ -219,6 +240,94 @@ public AccessLevel getAccessLevel(Patient patient, EntityReference user)
         return result;
     }
 
+    @Override
+    public Map<Patient, Visibility> getVisibilities(Collection<Patient> patients)
+    {
+        Map<DocumentReference, Visibility> visibilities = getDocumentVisibilities(getDocuments(patients));
+        Map<Patient, Visibility> result = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            Visibility visibility = visibilities.get(patient.getDocument());
+            if (visibility != null) {
+                result.put(patient, visibility);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Patient, AccessLevel> getAccessLevels(Collection<Patient> patients, DocumentReference user)
+    {
+        AccessLevel none = this.manager.resolveAccessLevel(NO_ACCESS);
+        Map<DocumentReference, AccessLevel> accessLevels = getDocumentAccessLevels(getDocuments(patients), user);
+        Map<Patient, AccessLevel> result = new LinkedHashMap<>();
+        for (Patient patient : patients) {
+            AccessLevel access = accessLevels.get(patient.getDocument());
+            result.put(patient, access != null ? access : none);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<DocumentReference, Visibility> getDocumentVisibilities(Collection<DocumentReference> documents)
+    {
+        Map<DocumentReference, Visibility> result = new LinkedHashMap<>();
+        for (Object[] row : queryPatients(VISIBILITY_QUERY, documents)) {
+            String name = (String) row[1];
+            Visibility visibility = StringUtils.isNotBlank(name) ? this.manager.resolveVisibility(name) : null;
+            if (visibility != null) {
+                result.put((DocumentReference) row[0], visibility);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<DocumentReference, AccessLevel> getDocumentAccessLevels(Collection<DocumentReference> documents,
+        DocumentReference user)
+    {
+        AccessLevel none = this.manager.resolveAccessLevel(NO_ACCESS);
+        Map<DocumentReference, AccessLevel> result = new LinkedHashMap<>();
+        for (DocumentReference document : documents) {
+            result.put(document, none);
+        }
+        if (user == null || documents.isEmpty()) {
+            return result;
+        }
+        Set<DocumentReference> userAndGroups;
+        try {
+            userAndGroups = getUserAndGroups(user);
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to compute the groups of [{}]: {}", user, ex.getMessage());
+            return result;
+        }
+
+        // The best access granted to the user on each document, either as an owner or as a collaborator
+        AccessLevel owner = this.manager.resolveAccessLevel(OWNER_ACCESS);
+        for (Object[] row : queryPatients(OWNER_QUERY, documents)) {
+            DocumentReference document = (DocumentReference) row[0];
+            if (isOneOf(row[1], document, userAndGroups)) {
+                grant(result, document, owner, none);
+            }
+        }
+        for (Object[] row : queryPatients(COLLABORATORS_QUERY, documents)) {
+            DocumentReference document = (DocumentReference) row[0];
+            if (isOneOf(row[1], document, userAndGroups) && row[2] != null) {
+                grant(result, document, this.manager.resolveAccessLevel(String.valueOf(row[2])), none);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<DocumentReference> getDocumentsWithDeniedRights(Collection<DocumentReference> documents)
+    {
+        Set<DocumentReference> result = new HashSet<>();
+        for (Object[] row : queryPatients(DENIALS_QUERY, documents)) {
+            result.add((DocumentReference) row[0]);
+        }
+        return result;
+    }
+
     @Override
     public Collection<Collaborator> getCollaborators(Patient patient)
     {
@@ -348,14 +457,121 @@ private AccessLevel getAccessLevel(EntityReference userOrGroup, EntityReference
         Collection<Collaborator> collaborators)
     {
         if (userOrGroup.equals(owner)) {
-            return this.manager.resolveAccessLevel("owner");
+            return this.manager.resolveAccessLevel(OWNER_ACCESS);
         }
         for (Collaborator collaborator : collaborators) {
             if (collaborator.getUser().equals(userOrGroup)) {
                 return collaborator.getAccessLevel();
             }
         }
-        return this.manager.resolveAccessLevel("none");
+        return this.manager.resolveAccessLevel(NO_ACCESS);
+    }
+
+    /**
+     * Get the user and all the groups it belongs to, directly or through other groups.
+     *
+     * @param user the user whose groups should be returned
+     * @return a set containing the user and its groups
+     * @throws XWikiException if the groups cannot be retrieved
+     */
+    private Set<DocumentReference> getUserAndGroups(DocumentReference user) throws XWikiException
+    {
+        Set<DocumentReference> result = new LinkedHashSet<>();
+        Queue<DocumentReference> entitiesToCheck = new LinkedList<>();
+        entitiesToCheck.add(user);
+        XWikiContext context = getXWikiContext();
+        XWikiGroupService groupService = context.getWiki().getGroupService(context);
+        while (!entitiesToCheck.isEmpty()) {
+            DocumentReference currentItem = entitiesToCheck.poll();
+            if (result.add(currentItem)) {
+                Collection<DocumentReference> groups =
+                    groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context);
+                if (groups != null) {
+                    for (DocumentReference group : groups) {
+                        if (!result.contains(group)) {
+                            entitiesToCheck.add(group);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Remember an access level granted on a document, if it is better than the one already known. */
+    private void grant(Map<DocumentReference, AccessLevel> accessLevels, DocumentReference document,
+        AccessLevel access, AccessLevel none)
+    {
+        AccessLevel previous = accessLevels.get(document);
+        if (access != null && (none == null || access.compareTo(none) > 0)
+            && (previous == null || access.compareTo(previous) > 0)) {
+            accessLevels.put(document, access);
+        }
+    }
+
+    private List<DocumentReference> getDocuments(Collection<Patient> patients)
+    {
+        List<DocumentReference> result = new ArrayList<>(patients.size());
+        for (Patient patient : patients) {
+            if (patient.getDocument() != null) {
+                result.add(patient.getDocument());
+            }
+        }
+        return result;
+    }
+
+    private boolean isOneOf(Object userOrGroup, DocumentReference document, Set<DocumentReference> candidates)
+    {
+        if (userOrGroup == null || StringUtils.isBlank(String.valueOf(userOrGroup))) {
+            return false;
+        }
+        return candidates.contains(this.stringEntityResolver.resolve(String.valueOf(userOrGroup), document));
+    }
+
+    /**
+     * Runs a query returning one row for each matching patient document, with the document name in the first column,
+     * checking the patients in batches. Patients from different wikis are queried in their own wiki.
+     *
+     * @param statement the XWQL query to run, with a {@code docs} parameter for the names of the checked documents
+     * @param patientDocuments the documents of the patients to check
+     * @return the query results, with the document names replaced by the corresponding document references
+     */
+    private List<Object[]> queryPatients(String statement, Collection<DocumentReference> patientDocuments)
+    {
+        List<Object[]> result = new ArrayList<>();
+        Map<String, Map<String, DocumentReference>> documentsByWiki = new HashMap<>();
+        for (DocumentReference document : patientDocuments) {
+            String wiki = document.getWikiReference().getName();
+            Map<String, DocumentReference> documents = documentsByWiki.get(wiki);
+            if (documents == null) {
+                documents = new HashMap<>();
+                documentsByWiki.put(wiki, documents);
+            }
+            documents.put(this.localSerializer.serialize(document), document);
+        }
+        for (Map.Entry<String, Map<String, DocumentReference>> wiki : documentsByWiki.entrySet()) {
+            List<String> names = new ArrayList<>(wiki.getValue().keySet());
+            for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+                List<String> batch = names.subList(start, Math.min(start + BATCH_SIZE, names.size()));
+                try {
+                    Query query = this.queryManager.createQuery(statement, Query.XWQL);
+                    query.setWiki(wiki.getKey());
+                    query.bindValue("docs", new ArrayList<>(batch));
+                    List<Object[]> rows = query.execute();
+                    for (Object[] row : rows) {
+                        DocumentReference document = wiki.getValue().get(row[0]);
+                        if (document != null) {
+                            Object[] converted = row.clone();
+                            converted[0] = document;
+                            result.add(converted);
+                        }
+                    }
+                } catch (QueryException ex) {
+                    this.logger.warn("Failed to read the access rights of patients: {}", ex.getMessage());
+                }
+            }
+        }
+        return result;
     }
 
     private XWikiContext getXWikiContext()
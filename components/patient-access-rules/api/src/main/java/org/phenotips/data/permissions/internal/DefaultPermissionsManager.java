@@ -17,6 +17,7 @@
  */
 package org.phenotips.data.permissions.internal;
 
+import org.phenotips.components.ComponentHandle;
 import org.phenotips.data.Patient;
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.PatientAccess;
@@ -24,17 +25,29 @@
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.events.PatientRightsUpdatedEvent;
+import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -64,6 +77,18 @@ public class DefaultPermissionsManager implements PermissionsManager
     @Inject
     private PermissionsConfiguration configuration;
 
+    /** Decides the access rights which can't be granted in bulk. */
+    @Inject
+    private AuthorizationService authorizationService;
+
+    /** Visibilities are resolved for each checked patient, so the components are only looked up once. */
+    private final ConcurrentMap<String, ComponentHandle<Visibility>> visibilities = new ConcurrentHashMap<>();
+
+    /** Access levels are resolved for each checked patient, so the components are only looked up once. */
+    private final ConcurrentMap<String, ComponentHandle<AccessLevel>> accessLevels = new ConcurrentHashMap<>();
+
+    private ComponentHandle<PatientAccessHelper> helper;
+
     @Override
     public Collection<Visibility> listVisibilityOptions()
     {
@@ -99,7 +124,7 @@ public Visibility resolveVisibility(String name)
     {
         try {
             if (StringUtils.isNotBlank(name)) {
-                return this.componentManager.get().getInstance(Visibility.class, name);
+                return resolve(this.visibilities, Visibility.class, name);
             }
         } catch (ComponentLookupException ex) {
             this.logger.warn("Invalid patient visibility requested: {}", name);
@@ -130,7 +155,7 @@ public AccessLevel resolveAccessLevel(String name)
     {
         try {
             if (StringUtils.isNotBlank(name)) {
-                return this.componentManager.get().getInstance(AccessLevel.class, name);
+                return resolve(this.accessLevels, AccessLevel.class, name);
             }
         } catch (ComponentLookupException ex) {
             this.logger.warn("Invalid patient access level requested: {}", name);
@@ -154,12 +179,12 @@ public Collection<Patient> filterByVisibility(Collection<Patient> patients, Visi
         if (patients == null || patients.isEmpty()) {
             return patientsWithVisibility;
         }
-        for (Patient patient : patients) {
-            if (patient != null) {
-                Visibility patientVisibility = this.getPatientAccess(patient).getVisibility();
-                if (requiredVisibility.compareTo(patientVisibility) <= 0) {
-                    patientsWithVisibility.add(patient);
-                }
+        List<Patient> candidates = withoutNulls(patients);
+        Map<Patient, Visibility> visibilities = getHelper().getVisibilities(candidates);
+        for (Patient patient : candidates) {
+            Visibility patientVisibility = getVisibility(visibilities, patient);
+            if (requiredVisibility.compareTo(patientVisibility) <= 0) {
+                patientsWithVisibility.add(patient);
             }
         }
 
@@ -178,10 +203,137 @@ public Iterator<Patient> filterByVisibility(Iterator<Patient> patients, Visibili
         return new FilteringIterator(patients, requiredVisibility, this);
     }
 
+    @Override
+    public Collection<Patient> filterAccessible(Collection<Patient> patients, EntityReference user,
+        AccessLevel requiredAccess)
+    {
+        if (requiredAccess == null) {
+            return patients;
+        }
+        Collection<Patient> accessiblePatients = new LinkedList<>();
+        if (patients == null || patients.isEmpty()) {
+            return accessiblePatients;
+        }
+        PatientAccessHelper patientHelper = getHelper();
+        List<Patient> candidates = withoutNulls(patients);
+        Map<Patient, Visibility> visibilities = patientHelper.getVisibilities(candidates);
+        DocumentReference userReference = user != null ? new DocumentReference(user) : null;
+        Map<Patient, AccessLevel> accessLevels = userReference != null
+            ? patientHelper.getAccessLevels(candidates, userReference)
+            : Collections.<Patient, AccessLevel>emptyMap();
+        for (Patient patient : candidates) {
+            AccessLevel access = accessLevels.get(patient);
+            Visibility visibility = getVisibility(visibilities, patient);
+            AccessLevel defaultAccess = visibility != null ? visibility.getDefaultAccessLevel() : null;
+            if (access == null || (defaultAccess != null && access.compareTo(defaultAccess) < 0)) {
+                access = defaultAccess;
+            }
+            // Administrators have full access, but checking this is expensive, so it's only done when needed
+            if ((access != null && access.compareTo(requiredAccess) >= 0)
+                || (userReference != null && patientHelper.isAdministrator(patient, userReference))) {
+                accessiblePatients.add(patient);
+            }
+        }
+        return accessiblePatients;
+    }
+
+    @Override
+    public Collection<DocumentReference> filterAuthorized(Collection<DocumentReference> patientDocuments, User user,
+        Right right)
+    {
+        Collection<DocumentReference> result = new LinkedList<>();
+        if (patientDocuments == null || patientDocuments.isEmpty()) {
+            return result;
+        }
+        List<DocumentReference> candidates = withoutNulls(patientDocuments);
+        Set<DocumentReference> granted = getGrantedInBulk(candidates, user, right);
+        for (DocumentReference document : candidates) {
+            if (granted.contains(document) || this.authorizationService.hasAccess(user, right, document)) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the documents on which the view right can be granted without asking the authorization service. The
+     * rights given by the owner, the collaborators and the visibility of a patient are stored as allow rules in the
+     * patient document itself, which take precedence over the rules set on the space or the wiki, so they can only be
+     * overridden by denials stored in the same document. Guests aren't members of the group which gets the rights of
+     * public records, and the other rights may be denied by record locks, so these are never granted in bulk.
+     */
+    private Set<DocumentReference> getGrantedInBulk(List<DocumentReference> documents, User user, Right right)
+    {
+        AccessLevel view = resolveAccessLevel("view");
+        if (right != Right.VIEW || view == null || user == null || user.getProfileDocument() == null) {
+            return Collections.emptySet();
+        }
+        PatientAccessHelper patientHelper = getHelper();
+        Map<DocumentReference, Visibility> visibilities = patientHelper.getDocumentVisibilities(documents);
+        Map<DocumentReference, AccessLevel> accessLevels =
+            patientHelper.getDocumentAccessLevels(documents, user.getProfileDocument());
+        Set<DocumentReference> denied = patientHelper.getDocumentsWithDeniedRights(documents);
+        Set<DocumentReference> result = new HashSet<>();
+        for (DocumentReference document : documents) {
+            if (denied.contains(document)) {
+                continue;
+            }
+            AccessLevel access = accessLevels.get(document);
+            Visibility visibility = visibilities.get(document);
+            AccessLevel defaultAccess = visibility != null ? visibility.getDefaultAccessLevel() : null;
+            if ((access != null && access.compareTo(view) >= 0)
+                || (defaultAccess != null && defaultAccess.compareTo(view) >= 0)) {
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    private <T> T resolve(ConcurrentMap<String, ComponentHandle<T>> handles, Class<T> role, String name)
+        throws ComponentLookupException
+    {
+        ComponentHandle<T> handle = handles.get(name);
+        if (handle == null) {
+            handle = new ComponentHandle<>(this.componentManager, role, name);
+            T result = handle.get();
+            // Only remember handles for existing components, so that unknown names don't fill up the map
+            handles.putIfAbsent(name, handle);
+            return result;
+        }
+        return handle.get();
+    }
+
+    /**
+     * Get the visibility of a patient from a batch of visibilities, falling back to the default private visibility,
+     * just like {@link DefaultPatientAccess#getVisibility()} does.
+     */
+    private Visibility getVisibility(Map<Patient, Visibility> visibilities, Patient patient)
+    {
+        Visibility result = visibilities.get(patient);
+        if (result == null) {
+            result = resolveVisibility("private");
+        }
+        return result;
+    }
+
+    private <T> List<T> withoutNulls(Collection<T> items)
+    {
+        List<T> result = new ArrayList<>(items.size());
+        for (T item : items) {
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
     private PatientAccessHelper getHelper()
     {
         try {
-            return this.componentManager.get().getInstance(PatientAccessHelper.class);
+            if (this.helper == null) {
+                this.helper = new ComponentHandle<>(this.componentManager, PatientAccessHelper.class, null);
+            }
+            return this.helper.get();
         } catch (ComponentLookupException ex) {
             this.logger.error("Mandatory component [PatientAccessHelper] missing: {}", ex.getMessage(), ex);
         }
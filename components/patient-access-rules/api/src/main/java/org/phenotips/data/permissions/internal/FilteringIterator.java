@@ -21,25 +21,37 @@
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * Filters an iterator over {@link Patient}s, returning only those that have their
- * {@link org.phenotips.data.permissions.PatientAccess#getVisibility() visibility} equal or above a threshold. The
- * {@link #remove()} method is not supported.
+ * {@link org.phenotips.data.permissions.PatientAccess#getVisibility() visibility} equal or above a threshold. The input
+ * is read in small batches, so that the visibility of a whole batch is checked at once. The {@link #remove()} method is
+ * not supported.
  *
  * @version $Id$
  * @since 1.3M2
  */
 public class FilteringIterator implements Iterator<Patient>
 {
+    /** How many patients are read from the input and checked at once. */
+    private static final int BATCH_SIZE = 50;
+
     private final Iterator<Patient> input;
 
     private final Visibility thresholdVisibility;
 
     private final PermissionsManager permissionsManager;
 
+    /** Patients from the last checked batch which have the required visibility, but weren't returned yet. */
+    private final Deque<Patient> accepted = new ArrayDeque<>();
+
     private Patient next;
 
     /**
@@ -87,15 +99,20 @@ private void findNext()
     {
         this.next = null;
 
-        while (this.input.hasNext() && this.next == null) {
-            Patient potentialNextPatient = this.input.next();
-            if (potentialNextPatient != null) {
-                Visibility patientVisibility =
-                    this.permissionsManager.getPatientAccess(potentialNextPatient).getVisibility();
-                if (this.thresholdVisibility.compareTo(patientVisibility) <= 0) {
-                    this.next = potentialNextPatient;
+        while (this.accepted.isEmpty() && this.input.hasNext()) {
+            List<Patient> batch = new ArrayList<>(BATCH_SIZE);
+            while (batch.size() < BATCH_SIZE && this.input.hasNext()) {
+                Patient potentialNextPatient = this.input.next();
+                if (potentialNextPatient != null) {
+                    batch.add(potentialNextPatient);
                 }
             }
+            if (!batch.isEmpty()) {
+                Collection<Patient> visible = this.permissionsManager.filterByVisibility(batch,
+                    this.thresholdVisibility);
+                this.accepted.addAll(visible);
+            }
         }
+        this.next = this.accepted.poll();
     }
 }
@@ -28,6 +28,8 @@
 import org.xwiki.model.reference.EntityReference;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @version $Id$
@@ -49,6 +51,64 @@
 
     AccessLevel getAccessLevel(Patient patient, EntityReference userOrGroup);
 
+    /**
+     * Get the visibility of several patients at once, reading the visibility of a whole batch of patients with a single
+     * query.
+     *
+     * @param patients the patients to check, must not contain {@code null} values
+     * @return the visibility of each patient; patients without a valid visibility are not included
+     * @since 1.3
+     */
+    Map<Patient, Visibility> getVisibilities(Collection<Patient> patients);
+
+    /**
+     * Get the access level granted to a user on several patients at once, either as the owner or as a collaborator,
+     * directly or through one of the user's groups. The owner and collaborators of a whole batch of patients are read
+     * with a single query, and the groups of the user are only computed once. Just like
+     * {@link #getAccessLevel(Patient, EntityReference)}, this doesn't take into account the visibility of the patients
+     * or administrative rights.
+     *
+     * @param patients the patients to check, must not contain {@code null} values
+     * @param user the user whose access is checked
+     * @return the access level granted to the user on each patient, {@code none} for patients where no access is
+     *         explicitly granted
+     * @since 1.3
+     */
+    Map<Patient, AccessLevel> getAccessLevels(Collection<Patient> patients, DocumentReference user);
+
+    /**
+     * Get the visibility of several patient documents at once, just like {@link #getVisibilities(Collection)}, for
+     * callers which only know the patient documents.
+     *
+     * @param documents the patient documents to check, must not contain {@code null} values
+     * @return the visibility of each document; documents without a valid visibility are not included
+     * @since 1.3
+     */
+    Map<DocumentReference, Visibility> getDocumentVisibilities(Collection<DocumentReference> documents);
+
+    /**
+     * Get the access level granted to a user on several patient documents at once, just like
+     * {@link #getAccessLevels(Collection, DocumentReference)}, for callers which only know the patient documents.
+     *
+     * @param documents the patient documents to check, must not contain {@code null} values
+     * @param user the user whose access is checked
+     * @return the access level granted to the user on each document, {@code none} for documents where no access is
+     *         explicitly granted
+     * @since 1.3
+     */
+    Map<DocumentReference, AccessLevel> getDocumentAccessLevels(Collection<DocumentReference> documents,
+        DocumentReference user);
+
+    /**
+     * Find which of several patient documents hold XWiki rights objects explicitly denying some rights. Such denials
+     * may take precedence over the rights granted by the owner, the collaborators and the visibility of the patient.
+     *
+     * @param documents the patient documents to check, must not contain {@code null} values
+     * @return the documents holding denials, may be empty
+     * @since 1.3
+     */
+    Set<DocumentReference> getDocumentsWithDeniedRights(Collection<DocumentReference> documents);
+
     boolean setVisibility(Patient patient, Visibility visibility);
 
     Collection<Collaborator> getCollaborators(Patient patient);
@@ -22,7 +22,12 @@
 import org.phenotips.data.permissions.PatientAccess;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
+
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
 
 import java.util.Collection;
 import java.util.Iterator;
@@ -100,6 +105,20 @@ public Iterator<Patient> filterByVisibility(Iterator<Patient> patients, Visibili
         return this.internalService.filterByVisibility(patients, requiredVisibility);
     }
 
+    @Override
+    public Collection<Patient> filterAccessible(Collection<Patient> patients, EntityReference user,
+        AccessLevel requiredAccess)
+    {
+        return this.internalService.filterAccessible(patients, user, requiredAccess);
+    }
+
+    @Override
+    public Collection<DocumentReference> filterAuthorized(Collection<DocumentReference> patientDocuments, User user,
+        Right right)
+    {
+        return this.internalService.filterAuthorized(patientDocuments, user, right);
+    }
+
     @Override
     public void fireRightsUpdateEvent(String patientId)
     {
@@ -39,6 +39,8 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.lang.reflect.ParameterizedType;
@@ -48,6 +50,8 @@
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -721,4 +725,88 @@ public void getType() throws Exception
         Assert.assertEquals("group", this.mocker.getComponentUnderTest().getType(GROUP));
         Assert.assertEquals("unknown", this.mocker.getComponentUnderTest().getType(COLLABORATOR));
     }
+
+    /**
+     * {@link PatientAccessHelper#getAccessLevels(Collection, DocumentReference)} reads the rights of all the patients
+     * with one query for owners and one for collaborators, and takes into account the groups of the user.
+     */
+    @Test
+    public void getAccessLevelsChecksAllPatientsTogether() throws Exception
+    {
+        AccessLevel none = new NoAccessLevel();
+        AccessLevel edit = new EditAccessLevel();
+        AccessLevel owner = new OwnerAccessLevel();
+        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
+        when(manager.resolveAccessLevel("none")).thenReturn(none);
+        when(manager.resolveAccessLevel("edit")).thenReturn(edit);
+        when(manager.resolveAccessLevel("owner")).thenReturn(owner);
+
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getGroupService(this.context)).thenReturn(groupService);
+        when(groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(new ArrayList<>(Collections.singletonList(GROUP)));
+
+        DocumentReference otherPatientReference = new DocumentReference("xwiki", "data", "P0000002");
+        Patient otherPatient = mock(Patient.class);
+        when(otherPatient.getDocument()).thenReturn(otherPatientReference);
+        when(this.stringEntityResolver.resolve(OTHER_USER_STR, otherPatientReference)).thenReturn(OTHER_USER);
+        when(this.stringEntityResolver.resolve(GROUP_STR, otherPatientReference)).thenReturn(GROUP);
+        EntityReferenceSerializer<String> localSerializer =
+            this.mocker.getInstance(this.stringSerializerType, "local");
+        when(localSerializer.serialize(PATIENT_REFERENCE)).thenReturn("data.P0000001");
+        when(localSerializer.serialize(otherPatientReference)).thenReturn("data.P0000002");
+
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Query ownersQuery = mock(Query.class);
+        when(qm.createQuery(Matchers.contains("PhenoTips.OwnerClass"), Matchers.eq(Query.XWQL)))
+            .thenReturn(ownersQuery);
+        when(ownersQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] { "data.P0000001", OWNER_STR },
+            new Object[] { "data.P0000002", OTHER_USER_STR }));
+        Query collaboratorsQuery = mock(Query.class);
+        when(qm.createQuery(Matchers.contains("PhenoTips.CollaboratorClass"), Matchers.eq(Query.XWQL)))
+            .thenReturn(collaboratorsQuery);
+        when(collaboratorsQuery.execute()).thenReturn(
+            Collections.<Object>singletonList(new Object[] { "data.P0000002", GROUP_STR, "edit" }));
+
+        Map<Patient, AccessLevel> result = this.mocker.getComponentUnderTest()
+            .getAccessLevels(Arrays.asList(this.patient, otherPatient), COLLABORATOR);
+        Assert.assertSame(none, result.get(this.patient));
+        Assert.assertSame(edit, result.get(otherPatient));
+
+        result = this.mocker.getComponentUnderTest()
+            .getAccessLevels(Arrays.asList(this.patient, otherPatient), OWNER);
+        Assert.assertSame(owner, result.get(this.patient));
+        Assert.assertSame(none, result.get(otherPatient));
+
+        Mockito.verify(qm, Mockito.times(4)).createQuery(Matchers.anyString(), Matchers.eq(Query.XWQL));
+        Mockito.verify(this.bridge, Mockito.never()).getDocument(Matchers.any(DocumentReference.class));
+    }
+
+    /**
+     * {@link PatientAccessHelper#getDocumentsWithDeniedRights(Collection)} finds the documents holding rights objects
+     * which deny some rights, with a single query.
+     */
+    @Test
+    public void getDocumentsWithDeniedRightsChecksAllDocumentsTogether() throws Exception
+    {
+        DocumentReference otherPatientReference = new DocumentReference("xwiki", "data", "P0000002");
+        EntityReferenceSerializer<String> localSerializer =
+            this.mocker.getInstance(this.stringSerializerType, "local");
+        when(localSerializer.serialize(PATIENT_REFERENCE)).thenReturn("data.P0000001");
+        when(localSerializer.serialize(otherPatientReference)).thenReturn("data.P0000002");
+
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Query denialsQuery = mock(Query.class);
+        when(qm.createQuery(Matchers.contains("XWiki.XWikiRights"), Matchers.eq(Query.XWQL)))
+            .thenReturn(denialsQuery);
+        when(denialsQuery.execute()).thenReturn(
+            Collections.<Object>singletonList(new Object[] { "data.P0000002", "view" }));
+
+        Set<DocumentReference> result = this.mocker.getComponentUnderTest()
+            .getDocumentsWithDeniedRights(Arrays.asList(PATIENT_REFERENCE, otherPatientReference));
+        Assert.assertEquals(Collections.singleton(otherPatientReference), result);
+        Mockito.verify(qm, Mockito.times(1)).createQuery(Matchers.anyString(), Matchers.eq(Query.XWQL));
+    }
 }
@@ -32,23 +32,37 @@
 import org.phenotips.data.permissions.internal.visibility.MockVisibility;
 import org.phenotips.data.permissions.internal.visibility.PrivateVisibility;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
+import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Matchers;
 
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -246,6 +260,22 @@ public void resolveVisibility() throws ComponentLookupException
         Assert.assertSame(this.publicVisibility, this.mocker.getComponentUnderTest().resolveVisibility("public"));
     }
 
+    /** {@link PermissionsManager#resolveVisibility(String)} only looks up each visibility once. */
+    @Test
+    public void resolveVisibilityRemembersComponents() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.getInstance(Visibility.class, "public")).thenReturn(this.publicVisibility);
+        when(cm.getInstance(AccessLevel.class, "edit")).thenReturn(this.edit);
+        PermissionsManager manager = this.mocker.getComponentUnderTest();
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertSame(this.publicVisibility, manager.resolveVisibility("public"));
+            Assert.assertSame(this.edit, manager.resolveAccessLevel("edit"));
+        }
+        verify(cm, times(1)).getInstance(Visibility.class, "public");
+        verify(cm, times(1)).getInstance(AccessLevel.class, "edit");
+    }
+
     /** {@link PermissionsManager#resolveVisibility(String)} returns null if a null or blank visibility is requested. */
     @Test
     public void resolveVisibilityWithNoAccess() throws ComponentLookupException
@@ -331,16 +361,18 @@ public void filterCollectionByVisibilityWithValidInputFiltersPatients() throws C
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Collection<Patient> result = this.mocker.getComponentUnderTest()
@@ -358,16 +390,18 @@ public void filterIteratorByVisibilityWithValidInputFiltersPatients() throws Com
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Iterator<Patient> result = this.mocker.getComponentUnderTest()
@@ -386,17 +420,19 @@ public void filterCollectionByVisibilityWithNullInInputFiltersValidPatients() th
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
         input.add(null);
 
@@ -415,17 +451,19 @@ public void filterIteratorByVisibilityWithNullInInputFiltersValidPatients() thro
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
         input.add(null);
 
@@ -445,17 +483,19 @@ public void filterCollectionByVisibilityWithNonMatchingInputReturnsEmptyList() t
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new HiddenVisibility());
+        visibilities.put(p1, new HiddenVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Collection<Patient> result = this.mocker.getComponentUnderTest()
@@ -470,17 +510,19 @@ public void filterIteratorByVisibilityWithNonMatchingInputReturnsEmptyIterator()
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new HiddenVisibility());
+        visibilities.put(p1, new HiddenVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Iterator<Patient> result = this.mocker.getComponentUnderTest()
@@ -495,17 +537,19 @@ public void filterCollectionByVisibilityWithNullThresholdReturnsUnfilteredList()
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Collection<Patient> result = this.mocker.getComponentUnderTest()
@@ -525,17 +569,19 @@ public void filterIteratorByVisibilityWithNullThresholdReturnsUnfilteredIterator
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Iterator<Patient> result = this.mocker.getComponentUnderTest()
@@ -557,17 +603,19 @@ public void filterIteratorByVisibilityReturnsReadonlyIterator() throws Component
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
         Patient p2 = mock(Patient.class);
-        when(helper.getVisibility(p2)).thenReturn(new HiddenVisibility());
+        visibilities.put(p2, new HiddenVisibility());
         input.add(p2);
         input.add(null);
         Patient p3 = mock(Patient.class);
-        when(helper.getVisibility(p3)).thenReturn(new PrivateVisibility());
+        visibilities.put(p3, new PrivateVisibility());
         input.add(p3);
 
         Iterator<Patient> result = this.mocker.getComponentUnderTest()
@@ -582,10 +630,12 @@ public void filterIteratorByVisibilityReturnsCorrectIterator() throws ComponentL
         ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
         PatientAccessHelper helper = mock(PatientAccessHelper.class);
         when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
 
         Collection<Patient> input = new ArrayList<>();
         Patient p1 = mock(Patient.class);
-        when(helper.getVisibility(p1)).thenReturn(new PublicVisibility());
+        visibilities.put(p1, new PublicVisibility());
         input.add(p1);
 
         Iterator<Patient> result = this.mocker.getComponentUnderTest()
@@ -594,4 +644,206 @@ public void filterIteratorByVisibilityReturnsCorrectIterator() throws ComponentL
         Assert.assertFalse(result.hasNext());
         result.next();
     }
+
+    @Test
+    public void filterAccessibleChecksAllPatientsTogether() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        PatientAccessHelper helper = mock(PatientAccessHelper.class);
+        when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        DocumentReference user = new DocumentReference("xwiki", "XWiki", "hmccoy");
+
+        List<Patient> input = new ArrayList<>();
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        Map<Patient, AccessLevel> accessLevels = new HashMap<>();
+        Patient p1 = mock(Patient.class);
+        visibilities.put(p1, this.publicVisibility);
+        accessLevels.put(p1, this.none);
+        input.add(p1);
+        Patient p2 = mock(Patient.class);
+        visibilities.put(p2, this.privateVisibility);
+        accessLevels.put(p2, this.edit);
+        input.add(p2);
+        input.add(null);
+        Patient p3 = mock(Patient.class);
+        visibilities.put(p3, this.privateVisibility);
+        accessLevels.put(p3, this.none);
+        input.add(p3);
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
+        when(helper.getAccessLevels(Matchers.anyCollectionOf(Patient.class), eq(user))).thenReturn(accessLevels);
+
+        Collection<Patient> result = this.mocker.getComponentUnderTest().filterAccessible(input, user, this.view);
+        Assert.assertEquals(2, result.size());
+        Iterator<Patient> it = result.iterator();
+        Assert.assertSame(p1, it.next());
+        Assert.assertSame(p2, it.next());
+
+        result = this.mocker.getComponentUnderTest().filterAccessible(input, user, this.edit);
+        Assert.assertEquals(Collections.singletonList(p2), new ArrayList<>(result));
+
+        verify(helper, times(2)).getVisibilities(Matchers.anyCollectionOf(Patient.class));
+        verify(helper, times(2)).getAccessLevels(Matchers.anyCollectionOf(Patient.class), eq(user));
+        verify(helper, never()).getVisibility(Matchers.any(Patient.class));
+        verify(helper, never()).getAccessLevel(Matchers.any(Patient.class), Matchers.any(DocumentReference.class));
+        verify(helper, never()).isAdministrator(p2, user);
+    }
+
+    @Test
+    public void filterAccessibleIncludesAdministeredPatients() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        PatientAccessHelper helper = mock(PatientAccessHelper.class);
+        when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        DocumentReference user = new DocumentReference("xwiki", "XWiki", "padams");
+
+        Patient p1 = mock(Patient.class);
+        Patient p2 = mock(Patient.class);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        visibilities.put(p1, this.privateVisibility);
+        visibilities.put(p2, this.privateVisibility);
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
+        when(helper.isAdministrator(p2, user)).thenReturn(true);
+
+        Collection<Patient> result =
+            this.mocker.getComponentUnderTest().filterAccessible(Arrays.asList(p1, p2), user, this.manage);
+        Assert.assertEquals(Collections.singletonList(p2), new ArrayList<>(result));
+    }
+
+    @Test
+    public void filterAccessibleForGuestsUsesVisibility() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        PatientAccessHelper helper = mock(PatientAccessHelper.class);
+        when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+
+        Patient p1 = mock(Patient.class);
+        Patient p2 = mock(Patient.class);
+        Map<Patient, Visibility> visibilities = new HashMap<>();
+        visibilities.put(p1, this.privateVisibility);
+        visibilities.put(p2, this.publicVisibility);
+        when(helper.getVisibilities(Matchers.anyCollectionOf(Patient.class))).thenReturn(visibilities);
+
+        Collection<Patient> result =
+            this.mocker.getComponentUnderTest().filterAccessible(Arrays.asList(p1, p2), null, this.view);
+        Assert.assertEquals(Collections.singletonList(p2), new ArrayList<>(result));
+        verify(helper, never()).getAccessLevels(Matchers.anyCollectionOf(Patient.class),
+            Matchers.any(DocumentReference.class));
+    }
+
+    @Test
+    public void filterAccessibleWithNullAccessReturnsUnfilteredList() throws ComponentLookupException
+    {
+        Collection<Patient> input = Arrays.asList(mock(Patient.class), null);
+        Assert.assertSame(input, this.mocker.getComponentUnderTest().filterAccessible(input, null, null));
+    }
+
+    @Test
+    public void filterAuthorizedGrantsViewRightsInBulk() throws ComponentLookupException
+    {
+        PatientAccessHelper helper = mockAuthorizationChecks();
+        AuthorizationService authorization = this.mocker.getInstance(AuthorizationService.class);
+        User user = mockUser("hmccoy");
+        DocumentReference shared = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference published = new DocumentReference("xwiki", "data", "P0000002");
+        DocumentReference other = new DocumentReference("xwiki", "data", "P0000003");
+        Map<DocumentReference, AccessLevel> accessLevels = new HashMap<>();
+        accessLevels.put(shared, this.view);
+        accessLevels.put(published, this.none);
+        accessLevels.put(other, this.none);
+        when(helper.getDocumentAccessLevels(Matchers.anyCollectionOf(DocumentReference.class),
+            eq(user.getProfileDocument()))).thenReturn(accessLevels);
+        when(helper.getDocumentVisibilities(Matchers.anyCollectionOf(DocumentReference.class)))
+            .thenReturn(Collections.singletonMap(published, this.publicVisibility));
+
+        Collection<DocumentReference> result = this.mocker.getComponentUnderTest()
+            .filterAuthorized(Arrays.asList(shared, null, published, other), user, Right.VIEW);
+
+        Assert.assertEquals(Arrays.asList(shared, published), new ArrayList<>(result));
+        verify(authorization, never()).hasAccess(user, Right.VIEW, shared);
+        verify(authorization, never()).hasAccess(user, Right.VIEW, published);
+        verify(authorization).hasAccess(user, Right.VIEW, other);
+    }
+
+    @Test
+    public void filterAuthorizedIncludesDocumentsGrantedByXWikiRights() throws ComponentLookupException
+    {
+        PatientAccessHelper helper = mockAuthorizationChecks();
+        AuthorizationService authorization = this.mocker.getInstance(AuthorizationService.class);
+        User user = mockUser("padams");
+        DocumentReference granted = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference notGranted = new DocumentReference("xwiki", "data", "P0000002");
+        when(helper.getDocumentVisibilities(Matchers.anyCollectionOf(DocumentReference.class)))
+            .thenReturn(Collections.<DocumentReference, Visibility>emptyMap());
+        when(authorization.hasAccess(user, Right.VIEW, granted)).thenReturn(true);
+
+        Collection<DocumentReference> result = this.mocker.getComponentUnderTest()
+            .filterAuthorized(Arrays.asList(granted, notGranted), user, Right.VIEW);
+
+        Assert.assertEquals(Collections.singletonList(granted), new ArrayList<>(result));
+    }
+
+    @Test
+    public void filterAuthorizedHonoursExplicitDenials() throws ComponentLookupException
+    {
+        PatientAccessHelper helper = mockAuthorizationChecks();
+        AuthorizationService authorization = this.mocker.getInstance(AuthorizationService.class);
+        User user = mockUser("hmccoy");
+        DocumentReference denied = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference owned = new DocumentReference("xwiki", "data", "P0000002");
+        Map<DocumentReference, AccessLevel> accessLevels = new HashMap<>();
+        accessLevels.put(denied, this.owner);
+        accessLevels.put(owned, this.owner);
+        when(helper.getDocumentAccessLevels(Matchers.anyCollectionOf(DocumentReference.class),
+            eq(user.getProfileDocument()))).thenReturn(accessLevels);
+        Set<DocumentReference> denials = new HashSet<>();
+        denials.add(denied);
+        when(helper.getDocumentsWithDeniedRights(Matchers.anyCollectionOf(DocumentReference.class)))
+            .thenReturn(denials);
+        when(authorization.hasAccess(user, Right.VIEW, denied)).thenReturn(false);
+
+        Collection<DocumentReference> result = this.mocker.getComponentUnderTest()
+            .filterAuthorized(Arrays.asList(denied, owned), user, Right.VIEW);
+
+        Assert.assertEquals(Collections.singletonList(owned), new ArrayList<>(result));
+        verify(authorization).hasAccess(user, Right.VIEW, denied);
+    }
+
+    @Test
+    public void filterAuthorizedChecksGuestsAndOtherRightsWithTheAuthorizationService()
+        throws ComponentLookupException
+    {
+        PatientAccessHelper helper = mockAuthorizationChecks();
+        AuthorizationService authorization = this.mocker.getInstance(AuthorizationService.class);
+        User user = mockUser("hmccoy");
+        DocumentReference published = new DocumentReference("xwiki", "data", "P0000001");
+        when(helper.getDocumentVisibilities(Matchers.anyCollectionOf(DocumentReference.class)))
+            .thenReturn(Collections.singletonMap(published, this.publicVisibility));
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .filterAuthorized(Collections.singletonList(published), null, Right.VIEW).isEmpty());
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .filterAuthorized(Collections.singletonList(published), user, Right.EDIT).isEmpty());
+
+        verify(authorization).hasAccess(null, Right.VIEW, published);
+        verify(authorization).hasAccess(user, Right.EDIT, published);
+        verify(helper, never()).getDocumentVisibilities(Matchers.anyCollectionOf(DocumentReference.class));
+    }
+
+    private PatientAccessHelper mockAuthorizationChecks() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        PatientAccessHelper helper = mock(PatientAccessHelper.class);
+        when(cm.getInstance(PatientAccessHelper.class)).thenReturn(helper);
+        when(cm.getInstance(AccessLevel.class, "view")).thenReturn(this.view);
+        when(helper.getDocumentsWithDeniedRights(Matchers.anyCollectionOf(DocumentReference.class)))
+            .thenReturn(Collections.<DocumentReference>emptySet());
+        return helper;
+    }
+
+    private User mockUser(String name)
+    {
+        User user = mock(User.class);
+        when(user.getProfileDocument()).thenReturn(new DocumentReference("xwiki", "XWiki", name));
+        return user;
+    }
 }
@@ -23,6 +23,7 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.List;
 import java.util.Set;
 
 import org.json.JSONObject;
@@ -92,6 +93,32 @@ PushServerSendPatientResponse sendPatient(Patient patient, Set<String> exportFie
         String groupName, String remoteGUID, String remoteServerIdentifier, String userName, String password,
         String user_token);
 
+    /**
+     * Submits several patients to the specified remote server, the same way {@link #sendPatient} does for one patient.
+     * If the remote server supports it, the patients are sent in a few compressed requests, otherwise they are sent one
+     * by one.
+     *
+     * @param patients local patients to be pushed to the remote server
+     * @param exportFields patient fields to be pushed, the same for all the patients. All other fields will be omitted.
+     * @param patientStates for each patient, in the same order, the JSON containing different categories of patient
+     *            state, such as granted consents; the list may be shorter, or contain {@code null} values
+     * @param groupName group name (optional, can be {@code null})
+     * @param remoteGUIDs for each patient, in the same order, the GUID of the remote patient to update, see
+     *            {@link #sendPatient}; can be {@code null}, shorter than the list of patients, or contain {@code null}
+     *            values, meaning that new remote patients will be created
+     * @param remoteServerIdentifier server name as configured in TODO
+     * @param userName user name on the remote server
+     * @param password user password on the remote server. Ignored if user_token is not null.
+     * @param userToken passwordless-login token provided by the remote server on the last successful login (optional,
+     *            can be {@code null})
+     * @return for each patient, in the same order, the server response for that patient, or {@code null} if no response
+     *         was received from the server for that patient
+     * @since 1.3
+     */
+    List<PushServerSendPatientResponse> sendPatients(List<Patient> patients, Set<String> exportFields,
+        List<JSONObject> patientStates, String groupName, List<String> remoteGUIDs, String remoteServerIdentifier,
+        String userName, String password, String userToken);
+
     /**
      * Gets the remote patient ID and URL for viewing the remote patient.
      * <p>
@@ -24,18 +24,26 @@
 import org.phenotips.data.push.PushServerConfigurationResponse;
 import org.phenotips.data.push.PushServerGetPatientIDResponse;
 import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.shareprotocol.PatientBatch;
 import org.phenotips.data.shareprotocol.ShareProtocol;
 import org.phenotips.data.shareprotocol.ShareProtocol.Incompatibility;
 
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URLEncoder;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -48,9 +56,13 @@
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
@@ -68,7 +80,7 @@
  */
 @Component
 @Singleton
-public class DefaultPushPatientData implements PushPatientData
+public class DefaultPushPatientData implements PushPatientData, Initializable
 {
     /** Server configuration ID property name within the PushPatientServer class. */
     public static final String PUSH_SERVER_CONFIG_ID_PROPERTY_NAME = "name";
@@ -90,6 +102,12 @@ public class DefaultPushPatientData implements PushPatientData
 
     private static final String XWIKI_RAW_OUTPUT_VALUE = "plain";
 
+    /** How many patients are sent in one batch push request. */
+    private static final int BATCH_SIZE = 50;
+
+    /** How many remote servers to remember the protocol version for. */
+    private static final int MAX_CACHED_SERVERS = 100;
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -98,11 +116,26 @@ public class DefaultPushPatientData implements PushPatientData
     @Inject
     private Execution execution;
 
+    /** Creates the protocol versions cache. */
+    @Inject
+    private CacheManager cacheManager;
+
     /** HTTP client used for communicating with the remote server. */
     private final CloseableHttpClient client = HttpClients.createSystem();
 
-    /** A cache of known protocol versions for various server */
-    private Map<String, String> protocolVersionsCache = new HashMap<>();
+    /** A cache of known protocol versions for various servers, shared by concurrent pushes. */
+    private Cache<String> protocolVersionsCache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.protocolVersionsCache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("pushProtocolVersions", MAX_CACHED_SERVERS));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the push protocol versions cache", ex);
+        }
+    }
 
     /**
      * Helper method for obtaining a valid xcontext from the execution context.
@@ -220,7 +253,7 @@ public PushServerConfigurationResponse getRemoteConfiguration(String remoteServe
 
         // store the last known version of push protocol used by the server, so that without client code
         // worrying about that a proper serializer (when possible) is used when pushing data to that server
-        this.protocolVersionsCache.put(remoteServerIdentifier, serverProtocolVersion);
+        this.protocolVersionsCache.set(remoteServerIdentifier, serverProtocolVersion);
 
         return serverResponse;
     }
@@ -291,31 +324,7 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
             List<NameValuePair> data =
                 generateRequestData(ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH, userName, password, userToken,
                     serverProtocolVersion);
-            if (exportFields != null) {
-                // Version information is required in the JSON; when exportFields is null everything is included anyway
-                exportFields.add(VersionsController.getEnablingFieldName());
-            }
-
-            // for compatibility with servers running older versions of PhenoTips:
-            //
-            // if the target server is known to support only old versions of push protocol, replace
-            // those fields which are not compatible with compatible alternatives (to trigger old serializers)
-            if (this.protocolVersionsCache.containsKey(remoteServerIdentifier)) {
-                if (ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.containsKey(serverProtocolVersion)) {
-                    this.logger.warn("Using old serializers for protocol version [{}] to push data to server [{}]",
-                        serverProtocolVersion, remoteServerIdentifier);
-                    List<ShareProtocol.Incompatibility> incompatibilitiesList =
-                        ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.get(serverProtocolVersion);
-                    for (Incompatibility incompat : incompatibilitiesList) {
-                        if (exportFields.contains(incompat.getCurrentFieldName())) {
-                            exportFields.remove(incompat.getCurrentFieldName());
-                            if (!StringUtils.isEmpty(incompat.getDeprecatedFieldName())) {
-                                exportFields.add(incompat.getDeprecatedFieldName());
-                            }
-                        }
-                    }
-                }
-            }
+            prepareExportFields(exportFields, serverProtocolVersion, remoteServerIdentifier);
 
             String patientJSON = patient.toJSON(exportFields).toString();
             this.logger.debug("Sending patient JSON: [{}]", patientJSON);
@@ -357,6 +366,158 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
         return null;
     }
 
+    @Override
+    public List<PushServerSendPatientResponse> sendPatients(List<Patient> patients, Set<String> exportFields,
+        List<JSONObject> patientStates, String groupName, List<String> remoteGUIDs, String remoteServerIdentifier,
+        String userName, String password, String userToken)
+    {
+        List<PushServerSendPatientResponse> result = new ArrayList<>(patients.size());
+        String serverProtocolVersion = this.getProtocolVersionForPushingToServer(remoteServerIdentifier);
+        if (!ShareProtocol.BATCH_PUSH_PROTOCOL_VERSIONS.contains(serverProtocolVersion)) {
+            // older servers only accept one patient per request
+            for (int i = 0; i < patients.size(); ++i) {
+                JSONObject patientState = getOrNull(patientStates, i);
+                result.add(sendPatient(patients.get(i), exportFields,
+                    patientState != null ? patientState : new JSONObject(), groupName, getOrNull(remoteGUIDs, i),
+                    remoteServerIdentifier, userName, password, userToken));
+            }
+            return result;
+        }
+
+        this.logger.info("Pushing [{}] patients to server: [{}]", patients.size(), remoteServerIdentifier);
+        prepareExportFields(exportFields, serverProtocolVersion, remoteServerIdentifier);
+
+        JSONObject parameters = new JSONObject();
+        parameters.put(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME, userName);
+        if (StringUtils.isNotBlank(userToken)) {
+            parameters.put(ShareProtocol.CLIENT_POST_KEY_NAME_USER_TOKEN, userToken);
+        } else {
+            parameters.put(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD, password);
+        }
+        if (groupName != null) {
+            parameters.put(ShareProtocol.CLIENT_POST_KEY_NAME_GROUPNAME, groupName);
+        }
+
+        for (int start = 0; start < patients.size(); start += BATCH_SIZE) {
+            int end = Math.min(patients.size(), start + BATCH_SIZE);
+            List<JSONObject> entries = new ArrayList<>(end - start);
+            for (int i = start; i < end; ++i) {
+                JSONObject entry = new JSONObject();
+                entry.put(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON, patients.get(i).toJSON(exportFields));
+                entry.putOpt(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE, getOrNull(patientStates, i));
+                entry.putOpt(ShareProtocol.CLIENT_POST_KEY_NAME_GUID, getOrNull(remoteGUIDs, i));
+                entries.add(entry);
+            }
+            result.addAll(sendBatch(new PatientBatch(parameters, entries), serverProtocolVersion,
+                remoteServerIdentifier));
+        }
+        return result;
+    }
+
+    /**
+     * Sends one batch push request.
+     *
+     * @param batch the patients to push, along with the credentials
+     * @param serverProtocolVersion the protocol version used by the remote server
+     * @param remoteServerIdentifier server name
+     * @return the responses for each patient in the batch, {@code null} values if no response was received
+     */
+    private List<PushServerSendPatientResponse> sendBatch(PatientBatch batch, String serverProtocolVersion,
+        String remoteServerIdentifier)
+    {
+        int size = batch.getPatients().size();
+        HttpPost method = null;
+        try {
+            String submitURL = getBaseURL(this.getPushServerConfiguration(remoteServerIdentifier));
+            if (submitURL == null) {
+                return Collections.nCopies(size, null);
+            }
+            // the credentials are sent in the request body, only the dispatching parameters are in the URL
+            method = new HttpPost(new URIBuilder(submitURL)
+                .addParameter(XWIKI_RAW_OUTPUT_KEY, XWIKI_RAW_OUTPUT_VALUE)
+                .addParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER, serverProtocolVersion)
+                .addParameter(ShareProtocol.CLIENT_POST_KEY_NAME_ACTION,
+                    ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH)
+                .build());
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            batch.writeTo(body);
+            ByteArrayEntity entity =
+                new ByteArrayEntity(body.toByteArray(), ContentType.create(PatientBatch.CONTENT_TYPE, Consts.UTF_8));
+            entity.setContentEncoding(PatientBatch.CONTENT_ENCODING);
+            method.setEntity(entity);
+            this.logger.debug("Sending [{}] patients in [{}] compressed bytes", size, body.size());
+
+            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+                int returnCode = httpResponse.getStatusLine().getStatusCode();
+                this.logger.trace("Batch push HTTP return code: {}", returnCode);
+
+                String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
+                this.logger.trace("RESPONSE FROM SERVER: {}", response);
+                JSONObject responseJSON = new JSONObject(response);
+
+                // if the whole batch failed, for example because of invalid credentials, the same failure applies to
+                // each patient
+                JSONArray statuses = responseJSON.optJSONArray(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS);
+                List<PushServerSendPatientResponse> result = new ArrayList<>(size);
+                for (int i = 0; i < size; ++i) {
+                    JSONObject status = statuses == null ? responseJSON : statuses.optJSONObject(i);
+                    result.add(status == null ? null : new DefaultPushServerSendPatientResponse(status));
+                }
+                return result;
+            }
+        } catch (Exception ex) {
+            this.logger.error("Failed to push patients: {}", ex.getMessage(), ex);
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+        return Collections.nCopies(size, null);
+    }
+
+    /**
+     * Adjusts the fields to export for the protocol version used by the remote server.
+     *
+     * @param exportFields the requested fields, modified in place; {@code null} means all the fields
+     * @param serverProtocolVersion the protocol version used by the remote server
+     * @param remoteServerIdentifier server name
+     */
+    private void prepareExportFields(Set<String> exportFields, String serverProtocolVersion,
+        String remoteServerIdentifier)
+    {
+        if (exportFields == null) {
+            // everything is included anyway
+            return;
+        }
+        // Version information is required in the JSON
+        exportFields.add(VersionsController.getEnablingFieldName());
+
+        // for compatibility with servers running older versions of PhenoTips:
+        //
+        // if the target server is known to support only old versions of push protocol, replace
+        // those fields which are not compatible with compatible alternatives (to trigger old serializers)
+        if (ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.containsKey(serverProtocolVersion)) {
+            this.logger.warn("Using old serializers for protocol version [{}] to push data to server [{}]",
+                serverProtocolVersion, remoteServerIdentifier);
+            List<ShareProtocol.Incompatibility> incompatibilitiesList =
+                ShareProtocol.INCOMPATIBILITIES_IN_OLD_PROTOCOL_VERSIONS.get(serverProtocolVersion);
+            for (Incompatibility incompat : incompatibilitiesList) {
+                if (exportFields.contains(incompat.getCurrentFieldName())) {
+                    exportFields.remove(incompat.getCurrentFieldName());
+                    if (!StringUtils.isEmpty(incompat.getDeprecatedFieldName())) {
+                        exportFields.add(incompat.getDeprecatedFieldName());
+                    }
+                }
+            }
+        }
+    }
+
+    private static <T> T getOrNull(List<T> list, int index)
+    {
+        return list != null && index < list.size() ? list.get(index) : null;
+    }
+
     @Override
     public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifier, String remoteGUID,
         String userName, String password, String userToken)
@@ -398,8 +559,7 @@ public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifie
 
     private String getProtocolVersionForPushingToServer(String remoteServerIdentifier)
     {
-        return this.protocolVersionsCache.containsKey(remoteServerIdentifier)
-            ? this.protocolVersionsCache.get(remoteServerIdentifier)
-            : ShareProtocol.CURRENT_PUSH_PROTOCOL_VERSION;
+        String result = this.protocolVersionsCache.get(remoteServerIdentifier);
+        return result != null ? result : ShareProtocol.CURRENT_PUSH_PROTOCOL_VERSION;
     }
 }
@@ -0,0 +1,325 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.push.PushPatientData;
+import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.shareprotocol.PatientBatch;
+import org.phenotips.data.shareprotocol.PatientBatchReader;
+import org.phenotips.data.shareprotocol.ShareProtocol;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPushPatientData} component, pushing to an in-process HTTP server which stands in for the
+ * remote {@code receivePatientData} page.
+ *
+ * @version $Id$
+ */
+public class DefaultPushPatientDataTest
+{
+    private static final String SERVER = "remote";
+
+    private static final String USER = "user";
+
+    private static final String PASSWORD = "pass";
+
+    @Rule
+    public final MockitoComponentMockingRule<PushPatientData> mocker =
+        new MockitoComponentMockingRule<PushPatientData>(DefaultPushPatientData.class);
+
+    private HttpServer server;
+
+    private String serverProtocolVersion;
+
+    /** The actions of the requests received by the fake server, in order. */
+    private final List<String> actions = Collections.synchronizedList(new ArrayList<String>());
+
+    /** The batches received by the fake server, in order. */
+    private final List<PatientBatch> batches = Collections.synchronizedList(new ArrayList<PatientBatch>());
+
+    private final Map<String, String> cachedVersions = new HashMap<>();
+
+    private CacheConfiguration cacheConfiguration;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        // A cache working like a map, remembering everything
+        final Cache<String> cache = mock(Cache.class);
+        doAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return DefaultPushPatientDataTest.this.cachedVersions.get(invocation.getArguments()[0]);
+            }
+        }).when(cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                DefaultPushPatientDataTest.this.cachedVersions.put((String) invocation.getArguments()[0],
+                    (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), anyString());
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        doAnswer(new Answer<Cache<String>>()
+        {
+            @Override
+            public Cache<String> answer(InvocationOnMock invocation)
+            {
+                DefaultPushPatientDataTest.this.cacheConfiguration = (CacheConfiguration) invocation.getArguments()[0];
+                return cache;
+            }
+        }).when(cacheManager).createNewCache(any(CacheConfiguration.class));
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new ReceiverHandler());
+        this.server.start();
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        XWikiContext context = mock(XWikiContext.class);
+        when(executionContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY)).thenReturn(context);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(context.getWikiId()).thenReturn("xwiki");
+        XWikiDocument prefs = mock(XWikiDocument.class);
+        when(xwiki.getDocument(any(DocumentReference.class), eq(context))).thenReturn(prefs);
+        BaseObject serverConfiguration = mock(BaseObject.class);
+        when(prefs.getXObject(any(DocumentReference.class),
+            eq(DefaultPushPatientData.PUSH_SERVER_CONFIG_ID_PROPERTY_NAME), eq(SERVER)))
+            .thenReturn(serverConfiguration);
+        when(serverConfiguration.getStringValue(DefaultPushPatientData.PUSH_SERVER_CONFIG_URL_PROPERTY_NAME))
+            .thenReturn("http://localhost:" + this.server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void protocolVersionsCacheIsBounded() throws Exception
+    {
+        this.mocker.getComponentUnderTest();
+
+        Assert.assertTrue(this.cacheConfiguration instanceof LRUCacheConfiguration);
+        Assert.assertTrue(
+            ((LRUCacheConfiguration) this.cacheConfiguration).getLRUEvictionConfiguration().getMaxEntries() > 0);
+    }
+
+    @Test
+    public void sendPatientsPushesAllPatientsInOneRequest() throws Exception
+    {
+        this.serverProtocolVersion = ShareProtocol.VERSION_1_3;
+        this.mocker.getComponentUnderTest().getRemoteConfiguration(SERVER, USER, PASSWORD, null);
+
+        List<Patient> patients = mockPatients(3);
+        List<PushServerSendPatientResponse> responses = this.mocker.getComponentUnderTest().sendPatients(patients,
+            new HashSet<>(Arrays.asList("identifier")), null, "group", Arrays.asList(null, "guid1", null), SERVER,
+            USER, PASSWORD, null);
+
+        Assert.assertEquals(Arrays.asList(ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_INFO,
+            ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH), this.actions);
+        Assert.assertEquals(1, this.batches.size());
+        PatientBatch batch = this.batches.get(0);
+        Assert.assertEquals(USER, batch.getParameters().getString(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME));
+        Assert.assertEquals(PASSWORD, batch.getParameters().getString(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD));
+        Assert.assertEquals("group", batch.getParameters().getString(ShareProtocol.CLIENT_POST_KEY_NAME_GROUPNAME));
+        Assert.assertEquals(3, batch.getPatients().size());
+        Assert.assertEquals("P1", batch.getPatients().get(1)
+            .getJSONObject(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON).getString("id"));
+        Assert.assertEquals("guid1", batch.getPatients().get(1).getString(ShareProtocol.CLIENT_POST_KEY_NAME_GUID));
+        Assert.assertFalse(batch.getPatients().get(0).has(ShareProtocol.CLIENT_POST_KEY_NAME_GUID));
+
+        Assert.assertEquals(3, responses.size());
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertTrue(responses.get(i).isSuccessful());
+            Assert.assertEquals("R" + i, responses.get(i).getRemotePatientID());
+        }
+    }
+
+    @Test
+    public void sendPatientsFallsBackToSinglePushesForOldServers() throws Exception
+    {
+        this.serverProtocolVersion = ShareProtocol.VERSION_1_2;
+        this.mocker.getComponentUnderTest().getRemoteConfiguration(SERVER, USER, PASSWORD, null);
+        this.actions.clear();
+
+        List<PushServerSendPatientResponse> responses = this.mocker.getComponentUnderTest().sendPatients(
+            mockPatients(2), null, null, null, null, SERVER, USER, PASSWORD, null);
+
+        Assert.assertEquals(Arrays.asList(ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH,
+            ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH), this.actions);
+        Assert.assertTrue(this.batches.isEmpty());
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals("R0", responses.get(0).getRemotePatientID());
+        Assert.assertEquals("R1", responses.get(1).getRemotePatientID());
+    }
+
+    private List<Patient> mockPatients(int count)
+    {
+        List<Patient> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Patient patient = mock(Patient.class);
+            JSONObject json = new JSONObject().put("id", "P" + i);
+            when(patient.toJSON(anyCollectionOf(String.class))).thenReturn(json);
+            result.add(patient);
+        }
+        return result;
+    }
+
+    private static PatientBatch readBatch(HttpExchange exchange) throws IOException
+    {
+        try (PatientBatchReader reader =
+            new PatientBatchReader(exchange.getRequestBody(), Integer.MAX_VALUE, Integer.MAX_VALUE, 500)) {
+            JSONObject parameters = reader.readParameters();
+            List<JSONObject> patients = new ArrayList<>();
+            JSONObject patient;
+            while ((patient = reader.nextPatient()) != null) {
+                patients.add(patient);
+            }
+            return new PatientBatch(parameters, patients);
+        }
+    }
+
+    /** Answers requests the same way the remote {@code receivePatientData} page does. */
+    private final class ReceiverHandler implements HttpHandler
+    {
+        private int pushed;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            URI uri = exchange.getRequestURI();
+            List<NameValuePair> parameters = new ArrayList<>(URLEncodedUtils.parse(uri, "UTF-8"));
+            JSONObject response = new JSONObject();
+            response.put(ShareProtocol.SERVER_JSON_KEY_NAME_PROTOCOLVER,
+                DefaultPushPatientDataTest.this.serverProtocolVersion);
+
+            if (ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH
+                .equals(getParameter(parameters, ShareProtocol.CLIENT_POST_KEY_NAME_ACTION))) {
+                PatientBatch batch = readBatch(exchange);
+                DefaultPushPatientDataTest.this.batches.add(batch);
+                JSONArray statuses = new JSONArray();
+                for (int i = 0; i < batch.getPatients().size(); ++i) {
+                    statuses.put(pushedPatient());
+                }
+                response.put(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS, true);
+                response.put(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS, statuses);
+            } else {
+                String form = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+                parameters.addAll(URLEncodedUtils.parse(form, StandardCharsets.UTF_8));
+                String requestedVersion = getParameter(parameters, ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER);
+                if (!DefaultPushPatientDataTest.this.serverProtocolVersion.equals(requestedVersion)) {
+                    response.put(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_PROTOCOLFAILED, true);
+                } else if (ShareProtocol.CLIENT_POST_ACTIONKEY_VALUE_PUSH
+                    .equals(getParameter(parameters, ShareProtocol.CLIENT_POST_KEY_NAME_ACTION))) {
+                    response = pushedPatient();
+                } else {
+                    response.put(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS, true);
+                }
+            }
+            DefaultPushPatientDataTest.this.actions.add(
+                getParameter(parameters, ShareProtocol.CLIENT_POST_KEY_NAME_ACTION));
+
+            byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private JSONObject pushedPatient()
+        {
+            JSONObject result = new JSONObject();
+            result.put(ShareProtocol.SERVER_JSON_KEY_NAME_PROTOCOLVER,
+                DefaultPushPatientDataTest.this.serverProtocolVersion);
+            result.put(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS, true);
+            result.put(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_PATIENTID, "R" + this.pushed++);
+            return result;
+        }
+
+        private String getParameter(List<NameValuePair> parameters, String name)
+        {
+            for (NameValuePair parameter : parameters) {
+                if (name.equals(parameter.getName())) {
+                    return parameter.getValue();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -116,6 +116,23 @@
      */
     JSONObject receivePatient();
 
+    /**
+     * Receives several patients in one request, and for each one either updates an existing patient or creates a new
+     * patient, the same way {@link #receivePatient()} does. The request body is a gzip-compressed
+     * {@link org.phenotips.data.shareprotocol.PatientBatch} holding the credentials, the target group, and the pushed
+     * patients.
+     * <p>
+     * Credentials and the group are validated once for the whole batch, and in case of problems the same failure
+     * {@code JSONObject} as {@link #receivePatient()} is returned. Otherwise, the response has {@code success} set to
+     * {@code true} and a {@code patients} JSON array holding, for each received patient and in the same order, the
+     * same {@code JSONObject} that {@link #receivePatient()} would return for that patient alone.
+     *
+     * @return {@code JSONObject} with {@code success} set to {@code true} and the per-patient results if the batch was
+     *         processed, and set to {@code false} in case of any failures affecting the whole batch
+     * @since 1.3
+     */
+    JSONObject receivePatients();
+
     /**
      * Returns the URL of the patient object with the given GUID. Requires a valid username and credentials to be
      * supplied in the request, which are validated the same way {@code getConfiguration()} does, and returns the same
@@ -28,6 +28,7 @@
 import org.phenotips.data.receive.ReceivePatientData;
 import org.phenotips.data.securestorage.LocalLoginToken;
 import org.phenotips.data.securestorage.SecureStorageManager;
+import org.phenotips.data.shareprotocol.PatientBatchReader;
 import org.phenotips.data.shareprotocol.ShareProtocol;
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
@@ -45,6 +46,7 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URLDecoder;
@@ -92,6 +94,15 @@ public class DefaultReceivePatientData implements ReceivePatientData
 
     private final static String SERVER_CONFIG_USER_TOKEN_EXPIRE_PROPERTY_NAME = "user_token_life_in_days";
 
+    /** The maximum number of patients accepted in one batch push request. */
+    private final static int MAX_PATIENTS_PER_BATCH = 500;
+
+    /** The maximum number of bytes accepted in one batch push request, both compressed and decompressed. */
+    private final static long MAX_BATCH_SIZE = 256L * 1024 * 1024;
+
+    /** The maximum number of characters accepted for one patient in a batch push request. */
+    private final static int MAX_BATCH_LINE_LENGTH = 8 * 1024 * 1024;
+
     /** used for secure user login token generation */
     private SecureRandom secureRandomGenerator = new SecureRandom();
 
@@ -395,25 +406,35 @@ protected boolean userTokensEnabled(BaseObject serverConfig)
      *         otherwise
      */
     protected JSONObject validateLogin(XWikiRequest request, XWikiContext context)
+    {
+        return validateLogin(request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER),
+            request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME),
+            request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD),
+            request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_USER_TOKEN), request, context);
+    }
+
+    /**
+     * Same as {@link #validateLogin(XWikiRequest, XWikiContext)}, but with the protocol version and credentials
+     * received in some other way than request parameters, for example in the body of a batch push.
+     *
+     * @return {@code null} iff user name and user credentials are valid, a JSON object containing error description
+     *         otherwise
+     */
+    protected JSONObject validateLogin(String clientVersion, String userName, String password, String token,
+        XWikiRequest request, XWikiContext context)
     {
         try {
-            String clientVersion = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER);
             if (!isCompatibleVersion(clientVersion)) {
                 this.logger.error("Rejecting push request by {} - incompatible push protocol version",
                     request.getRemoteAddr());
                 return generateIncompatibleVersionResponse();
             }
 
-            String userName = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME);
-            String token = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_USER_TOKEN);
-
             if (userName == null) {
                 return generateFailedCredentialsResponse();
             }
 
             if (token == null) {
-                String password = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD);
-
                 if (context.getWiki().getAuthService().authenticate(userName, password, context) == null) {
                     return generateFailedCredentialsResponse();
                 }
@@ -478,95 +499,231 @@ public JSONObject receivePatient()
                 return generateFailedActionResponse();
             }
 
-            Set<String> consentIds = null;
+            JSONObject patientState = null;
             String patientStateRaw = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE);
             if (patientStateRaw != null) {
-                consentIds = extractConsents(patientStateRaw);
-                // there should not be any consent updates if consents are not enabled
-                if (!consentIds.isEmpty() && !this.consentAuthorizer.consentsGloballyEnabled()) {
-                    // reject, as a non-malicious user would never arrive to this execution point
-                    return this.generateFailedActionResponse();
+                patientState = patientStateToJson(patientStateRaw);
+                if (patientState == null) {
+                    // a misformatted state is handled as a state without any consents
+                    patientState = new JSONObject();
                 }
             }
 
             boolean requireConsents =
                 areConsentsRequired(request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER));
-            if (requireConsents) {
-                boolean consentAuthorized = this.consentAuthorizer.authorizeInteraction(consentIds);
-                if (!consentAuthorized) {
-                    this.logger.error("Rejecting patient data from {} - not all required consents have been given",
-                        request.getRemoteAddr());
-                    return this.generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_MISSINGCONSENT);
-                }
-            }
 
             String patientJSON = URLDecoder.decode(patientJSONRaw, XWiki.DEFAULT_ENCODING);
             this.logger.debug("Received patient JSON: [{}]", patientJSON);
 
-            Patient affectedPatient;
-
-            // if GUID is present in the request attempt to update an existing patient
-            // (or fail if GUID is invalid or the patient is not created/authored by the user)
-            String guid = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GUID);
             User user = this.userManager.getUser(userName);
             context.setUserReference(user.getProfileDocument());
 
-            if (guid != null) {
-                affectedPatient = getPatientByGUID(guid);
-                if (affectedPatient == null) {
-                    return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID);
-                }
-                if (!userCanAccessPatient(userName, affectedPatient)) {
-                    return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_GUIDACCESSDENIED);
-                }
-                this.logger.warn("Loaded existing patient [{}] successfully", affectedPatient.getDocument().getName());
-            } else {
+            BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
+            String sourceServerName = getRemoteServerName(serverConfig, request);
 
-                affectedPatient = this.patientRepository.create(user.getProfileDocument());
+            return storeReceivedPatient(new JSONObject(patientJSON), patientState,
+                request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GUID), userName, user, groupName,
+                requireConsents, sourceServerName, context);
+        } catch (Exception ex) {
+            this.logger.error("Error importing patient [{}] {}", ex.getMessage(), ex);
+            return this.generateFailedActionResponse();
+        }
+    }
 
-                XWikiDocument doc = getPatientDocument(affectedPatient);
-                doc.setAuthorReference(user.getProfileDocument());
+    @Override
+    public JSONObject receivePatients()
+    {
+        try {
+            XWikiContext context = getXContext();
+            XWikiRequest request = context.getRequest();
 
-                // assign ownership to group (if provided) or to the user, and set access rights
-                if (groupName != null) {
-                    Group group = this.groupManager.getGroup(groupName);
-                    this.permissionManager.getPatientAccess(affectedPatient).setOwner(group.getReference());
-                    this.permissionManager.getPatientAccess(affectedPatient).addCollaborator(user.getProfileDocument(),
-                        this.permissionManager.resolveAccessLevel("manage"));
-                } else {
-                    this.permissionManager.getPatientAccess(affectedPatient).setOwner(user.getProfileDocument());
-                }
+            this.logger.warn("Push patients request from remote [{}]", request.getRemoteAddr());
 
-                if (affectedPatient == null) {
-                    this.logger.error("Can not create new patient");
-                    return generateFailedActionResponse();
-                }
+            String clientVersion = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER);
+            if (!ShareProtocol.BATCH_PUSH_PROTOCOL_VERSIONS.contains(clientVersion)) {
+                this.logger.error("Rejecting batch push request by {} - incompatible push protocol version",
+                    request.getRemoteAddr());
+                return generateIncompatibleVersionResponse();
+            }
 
-                this.logger.warn("Created new patient successfully");
+            try (PatientBatchReader batch = new PatientBatchReader(request.getInputStream(), MAX_BATCH_SIZE,
+                MAX_BATCH_LINE_LENGTH, MAX_PATIENTS_PER_BATCH)) {
+                return receiveBatch(batch, clientVersion, request, context);
             }
+        } catch (Exception ex) {
+            this.logger.error("Error importing patients [{}] {}", ex.getMessage(), ex);
+            return this.generateFailedActionResponse();
+        }
+    }
 
-            JSONObject patientData = new JSONObject(patientJSON);
-            affectedPatient.updateFromJSON(patientData);
+    private JSONObject receiveBatch(PatientBatchReader batch, String clientVersion, XWikiRequest request,
+        XWikiContext context) throws Exception
+    {
+        // only the parameters are read before the credentials are checked, the patients are read one by one afterwards
+        JSONObject parameters;
+        try {
+            parameters = batch.readParameters();
+        } catch (IOException ex) {
+            this.logger.error("Invalid batch push request by {}: {}", request.getRemoteAddr(), ex.getMessage());
+            return generateFailedActionResponse();
+        }
 
-            if (consentIds != null) {
-                this.consentManager.setPatientConsents(affectedPatient, consentIds);
-            }
+        String userName = parameters.optString(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME, null);
+        JSONObject loginError = validateLogin(clientVersion, userName,
+            parameters.optString(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD, null),
+            parameters.optString(ShareProtocol.CLIENT_POST_KEY_NAME_USER_TOKEN, null), request, context);
+        if (loginError != null) {
+            return loginError;
+        }
 
-            this.logger.warn("Updated patient successfully");
+        String groupName = parameters.optString(ShareProtocol.CLIENT_POST_KEY_NAME_GROUPNAME, null);
+        if (groupName != null && !isValidUserGroup(userName, groupName)) {
+            this.logger.warn("Incorrect group name provided by {}", request.getRemoteAddr());
+            return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGROUP);
+        }
 
-            // store separately from the patient object
-            BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
-            String sourceServerName = getRemoteServerName(serverConfig, request);
-            String patientGUID = getPatientGUID(affectedPatient);
-            this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName);
+        boolean requireConsents = areConsentsRequired(clientVersion);
+        User user = this.userManager.getUser(userName);
+        context.setUserReference(user.getProfileDocument());
+        BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
+        String sourceServerName = getRemoteServerName(serverConfig, request);
 
-            return generateSuccessfulResponseWithPatientIDs(affectedPatient, context);
+        JSONArray results = new JSONArray();
+        try {
+            JSONObject entry;
+            while ((entry = batch.nextPatient()) != null) {
+                results.put(receiveBatchEntry(entry, userName, user, groupName, requireConsents, sourceServerName,
+                    context));
+            }
+        } catch (IOException ex) {
+            // the patients before the invalid one are already stored, so their status is still reported
+            this.logger.error("Invalid batch push request by {}: {}", request.getRemoteAddr(), ex.getMessage());
+            JSONObject response = generateFailedActionResponse();
+            response.put(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS, results);
+            return response;
+        }
+        this.logger.warn("Processed [{}] patients pushed by [{}]", results.length(), request.getRemoteAddr());
+
+        JSONObject response = generateSuccessfulResponse();
+        response.put(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS, results);
+        return response;
+    }
+
+    private JSONObject receiveBatchEntry(JSONObject entry, String userName, User user, String groupName,
+        boolean requireConsents, String sourceServerName, XWikiContext context)
+    {
+        try {
+            JSONObject patientData = entry.optJSONObject(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON);
+            if (patientData == null) {
+                this.logger.error("No patient data provided in a batch entry");
+                return generateFailedActionResponse();
+            }
+            JSONObject patientState = null;
+            if (entry.has(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE)) {
+                patientState = entry.optJSONObject(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE);
+                if (patientState == null) {
+                    patientState = new JSONObject();
+                }
+            }
+            return storeReceivedPatient(patientData, patientState,
+                entry.optString(ShareProtocol.CLIENT_POST_KEY_NAME_GUID, null), userName, user, groupName,
+                requireConsents, sourceServerName, context);
         } catch (Exception ex) {
             this.logger.error("Error importing patient [{}] {}", ex.getMessage(), ex);
             return this.generateFailedActionResponse();
         }
     }
 
+    /**
+     * Creates a new patient or updates an existing one with received data, once the request was authenticated and the
+     * target group was validated.
+     *
+     * @param patientData the received patient JSON
+     * @param patientState the received patient state, may be {@code null}
+     * @param guid the GUID of the existing patient to update, or {@code null} to create a new patient
+     * @param userName the name of the authenticated user pushing the patient
+     * @param user the authenticated user pushing the patient
+     * @param groupName the group which will own a new patient, may be {@code null}
+     * @param requireConsents whether the required consents must be granted
+     * @param sourceServerName the name of the server pushing the patient
+     * @param context the current request context
+     * @return the response for this patient
+     * @throws Exception if storing the patient fails
+     */
+    protected JSONObject storeReceivedPatient(JSONObject patientData, JSONObject patientState, String guid,
+        String userName, User user, String groupName, boolean requireConsents, String sourceServerName,
+        XWikiContext context) throws Exception
+    {
+        Set<String> consentIds = null;
+        if (patientState != null) {
+            consentIds = extractConsents(patientState);
+            // there should not be any consent updates if consents are not enabled
+            if (!consentIds.isEmpty() && !this.consentAuthorizer.consentsGloballyEnabled()) {
+                // reject, as a non-malicious user would never arrive to this execution point
+                return this.generateFailedActionResponse();
+            }
+        }
+
+        if (requireConsents) {
+            boolean consentAuthorized = this.consentAuthorizer.authorizeInteraction(consentIds);
+            if (!consentAuthorized) {
+                this.logger.error("Rejecting patient data from {} - not all required consents have been given",
+                    sourceServerName);
+                return this.generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_MISSINGCONSENT);
+            }
+        }
+
+        Patient affectedPatient;
+
+        // if GUID is present in the request attempt to update an existing patient
+        // (or fail if GUID is invalid or the patient is not created/authored by the user)
+        if (guid != null) {
+            affectedPatient = getPatientByGUID(guid);
+            if (affectedPatient == null) {
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_INCORRECTGUID);
+            }
+            if (!userCanAccessPatient(userName, affectedPatient)) {
+                return generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_GUIDACCESSDENIED);
+            }
+            this.logger.warn("Loaded existing patient [{}] successfully", affectedPatient.getDocument().getName());
+        } else {
+            affectedPatient = this.patientRepository.create(user.getProfileDocument());
+            if (affectedPatient == null) {
+                this.logger.error("Can not create new patient");
+                return generateFailedActionResponse();
+            }
+
+            XWikiDocument doc = getPatientDocument(affectedPatient);
+            doc.setAuthorReference(user.getProfileDocument());
+
+            // assign ownership to group (if provided) or to the user, and set access rights
+            if (groupName != null) {
+                Group group = this.groupManager.getGroup(groupName);
+                this.permissionManager.getPatientAccess(affectedPatient).setOwner(group.getReference());
+                this.permissionManager.getPatientAccess(affectedPatient).addCollaborator(user.getProfileDocument(),
+                    this.permissionManager.resolveAccessLevel("manage"));
+            } else {
+                this.permissionManager.getPatientAccess(affectedPatient).setOwner(user.getProfileDocument());
+            }
+
+            this.logger.warn("Created new patient successfully");
+        }
+
+        affectedPatient.updateFromJSON(patientData);
+
+        if (consentIds != null) {
+            this.consentManager.setPatientConsents(affectedPatient, consentIds);
+        }
+
+        this.logger.warn("Updated patient successfully");
+
+        // store separately from the patient object
+        String patientGUID = getPatientGUID(affectedPatient);
+        this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName);
+
+        return generateSuccessfulResponseWithPatientIDs(affectedPatient, context);
+    }
+
     private boolean areConsentsRequired(String clientProtocolVersion)
     {
         if (!ShareProtocol.ALLOW_NO_CONSENTS_PROTOCOL_VERSIONS.contains(clientProtocolVersion)) {
@@ -582,26 +739,22 @@ private boolean areConsentsRequired(String clientProtocolVersion)
     }
 
     /**
-     * Exctacts the list of granted consents from a request
+     * Exctacts the list of granted consents from a patient state.
      *
-     * @param rawPatientState patient state JSON string directly from the {@link Request} object
+     * @param patientState the received patient state JSON
      */
-    private Set<String> extractConsents(String rawPatientState)
+    private Set<String> extractConsents(JSONObject patientState)
     {
         Set<String> consents = new HashSet<>();
-        JSONObject patientState = this.patientStateToJson(rawPatientState);
-        if (patientState != null) {
-            try {
-                JSONArray consentsJson =
-                    patientState.optJSONArray(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE_CONSENTS);
-                if (consentsJson != null) {
-                    for (Object consent : consentsJson) {
-                        consents.add(consent.toString());
-                    }
+        try {
+            JSONArray consentsJson = patientState.optJSONArray(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE_CONSENTS);
+            if (consentsJson != null) {
+                for (Object consent : consentsJson) {
+                    consents.add(consent.toString());
                 }
-            } catch (Exception ex) {
-                this.logger.error("Misformatted patient consent string: {}", ex.getMessage());
             }
+        } catch (Exception ex) {
+            this.logger.error("Misformatted patient consent string: {}", ex.getMessage());
         }
         return consents;
     }
@@ -60,6 +60,11 @@ public JSONObject receivePatient()
         return this.internalService.receivePatient();
     }
 
+    public JSONObject receivePatients()
+    {
+        return this.internalService.receivePatients();
+    }
+
     public JSONObject untrustedServerResponse()
     {
         return this.internalService.untrustedServerResponse();
@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.receive.internal;
+
+import org.phenotips.configuration.internal.consent.ConsentAuthorizer;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.receive.ReceivePatientData;
+import org.phenotips.data.shareprotocol.PatientBatch;
+import org.phenotips.data.shareprotocol.ShareProtocol;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiAuthService;
+import com.xpn.xwiki.web.XWikiRequest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the batch push handling in {@link DefaultReceivePatientData}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class DefaultReceivePatientDataTest
+{
+    private static final String USER = "user";
+
+    private static final String PASSWORD = "pass";
+
+    @Rule
+    public final MockitoComponentMockingRule<ReceivePatientData> mocker =
+        new MockitoComponentMockingRule<ReceivePatientData>(DefaultReceivePatientData.class);
+
+    private XWikiRequest request;
+
+    private XWikiAuthService authService;
+
+    private PatientRepository repository;
+
+    private Patient patient;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        XWikiContext context = mock(XWikiContext.class);
+        when(executionContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY)).thenReturn(context);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(context.getWikiId()).thenReturn("xwiki");
+        this.authService = mock(XWikiAuthService.class);
+        when(xwiki.getAuthService()).thenReturn(this.authService);
+
+        this.request = mock(XWikiRequest.class);
+        when(context.getRequest()).thenReturn(this.request);
+        when(this.request.getRemoteAddr()).thenReturn("127.0.0.1");
+        when(this.request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PROTOCOLVER))
+            .thenReturn(ShareProtocol.VERSION_1_3);
+
+        UserManager users = this.mocker.getInstance(UserManager.class);
+        User user = mock(User.class);
+        DocumentReference profile = new DocumentReference("xwiki", "XWiki", USER);
+        when(user.getProfileDocument()).thenReturn(profile);
+        when(users.getUser(USER)).thenReturn(user);
+
+        ConsentAuthorizer consents = this.mocker.getInstance(ConsentAuthorizer.class);
+        when(consents.authorizeInteraction(Matchers.<Set<String>>any())).thenReturn(true);
+
+        this.repository = this.mocker.getInstance(PatientRepository.class);
+        this.patient = mock(Patient.class);
+        when(this.repository.create(profile)).thenReturn(this.patient);
+        when(this.patient.getDocument()).thenReturn(new DocumentReference("xwiki", "data", "P0000001"));
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(bridge.getDocument(this.patient.getDocument())).thenReturn(doc);
+        BaseObject patientObject = mock(BaseObject.class);
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(patientObject);
+        when(patientObject.getGuid()).thenReturn("guid");
+        PermissionsManager permissions = this.mocker.getInstance(PermissionsManager.class);
+        when(permissions.getPatientAccess(this.patient)).thenReturn(mock(PatientAccess.class));
+    }
+
+    @Test
+    public void receivePatientsStoresAllPatients() throws Exception
+    {
+        when(this.authService.authenticate(eq(USER), eq(PASSWORD), any(XWikiContext.class)))
+            .thenReturn(mock(Principal.class));
+        JSONObject first = new JSONObject().put("external_id", "first");
+        JSONObject second = new JSONObject().put("external_id", "second");
+        setBody(write(new PatientBatch(credentials(),
+            Arrays.asList(patientEntry(first), patientEntry(second)))));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertTrue(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        JSONArray results = response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS);
+        Assert.assertEquals(2, results.length());
+        Assert.assertTrue(results.getJSONObject(0).getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        Assert.assertEquals("guid",
+            results.getJSONObject(1).getString(ShareProtocol.SERVER_JSON_PUSH_KEY_NAME_PATIENTGUID));
+        verify(this.patient).updateFromJSON(Matchers.argThat(new JSONMatcher(first)));
+        verify(this.patient).updateFromJSON(Matchers.argThat(new JSONMatcher(second)));
+    }
+
+    @Test
+    public void receivePatientsChecksCredentialsBeforeReadingPatients() throws Exception
+    {
+        when(this.authService.authenticate(eq(USER), eq(PASSWORD), any(XWikiContext.class))).thenReturn(null);
+        // the patient lines are not valid JSON, and would fail the whole request if they were read
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write(credentials().toString());
+            writer.write("\nnot json\n");
+        }
+        setBody(out.toByteArray());
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertFalse(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        Assert.assertTrue(response.optBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_WRONGCREDENTIALS));
+        verify(this.repository, never()).create(any(DocumentReference.class));
+    }
+
+    @Test
+    public void receivePatientsRejectsOversizedPatients() throws Exception
+    {
+        when(this.authService.authenticate(eq(USER), eq(PASSWORD), any(XWikiContext.class)))
+            .thenReturn(mock(Principal.class));
+        // a small compressed body holding a single line longer than accepted
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write(credentials().toString());
+            writer.write('\n');
+            writer.write(patientEntry(new JSONObject()).toString());
+            writer.write("\n{\"notes\":\"");
+            char[] chunk = new char[1024 * 1024];
+            Arrays.fill(chunk, ' ');
+            for (int i = 0; i < 9; ++i) {
+                writer.write(chunk);
+            }
+            writer.write("\"}\n");
+        }
+        setBody(out.toByteArray());
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertFalse(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        JSONArray results = response.getJSONArray(ShareProtocol.SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS);
+        Assert.assertEquals(1, results.length());
+        verify(this.repository).create(any(DocumentReference.class));
+    }
+
+    @Test
+    public void receivePatientsRejectsInvalidBodies() throws Exception
+    {
+        setBody("{}".getBytes(StandardCharsets.UTF_8));
+
+        JSONObject response = this.mocker.getComponentUnderTest().receivePatients();
+
+        Assert.assertFalse(response.getBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS));
+        verify(this.authService, never()).authenticate(any(String.class), any(String.class),
+            any(XWikiContext.class));
+    }
+
+    private JSONObject credentials()
+    {
+        return new JSONObject().put(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME, USER)
+            .put(ShareProtocol.CLIENT_POST_KEY_NAME_PASSWORD, PASSWORD);
+    }
+
+    private JSONObject patientEntry(JSONObject patientData)
+    {
+        return new JSONObject().put(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON, patientData);
+    }
+
+    private byte[] write(PatientBatch batch) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private void setBody(byte[] body) throws IOException
+    {
+        final ByteArrayInputStream data = new ByteArrayInputStream(body);
+        ServletInputStream in = mock(ServletInputStream.class);
+        when(in.read()).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                return data.read();
+            }
+        });
+        when(in.read(any(byte[].class), anyInt(), anyInt())).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                Object[] args = invocation.getArguments();
+                return data.read((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+            }
+        });
+        when(in.read(any(byte[].class))).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                byte[] buffer = (byte[]) invocation.getArguments()[0];
+                return data.read(buffer, 0, buffer.length);
+            }
+        });
+        when(this.request.getInputStream()).thenReturn(in);
+    }
+
+    /** Matches JSON objects with the same content as an expected one. */
+    private static final class JSONMatcher extends ArgumentMatcher<JSONObject>
+    {
+        private final JSONObject expected;
+
+        JSONMatcher(JSONObject expected)
+        {
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            return argument instanceof JSONObject && ((JSONObject) argument).similar(this.expected);
+        }
+    }
+}
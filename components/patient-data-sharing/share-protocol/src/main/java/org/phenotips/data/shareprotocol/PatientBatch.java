@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.shareprotocol;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+
+/**
+ * The body of a {@link ShareProtocol#CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH batch push} request: a gzip-compressed
+ * stream of newline delimited JSON objects, where the first object holds the request parameters (credentials and target
+ * group), and each of the following objects describes one pushed patient. Received batches are read with a
+ * {@link PatientBatchReader}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public class PatientBatch
+{
+    /** The content type of a serialized batch. */
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    /** The content encoding of a serialized batch. */
+    public static final String CONTENT_ENCODING = "gzip";
+
+    private static final char SEPARATOR = '\n';
+
+    private final JSONObject parameters;
+
+    private final List<JSONObject> patients;
+
+    /**
+     * Simple constructor passing all the data.
+     *
+     * @param parameters the request parameters, see {@link #getParameters()}
+     * @param patients the pushed patients, see {@link #getPatients()}
+     */
+    public PatientBatch(JSONObject parameters, List<JSONObject> patients)
+    {
+        this.parameters = parameters;
+        this.patients = Collections.unmodifiableList(new ArrayList<>(patients));
+    }
+
+    /**
+     * The request parameters, using the same keys as a single patient push:
+     * {@link ShareProtocol#CLIENT_POST_KEY_NAME_USERNAME}, {@link ShareProtocol#CLIENT_POST_KEY_NAME_PASSWORD} or
+     * {@link ShareProtocol#CLIENT_POST_KEY_NAME_USER_TOKEN}, and optionally
+     * {@link ShareProtocol#CLIENT_POST_KEY_NAME_GROUPNAME}.
+     *
+     * @return a JSON object, not {@code null}
+     */
+    public JSONObject getParameters()
+    {
+        return this.parameters;
+    }
+
+    /**
+     * The pushed patients, each one a JSON object with the {@link ShareProtocol#CLIENT_POST_KEY_NAME_PATIENTJSON}
+     * key holding the patient JSON, and optionally the {@link ShareProtocol#CLIENT_POST_KEY_NAME_GUID} and
+     * {@link ShareProtocol#CLIENT_POST_KEY_NAME_PATIENTSTATE} keys.
+     *
+     * @return an unmodifiable list, may be empty
+     */
+    public List<JSONObject> getPatients()
+    {
+        return this.patients;
+    }
+
+    /**
+     * Serializes this batch into the given stream. The stream is not closed.
+     *
+     * @param out the stream where to write the compressed batch
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        // JSON serialization escapes all line breaks, so each object is written on exactly one line
+        this.parameters.write(writer);
+        for (JSONObject patient : this.patients) {
+            writer.write(SEPARATOR);
+            patient.write(writer);
+        }
+        writer.flush();
+        zip.finish();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.shareprotocol;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads a {@link PatientBatch} serialized with {@link PatientBatch#writeTo(java.io.OutputStream)} one line at a time,
+ * so that the request parameters can be checked before any patient is read, and so that a receiver never holds more
+ * than one patient in memory. Since the input comes from untrusted clients, the total decompressed size, the length
+ * of each line, and the number of patients are all bounded.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public class PatientBatchReader implements Closeable
+{
+    /** The maximum length of the parameters line, which only holds credentials and a group name. */
+    private static final int MAX_PARAMETERS_LENGTH = 64 * 1024;
+
+    private static final char SEPARATOR = '\n';
+
+    private final BufferedReader reader;
+
+    private final int maxLineLength;
+
+    private final int maxPatients;
+
+    private JSONObject parameters;
+
+    private int patientCount;
+
+    /**
+     * Starts reading a batch from the given stream. Closing this reader also closes the stream.
+     *
+     * @param in the stream holding the compressed batch
+     * @param maxSize the maximum number of bytes accepted, both compressed and after decompression
+     * @param maxLineLength the maximum number of characters accepted for one patient
+     * @param maxPatients the maximum number of patients accepted in one batch
+     * @throws IOException if the stream cannot be read or isn't gzip-compressed
+     */
+    public PatientBatchReader(InputStream in, long maxSize, int maxLineLength, int maxPatients) throws IOException
+    {
+        this.reader = new BufferedReader(new InputStreamReader(
+            new LimitedInputStream(new GZIPInputStream(new LimitedInputStream(in, maxSize)), maxSize),
+            StandardCharsets.UTF_8));
+        this.maxLineLength = maxLineLength;
+        this.maxPatients = maxPatients;
+    }
+
+    /**
+     * Reads the request parameters, which are always the first line of the batch. See
+     * {@link PatientBatch#getParameters()} for the expected content.
+     *
+     * @return a JSON object, not {@code null}
+     * @throws IOException if the stream cannot be read or doesn't start with valid parameters
+     */
+    public JSONObject readParameters() throws IOException
+    {
+        if (this.parameters == null) {
+            String line = readLine(MAX_PARAMETERS_LENGTH);
+            if (line == null) {
+                throw new IOException("Empty patient batch");
+            }
+            this.parameters = parse(line);
+        }
+        return this.parameters;
+    }
+
+    /**
+     * Reads the next pushed patient. See {@link PatientBatch#getPatients()} for the expected content.
+     *
+     * @return a JSON object, or {@code null} if there are no more patients in the batch
+     * @throws IOException if the stream cannot be read, contains an invalid or too long patient, or contains too many
+     *             patients
+     */
+    public JSONObject nextPatient() throws IOException
+    {
+        readParameters();
+        String line;
+        do {
+            line = readLine(this.maxLineLength);
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+        if (++this.patientCount > this.maxPatients) {
+            throw new IOException("Too many patients in one batch, at most " + this.maxPatients + " accepted");
+        }
+        return parse(line);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.reader.close();
+    }
+
+    private String readLine(int maxLength) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c = this.reader.read();
+        if (c == -1) {
+            return null;
+        }
+        while (c != -1 && c != SEPARATOR) {
+            if (line.length() >= maxLength) {
+                throw new IOException("Patient batch line longer than " + maxLength + " characters");
+            }
+            line.append((char) c);
+            c = this.reader.read();
+        }
+        return line.toString();
+    }
+
+    private static JSONObject parse(String line) throws IOException
+    {
+        try {
+            return new JSONObject(line);
+        } catch (JSONException ex) {
+            throw new IOException("Invalid patient batch: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Fails as soon as more than a fixed number of bytes are read from the wrapped stream.
+     */
+    private static final class LimitedInputStream extends FilterInputStream
+    {
+        private final long limit;
+
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit)
+        {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int result = super.read();
+            if (result != -1) {
+                count(1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                count(result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long result = super.skip(n);
+            count(result);
+            return result;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        private void count(long bytes) throws IOException
+        {
+            this.count += bytes;
+            if (this.count > this.limit) {
+                throw new IOException("Patient batch larger than " + this.limit + " bytes");
+            }
+        }
+    }
+}
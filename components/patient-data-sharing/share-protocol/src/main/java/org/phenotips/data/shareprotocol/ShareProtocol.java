@@ -40,12 +40,17 @@
     public static final String VERSION_1_1 = "1.1";
     /** version 1.2: new date format in patient JSON + new genes + new prenatal features format */   // TODO: check what is the difference between 1.1 and 1.2
     public static final String VERSION_1_2 = "1.2";
+    /** version 1.3: added pushing several patients in one gzip-compressed request */
+    public static final String VERSION_1_3 = "1.3";
 
-    public static final String CURRENT_PUSH_PROTOCOL_VERSION = VERSION_1_2;
+    public static final String CURRENT_PUSH_PROTOCOL_VERSION = VERSION_1_3;
 
     // list of protocol versions that the current server can read data from
     public static final List<String> COMPATIBLE_CLIENT_PROTOCOL_VERSIONS =
-            Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2);
+            Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2, VERSION_1_3);
+
+    // list of protocol versions which support the PUSH_BATCH action
+    public static final List<String> BATCH_PUSH_PROTOCOL_VERSIONS = Arrays.asList(VERSION_1_3);
 
     // list of versions which can push even if requred consents have not been checked
     public static final List<String> ALLOW_NO_CONSENTS_PROTOCOL_VERSIONS = Arrays.asList(VERSION_1);
@@ -76,7 +81,7 @@
     // Those are listed explicitly because there is no way to tell if a version is old or new
     // unless it is explicitly listed
     public static final List<String> COMPATIBLE_OLD_SERVER_PROTOCOL_VERSIONS =
-            Arrays.asList(VERSION_1, VERSION_1_1);
+            Arrays.asList(VERSION_1, VERSION_1_1, VERSION_1_2);
 
     //=========================================================================
 
@@ -93,6 +98,7 @@
     public static final String CLIENT_POST_ACTIONKEY_VALUE_STATE = "get_patient_state";  // get the state of a patient record
     public static final String CLIENT_POST_ACTIONKEY_VALUE_PUSH  = "push";             // push the patient
     public static final String CLIENT_POST_ACTIONKEY_VALUE_GETID = "get_patient_id";   // get remote ID and remote URL of the patient object with the given GUID
+    public static final String CLIENT_POST_ACTIONKEY_VALUE_PUSH_BATCH = "push_batch"; // push several patients at once, see PatientBatch
 
     // for the PUSH action the following fields must be set:
     public static final String CLIENT_POST_KEY_NAME_PATIENTJSON  = "patient_json";
@@ -105,6 +111,11 @@
     public static final String CLIENT_POST_KEY_NAME_PATIENTSTATE_CONSENTS = "consents"; // key name which can exist within the patient state JSON
     // for the GETURL action the String CLIENT_POST_KEY_NAME_GUID key must be set
 
+    // for the PUSH_BATCH action only the PROTOCOLVER and ACTION keys are sent as URL parameters, and the request body is a
+    // gzip-compressed PatientBatch: a JSON object with the USERNAME, PASSWORD or USER_TOKEN, and optional GROUPNAME keys,
+    // followed by one JSON object per patient with the PATIENTJSON key (a JSON object, not encoded), and the optional GUID
+    // and PATIENTSTATE (a JSON object, not encoded) keys
+
     //=========================================================================
 
     // every server response JSON will include the following fields:
@@ -147,6 +158,10 @@
     public static final String SERVER_JSON_PUSH_KEY_NAME_PATIENTGUID = "patient_guid";    // GUID of the patient object on the remote server which can be used to link to the
                                                                                           //  patient from the remote server and/or to update the patient later
 
+    // response to a PUSH_BATCH action request will include the following field (iff login was successful), a JSON array
+    // with one object per received patient, in the same order, with the same fields as the response to a PUSH action
+    public static final String SERVER_JSON_PUSH_BATCH_KEY_NAME_PATIENTS = "patients";
+
     /**
      * Helper class describing an incompatibility between serializers in two different PhenoTips versions.
      *
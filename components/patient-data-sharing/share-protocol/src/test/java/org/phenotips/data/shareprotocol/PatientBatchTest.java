@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.shareprotocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PatientBatch} and {@link PatientBatchReader} classes.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class PatientBatchTest
+{
+    @Test
+    public void batchIsReadBack() throws IOException
+    {
+        JSONObject parameters = new JSONObject().put(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME, "user");
+        JSONObject first = new JSONObject().put(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON,
+            new JSONObject().put("notes", "multiple\nlines"));
+        JSONObject second = new JSONObject().put(ShareProtocol.CLIENT_POST_KEY_NAME_GUID, "abc");
+        byte[] body = write(new PatientBatch(parameters, Arrays.asList(first, second)));
+
+        try (PatientBatchReader reader = new PatientBatchReader(new ByteArrayInputStream(body), 10000, 1000, 10)) {
+            Assert.assertEquals("user",
+                reader.readParameters().getString(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME));
+            Assert.assertEquals("multiple\nlines", reader.nextPatient()
+                .getJSONObject(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON).getString("notes"));
+            Assert.assertEquals("abc", reader.nextPatient().getString(ShareProtocol.CLIENT_POST_KEY_NAME_GUID));
+            Assert.assertNull(reader.nextPatient());
+        }
+    }
+
+    @Test
+    public void parametersAreReadWithoutReadingPatients() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write("{\"username\":\"user\"}\nnot json\n");
+        }
+
+        try (PatientBatchReader reader =
+            new PatientBatchReader(new ByteArrayInputStream(out.toByteArray()), 10000, 1000, 10)) {
+            Assert.assertEquals("user",
+                reader.readParameters().getString(ShareProtocol.CLIENT_POST_KEY_NAME_USERNAME));
+            try {
+                reader.nextPatient();
+                Assert.fail("Invalid patients should be rejected");
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void tooManyPatientsAreRejected() throws IOException
+    {
+        byte[] body = write(new PatientBatch(new JSONObject(), Arrays.asList(new JSONObject(), new JSONObject())));
+        try (PatientBatchReader reader = new PatientBatchReader(new ByteArrayInputStream(body), 10000, 1000, 1)) {
+            Assert.assertNotNull(reader.nextPatient());
+            reader.nextPatient();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void tooLongPatientsAreRejected() throws IOException
+    {
+        JSONObject patient = new JSONObject().put("notes", repeat('a', 2000));
+        byte[] body = write(new PatientBatch(new JSONObject(), Collections.singletonList(patient)));
+        try (PatientBatchReader reader = new PatientBatchReader(new ByteArrayInputStream(body), 10000, 1000, 10)) {
+            reader.nextPatient();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void tooLongParametersAreRejected() throws IOException
+    {
+        JSONObject parameters = new JSONObject().put("username", repeat('a', 100000));
+        byte[] body = write(new PatientBatch(parameters, Collections.<JSONObject>emptyList()));
+        try (PatientBatchReader reader =
+            new PatientBatchReader(new ByteArrayInputStream(body), 1000000, 1000000, 10)) {
+            reader.readParameters();
+        }
+    }
+
+    @Test
+    public void decompressedSizeIsLimited() throws IOException
+    {
+        // Highly compressible content, which is much larger once decompressed
+        List<JSONObject> patients = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            patients.add(new JSONObject().put("notes", repeat(' ', 1000)));
+        }
+        byte[] body = write(new PatientBatch(new JSONObject(), patients));
+        Assert.assertTrue(body.length < 10000);
+
+        try (PatientBatchReader reader = new PatientBatchReader(new ByteArrayInputStream(body), 10000, 2000, 1000)) {
+            int read = 0;
+            try {
+                while (reader.nextPatient() != null) {
+                    ++read;
+                }
+                Assert.fail("Oversized batches should be rejected");
+            } catch (IOException ex) {
+                Assert.assertTrue(read < 10);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidContentIsRejected() throws IOException
+    {
+        try (PatientBatchReader reader =
+            new PatientBatchReader(new ByteArrayInputStream("{}".getBytes("UTF-8")), 10000, 1000, 1)) {
+            reader.readParameters();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyBatchIsRejected() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GZIPOutputStream(out).close();
+        try (PatientBatchReader reader =
+            new PatientBatchReader(new ByteArrayInputStream(out.toByteArray()), 10000, 1000, 1)) {
+            reader.readParameters();
+        }
+    }
+
+    @Test
+    public void patientListIsCopied()
+    {
+        PatientBatch batch = new PatientBatch(new JSONObject(), Collections.<JSONObject>emptyList());
+        Assert.assertTrue(batch.getPatients().isEmpty());
+    }
+
+    private byte[] write(PatientBatch batch) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private String repeat(char c, int count)
+    {
+        char[] result = new char[count];
+        Arrays.fill(result, c);
+        return new String(result);
+    }
+}
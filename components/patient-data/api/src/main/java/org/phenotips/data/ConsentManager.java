@@ -21,6 +21,7 @@
 import org.xwiki.stability.Unstable;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -85,6 +86,18 @@
      */
     Set<Consent> getMissingConsentsForPatient(String patientId);
 
+    /**
+     * Returns, for several patient records at once, all the consents configured in the system with the "granted"/"not
+     * granted" status set for each patient, as {@link #getAllConsentsForPatient(Patient)} does. Meant for bulk
+     * operations, such as exports, where consents are needed for many patients.
+     *
+     * @param patients records for which consents are to be retrieved; {@code null} entries are ignored
+     * @return the consents of each patient, in the order in which the patients were given; if no patients are given,
+     *         an empty map is returned
+     * @since 1.3
+     */
+    Map<Patient, Set<Consent>> getConsents(Collection<Patient> patients);
+
     /**
      * Determines if the given ids are present in the system, and grants them on the given patient record. All other
      * consents are revoked.
@@ -20,6 +20,7 @@
 import org.phenotips.Constants;
 import org.phenotips.entities.PrimaryEntity;
 
+import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -62,6 +63,15 @@ public interface Patient extends PrimaryEntity
      */
     DocumentReference getReporter();
 
+    /**
+     * Returns the document this patient was loaded from, so that data controllers can read it without retrieving it
+     * again. The document must not be modified.
+     *
+     * @return the patient document, or {@code null} if this patient isn't backed by a document
+     * @since 1.3
+     */
+    DocumentModelBridge getXDocument();
+
     /**
      * Returns the list of recorded features, both positive and negative observations.
      *
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.events;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.stability.Unstable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The data shared by all the {@link PatientChangingStage stages} processing one save of a patient record: the patient,
+ * its document, and any attributes set by one stage to be reused by the following ones.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public class PatientChangingContext
+{
+    private final Patient patient;
+
+    private final DocumentModelBridge document;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param patient the new version of the patient being saved, may be {@code null} if not known
+     * @param document the document holding the patient record, which stages may alter before it is saved
+     */
+    public PatientChangingContext(Patient patient, DocumentModelBridge document)
+    {
+        this.patient = patient;
+        this.document = document;
+    }
+
+    /**
+     * The patient being saved.
+     *
+     * @return the new version of the patient record, may be {@code null}
+     */
+    public Patient getPatient()
+    {
+        return this.patient;
+    }
+
+    /**
+     * The document being saved.
+     *
+     * @return the document holding the patient record
+     */
+    public DocumentModelBridge getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * Retrieve data shared by a previous stage.
+     *
+     * @param name the name of the attribute
+     * @return the value of the attribute, or {@code null} if it wasn't set
+     */
+    public Object getAttribute(String name)
+    {
+        return this.attributes.get(name);
+    }
+
+    /**
+     * Share data with the following stages.
+     *
+     * @param name the name of the attribute
+     * @param value the value to share, {@code null} removes the attribute
+     */
+    public void setAttribute(String name, Object value)
+    {
+        if (value == null) {
+            this.attributes.remove(name);
+        } else {
+            this.attributes.put(name, value);
+        }
+    }
+}
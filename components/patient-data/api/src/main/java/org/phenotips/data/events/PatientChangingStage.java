@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.events;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A step in the processing of a patient record that is being saved. Instead of each listening for
+ * {@link PatientChangingEvent}s and inspecting the patient document separately, stages are all invoked, in descending
+ * order of their {@link #getPriority() priority}, from a single listener, and share the same
+ * {@link PatientChangingContext}, so that expensive data, such as resolved vocabulary terms, is only computed once per
+ * save.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface PatientChangingStage
+{
+    /**
+     * The priority of this stage, stages with a higher priority are processed first.
+     *
+     * @return a positive number
+     */
+    int getPriority();
+
+    /**
+     * Process the patient record being saved, possibly altering its document.
+     *
+     * @param context the patient being saved, along with data shared by all the stages processing this save
+     */
+    void process(PatientChangingContext context);
+}
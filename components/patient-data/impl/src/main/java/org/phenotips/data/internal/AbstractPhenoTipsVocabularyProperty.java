@@ -17,13 +17,17 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.components.ComponentHandle;
 import org.phenotips.data.VocabularyProperty;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
@@ -46,6 +50,10 @@ public abstract class AbstractPhenoTipsVocabularyProperty implements VocabularyP
     /** Pattern used for identifying vocabulary terms from free text terms. */
     private static final Pattern VOCABULARY_TERM_PATTERN = Pattern.compile("\\w++:\\w++");
 
+    /** Names are resolved for each term, too often to look up the vocabulary manager each time. */
+    private static final ComponentHandle<VocabularyManager> VOCABULARY_MANAGER =
+        new ComponentHandle<>(VocabularyManager.class);
+
     /** @see #getId() */
     protected final String id;
 
@@ -83,6 +91,43 @@ protected AbstractPhenoTipsVocabularyProperty(JSONObject json)
         this.name = json.has(NAME_JSON_KEY_NAME) ? json.getString(NAME_JSON_KEY_NAME) : null;
     }
 
+    /**
+     * Resolve the names of several properties at once. Sorting properties requires their names, and resolving them one
+     * by one costs a vocabulary query for each term, while this fetches all the terms with one query per vocabulary.
+     * Properties which already know their name are skipped, and properties whose term can't be resolved are left
+     * unchanged.
+     *
+     * @param properties the properties whose names should be resolved
+     */
+    static void resolveNames(Collection<? extends AbstractPhenoTipsVocabularyProperty> properties)
+    {
+        Set<String> ids = new HashSet<>();
+        for (AbstractPhenoTipsVocabularyProperty property : properties) {
+            if (property.name == null) {
+                ids.add(property.id);
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        Map<String, VocabularyTerm> terms;
+        try {
+            terms = VOCABULARY_MANAGER.get().resolveTerms(ids);
+        } catch (ComponentLookupException ex) {
+            // Shouldn't happen, names will be resolved individually when needed
+            return;
+        }
+        if (terms == null) {
+            return;
+        }
+        for (AbstractPhenoTipsVocabularyProperty property : properties) {
+            VocabularyTerm term = property.name == null ? terms.get(property.id) : null;
+            if (term != null && StringUtils.isNotEmpty(term.getName())) {
+                property.name = term.getName();
+            }
+        }
+    }
+
     @Override
     public String getId()
     {
@@ -96,9 +141,7 @@ public String getName()
             return this.name;
         }
         try {
-            VocabularyManager vm =
-                ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
-            VocabularyTerm term = vm.resolveTerm(this.id);
+            VocabularyTerm term = VOCABULARY_MANAGER.get().resolveTerm(this.id);
             if (term != null && StringUtils.isNotEmpty(term.getName())) {
                 this.name = term.getName();
                 return this.name;
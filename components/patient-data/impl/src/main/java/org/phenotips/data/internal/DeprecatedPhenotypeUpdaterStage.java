@@ -18,16 +18,14 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingStage;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,7 +41,7 @@
 import com.xpn.xwiki.objects.DBStringListProperty;
 
 /**
- * Listens for patient records being changed, and before the action takes place, iterates over all the HPO terms and
+ * Processes patient records being changed, and before the action takes place, iterates over all the HPO terms and
  * replaces the deprecated ones with their updated ID.
  *
  * @version $Id$
@@ -51,7 +49,7 @@
 @Component
 @Named("deprecated-phenotype-updater")
 @Singleton
-public class DeprecatedPhenotypeUpdaterEventListener extends AbstractEventListener
+public class DeprecatedPhenotypeUpdaterStage implements PatientChangingStage
 {
     @Inject
     private VocabularyManager vocabularyManager;
@@ -59,34 +57,23 @@ public class DeprecatedPhenotypeUpdaterEventListener extends AbstractEventListen
     @Inject
     private Execution execution;
 
-    /** The list of field names which might contain deprecated terms. */
-    private final Set<String> fieldsToFix;
-
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public DeprecatedPhenotypeUpdaterEventListener()
+    @Override
+    public int getPriority()
     {
-        super("deprecated-phenotype-updater", new PatientChangingEvent());
-
-        this.fieldsToFix = new HashSet<>();
-        this.fieldsToFix.add("phenotype");
-        this.fieldsToFix.add("extended_phenotype");
-        this.fieldsToFix.add("negative_phenotype");
-        this.fieldsToFix.add("extended_negative_phenotype");
-        this.fieldsToFix.add("prenatal_phenotype");
-        this.fieldsToFix.add("extended_prenatal_phenotype");
-        this.fieldsToFix.add("negative_prenatal_phenotype");
-        this.fieldsToFix.add("extended_negative_prenatal_phenotype");
+        // Before any other stage uses the phenotypes
+        return 900;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientChangingContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        XWikiDocument doc = (XWikiDocument) context.getDocument();
         BaseObject patientObject = doc.getXObject(Patient.CLASS_REFERENCE);
 
         if (patientObject != null) {
-            XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            for (String field : this.fieldsToFix) {
+            XWikiContext xcontext = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+            ResolvedPhenotypes resolvedTerms = ResolvedPhenotypes.get(context, this.vocabularyManager);
+            for (String field : ResolvedPhenotypes.PHENOTYPE_FIELDS) {
                 DBStringListProperty currentTermList = (DBStringListProperty) patientObject.getField(field);
                 if (currentTermList == null) {
                     continue;
@@ -94,7 +81,7 @@ public void onEvent(Event event, Object source, Object data)
                 List<String> terms = currentTermList.getList();
                 Set<String> correctSet = new LinkedHashSet<>();
                 for (String term : terms) {
-                    VocabularyTerm properTerm = this.vocabularyManager.resolveTerm(term);
+                    VocabularyTerm properTerm = resolvedTerms.getTerm(term);
                     if (properTerm != null) {
                         correctSet.add(properTerm.getId());
                     } else {
@@ -103,7 +90,7 @@ public void onEvent(Event event, Object source, Object data)
                 }
                 List<String> correctList = new LinkedList<>();
                 correctList.addAll(correctSet);
-                patientObject.set(field, correctList, context);
+                patientObject.set(field, correctList, xcontext);
             }
         }
     }
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.events.PatientChangingStage;
+
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Processes patient records being saved, passing them through all the available {@link PatientChangingStage stages}
+ * with a shared {@link PatientChangingContext}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("patient-changing-pipeline")
+@Singleton
+public class PatientChangingPipeline extends AbstractEventListener
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<List<PatientChangingStage>> stages;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PatientChangingPipeline()
+    {
+        super("patient-changing-pipeline", new PatientChangingEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        PatientChangingContext context =
+            new PatientChangingContext(((PatientChangingEvent) event).getPatient(), (DocumentModelBridge) source);
+        for (PatientChangingStage stage : this.stages.get()) {
+            try {
+                stage.process(context);
+            } catch (Exception ex) {
+                // One failing stage shouldn't prevent the others from processing the record
+                this.logger.error("Failed to process patient record [{}] in stage [{}]: {}",
+                    context.getDocument().getDocumentReference(), stage.getClass().getName(), ex.getMessage(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.events.PatientChangingStage;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Provides the list of patient save processing stages, ordered by their priority.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class PatientChangingStageListProvider implements Provider<List<PatientChangingStage>>
+{
+    @Inject
+    @Named("wiki")
+    private ComponentManager componentManager;
+
+    @Override
+    public List<PatientChangingStage> get()
+    {
+        try {
+            List<PatientChangingStage> stages = new LinkedList<>();
+            stages.addAll(this.componentManager.<PatientChangingStage>getInstanceList(PatientChangingStage.class));
+            Collections.sort(stages, StageComparator.INSTANCE);
+            return stages;
+        } catch (ComponentLookupException ex) {
+            throw new RuntimeException("Failed to look up patient processing stages", ex);
+        }
+    }
+
+    /**
+     * Sorts the available stages in descending order of their priority, then alphabetically if two or more stages have
+     * the same priority.
+     */
+    private static final class StageComparator implements Comparator<PatientChangingStage>
+    {
+        /** Singleton instance. */
+        private static final StageComparator INSTANCE = new StageComparator();
+
+        @Override
+        public int compare(PatientChangingStage o1, PatientChangingStage o2)
+        {
+            int result = o2.getPriority() - o1.getPriority();
+            // If they happen to have the same priority, to avoid randomness, order them alphabetically by their name
+            if (result == 0) {
+                result = o1.getClass().getSimpleName().compareTo(o2.getClass().getSimpleName());
+            }
+            return result;
+        }
+    }
+}
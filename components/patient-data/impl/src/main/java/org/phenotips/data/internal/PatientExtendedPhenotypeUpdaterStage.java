@@ -18,13 +18,11 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingStage;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,30 +44,32 @@
 @Component
 @Named("patient-extended-phenotype-updater")
 @Singleton
-public class PatientExtendedPhenotypeUpdater extends AbstractEventListener
+public class PatientExtendedPhenotypeUpdaterStage implements PatientChangingStage
 {
     /** Needed for accessing the feature ontologies. */
     @Inject
     private VocabularyManager vocabularyManager;
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public PatientExtendedPhenotypeUpdater()
+    @Override
+    public int getPriority()
     {
-        super("patient-extended-phenotype-updater", new PatientChangingEvent());
+        // After the deprecated terms are replaced
+        return 800;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientChangingContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        XWikiDocument doc = (XWikiDocument) context.getDocument();
 
         BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
         if (patientRecordObj == null) {
             return;
         }
-        updateField("phenotype", "extended_phenotype", patientRecordObj);
-        updateField("prenatal_phenotype", "extended_prenatal_phenotype", patientRecordObj);
-        updateField("negative_phenotype", "extended_negative_phenotype", patientRecordObj);
+        ResolvedPhenotypes terms = ResolvedPhenotypes.get(context, this.vocabularyManager);
+        updateField("phenotype", "extended_phenotype", patientRecordObj, terms);
+        updateField("prenatal_phenotype", "extended_prenatal_phenotype", patientRecordObj, terms);
+        updateField("negative_phenotype", "extended_negative_phenotype", patientRecordObj, terms);
     }
 
     /**
@@ -78,8 +78,10 @@ public void onEvent(Event event, Object source, Object data)
      * @param baseFieldName the name of the field holding the basic list of phenotypes
      * @param extendedFieldName the name of the target field that will hold the extended list of phenotypes
      * @param patientRecordObj the object to update
+     * @param terms the resolved terms used in the patient record
      */
-    private void updateField(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj)
+    private void updateField(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj,
+        ResolvedPhenotypes terms)
     {
         @SuppressWarnings("unchecked")
         List<String> phenotypes = patientRecordObj.getListValue(baseFieldName);
@@ -87,14 +89,7 @@ private void updateField(String baseFieldName, String extendedFieldName, BaseObj
         Set<String> sortedPhenotypes = new TreeSet<>();
         for (String phenotype : phenotypes) {
             sortedPhenotypes.add(phenotype);
-            VocabularyTerm phenotypeTerm = this.vocabularyManager.resolveTerm(phenotype);
-            if (phenotypeTerm != null) {
-                for (VocabularyTerm term : phenotypeTerm.getAncestorsAndSelf()) {
-                    extendedPhenotypes.add(term.getId());
-                }
-            } else {
-                extendedPhenotypes.add(phenotype);
-            }
+            extendedPhenotypes.addAll(terms.getAncestorsAndSelf(phenotype));
         }
         patientRecordObj.setDBStringListValue(extendedFieldName, new ArrayList<>(extendedPhenotypes));
         patientRecordObj.setDBStringListValue(baseFieldName, new ArrayList<>(sortedPhenotypes));
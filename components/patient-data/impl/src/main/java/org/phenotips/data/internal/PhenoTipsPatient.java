@@ -32,6 +32,7 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -132,14 +133,25 @@ public PhenoTipsPatient(XWikiDocument doc)
             return;
         }
 
+        List<PhenoTipsFeature> loadedFeatures = new ArrayList<>();
+        List<PhenoTipsDisorder> loadedDisorders = new ArrayList<>();
         try {
-            loadFeatures(doc, data);
-            loadDisorders(doc, data);
+            loadFeatures(doc, data, loadedFeatures);
+            loadDisorders(data, loadedDisorders);
             loadSerializers();
         } catch (XWikiException ex) {
             this.logger.warn("Failed to access patient data for [{}]: {}", doc.getDocumentReference(), ex.getMessage());
         }
 
+        // Sorted sets compare terms by name, resolve all the names at once before inserting
+        List<AbstractPhenoTipsVocabularyProperty> terms = new ArrayList<>(loadedFeatures.size()
+            + loadedDisorders.size());
+        terms.addAll(loadedFeatures);
+        terms.addAll(loadedDisorders);
+        AbstractPhenoTipsVocabularyProperty.resolveNames(terms);
+        this.features.addAll(loadedFeatures);
+        this.disorders.addAll(loadedDisorders);
+
         // Read-only from now on
         this.features = Collections.unmodifiableSet(this.features);
         this.disorders = Collections.unmodifiableSet(this.disorders);
@@ -152,7 +164,7 @@ public EntityReference getType()
         return CLASS_REFERENCE;
     }
 
-    private void loadFeatures(XWikiDocument doc, BaseObject data)
+    private void loadFeatures(XWikiDocument doc, BaseObject data, List<PhenoTipsFeature> result)
     {
         @SuppressWarnings("unchecked")
         Collection<BaseProperty<EntityReference>> fields = data.getFieldList();
@@ -164,20 +176,20 @@ private void loadFeatures(XWikiDocument doc, BaseObject data)
             ListProperty values = (ListProperty) field;
             for (String value : values.getList()) {
                 if (StringUtils.isNotBlank(value)) {
-                    this.features.add(new PhenoTipsFeature(doc, values, value));
+                    result.add(new PhenoTipsFeature(doc, values, value));
                 }
             }
         }
     }
 
-    private void loadDisorders(XWikiDocument doc, BaseObject data) throws XWikiException
+    private void loadDisorders(BaseObject data, List<PhenoTipsDisorder> result) throws XWikiException
     {
         for (String property : DISORDER_PROPERTIES) {
             ListProperty values = (ListProperty) data.get(property);
             if (values != null) {
                 for (String value : values.getList()) {
                     if (StringUtils.isNotBlank(value)) {
-                        this.disorders.add(new PhenoTipsDisorder(values, value));
+                        result.add(new PhenoTipsDisorder(values, value));
                     }
                 }
             }
@@ -262,6 +274,12 @@ public DocumentReference getReporter()
         return this.reporter;
     }
 
+    @Override
+    public XWikiDocument getXDocument()
+    {
+        return this.document;
+    }
+
     @Override
     public Set<Feature> getFeatures()
     {
@@ -518,6 +536,22 @@ private void updateDisordersFromJSON(XWikiDocument doc, BaseObject data, XWikiCo
 
     @Override
     public void updateFromJSON(JSONObject json)
+    {
+        updateFromJSON(json, true);
+    }
+
+    /**
+     * Update patient data using the provided json object, optionally without writing the changes to the storage. This
+     * allows callers which update many related records at once, such as pedigree updates, to apply all the changes in
+     * memory first and then save each affected document only once.
+     *
+     * @param json JSON object containing patient data
+     * @param save if {@code true}, the patient document is saved after the update; if {@code false}, the changes are
+     *            only performed on the in-memory document, and the caller is responsible for saving it
+     * @see #updateFromJSON(JSONObject)
+     * @since 1.3
+     */
+    public void updateFromJSON(JSONObject json, boolean save)
     {
         if (json.length() == 0) {
             return;
@@ -554,7 +588,9 @@ public void updateFromJSON(JSONObject json)
                 }
             }
 
-            context.getWiki().saveDocument(this.document, "Updated from JSON", true, context);
+            if (save) {
+                context.getWiki().saveDocument(this.document, "Updated from JSON", true, context);
+            }
         } catch (Exception ex) {
             this.logger.error("Failed to update patient data from JSON [{}]: {}", ex.getMessage(), ex);
         }
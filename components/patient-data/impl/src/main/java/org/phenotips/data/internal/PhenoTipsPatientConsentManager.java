@@ -18,6 +18,7 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.Constants;
+import org.phenotips.components.InvalidatableCache;
 import org.phenotips.data.Consent;
 import org.phenotips.data.ConsentManager;
 import org.phenotips.data.ConsentStatus;
@@ -26,6 +27,13 @@
 import org.phenotips.translation.TranslationManager;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
@@ -33,21 +41,30 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -63,14 +80,17 @@
  * @version $Id$
  * @since 1.3M1
  */
-@Component
+@Component(roles = ConsentManager.class)
 @Singleton
-public class PhenoTipsPatientConsentManager implements ConsentManager, Initializable
+public class PhenoTipsPatientConsentManager implements ConsentManager, Initializable, EventListener
 {
     private static final String GRANTED = "granted";
 
     private static final String RENDERING_MODE = "view";
 
+    /** How many patient records have their granted consents cached. */
+    private static final int GRANTED_CACHE_SIZE = 10000;
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -93,6 +113,13 @@ public class PhenoTipsPatientConsentManager implements ConsentManager, Initializ
     @Inject
     private TranslationManager translationManager;
 
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private CacheManager cacheManager;
+
     private EntityReference consentReference =
         new EntityReference("PatientConsentConfiguration", EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
@@ -102,34 +129,98 @@ public class PhenoTipsPatientConsentManager implements ConsentManager, Initializ
     private EntityReference configurationPageReference =
         new EntityReference("Consents", EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
-    private Date lastSystemConsentLoadTime;
+    /**
+     * The consents configured in the system, indexed by the reference of the configuration document, since each wiki
+     * has its own configuration. Consents loaded while the configuration was being modified aren't remembered.
+     */
+    private final InvalidatableCache<DocumentReference, ConsentIndex> indexes = new InvalidatableCache<>();
 
-    private Set<Consent> cachedSystemConsents = Collections.unmodifiableSet(new LinkedHashSet<Consent>());
+    private final InvalidatableCache.Loader<DocumentReference, ConsentIndex, RuntimeException> indexLoader =
+        new InvalidatableCache.Loader<DocumentReference, ConsentIndex, RuntimeException>()
+        {
+            @Override
+            public ConsentIndex load(DocumentReference configDocRef)
+            {
+                List<Consent> consents = loadSystemConsents(configDocRef);
+                // Failures aren't remembered
+                return consents == null ? null : new ConsentIndex(consents);
+            }
+        };
+
+    /** The consents granted in the most recently used patient records, indexed by the patient document. */
+    private Cache<GrantedConsents> granted;
+
+    /**
+     * The reads of granted consents in progress, indexed by the patient document. A patient record modified during a
+     * read cancels the read, so that consents read while the record was being modified aren't remembered.
+     */
+    private final ConcurrentMap<String, Object> grantedReads = new ConcurrentHashMap<>();
 
     @Override
     public void initialize() throws InitializationException
     {
+        try {
+            this.granted = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("patientGrantedConsents", GRANTED_CACHE_SIZE));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the granted consents cache", ex);
+        }
+        this.observationManager.addListener(this);
     }
 
     @Override
-    public Set<Consent> getSystemConsents()
+    public String getName()
     {
-        try {
-            DocumentReference configDocRef = this.referenceResolver.resolve(this.configurationPageReference);
-            XWikiDocument configDoc = (XWikiDocument) this.bridge.getDocument(configDocRef);
-            if (this.lastSystemConsentLoadTime == null || configDoc.getDate().after(this.lastSystemConsentLoadTime)) {
-                updateSystemConsentCache(configDoc);
+        return "patient-consents-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        DocumentReference reference = doc.getDocumentReference();
+        // Forget the consents configuration if this was one; the granted consents cached for the old configuration
+        // are ignored from then on, since each is tied to the configuration it was indexed with
+        this.indexes.invalidate(reference);
+        if (isPatient(doc) || isPatient(doc.getOriginalDocument())) {
+            String key = reference.toString();
+            synchronized (this.grantedReads) {
+                this.grantedReads.remove(key);
+                this.granted.remove(key);
             }
-        } catch (Exception ex) {
-            this.logger.error("Could not load preferences document: {}", ex.getMessage());
         }
-        return this.cachedSystemConsents;
     }
 
-    private synchronized void updateSystemConsentCache(XWikiDocument configDoc)
+    private boolean isPatient(XWikiDocument doc)
+    {
+        return doc != null && doc.getXObject(Patient.CLASS_REFERENCE) != null;
+    }
+
+    @Override
+    public Set<Consent> getSystemConsents()
+    {
+        return getIndex().consentSet;
+    }
+
+    private ConsentIndex getIndex()
+    {
+        DocumentReference configDocRef = this.referenceResolver.resolve(this.configurationPageReference);
+        ConsentIndex index = this.indexes.get(configDocRef, this.indexLoader);
+        return index != null ? index : new ConsentIndex(Collections.<Consent>emptyList());
+    }
+
+    private List<Consent> loadSystemConsents(DocumentReference configDocRef)
     {
         try {
-            Set<Consent> consents = new LinkedHashSet<>();
+            XWikiDocument configDoc = (XWikiDocument) this.bridge.getDocument(configDocRef);
+            List<Consent> consents = new ArrayList<>();
             List<BaseObject> consentObjects = configDoc.getXObjects(this.consentReference);
             if (consentObjects != null) {
                 for (BaseObject consentObject : consentObjects) {
@@ -139,11 +230,11 @@ private synchronized void updateSystemConsentCache(XWikiDocument configDoc)
                     }
                 }
             }
-            this.cachedSystemConsents = Collections.unmodifiableSet(consents);
-            this.lastSystemConsentLoadTime = configDoc.getDate();
+            return consents;
         } catch (Exception ex) {
             this.logger.error("Could not load system consents from preferences document: {}", ex.getMessage());
         }
+        return null;
     }
 
     // supressing conversion of List returned by getListValue() to List<String>
@@ -189,13 +280,7 @@ private static String cleanDescription(String toClean, boolean stripParagraphTag
     @Override
     public boolean isValidConsentId(String consentId)
     {
-        Set<Consent> systemConsents = getSystemConsents();
-        for (Consent consent : systemConsents) {
-            if (StringUtils.equals(consentId, consent.getId())) {
-                return true;
-            }
-        }
-        return false;
+        return getIndex().positions.containsKey(consentId);
     }
 
     @Override
@@ -222,40 +307,90 @@ public Set<Consent> getAllConsentsForPatient(Patient patient)
         return this.getConsentsForPatient(patient, true);
     }
 
+    @Override
+    public Map<Patient, Set<Consent>> getConsents(Collection<Patient> patients)
+    {
+        Map<Patient, Set<Consent>> result = new LinkedHashMap<>();
+        if (patients == null) {
+            return result;
+        }
+        ConsentIndex index = getIndex();
+        for (Patient patient : patients) {
+            if (patient != null) {
+                result.put(patient, getConsentsForPatient(patient, index, true));
+            }
+        }
+        return result;
+    }
+
     private Set<Consent> getConsentsForPatient(Patient patient, boolean includeGranted)
     {
         if (patient == null) {
             return null;
         }
+        return getConsentsForPatient(patient, getIndex(), includeGranted);
+    }
 
-        // List of consent ids a patient has agreed to, read from the database
-        Set<String> xwikiPatientConsents = readConsentIdsFromPatientDoc(patient);
-
-        Set<Consent> returnedConsents = new LinkedHashSet<>();
-
+    private Set<Consent> getConsentsForPatient(Patient patient, ConsentIndex index, boolean includeGranted)
+    {
         // Using system consents to ignore consents set for the patient but no longer configured in the system
-        // (it is faster to check contains() in a set, so iterating through the list and checking the set)
-        Set<Consent> systemConsents = getSystemConsents();
-        for (Consent systemConsent : systemConsents) {
-            if (xwikiPatientConsents.contains(systemConsent.getId())) {
+        BitSet granted = getGrantedConsents(patient, index);
+        Set<Consent> returnedConsents = new LinkedHashSet<>();
+        for (int i = 0; i < index.consents.size(); ++i) {
+            Consent systemConsent = index.consents.get(i);
+            if (granted.get(i)) {
                 if (includeGranted) {
-                    Consent copy = systemConsent.copy(ConsentStatus.YES);
-                    returnedConsents.add(copy);
+                    returnedConsents.add(systemConsent.copy(ConsentStatus.YES));
                 }
             } else {
-                Consent copy = systemConsent.copy(ConsentStatus.NO);
-                returnedConsents.add(copy);
+                returnedConsents.add(systemConsent.copy(ConsentStatus.NO));
             }
         }
-
         return returnedConsents;
     }
 
+    /**
+     * Gets the consents granted in a patient record.
+     *
+     * @return the positions, in {@link ConsentIndex#consents}, of the granted consents
+     */
+    private BitSet getGrantedConsents(Patient patient, ConsentIndex index)
+    {
+        DocumentReference patientReference = patient.getDocument();
+        String key = patientReference == null ? null : patientReference.toString();
+        GrantedConsents cached = key == null ? null : this.granted.get(key);
+        if (cached != null && cached.index == index) {
+            return cached.consents;
+        }
+        Object read = new Object();
+        if (key != null) {
+            this.grantedReads.put(key, read);
+        }
+        BitSet result = new BitSet(index.consents.size());
+        Set<String> ids = readConsentIdsFromPatientDoc(patient);
+        for (String id : ids != null ? ids : Collections.<String>emptySet()) {
+            Integer position = index.positions.get(id);
+            if (position != null) {
+                result.set(position);
+            }
+        }
+        if (key != null) {
+            synchronized (this.grantedReads) {
+                // Only remembered if the record wasn't modified, and no other read started, since this read started
+                if (this.grantedReads.remove(key, read) && ids != null) {
+                    this.granted.set(key, new GrantedConsents(index, result));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return the ids of the granted consents, or {@code null} if the patient record couldn't be read */
     @SuppressWarnings("unchecked")
     private Set<String> readConsentIdsFromPatientDoc(Patient patient)
     {
-        Set<String> ids = new LinkedHashSet<>();
         try {
+            Set<String> ids = new LinkedHashSet<>();
             XWikiDocument patientDoc = (XWikiDocument) this.bridge.getDocument(patient.getDocument());
             BaseObject idsHolder = patientDoc.getXObject(this.consentIdsHolderReference);
             if (idsHolder != null) {
@@ -264,10 +399,11 @@ private Set<String> readConsentIdsFromPatientDoc(Patient patient)
                     ids.addAll(patientConsentIds);
                 }
             }
+            return ids;
         } catch (Exception ex) {
             this.logger.error("Could not read consents for patient {}: {}", patient.getId(), ex.getMessage());
         }
-        return ids;
+        return null;
     }
 
     @Override
@@ -294,31 +430,23 @@ public boolean hasConsent(String patientId, String consentId)
     @Override
     public boolean hasConsent(Patient patient, String consentId)
     {
-        if (patient == null || !isValidConsentId(consentId)) {
-            return false;
-        }
-        Set<Consent> missingPatientConsents = getMissingConsentsForPatient(patient);
-        if (missingPatientConsents == null) {
+        if (patient == null) {
             return false;
         }
-        for (Consent consent : missingPatientConsents) {
-            if (consent.getId().equals(consentId)) {
-                return false;
-            }
-        }
-        return true;
+        ConsentIndex index = getIndex();
+        Integer position = index.positions.get(consentId);
+        return position != null && getGrantedConsents(patient, index).get(position);
     }
 
     /** @return consents that exist in the system and correspond to the given ids */
     private List<Consent> selectFromSystem(Iterable<String> ids)
     {
+        ConsentIndex index = getIndex();
         List<Consent> existingConsents = new LinkedList<>();
         for (String id : ids) {
-            for (Consent consent : this.getSystemConsents()) {
-                if (StringUtils.equals(consent.getId(), id)) {
-                    existingConsents.add(consent);
-                    break;
-                }
+            Integer position = index.positions.get(id);
+            if (position != null) {
+                existingConsents.add(index.consents.get(position));
             }
         }
         return existingConsents;
@@ -433,6 +561,48 @@ public void save() throws XWikiException
         }
     }
 
+    /**
+     * The consents configured in the system, numbered in the order in which they are configured, so that the consents
+     * granted in each patient record can be kept as sets of consent numbers.
+     */
+    private static final class ConsentIndex
+    {
+        private final List<Consent> consents;
+
+        private final Set<Consent> consentSet;
+
+        /** The number of each consent, indexed by consent identifier. */
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        ConsentIndex(List<Consent> systemConsents)
+        {
+            List<Consent> uniqueConsents = new ArrayList<>(systemConsents.size());
+            for (Consent consent : systemConsents) {
+                if (!this.positions.containsKey(consent.getId())) {
+                    this.positions.put(consent.getId(), uniqueConsents.size());
+                    uniqueConsents.add(consent);
+                }
+            }
+            this.consents = Collections.unmodifiableList(uniqueConsents);
+            this.consentSet = Collections.unmodifiableSet(new LinkedHashSet<>(uniqueConsents));
+        }
+    }
+
+    /** The consents granted in a patient record, numbered according to a specific consents configuration. */
+    private static final class GrantedConsents
+    {
+        private final ConsentIndex index;
+
+        /** The positions, in {@link ConsentIndex#consents}, of the granted consents. */
+        private final BitSet consents;
+
+        GrantedConsents(ConsentIndex index, BitSet consents)
+        {
+            this.index = index;
+            this.consents = consents;
+        }
+    }
+
     @Override
     public JSONArray toJSON(Collection<Consent> consents)
     {
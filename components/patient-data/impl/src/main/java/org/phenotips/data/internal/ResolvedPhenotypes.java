@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * The vocabulary terms used in the phenotype fields of a patient record being saved. All the terms are resolved at
+ * once, when the first {@link org.phenotips.data.events.PatientChangingStage stage} needs them, and the result is
+ * {@link PatientChangingContext#setAttribute(String, Object) shared} with the other stages processing the same save.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public final class ResolvedPhenotypes
+{
+    /** The fields of the patient class which hold vocabulary terms. */
+    public static final List<String> PHENOTYPE_FIELDS = Collections.unmodifiableList(Arrays.asList("phenotype",
+        "extended_phenotype", "negative_phenotype", "extended_negative_phenotype", "prenatal_phenotype",
+        "extended_prenatal_phenotype", "negative_prenatal_phenotype", "extended_negative_prenatal_phenotype"));
+
+    private static final String ATTRIBUTE_NAME = ResolvedPhenotypes.class.getName();
+
+    /** The field of a term listing all its ancestors. */
+    private static final String ANCESTORS_FIELD = "term_category";
+
+    private final Map<String, VocabularyTerm> terms = new HashMap<>();
+
+    private final Map<String, Set<String>> ancestorsAndSelf = new HashMap<>();
+
+    private ResolvedPhenotypes(Map<String, VocabularyTerm> resolved)
+    {
+        this.terms.putAll(resolved);
+        // Terms may be requested again by their current identifier, after deprecated identifiers are replaced
+        for (VocabularyTerm term : resolved.values()) {
+            if (!this.terms.containsKey(term.getId())) {
+                this.terms.put(term.getId(), term);
+            }
+        }
+    }
+
+    /**
+     * Get the resolved phenotypes shared by the stages processing a patient save, resolving them if this is the first
+     * request.
+     *
+     * @param context the context of the patient save
+     * @param vocabularyManager used for resolving the terms
+     * @return the resolved phenotypes
+     */
+    public static ResolvedPhenotypes get(PatientChangingContext context, VocabularyManager vocabularyManager)
+    {
+        ResolvedPhenotypes result = (ResolvedPhenotypes) context.getAttribute(ATTRIBUTE_NAME);
+        if (result == null) {
+            Set<String> ids = new LinkedHashSet<>();
+            BaseObject patientObject = ((XWikiDocument) context.getDocument()).getXObject(Patient.CLASS_REFERENCE);
+            if (patientObject != null) {
+                for (String field : PHENOTYPE_FIELDS) {
+                    @SuppressWarnings("unchecked")
+                    List<String> values = patientObject.getListValue(field);
+                    ids.addAll(values);
+                }
+            }
+            result = new ResolvedPhenotypes(ids.isEmpty() ? Collections.<String, VocabularyTerm>emptyMap()
+                : vocabularyManager.resolveTerms(ids));
+            context.setAttribute(ATTRIBUTE_NAME, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get a resolved term.
+     *
+     * @param id a term identifier used in the patient record, or the current identifier of such a term
+     * @return the term, or {@code null} if the identifier doesn't belong to a known vocabulary term
+     */
+    public VocabularyTerm getTerm(String id)
+    {
+        return this.terms.get(id);
+    }
+
+    /**
+     * Get the identifiers of a term and all of its ancestors. The ancestors are listed in the indexed term, so they
+     * don't need to be resolved.
+     *
+     * @param id a term identifier used in the patient record, or the current identifier of such a term
+     * @return the identifiers of the term and its ancestors, or just the requested identifier if it doesn't belong to
+     *         a known vocabulary term
+     */
+    public Set<String> getAncestorsAndSelf(String id)
+    {
+        Set<String> result = this.ancestorsAndSelf.get(id);
+        if (result == null) {
+            VocabularyTerm term = this.terms.get(id);
+            result = new LinkedHashSet<>();
+            if (term == null) {
+                result.add(id);
+            } else {
+                result.add(term.getId());
+                Object ancestors = term.get(ANCESTORS_FIELD);
+                if (ancestors instanceof Collection) {
+                    for (Object ancestor : (Collection<?>) ancestors) {
+                        result.add(String.valueOf(ancestor));
+                    }
+                } else {
+                    for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                        result.add(ancestor.getId());
+                    }
+                }
+            }
+            this.ancestorsAndSelf.put(id, result);
+        }
+        return result;
+    }
+}
@@ -18,50 +18,62 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.data.Patient;
-import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.data.permissions.PermissionsManager;
 
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
  * An iterator on an immutable, patients collection, which only returns patients that the current user has access to.
+ * The access rights are checked for a whole page of patients at once, using
+ * {@link PermissionsManager#filterAuthorized(java.util.Collection, User, Right)}.
  *
  * @version $Id$
  * @since 1.3M2
  */
 public class SecurePatientIterator implements Iterator<Patient>
 {
+    /** How many patients have their access rights checked together. */
+    private static final int PAGE_SIZE = 50;
+
     private Iterator<Patient> patientIterator;
 
     private User currentUser;
 
-    private AuthorizationService access;
+    private PermissionsManager permissions;
 
-    private Patient nextPatient;
+    private Iterator<Patient> accessiblePatients = Collections.emptyIterator();
 
     /**
      * Default constructor.
      *
      * @param patientIterator Iterator for a collection of patients that this class wraps with security.
-     * @param access the authorization manager actually responsible for checking if a patient is accessible
+     * @param permissions the permissions manager actually responsible for checking which patients are accessible
      * @param currentUser the current user, may be {@code null}
      */
-    public SecurePatientIterator(Iterator<Patient> patientIterator, AuthorizationService access, User currentUser)
+    public SecurePatientIterator(Iterator<Patient> patientIterator, PermissionsManager permissions, User currentUser)
     {
         this.patientIterator = patientIterator;
         this.currentUser = currentUser;
-        this.access = access;
-
-        this.findNextPatient();
+        this.permissions = permissions;
     }
 
     @Override
     public boolean hasNext()
     {
-        return this.nextPatient != null;
+        while (!this.accessiblePatients.hasNext() && this.patientIterator != null && this.patientIterator.hasNext()) {
+            findNextPage();
+        }
+        return this.accessiblePatients.hasNext();
     }
 
     @Override
@@ -70,11 +82,7 @@ public Patient next()
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-
-        Patient toReturn = this.nextPatient;
-        this.findNextPatient();
-
-        return toReturn;
+        return this.accessiblePatients.next();
     }
 
     @Override
@@ -83,18 +91,21 @@ public void remove()
         throw new UnsupportedOperationException();
     }
 
-    private void findNextPatient()
+    private void findNextPage()
     {
-        this.nextPatient = null;
-        if (this.patientIterator == null) {
-            return;
-        }
-
-        while (this.patientIterator.hasNext() && this.nextPatient == null) {
-            Patient potentialNextPatient = this.patientIterator.next();
-            if (this.access.hasAccess(this.currentUser, Right.VIEW, potentialNextPatient.getDocument())) {
-                this.nextPatient = potentialNextPatient;
+        Map<DocumentReference, Patient> page = new LinkedHashMap<>();
+        int read = 0;
+        while (read++ < PAGE_SIZE && this.patientIterator.hasNext()) {
+            Patient patient = this.patientIterator.next();
+            if (patient != null && patient.getDocument() != null) {
+                page.put(patient.getDocument(), patient);
             }
         }
+        List<Patient> accessible = new ArrayList<>(page.size());
+        for (DocumentReference document : this.permissions.filterAuthorized(page.keySet(), this.currentUser,
+            Right.VIEW)) {
+            accessible.add(page.get(document));
+        }
+        this.accessiblePatients = accessible.iterator();
     }
 }
@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.bridge.DocumentModelBridge;
@@ -61,6 +62,10 @@ public class SecurePatientRepository implements PatientRepository
     @Inject
     private AuthorizationService access;
 
+    /** Used for filtering the accessible patients in bulk. */
+    @Inject
+    private PermissionsManager permissions;
+
     /** Used for obtaining the current user. */
     @Inject
     private UserManager userManager;
@@ -154,7 +159,7 @@ public Patient getPatientByExternalId(String externalId)
     public Iterator<Patient> getAll()
     {
         Iterator<Patient> patientsIterator = this.internalService.getAll();
-        return new SecurePatientIterator(patientsIterator, this.access, this.userManager.getCurrentUser());
+        return new SecurePatientIterator(patientsIterator, this.permissions, this.userManager.getCurrentUser());
     }
 
     @Override
@@ -32,7 +32,10 @@
 import org.xwiki.model.reference.EntityReference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +46,7 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -54,6 +58,9 @@
 import com.xpn.xwiki.web.Utils;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PhenoTipsFeatureTest
@@ -640,4 +647,40 @@ public void noCategoriesWithNullObjectList() throws XWikiException
 
         Assert.assertFalse(new PhenoTipsFeature(doc, prop, HP0000100).toJSON().has("categories"));
     }
+
+    @Test
+    public void namesAreResolvedTogether()
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        ListProperty prop = mock(ListProperty.class);
+        when(prop.getName()).thenReturn(TYPE_PHENOTYPE);
+        Map<String, VocabularyTerm> terms = new HashMap<>();
+        terms.put(HP0000100, this.hp0000100);
+        terms.put(HP0012211, this.hp0012211);
+        when(this.vm.resolveTerms(Matchers.anyCollectionOf(String.class))).thenReturn(terms);
+
+        PhenoTipsFeature first = new PhenoTipsFeature(doc, prop, HP0000100);
+        PhenoTipsFeature second = new PhenoTipsFeature(doc, prop, HP0012211);
+        PhenoTipsFeature freeText = new PhenoTipsFeature(doc, prop, "Custom");
+        AbstractPhenoTipsVocabularyProperty.resolveNames(Arrays.asList(first, second, freeText));
+
+        Assert.assertEquals("Nephrosis", first.getName());
+        Assert.assertEquals("Abnormal renal physiology", second.getName());
+        Assert.assertEquals("Custom", freeText.getName());
+        verify(this.vm, times(1)).resolveTerms(Matchers.anyCollectionOf(String.class));
+        verify(this.vm, never()).resolveTerm(Matchers.anyString());
+    }
+
+    @Test
+    public void resolvingNamesSkipsKnownNames()
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        ListProperty prop = mock(ListProperty.class);
+        when(prop.getName()).thenReturn(TYPE_PHENOTYPE);
+
+        AbstractPhenoTipsVocabularyProperty.resolveNames(
+            Collections.singletonList(new PhenoTipsFeature(doc, prop, "Custom")));
+
+        verify(this.vm, never()).resolveTerms(Matchers.<Collection<String>>any());
+    }
 }
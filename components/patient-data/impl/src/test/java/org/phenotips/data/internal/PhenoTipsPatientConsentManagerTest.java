@@ -24,25 +24,36 @@
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.lang.reflect.Type;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -52,6 +63,7 @@
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -63,6 +75,56 @@
     public final MockitoComponentMockingRule<ConsentManager> mocker =
         new MockitoComponentMockingRule<ConsentManager>(PhenoTipsPatientConsentManager.class);
 
+    private final Map<String, Object> cachedValues = new HashMap<>();
+
+    private CacheConfiguration cacheConfiguration;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUpCache() throws Exception
+    {
+        // A cache working like a map, remembering everything
+        final Cache<Object> cache = mock(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return PhenoTipsPatientConsentManagerTest.this.cachedValues.get(invocation.getArguments()[0]);
+            }
+        }).when(cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                PhenoTipsPatientConsentManagerTest.this.cachedValues.put((String) invocation.getArguments()[0],
+                    invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), any());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                PhenoTipsPatientConsentManagerTest.this.cachedValues.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(anyString());
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        doAnswer(new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation)
+            {
+                PhenoTipsPatientConsentManagerTest.this.cacheConfiguration =
+                    (CacheConfiguration) invocation.getArguments()[0];
+                return cache;
+            }
+        }).when(cacheManager).createNewCache(any(CacheConfiguration.class));
+    }
+
     /** Sets up initialization of the component with the given {@code baseObjects}. */
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private DocumentModelBridge setUpInitialization(List<BaseObject> baseObjects) throws Exception
@@ -75,6 +137,7 @@ private DocumentModelBridge setUpInitialization(List<BaseObject> baseObjects) th
 
         doReturn(configDocRefMock).when(resolver).resolve(any(EntityReference.class));
         doReturn(configDoc).when(dab).getDocument(configDocRefMock);
+        doReturn(configDocRefMock).when(configDoc).getDocumentReference();
         doReturn(baseObjects).when((XWikiDocument) configDoc).getXObjects(any(EntityReference.class));
 
         return configDoc;
@@ -345,6 +408,143 @@ public void testHasConsent() throws Exception
         Assert.assertFalse(this.mocker.getComponentUnderTest().hasConsent(patient, ConsentConfigurationMocks.TEST_ID3));
     }
 
+    @Test
+    public void testPatientConsentsAreCachedUntilThePatientChanges() throws Exception
+    {
+        List<String> consentIds = new LinkedList<>();
+        consentIds.add(ConsentConfigurationMocks.TEST_ID1);
+
+        this.setUpInitializationWithConfigurationMocks();
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        Patient patient = mock(Patient.class);
+        DocumentReference patientRef = mock(DocumentReference.class);
+        DocumentModelBridge patientDoc = mock(XWikiDocument.class);
+        BaseObject idsHolder = mock(BaseObject.class);
+
+        doReturn(patientRef).when(patient).getDocument();
+        doReturn(patientRef).when(patientDoc).getDocumentReference();
+        doReturn(patientDoc).when(dab).getDocument(patientRef);
+        doReturn(idsHolder).when((XWikiDocument) patientDoc).getXObject(any(EntityReference.class));
+        doReturn(consentIds).when(idsHolder).getListValue(anyString());
+
+        ConsentManager manager = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID1));
+        Assert.assertFalse(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID2));
+        Assert.assertEquals(2, manager.getMissingConsentsForPatient(patient).size());
+        Assert.assertEquals(3, manager.getAllConsentsForPatient(patient).size());
+        verify(dab, times(1)).getDocument(patientRef);
+
+        doReturn(Arrays.asList(ConsentConfigurationMocks.TEST_ID1, ConsentConfigurationMocks.TEST_ID2))
+            .when(idsHolder).getListValue(anyString());
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), patientDoc, null);
+
+        Assert.assertTrue(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID2));
+        Assert.assertEquals(1, manager.getMissingConsentsForPatient(patient).size());
+        verify(dab, times(2)).getDocument(patientRef);
+    }
+
+    @Test
+    public void testPatientConsentsReadWhileThePatientChangesAreNotCached() throws Exception
+    {
+        this.setUpInitializationWithConfigurationMocks();
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        Patient patient = mock(Patient.class);
+        DocumentReference patientRef = mock(DocumentReference.class);
+        final DocumentModelBridge patientDoc = mock(XWikiDocument.class);
+        BaseObject idsHolder = mock(BaseObject.class);
+
+        doReturn(patientRef).when(patient).getDocument();
+        doReturn(patientRef).when(patientDoc).getDocumentReference();
+        doReturn(patientDoc).when(dab).getDocument(patientRef);
+        doReturn(idsHolder).when((XWikiDocument) patientDoc).getXObject(any(EntityReference.class));
+        final ConsentManager manager = this.mocker.getComponentUnderTest();
+        doAnswer(new Answer<List<String>>()
+        {
+            @Override
+            public List<String> answer(InvocationOnMock invocation)
+            {
+                // The record is saved right after its old consents were read
+                ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), patientDoc, null);
+                return Arrays.asList(ConsentConfigurationMocks.TEST_ID1);
+            }
+        }).doReturn(Arrays.asList(ConsentConfigurationMocks.TEST_ID2)).when(idsHolder).getListValue(anyString());
+
+        Assert.assertTrue(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID1));
+        Assert.assertTrue(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID2));
+        Assert.assertFalse(manager.hasConsent(patient, ConsentConfigurationMocks.TEST_ID1));
+        verify(dab, times(2)).getDocument(patientRef);
+    }
+
+    @Test
+    public void testGrantedConsentsCacheIsBounded() throws Exception
+    {
+        this.setUpInitializationWithConfigurationMocks();
+        this.mocker.getComponentUnderTest();
+        Assert.assertTrue(this.cacheConfiguration instanceof LRUCacheConfiguration);
+        Assert.assertTrue(
+            ((LRUCacheConfiguration) this.cacheConfiguration).getLRUEvictionConfiguration().getMaxEntries() > 0);
+    }
+
+    @Test
+    public void testSystemConsentsAreCachedUntilTheConfigurationChanges() throws Exception
+    {
+        List<BaseObject> baseObjects = new LinkedList<>();
+        DocumentModelBridge configDoc = this.setUpInitialization(baseObjects);
+        DocumentReference configDocRef = configDoc.getDocumentReference();
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+
+        ConsentManager manager = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(manager.getSystemConsents().isEmpty());
+        Assert.assertFalse(manager.isValidConsentId(ConsentConfigurationMocks.TEST_ID1));
+        verify(dab, times(1)).getDocument(configDocRef);
+
+        ConsentConfigurationMocks mocks = new ConsentConfigurationMocks();
+        baseObjects.add(mocks.consentConfig1);
+        doReturn(ConsentConfigurationMocks.TEST_ID1).when(mocks.consentConfig1)
+            .getStringValue(ConsentConfigurationMocks.ID_KEY);
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), configDoc, null);
+
+        Assert.assertEquals(1, manager.getSystemConsents().size());
+        Assert.assertTrue(manager.isValidConsentId(ConsentConfigurationMocks.TEST_ID1));
+        verify(dab, times(2)).getDocument(configDocRef);
+    }
+
+    @Test
+    public void testGetConsentsForSeveralPatients() throws Exception
+    {
+        this.setUpInitializationWithConfigurationMocks();
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        Patient patient1 = mockPatient(dab, Arrays.asList(ConsentConfigurationMocks.TEST_ID1));
+        Patient patient2 = mockPatient(dab,
+            Arrays.asList(ConsentConfigurationMocks.TEST_ID2, ConsentConfigurationMocks.TEST_ID3, "id_nonexistent"));
+
+        Map<Patient, Set<Consent>> result =
+            this.mocker.getComponentUnderTest().getConsents(Arrays.asList(patient2, null, patient1));
+
+        Assert.assertEquals(Arrays.asList(patient2, patient1), new LinkedList<>(result.keySet()));
+        for (Consent consent : result.get(patient1)) {
+            Assert.assertEquals(ConsentConfigurationMocks.TEST_ID1.equals(consent.getId()), consent.isGranted());
+        }
+        for (Consent consent : result.get(patient2)) {
+            Assert.assertEquals(!ConsentConfigurationMocks.TEST_ID1.equals(consent.getId()), consent.isGranted());
+        }
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getConsents(null).isEmpty());
+    }
+
+    private Patient mockPatient(DocumentAccessBridge dab, List<String> consentIds) throws Exception
+    {
+        Patient patient = mock(Patient.class);
+        DocumentReference patientRef = mock(DocumentReference.class);
+        DocumentModelBridge patientDoc = mock(XWikiDocument.class);
+        BaseObject idsHolder = mock(BaseObject.class);
+
+        doReturn(patientRef).when(patient).getDocument();
+        doReturn(patientDoc).when(dab).getDocument(patientRef);
+        doReturn(idsHolder).when((XWikiDocument) patientDoc).getXObject(any(EntityReference.class));
+        doReturn(consentIds).when(idsHolder).getListValue(anyString());
+        return patient;
+    }
+
     private void setUpSettingConsents(BaseObject idsHolder, Patient patient, DocumentModelBridge patientDoc,
         XWikiContext context, XWiki wiki) throws Exception
     {
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link ResolvedPhenotypes} helper.
+ *
+ * @version $Id$
+ */
+public class ResolvedPhenotypesTest
+{
+    private static final String PHENOTYPE = "phenotype";
+
+    private static final String DEPRECATED_ID = "HP:0000001";
+
+    private static final String CURRENT_ID = "HP:0000002";
+
+    private static final String PARENT_ID = "HP:0000118";
+
+    private static final String FREE_TEXT = "Funny ears";
+
+    private VocabularyManager vocabularyManager;
+
+    private PatientChangingContext context;
+
+    private VocabularyTerm term;
+
+    @Before
+    public void setUp()
+    {
+        this.vocabularyManager = mock(VocabularyManager.class);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        BaseObject patientObject = mock(BaseObject.class);
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(patientObject);
+        when(patientObject.getListValue(PHENOTYPE)).thenReturn(Arrays.asList(DEPRECATED_ID, FREE_TEXT));
+        when(patientObject.getListValue("negative_phenotype")).thenReturn(Collections.singletonList(DEPRECATED_ID));
+        this.context = new PatientChangingContext(null, doc);
+
+        this.term = mock(VocabularyTerm.class);
+        when(this.term.getId()).thenReturn(CURRENT_ID);
+        when(this.term.get("term_category")).thenReturn(Arrays.asList(CURRENT_ID, PARENT_ID));
+        Map<String, VocabularyTerm> resolved = new HashMap<>();
+        resolved.put(DEPRECATED_ID, this.term);
+        when(this.vocabularyManager.resolveTerms(anyCollectionOf(String.class))).thenReturn(resolved);
+    }
+
+    @Test
+    public void termsAreResolvedOnceInBulk()
+    {
+        ResolvedPhenotypes first = ResolvedPhenotypes.get(this.context, this.vocabularyManager);
+        ResolvedPhenotypes second = ResolvedPhenotypes.get(this.context, this.vocabularyManager);
+
+        Assert.assertSame(first, second);
+        Collection<String> expected = new LinkedHashSet<>(Arrays.asList(DEPRECATED_ID, FREE_TEXT));
+        verify(this.vocabularyManager, times(1)).resolveTerms(expected);
+    }
+
+    @Test
+    public void termsCanBeRetrievedByOldAndCurrentIdentifiers()
+    {
+        ResolvedPhenotypes terms = ResolvedPhenotypes.get(this.context, this.vocabularyManager);
+
+        Assert.assertSame(this.term, terms.getTerm(DEPRECATED_ID));
+        Assert.assertSame(this.term, terms.getTerm(CURRENT_ID));
+        Assert.assertNull(terms.getTerm(FREE_TEXT));
+    }
+
+    @Test
+    public void ancestorsAreReadFromTheIndexedTerm()
+    {
+        ResolvedPhenotypes terms = ResolvedPhenotypes.get(this.context, this.vocabularyManager);
+
+        Set<String> expected = new LinkedHashSet<>(Arrays.asList(CURRENT_ID, PARENT_ID));
+        Assert.assertEquals(expected, terms.getAncestorsAndSelf(DEPRECATED_ID));
+        Assert.assertEquals(Collections.singleton(FREE_TEXT), terms.getAncestorsAndSelf(FREE_TEXT));
+        verify(this.term, times(0)).getAncestorsAndSelf();
+    }
+}
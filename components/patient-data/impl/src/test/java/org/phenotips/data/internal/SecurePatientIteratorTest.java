@@ -18,13 +18,17 @@
 package org.phenotips.data.internal;
 
 import org.phenotips.data.Patient;
-import org.phenotips.security.authorization.AuthorizationService;
+import org.phenotips.data.permissions.PermissionsManager;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -32,13 +36,21 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
- * Tests for the {@link SecurePatientRepository} component.
+ * Tests for the {@link SecurePatientIterator} class.
  *
  * @version $Id$
  * @since 1.3M1
@@ -57,23 +69,19 @@
     @Mock
     private User currentUser;
 
-    private DocumentReference p1Reference = new DocumentReference("xwiki", "data", "P01");
-
-    private DocumentReference p2Reference = new DocumentReference("xwiki", "data", "P02");
-
-    private DocumentReference p3Reference = new DocumentReference("xwiki", "data", "P03");
-
     @Mock
-    private AuthorizationService access;
+    private PermissionsManager permissions;
+
+    private List<DocumentReference> documents = new ArrayList<>();
 
     @Before
     public void setup() throws ComponentLookupException
     {
         MockitoAnnotations.initMocks(this);
 
-        when(this.p1.getDocument()).thenReturn(this.p1Reference);
-        when(this.p2.getDocument()).thenReturn(this.p2Reference);
-        when(this.p3.getDocument()).thenReturn(this.p3Reference);
+        mockDocument(this.p1, "P0000001");
+        mockDocument(this.p2, "P0000002");
+        mockDocument(this.p3, "P0000003");
     }
 
     @Test
@@ -81,7 +89,8 @@ public void emptyInputGivesEmptyIterator() throws ComponentLookupException
     {
         List<Patient> input = new LinkedList<>();
 
-        SecurePatientIterator iterator = new SecurePatientIterator(input.iterator(), this.access, this.currentUser);
+        SecurePatientIterator iterator =
+            new SecurePatientIterator(input.iterator(), this.permissions, this.currentUser);
         Assert.assertFalse(iterator.hasNext());
         boolean exception = false;
         try {
@@ -90,6 +99,8 @@ public void emptyInputGivesEmptyIterator() throws ComponentLookupException
             exception = true;
         }
         Assert.assertTrue(exception);
+        verify(this.permissions, never()).filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            any(User.class), any(Right.class));
     }
 
     @Test
@@ -100,8 +111,12 @@ public void onlyRestrictedEntriesGivesEmptyIterator() throws ComponentLookupExce
         input.add(this.p1);
         input.add(this.p2);
         input.add(this.p3);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            Matchers.eq(this.currentUser), Matchers.eq(Right.VIEW)))
+            .thenReturn(Collections.<DocumentReference>emptyList());
 
-        SecurePatientIterator iterator = new SecurePatientIterator(input.iterator(), this.access, this.currentUser);
+        SecurePatientIterator iterator =
+            new SecurePatientIterator(input.iterator(), this.permissions, this.currentUser);
         Assert.assertFalse(iterator.hasNext());
         boolean exception = false;
         try {
@@ -117,7 +132,8 @@ public void onlyRestrictedEntriesGivesEmptyIterator() throws ComponentLookupExce
     public void removeThrowsUnsupportedOperationException() throws UnsupportedOperationException
     {
         List<Patient> input = new LinkedList<>();
-        SecurePatientIterator iterator = new SecurePatientIterator(input.iterator(), this.access, this.currentUser);
+        SecurePatientIterator iterator =
+            new SecurePatientIterator(input.iterator(), this.permissions, this.currentUser);
         iterator.remove();
     }
 
@@ -128,15 +144,68 @@ public void basicFunctionalityTests() throws ComponentLookupException
         input.add(this.p1);
         input.add(this.p2);
         input.add(this.p3);
-        when(this.access.hasAccess(this.currentUser, Right.VIEW, this.p1Reference)).thenReturn(false);
-        when(this.access.hasAccess(this.currentUser, Right.VIEW, this.p2Reference)).thenReturn(true);
-        when(this.access.hasAccess(this.currentUser, Right.VIEW, this.p3Reference)).thenReturn(true);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            Matchers.eq(this.currentUser), Matchers.eq(Right.VIEW)))
+            .thenReturn(Arrays.asList(this.documents.get(1), this.documents.get(2)));
 
-        SecurePatientIterator iterator = new SecurePatientIterator(input.iterator(), this.access, this.currentUser);
+        SecurePatientIterator iterator =
+            new SecurePatientIterator(input.iterator(), this.permissions, this.currentUser);
         Assert.assertTrue(iterator.hasNext());
         Assert.assertSame(this.p2, iterator.next());
         Assert.assertTrue(iterator.hasNext());
         Assert.assertSame(this.p3, iterator.next());
         Assert.assertFalse(iterator.hasNext());
     }
+
+    @Test
+    public void accessIsCheckedOncePerPage() throws ComponentLookupException
+    {
+        List<Patient> input = new ArrayList<>();
+        for (int i = 0; i < 120; ++i) {
+            Patient patient = mock(Patient.class);
+            mockDocument(patient, "P" + i);
+            input.add(patient);
+        }
+        // Only the first patient of each page is accessible
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            Matchers.eq(this.currentUser), Matchers.eq(Right.VIEW))).thenAnswer(
+                new Answer<Collection<DocumentReference>>()
+                {
+                    @Override
+                    public Collection<DocumentReference> answer(InvocationOnMock invocation)
+                    {
+                        Collection<?> page = (Collection<?>) invocation.getArguments()[0];
+                        return Collections.singletonList((DocumentReference) page.iterator().next());
+                    }
+                });
+
+        SecurePatientIterator iterator =
+            new SecurePatientIterator(input.iterator(), this.permissions, this.currentUser);
+        Assert.assertSame(input.get(0), iterator.next());
+        Assert.assertSame(input.get(50), iterator.next());
+        Assert.assertSame(input.get(100), iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+        verify(this.permissions, times(3)).filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            Matchers.eq(this.currentUser), Matchers.eq(Right.VIEW));
+    }
+
+    @Test
+    public void guestsAreChecked() throws ComponentLookupException
+    {
+        List<Patient> input = Arrays.asList(this.p1, this.p2);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            Matchers.isNull(User.class), Matchers.eq(Right.VIEW)))
+            .thenReturn(Collections.singletonList(this.documents.get(0)));
+
+        SecurePatientIterator iterator = new SecurePatientIterator(input.iterator(), this.permissions, null);
+        Assert.assertSame(this.p1, iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    private void mockDocument(Patient patient, String name)
+    {
+        DocumentReference document = new DocumentReference("xwiki", "data", name);
+        when(patient.getDocument()).thenReturn(document);
+        this.documents.add(document);
+    }
 }
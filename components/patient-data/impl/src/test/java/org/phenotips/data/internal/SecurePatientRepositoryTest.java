@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.bridge.DocumentModelBridge;
@@ -32,6 +33,7 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -41,12 +43,14 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import com.xpn.xwiki.doc.XWikiDocument;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -74,12 +78,15 @@
 
     private PatientRepository internalRepo;
 
+    private PermissionsManager permissions;
+
     @Before
     public void setup() throws ComponentLookupException
     {
         MockitoAnnotations.initMocks(this);
         this.access = this.mocker.getInstance(AuthorizationService.class);
         this.internalRepo = this.mocker.getInstance(PatientRepository.class);
+        this.permissions = this.mocker.getInstance(PermissionsManager.class);
 
         UserManager userManager = this.mocker.getInstance(UserManager.class);
         when(userManager.getCurrentUser()).thenReturn(this.currentUser);
@@ -168,13 +175,14 @@ public void getAllFiltersInaccessiblePatients() throws ComponentLookupException
         Patient p1 = mock(Patient.class);
         DocumentReference p1ref = mock(DocumentReference.class);
         when(p1.getDocument()).thenReturn(p1ref);
-        when(this.access.hasAccess(this.currentUser, Right.VIEW, p1ref)).thenReturn(false);
         rawInput.add(p1);
         Patient p2 = mock(Patient.class);
         DocumentReference p2ref = mock(DocumentReference.class);
         when(p2.getDocument()).thenReturn(p2ref);
-        when(this.access.hasAccess(this.currentUser, Right.VIEW, p2ref)).thenReturn(true);
         rawInput.add(p2);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(),
+            eq(this.currentUser), eq(Right.VIEW)))
+            .thenReturn(Collections.singletonList(p2ref));
 
         when(this.internalRepo.getAll()).thenReturn(rawInput.iterator());
         Iterator<Patient> result = this.mocker.getComponentUnderTest().getAll();
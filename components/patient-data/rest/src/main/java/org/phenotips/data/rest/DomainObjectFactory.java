@@ -61,6 +61,21 @@
      */
     PatientSummary createPatientSummary(Object[] summaryData, UriInfo uriInfo);
 
+    /**
+     * Create the REST representation for a {@link Patient}'s summary, starting from the raw values needed for the
+     * summary, optionally skipping the access check when the caller already checked the access rights, for example
+     * together for many records.
+     *
+     * @param summaryData the needed patient information to serialize, in order: document name, external identifier,
+     *            creator, creation date, current version, last author, last modification date
+     * @param uriInfo the URI information for the rest system and the current request
+     * @param checkAccess whether the view right of the current user must be checked before creating the summary
+     * @return a patient summary, or {@code null} if the access is checked and the current user doesn't have access to
+     *         the patient, or accessing the patient data fails
+     * @since 1.3
+     */
+    PatientSummary createPatientSummary(Object[] summaryData, UriInfo uriInfo, boolean checkAccess);
+
     /**
      * Create the REST representation for a list of links to {@link Patient}s.
      *
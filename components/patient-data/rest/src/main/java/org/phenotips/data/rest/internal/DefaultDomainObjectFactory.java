@@ -114,17 +114,26 @@ public PatientSummary createPatientSummary(Patient patient, UriInfo uriInfo)
 
     @Override
     public PatientSummary createPatientSummary(Object[] summaryData, UriInfo uriInfo)
+    {
+        return createPatientSummary(summaryData, uriInfo, true);
+    }
+
+    @Override
+    public PatientSummary createPatientSummary(Object[] summaryData, UriInfo uriInfo, boolean checkAccess)
     {
         if (summaryData == null || summaryData.length != 7
             || !(summaryData[3] instanceof Date && summaryData[6] instanceof Date)) {
             return null;
         }
         PatientSummary result = new PatientSummary();
-        User currentUser = this.users.getCurrentUser();
         DocumentReference doc = this.stringResolver.resolve(String.valueOf(summaryData[0]));
 
-        if (!this.access.hasAccess(Right.VIEW, currentUser == null ? null : currentUser.getProfileDocument(), doc)) {
-            return null;
+        if (checkAccess) {
+            User currentUser = this.users.getCurrentUser();
+            if (!this.access.hasAccess(Right.VIEW, currentUser == null ? null : currentUser.getProfileDocument(),
+                doc)) {
+                return null;
+            }
         }
 
         result.withId(doc.getName()).withEid(StringUtils.defaultString((String) summaryData[1]));
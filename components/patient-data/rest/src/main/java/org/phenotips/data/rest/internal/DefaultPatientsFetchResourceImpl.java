@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.PatientsFetchResource;
 import org.phenotips.entities.PrimaryEntity;
@@ -29,11 +30,21 @@
 import org.xwiki.container.Request;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -55,7 +66,6 @@
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.google.common.collect.ImmutableSet;
 
 /**
  * Default implementation for {@link PatientsFetchResource} using XWiki's support for REST resources.
@@ -79,11 +89,18 @@ public class DefaultPatientsFetchResourceImpl extends XWikiResource implements P
     @Inject
     private QueryManager qm;
 
-    /** The secure patient repository. */
+    /** The trusted patient repository, access rights are checked for all the retrieved patients at once. */
     @Inject
-    @Named("secure")
     private PatientRepository repository;
 
+    /** Used for filtering the accessible patients. */
+    @Inject
+    private PermissionsManager permissions;
+
+    /** Used for obtaining the current user. */
+    @Inject
+    private UserManager users;
+
     /** XWiki request container. */
     @Inject
     private Container container;
@@ -102,13 +119,13 @@ public Response fetchPatients()
         this.logger.debug("Retrieving patient records with external IDs [{}] and internal IDs [{}]", eids, ids);
 
         // Build a set of patients from the provided external and/or internal ID data.
-        final ImmutableSet.Builder<PrimaryEntity> patientsBuilder = ImmutableSet.builder();
+        final Set<Patient> patients = new LinkedHashSet<>();
 
         try {
-            addEids(patientsBuilder, eids);
-            addIds(patientsBuilder, ids);
-            // Generate JSON for all retrieved patients.
-            final String json = objectMapper.writeValueAsString(patientsBuilder.build());
+            addEids(patients, eids);
+            addIds(patients, ids);
+            // Generate JSON for all retrieved patients that the current user can view.
+            final String json = objectMapper.writeValueAsString(filterAccessible(patients));
             return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
         } catch (final JsonProcessingException ex) {
             logger.error("Failed to serialize patients [{}] to JSON: {}", eids, ex.getMessage());
@@ -122,71 +139,93 @@ public Response fetchPatients()
     /**
      * Retrieves patient entities given a list of external patient IDs.
      *
-     * @param patientsBuilder a patient entity set builder
+     * @param patients a patient entity set
      * @param eids a list of external patient IDs, as strings
      * @throws QueryException if the query fails
      */
-    private void addEids(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patientsBuilder,
+    private void addEids(@Nonnull final Set<Patient> patients,
         @Nonnull final List<Object> eids) throws QueryException
     {
         if (CollectionUtils.isNotEmpty(eids)) {
-            collectPatientsFromEids(patientsBuilder, eids);
+            collectPatientsFromEids(patients, eids);
         }
     }
 
     /**
      * Retrieves and collects patient entities that correspond to the provided external ID.
      *
-     * @param patientsBuilder a patient entity set builder
+     * @param patients a patient entity set
      * @param eids external patient IDs, as a list
      * @throws QueryException if the query fails
      */
-    private void collectPatientsFromEids(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patientsBuilder,
+    private void collectPatientsFromEids(@Nonnull final Set<Patient> patients,
         @Nonnull final List<Object> eids) throws QueryException
     {
         final Query q = qm.createQuery("from doc.object(PhenoTips.PatientClass) p where p.external_id in (:eids)",
             Query.XWQL);
         q.bindValue("eids", eids);
         final List<Object> patientIds = q.execute();
-        addIds(patientsBuilder, patientIds);
+        addIds(patients, patientIds);
     }
 
     /**
      * Retrieves patient entities given a list of internal patient IDs.
      *
-     * @param patientsBuilder a patient entity set builder
+     * @param patients a patient entity set
      * @param ids a list of patient ids, as strings
      */
-    private void addIds(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patientsBuilder,
+    private void addIds(@Nonnull final Set<Patient> patients,
         @Nonnull final List<Object> ids)
     {
         for (final Object id : ids) {
             if (StringUtils.isNotBlank((String) id)) {
-                addPatientFromId(patientsBuilder, id);
+                addPatientFromId(patients, id);
             }
         }
     }
 
     /**
-     * Given the patient's internal ID, retrieves the patient entity, if it exists and if the user has view rights, and
-     * adds it to the set of patient entities.
+     * Given the patient's internal ID, retrieves the patient entity, if it exists, and adds it to the set of patient
+     * entities.
      *
-     * @param patientsBuilder a patient entity set builder
+     * @param patients a patient entity set
      * @param id an internal patient ID
      */
-    private void addPatientFromId(@Nonnull final ImmutableSet.Builder<PrimaryEntity> patientsBuilder,
-        @Nonnull final Object id)
+    private void addPatientFromId(@Nonnull final Set<Patient> patients, @Nonnull final Object id)
     {
-        try {
-            // Try to get the patient entity.
-            final PrimaryEntity patient = this.repository.get((String) id);
-            // If user has view rights and patient with the provided ID exists, add patient to patient set.
-            if (patient != null) {
-                patientsBuilder.add(patient);
-            }
-        } catch (final SecurityException ex) {
-            logger.warn("Failed to retrieve patient with ID [{}]: {}", id, ex.getMessage());
+        final Patient patient = this.repository.get((String) id);
+        if (patient != null) {
+            patients.add(patient);
+        }
+    }
+
+    /**
+     * Keeps only the patients that the current user has view rights on, checking all the patients at once.
+     *
+     * @param patients the retrieved patients
+     * @return the accessible patients, in the same order
+     */
+    private Collection<Patient> filterAccessible(@Nonnull final Set<Patient> patients)
+    {
+        if (patients.isEmpty()) {
+            return patients;
+        }
+        final Map<DocumentReference, Patient> documents = new LinkedHashMap<>();
+        for (final Patient patient : patients) {
+            documents.put(patient.getDocument(), patient);
+        }
+        final User currentUser = this.users.getCurrentUser();
+        final Collection<DocumentReference> authorized =
+            this.permissions.filterAuthorized(documents.keySet(), currentUser, Right.VIEW);
+        final Collection<Patient> result = new ArrayList<>(authorized.size());
+        for (final DocumentReference document : authorized) {
+            result.add(documents.get(document));
+        }
+        if (result.size() < patients.size()) {
+            this.logger.debug("Skipped [{}] patients not accessible to [{}]", patients.size() - result.size(),
+                currentUser);
         }
+        return result;
     }
 
     /**
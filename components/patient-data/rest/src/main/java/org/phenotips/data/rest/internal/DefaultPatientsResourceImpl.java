@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.PatientsResource;
@@ -29,6 +30,7 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.query.Query;
@@ -40,7 +42,10 @@
 import org.xwiki.users.UserManager;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -68,6 +73,9 @@
 @Singleton
 public class DefaultPatientsResourceImpl extends XWikiResource implements PatientsResource
 {
+    /** How many records have their access rights checked together. */
+    private static final int PAGE_SIZE = 50;
+
     @Inject
     private Logger logger;
 
@@ -91,6 +99,15 @@ public class DefaultPatientsResourceImpl extends XWikiResource implements Patien
     @Inject
     private DomainObjectFactory factory;
 
+    /** Used for checking the access rights of many patients at once. */
+    @Inject
+    private PermissionsManager permissions;
+
+    /** Parses string representations of document references into proper references. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
     @Inject
     private Provider<Autolinker> autolinker;
 
@@ -215,16 +232,21 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
             query.bindValue("t", "PatientTemplate");
 
             List<Object[]> records = query.execute();
+            User currentUser = this.users.getCurrentUser();
             int skipped = 0;
-            for (Object[] record : records) {
-                PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
-                // Since raw queries can't take into account access rights, we must do our own paging with rights checks
-                if (summary != null) {
-                    if (++skipped > start) {
-                        result.getPatientSummaries().add(summary);
-                    }
-                    if (result.getPatientSummaries().size() >= number) {
-                        break;
+            // Since raw queries can't take into account access rights, we must do our own paging with rights checks,
+            // done for a whole page of records at once
+            for (int i = 0; i < records.size() && result.getPatientSummaries().size() < number; i += PAGE_SIZE) {
+                List<Object[]> page = records.subList(i, Math.min(records.size(), i + PAGE_SIZE));
+                for (Object[] record : filterAccessible(page, currentUser)) {
+                    PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo, false);
+                    if (summary != null) {
+                        if (++skipped > start) {
+                            result.getPatientSummaries().add(summary);
+                        }
+                        if (result.getPatientSummaries().size() >= number) {
+                            break;
+                        }
                     }
                 }
             }
@@ -238,6 +260,30 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
         return result;
     }
 
+    /**
+     * Keeps only the records of the patients that a user can view. The rights are checked on the patient documents
+     * directly, without loading the patients.
+     *
+     * @param records patient records, where the first column is the patient document name
+     * @param user the user whose access is checked, may be {@code null} for guest users
+     * @return the accessible records, in the same order
+     */
+    private List<Object[]> filterAccessible(List<Object[]> records, User user)
+    {
+        List<Object[]> result = new ArrayList<>(records.size());
+        Map<DocumentReference, Object[]> documents = new LinkedHashMap<>();
+        for (Object[] record : records) {
+            DocumentReference document = this.stringResolver.resolve(String.valueOf(record[0]));
+            if (document != null) {
+                documents.put(document, record);
+            }
+        }
+        for (DocumentReference document : this.permissions.filterAuthorized(documents.keySet(), user, Right.VIEW)) {
+            result.add(documents.get(document));
+        }
+        return result;
+    }
+
     private Right getGrantedRight()
     {
         User currentUser = this.users.getCurrentUser();
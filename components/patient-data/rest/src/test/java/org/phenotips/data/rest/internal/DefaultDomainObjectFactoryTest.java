@@ -64,6 +64,8 @@
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class DefaultDomainObjectFactoryTest
@@ -259,6 +261,21 @@ public void createPatientFromSummaryWithNoAccessReturnsNull() throws Exception
         assertNull(this.mocker.getComponentUnderTest().createPatientSummary(summary, this.uriInfo));
     }
 
+    @Test
+    public void createPatientFromSummaryWithoutAccessCheckSkipsRightsCheck() throws Exception
+    {
+        Object[] summary =
+            { "data.P0000001", this.eid, "XWiki.padams", new Date(), "version", "XWiki.hmccoy", new Date() };
+        when(this.access.hasAccess(Right.VIEW, this.userReference1, this.patientReference1)).thenReturn(false);
+
+        PatientSummary patientSummary =
+            this.mocker.getComponentUnderTest().createPatientSummary(summary, this.uriInfo, false);
+
+        assertEquals(this.patientReference1.getName(), patientSummary.getId());
+        verify(this.access, never()).hasAccess(any(Right.class), any(DocumentReference.class),
+            any(DocumentReference.class));
+    }
+
     @Test
     public void createPatientFromSummaryPerformsCorrectly() throws Exception
     {
@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.rest.PatientsFetchResource;
 import org.phenotips.rest.Autolinker;
 
@@ -28,15 +29,20 @@
 import org.xwiki.container.Request;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.query.internal.DefaultQuery;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import javax.ws.rs.core.Response;
@@ -50,6 +56,8 @@
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 
 import com.google.common.collect.ImmutableList;
@@ -60,7 +68,6 @@
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -103,6 +110,14 @@
 
     private PatientRepository repository;
 
+    private PermissionsManager permissions;
+
+    private final DocumentReference patient1Document = new DocumentReference("wiki", "data", ID_1);
+
+    private final DocumentReference patient2Document = new DocumentReference("wiki", "data", ID_2);
+
+    private final DocumentReference patient3Document = new DocumentReference("wiki", "data", ID_3);
+
     private DefaultPatientsFetchResourceImpl component;
 
     private Request request;
@@ -132,11 +147,27 @@ public void setUp() throws ComponentLookupException, QueryException
         this.component = (DefaultPatientsFetchResourceImpl) this.mocker.getComponentUnderTest();
 
         this.logger = this.mocker.getMockedLogger();
-        this.repository = this.mocker.getInstance(PatientRepository.class, "secure");
+        this.repository = this.mocker.getInstance(PatientRepository.class);
+        this.permissions = this.mocker.getInstance(PermissionsManager.class);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(), any(User.class),
+            Matchers.eq(Right.VIEW))).thenAnswer(new Answer<Collection<DocumentReference>>()
+            {
+                @Override
+                public Collection<DocumentReference> answer(InvocationOnMock invocation)
+                {
+                    @SuppressWarnings("unchecked")
+                    Collection<DocumentReference> documents =
+                        (Collection<DocumentReference>) invocation.getArguments()[0];
+                    return documents;
+                }
+            });
 
         when(this.patient1.getId()).thenReturn(ID_1);
         when(this.patient2.getId()).thenReturn(ID_2);
         when(this.patient3.getId()).thenReturn(ID_3);
+        when(this.patient1.getDocument()).thenReturn(this.patient1Document);
+        when(this.patient2.getDocument()).thenReturn(this.patient2Document);
+        when(this.patient3.getDocument()).thenReturn(this.patient3Document);
 
         final Autolinker autolinker = this.mocker.getInstance(Autolinker.class);
         when(autolinker.forSecondaryResource(any(Class.class), any(UriInfo.class))).thenReturn(autolinker);
@@ -226,14 +257,17 @@ public void getPatientsPerformsCorrectlySeveralPatientRecordsAccessToSome() thro
         doReturn(idList).when(this.request).getProperties(ID_LABEL);
 
         when(this.query.execute()).thenReturn(ImmutableList.<Object>of(ID_1, ID_2));
-        doThrow(SecurityException.class).when(this.repository).get(ID_2);
+        when(this.permissions.filterAuthorized(
+            new LinkedHashSet<>(Arrays.asList(this.patient1Document, this.patient2Document, this.patient3Document)),
+            null, Right.VIEW)).thenReturn(Arrays.asList(this.patient1Document, this.patient3Document));
 
         final Response response = this.component.fetchPatients();
 
         final JSONArray expected = new JSONArray().put(new JSONObject().put(ID_LABEL, ID_1).put(LINKS_LABEL, this.uriList))
             .put(new JSONObject().put(ID_LABEL, ID_3).put(LINKS_LABEL, this.uriList));
         final JSONArray actual = new JSONArray(response.getEntity().toString());
-        verify(this.logger).warn("Failed to retrieve patient with ID [{}]: {}", ID_2, null);
+        verify(this.permissions).filterAuthorized(Matchers.<Collection<DocumentReference>>any(), any(User.class),
+            Matchers.eq(Right.VIEW));
         assertTrue(expected.similar(actual));
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
     }
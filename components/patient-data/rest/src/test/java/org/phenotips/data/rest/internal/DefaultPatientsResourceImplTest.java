@@ -19,6 +19,7 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientsResource;
 import org.phenotips.data.rest.model.PatientSummary;
@@ -27,10 +28,12 @@
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -45,6 +48,7 @@
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -59,8 +63,11 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
@@ -71,6 +78,7 @@
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -96,6 +104,8 @@
 
     private PatientRepository repository;
 
+    private PermissionsManager permissions;
+
     private QueryManager queries;
 
     private AuthorizationManager access;
@@ -149,6 +159,31 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         when(autolinker.build()).thenReturn(Collections
             .singletonList(new org.phenotips.rest.model.Link().withAllowedMethods(Collections.singletonList("GET"))
                 .withHref(this.uri.toString()).withRel("self")));
+
+        // Each listed record is a distinct patient document, all accessible unless a test says otherwise
+        DocumentReferenceResolver<String> stringResolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "current");
+        when(stringResolver.resolve(anyString())).thenAnswer(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation)
+            {
+                return mock(DocumentReference.class);
+            }
+        });
+        this.permissions = this.mocker.getInstance(PermissionsManager.class);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(), eq(this.currentUser),
+            eq(Right.VIEW))).thenAnswer(new Answer<Collection<DocumentReference>>()
+            {
+                @Override
+                public Collection<DocumentReference> answer(InvocationOnMock invocation)
+                {
+                    @SuppressWarnings("unchecked")
+                    Collection<DocumentReference> documents =
+                        (Collection<DocumentReference>) invocation.getArguments()[0];
+                    return documents;
+                }
+            });
     }
 
     @Test
@@ -296,7 +331,10 @@ public void listPatientsNoUserAccess() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(false).when(this.access).hasAccess(eq(Right.VIEW), any(DocumentReference.class),
             any(EntityReference.class));
-        doReturn(null).when(this.factory).createPatientSummary(patientSummaryData, this.uriInfo);
+        when(this.permissions.filterAuthorized(Matchers.<Collection<DocumentReference>>any(), eq(this.currentUser),
+            eq(Right.VIEW))).thenReturn(Collections.<DocumentReference>emptyList());
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(patientSummaryData, this.uriInfo,
+            false);
         Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
@@ -318,7 +356,8 @@ public void listPatientsUserHasAccess() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(eq(Right.VIEW), any(DocumentReference.class),
             any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo),
+            eq(false));
         Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
         verify(this.queries).createQuery(
             "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
@@ -342,7 +381,8 @@ public void listPatientsSpecificNumberOfRecords() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(eq(Right.VIEW), any(DocumentReference.class),
             any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo),
+            eq(false));
 
         Patients allPatients = this.patientsResource.listPatients(0, 30, "id", "asc");
         Assert.assertEquals(30, allPatients.getPatientSummaries().size());
@@ -371,11 +411,54 @@ public void listPatientsGetMoreRecordsThanAdded() throws QueryException
         doReturn(patientList).when(query).execute();
         doReturn(true).when(this.access).hasAccess(eq(Right.VIEW), any(DocumentReference.class),
             any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo),
+            eq(false));
         Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
         Assert.assertEquals(15, result.getPatientSummaries().size());
     }
 
+    @Test
+    public void listPatientsChecksAccessOncePerPage() throws QueryException
+    {
+        List<Object[]> patientList = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            patientList.add(new Object[7]);
+        }
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(patientList).when(query).execute();
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo),
+            eq(false));
+
+        Patients result = this.patientsResource.listPatients(0, 200, "id", "asc");
+
+        Assert.assertEquals(120, result.getPatientSummaries().size());
+        verify(this.permissions, times(3)).filterAuthorized(
+            Matchers.<Collection<DocumentReference>>any(), eq(this.currentUser), eq(Right.VIEW));
+    }
+
+    @Test
+    public void listPatientsStopsCheckingAccessOnceThePageIsFull() throws QueryException
+    {
+        List<Object[]> patientList = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            patientList.add(new Object[7]);
+        }
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(patientList).when(query).execute();
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo),
+            eq(false));
+
+        Patients result = this.patientsResource.listPatients(10, 20, "id", "asc");
+
+        Assert.assertEquals(20, result.getPatientSummaries().size());
+        verify(this.permissions, times(1)).filterAuthorized(
+            Matchers.<Collection<DocumentReference>>any(), eq(this.currentUser), eq(Right.VIEW));
+    }
+
     @Test
     public void listPatientFailureHandling() throws QueryException
     {
@@ -76,6 +76,34 @@
      */
     double standardDeviationToValue(boolean male, float ageInMonths, double targetDeviation);
 
+    /**
+     * Get the percentiles for several measured values at once, for example all the measurements from a patient's
+     * growth history.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages of the measurements, in months
+     * @param values the measured values, usually in centimeters or kilograms, in the same order as the ages
+     * @return for each value, a number between 0 and 100 (inclusive) specifying the percentile of the measurement, or
+     *         {@code -1} if no reference data is available for that age; if the two input arrays have different
+     *         lengths, only the common prefix is processed
+     * @since 1.3
+     */
+    int[] valuesToPercentiles(boolean male, float[] agesInMonths, double[] values);
+
+    /**
+     * Get the standard deviations for several measured values at once, for example all the measurements from a
+     * patient's growth history.
+     *
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the ages of the measurements, in months
+     * @param values the measured values, usually in centimeters or kilograms, in the same order as the ages
+     * @return for each value, a number specifying how many standard deviations does the measurement deviate from the
+     *         mean, or {@code NaN} if no reference data is available for that age; if the two input arrays have
+     *         different lengths, only the common prefix is processed
+     * @since 1.3
+     */
+    double[] valuesToStandardDeviations(boolean male, float[] agesInMonths, double[] values);
+
     /**
      * Some measurements should be taken on both sides of the body, since they can differ, for example different left
      * and right ear lengths. This method is used to indicate those measurements.
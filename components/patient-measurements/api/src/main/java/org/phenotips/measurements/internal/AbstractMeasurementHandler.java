@@ -29,7 +29,7 @@
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -48,38 +48,21 @@ public abstract class AbstractMeasurementHandler implements MeasurementHandler,
     private static final NormalDistribution NORMAL = new NormalDistribution();
 
     /**
-     * Triplet storing the median (M), the generalized coefficient of variation (S), and the power in the Box-Cox
-     * transformation (L) values used to compute the percentile corresponding to a given value.
+     * The z-scores where the rounded percentile changes: a z-score greater than or equal to the {@code k}-th threshold
+     * corresponds to a percentile of at least {@code k + 1}. Since percentiles are rounded to integers, this table
+     * gives exactly the same results as evaluating the normal cumulative distribution function for each value.
      */
-    protected static class LMS
-    {
-        /** L value, the power. */
-        private double l;
-
-        /** M value, the median. */
-        private double m;
-
-        /** S value, the generalized coefficient of variation. */
-        private double s;
-
-        /**
-         * Constructor specifying all three values of the triplet.
-         *
-         * @param l L value, the power
-         * @param m M value, the median
-         * @param s S value, the generalized coefficient of variation
-         */
-        public LMS(double l, double m, double s)
-        {
-            this.l = l;
-            this.m = m;
-            this.s = s;
-        }
+    private static final double[] PERCENTILE_THRESHOLDS = new double[100];
 
-        @Override
-        public String toString()
-        {
-            return String.format("[%.6g, %.6g, %.6g]", this.l, this.m, this.s);
+    /** The z-score corresponding to each integer percentile, between 0 and 100. */
+    private static final double[] PERCENTILE_Z_SCORES = new double[101];
+
+    static {
+        for (int k = 0; k < PERCENTILE_THRESHOLDS.length; ++k) {
+            PERCENTILE_THRESHOLDS[k] = NORMAL.inverseCumulativeProbability((k + 0.5) / 100.0);
+        }
+        for (int percentile = 0; percentile < PERCENTILE_Z_SCORES.length; ++percentile) {
+            PERCENTILE_Z_SCORES[percentile] = computeZScore(percentile);
         }
     }
 
@@ -92,16 +75,16 @@ public String toString()
     private MeasurementsChartConfigurationsFactory settingsFactory;
 
     /**
-     * Table storing the LMS triplets for each month of the normal development of boys corresponding to this measurement
+     * Table storing the LMS triplets for each day of the normal development of boys corresponding to this measurement
      * type.
      */
-    private List<LMS> measurementsForAgeBoys;
+    private LMSTable measurementsForAgeBoys;
 
     /**
-     * Table storing the LMS triplets for each month of the normal development of girls corresponding to this
-     * measurement type.
+     * Table storing the LMS triplets for each day of the normal development of girls corresponding to this measurement
+     * type.
      */
-    private List<LMS> measurementsForAgeGirls;
+    private LMSTable measurementsForAgeGirls;
 
     /** The list of chart settings configured for this measurement. */
     private List<MeasurementsChartConfiguration> chartConfigurations;
@@ -116,35 +99,72 @@ public String toString()
     @Override
     public int valueToPercentile(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToPercentile(value, lms);
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
+            return -1;
+        }
+        return valueToPercentile(value, table.getM(index), table.getL(index), table.getS(index));
     }
 
     @Override
     public double valueToStandardDeviation(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToStandardDeviation(value, lms);
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
+            return Double.NaN;
+        }
+        return valueToStandardDeviation(value, table.getM(index), table.getL(index), table.getS(index));
     }
 
     @Override
     public double percentileToValue(boolean male, float ageInMonths, int targetPercentile)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
             return Double.NaN;
         }
-        return percentileToValue(targetPercentile, lms.m, lms.l, lms.s);
+        return percentileToValue(targetPercentile, table.getM(index), table.getL(index), table.getS(index));
     }
 
     @Override
     public double standardDeviationToValue(boolean male, float ageInMonths, double targetDeviation)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
             return Double.NaN;
         }
-        return standardDeviationToValue(targetDeviation, lms.m, lms.l, lms.s);
+        return standardDeviationToValue(targetDeviation, table.getM(index), table.getL(index), table.getS(index));
+    }
+
+    @Override
+    public int[] valuesToPercentiles(boolean male, float[] agesInMonths, double[] values)
+    {
+        LMSTable table = getLMSTable(male);
+        int[] result = new int[Math.min(agesInMonths.length, values.length)];
+        for (int i = 0; i < result.length; ++i) {
+            int index = table.indexOf(agesInMonths[i]);
+            result[i] = index < 0 ? -1
+                : zScoreToPercentile(
+                    valueToStandardDeviation(values[i], table.getM(index), table.getL(index), table.getS(index)));
+        }
+        return result;
+    }
+
+    @Override
+    public double[] valuesToStandardDeviations(boolean male, float[] agesInMonths, double[] values)
+    {
+        LMSTable table = getLMSTable(male);
+        double[] result = new double[Math.min(agesInMonths.length, values.length)];
+        for (int i = 0; i < result.length; ++i) {
+            int index = table.indexOf(agesInMonths[i]);
+            result[i] = index < 0 ? Double.NaN
+                : valueToStandardDeviation(values[i], table.getM(index), table.getL(index), table.getS(index));
+        }
+        return result;
     }
 
     @Override
@@ -175,8 +195,8 @@ private void readData() throws InitializationException
     {
         BufferedReader in = null;
         String filename = getName() + ".csv";
-        this.measurementsForAgeBoys = new ArrayList<>();
-        this.measurementsForAgeGirls = new ArrayList<>();
+        this.measurementsForAgeBoys = new LMSTable();
+        this.measurementsForAgeGirls = new LMSTable();
         InputStream inStream = this.getClass().getResourceAsStream(filename);
         if (inStream == null) {
             throw new InitializationException("Missing measurements tables for [" + this.getName() + "]");
@@ -198,84 +218,18 @@ private void readData() throws InitializationException
                 double l = Double.parseDouble(tokens[2]);
                 double m = Double.parseDouble(tokens[3]);
                 double s = Double.parseDouble(tokens[4]);
-                LMS lms = new LMS(l, m, s);
                 if ("1".equals(tokens[0])) {
-                    while (day >= this.measurementsForAgeBoys.size()) {
-                        this.measurementsForAgeBoys.add(null);
-                    }
-                    this.measurementsForAgeBoys.set(day, lms);
+                    this.measurementsForAgeBoys.set(day, l, m, s);
                 } else {
-                    while (day >= this.measurementsForAgeGirls.size()) {
-                        this.measurementsForAgeGirls.add(null);
-                    }
-                    this.measurementsForAgeGirls.set(day, lms);
+                    this.measurementsForAgeGirls.set(day, l, m, s);
                 }
             }
         } catch (IOException ex) {
             // This shouldn't happen
             this.logger.error("Failed to read data table [{}]: {}", new Object[] { filename, ex.getMessage(), ex });
         }
-    }
-
-    /**
-     * Extract the LMS triplet corresponding to a given month from the given list. If the requested month is before the
-     * first element of the list, {@code null} is returned. If a valid entry corresponding to the requested month is
-     * found in the list, then return that entry. If there's no entry for the requested month, but there are valid
-     * entries in previous and later months, a linear interpolation of the nearest surrounding entries is computed and
-     * returned. Otherwise, if the requested month is beyond the last valid entry, return the last valid entry.
-     *
-     * @param list the standard list of measurements where to look in
-     * @param ageInMonths the target age (in months) for which to compute the LMS triplet
-     * @return a LMS triplet computed according to the rules above, possibly {@code null}
-     */
-    protected LMS getLMSForAge(List<LMS> list, float ageInMonths)
-    {
-        // LMS data is stored per day, currently but input is given as a float for months
-        int ageInDays = (int) Math.round(ageInMonths * 30.4375);
-        if (ageInDays < 0) {
-            return null;
-        } else if (ageInDays >= list.size()) {
-            return list.get(list.size() - 1);
-        }
-
-        LMS result;
-        result = list.get(ageInDays);
-        if (result == null) {
-            int lowerAge = ageInDays - 1;
-            while (lowerAge >= 0 && list.get(lowerAge) == null) {
-                --lowerAge;
-            }
-            if (lowerAge < 0) {
-                return null;
-            }
-            int upperAge = ageInDays + 1;
-            while (upperAge < list.size() && list.get(upperAge) == null) {
-                ++upperAge;
-            }
-            LMS lowerLMS = list.get(lowerAge);
-            LMS upperLMS = list.get(upperAge);
-            double delta = ((double) ageInDays - lowerAge) / (upperAge - lowerAge);
-            result =
-                new LMS(lowerLMS.l + (upperLMS.l - lowerLMS.l) * delta, lowerLMS.m + (upperLMS.m - lowerLMS.m) * delta,
-                    lowerLMS.s + (upperLMS.s - lowerLMS.s) * delta);
-        }
-        return result;
-    }
-
-    /**
-     * Compute the percentile corresponding to a given absolute value, according to a normal distribution specified by
-     * the given Box-Cox triplet.
-     *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number between 0 and 100 (inclusive) specifying the percentile of this measurement
-     */
-    protected int valueToPercentile(double x, LMS lms)
-    {
-        if (lms == null) {
-            return -1;
-        }
-        return valueToPercentile(x, lms.m, lms.l, lms.s);
+        this.measurementsForAgeBoys.complete();
+        this.measurementsForAgeGirls.complete();
     }
 
     /**
@@ -290,25 +244,23 @@ protected int valueToPercentile(double x, LMS lms)
      */
     protected int valueToPercentile(double x, double m, double l, double s)
     {
-        double z = (l != 0) ? ((Math.pow(x / m, l) - 1) / (l * s)) : (Math.log(x / m) / s);
-        double p = NORMAL.cumulativeProbability(z) * 100;
-        return (int) Math.round(p);
+        return zScoreToPercentile(valueToStandardDeviation(x, m, l, s));
     }
 
     /**
-     * Compute the standard deviation corresponding to a given absolute value, according to a normal distribution
-     * specified by the given Box-Cox triplet.
+     * Compute the rounded percentile corresponding to a z-score, using the precomputed percentile thresholds.
      *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number specifying how many standard deviations does this measurement deviate from the mean
+     * @param z the z-score
+     * @return a number between 0 and 100 (inclusive)
      */
-    protected double valueToStandardDeviation(double x, LMS lms)
+    private static int zScoreToPercentile(double z)
     {
-        if (lms == null) {
-            return Double.NaN;
+        if (Double.isNaN(z)) {
+            return 0;
         }
-        return valueToStandardDeviation(x, lms.m, lms.l, lms.s);
+        int position = Arrays.binarySearch(PERCENTILE_THRESHOLDS, z);
+        // an exact match on a threshold rounds up, just like Math.round
+        return position >= 0 ? position + 1 : -position - 1;
     }
 
     /**
@@ -338,6 +290,19 @@ protected double valueToStandardDeviation(double x, double m, double l, double s
      * @return a positive number specifying the expected measurement for the target percentile
      */
     protected double percentileToValue(int percentile, double m, double l, double s)
+    {
+        double z = PERCENTILE_Z_SCORES[Math.max(0, Math.min(100, percentile))];
+        return standardDeviationToValue(z, m, l, s);
+    }
+
+    /**
+     * Compute the z-score corresponding to a percentile. The open ended 0 and 100 percentiles are replaced by 0.25,
+     * respectively 99.75.
+     *
+     * @param percentile a number between 0 and 100 (inclusive)
+     * @return the corresponding z-score
+     */
+    private static double computeZScore(int percentile)
     {
         double correctedPercentile = percentile;
         if (percentile <= 0) {
@@ -345,9 +310,7 @@ protected double percentileToValue(int percentile, double m, double l, double s)
         } else if (percentile >= 100) {
             correctedPercentile = 99.75;
         }
-        double z = NORMAL.inverseCumulativeProbability(correctedPercentile / 100.0);
-        double x = (l != 0) ? Math.pow(z * l * s + 1, 1 / l) * m : Math.exp(z * s) * m;
-        return x;
+        return NORMAL.inverseCumulativeProbability(correctedPercentile / 100.0);
     }
 
     /**
@@ -366,13 +329,13 @@ protected double standardDeviationToValue(double deviation, double m, double l,
     }
 
     /**
-     * Choose between the girls and boys measurements list, depending on the requested sex and on the availability of
+     * Choose between the girls and boys measurements table, depending on the requested sex and on the availability of
      * distinct measurements for girls.
      *
      * @param male {@code true} for boys, {@code false} for girls
-     * @return a list of {@link LMS} triplets
+     * @return a table of LMS triplets
      */
-    protected List<LMS> getLMSList(boolean male)
+    protected LMSTable getLMSTable(boolean male)
     {
         if (!male && !this.measurementsForAgeGirls.isEmpty()) {
             return this.measurementsForAgeGirls;
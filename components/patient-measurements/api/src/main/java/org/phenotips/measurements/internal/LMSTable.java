@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import java.util.Arrays;
+
+/**
+ * Columnar table of LMS reference values for each day of development, stored as parallel arrays of primitive values.
+ * Days missing from the reference data are filled in when the table is built, using a linear interpolation of the
+ * nearest surrounding days, so that looking up the values for an age is a simple array access.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class LMSTable
+{
+    /** LMS data is stored per day, while ages are given in months. */
+    private static final double DAYS_PER_MONTH = 30.4375;
+
+    /** L values, the power; {@code NaN} for days before the first available reference day. */
+    private double[] l;
+
+    /** M values, the median. */
+    private double[] m;
+
+    /** S values, the generalized coefficient of variation. */
+    private double[] s;
+
+    /** How many days are filled in. */
+    private int size;
+
+    /** Creates an empty table. */
+    public LMSTable()
+    {
+        this.l = new double[0];
+        this.m = new double[0];
+        this.s = new double[0];
+    }
+
+    /**
+     * Sets the reference values for a day. Must not be called after {@link #complete()}.
+     *
+     * @param day the age, in days
+     * @param lValue L value, the power
+     * @param mValue M value, the median
+     * @param sValue S value, the generalized coefficient of variation
+     */
+    public void set(int day, double lValue, double mValue, double sValue)
+    {
+        if (day >= this.l.length) {
+            int capacity = Math.max(day + 1, this.l.length * 2);
+            this.l = grow(this.l, capacity);
+            this.m = grow(this.m, capacity);
+            this.s = grow(this.s, capacity);
+        }
+        this.l[day] = lValue;
+        this.m[day] = mValue;
+        this.s[day] = sValue;
+        this.size = Math.max(this.size, day + 1);
+    }
+
+    /**
+     * Fills in the days missing from the reference data, by linear interpolation of the nearest surrounding days, and
+     * trims the arrays.
+     *
+     * @return this table, for chaining
+     */
+    public LMSTable complete()
+    {
+        this.l = Arrays.copyOf(this.l, this.size);
+        this.m = Arrays.copyOf(this.m, this.size);
+        this.s = Arrays.copyOf(this.s, this.size);
+        int lower = -1;
+        for (int day = 0; day < this.size; ++day) {
+            if (Double.isNaN(this.m[day])) {
+                continue;
+            }
+            if (lower >= 0) {
+                for (int missing = lower + 1; missing < day; ++missing) {
+                    double delta = ((double) missing - lower) / (day - lower);
+                    this.l[missing] = this.l[lower] + (this.l[day] - this.l[lower]) * delta;
+                    this.m[missing] = this.m[lower] + (this.m[day] - this.m[lower]) * delta;
+                    this.s[missing] = this.s[lower] + (this.s[day] - this.s[lower]) * delta;
+                }
+            }
+            lower = day;
+        }
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the table doesn't contain any reference values
+     */
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    /**
+     * Finds the position in the table of the reference values for an age. If the requested age is not a number, or is
+     * before the first available reference day, {@code -1} is returned. If the requested age is beyond the last reference day, the last
+     * day is used.
+     *
+     * @param ageInMonths the target age, in months
+     * @return the index to use in {@link #getL(int)}, {@link #getM(int)} and {@link #getS(int)}, or {@code -1} if no
+     *         values are available for the requested age
+     */
+    public int indexOf(float ageInMonths)
+    {
+        int ageInDays = (int) Math.round(ageInMonths * DAYS_PER_MONTH);
+        if (Float.isNaN(ageInMonths) || ageInDays < 0 || this.size == 0) {
+            return -1;
+        } else if (ageInDays >= this.size) {
+            ageInDays = this.size - 1;
+        }
+        return Double.isNaN(this.m[ageInDays]) ? -1 : ageInDays;
+    }
+
+    /**
+     * @param index a valid index, as returned by {@link #indexOf(float)}
+     * @return the L value, the power
+     */
+    public double getL(int index)
+    {
+        return this.l[index];
+    }
+
+    /**
+     * @param index a valid index, as returned by {@link #indexOf(float)}
+     * @return the M value, the median
+     */
+    public double getM(int index)
+    {
+        return this.m[index];
+    }
+
+    /**
+     * @param index a valid index, as returned by {@link #indexOf(float)}
+     * @return the S value, the generalized coefficient of variation
+     */
+    public double getS(int index)
+    {
+        return this.s[index];
+    }
+
+    private static double[] grow(double[] values, int capacity)
+    {
+        double[] result = Arrays.copyOf(values, capacity);
+        Arrays.fill(result, values.length, capacity, Double.NaN);
+        return result;
+    }
+}
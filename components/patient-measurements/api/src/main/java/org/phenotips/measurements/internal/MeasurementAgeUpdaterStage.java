@@ -19,13 +19,12 @@
 
 import org.phenotips.Constants;
 import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingStage;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
 import java.util.Date;
 import java.util.List;
@@ -47,28 +46,28 @@
 @Component
 @Named("measurement-age-updater")
 @Singleton
-public class MeasurementAgeUpdater extends AbstractEventListener
+public class MeasurementAgeUpdaterStage implements PatientChangingStage
 {
     /** The XClass used for storing measurements data. */
     private static final EntityReference CLASS_REFERENCE = new EntityReference("MeasurementsClass",
         EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
 
-    /** The name of the XProperty holding the age at the time of measurement, which will be updated by this listener. */
+    /** The name of the XProperty holding the age at the time of measurement, which will be updated by this stage. */
     private static final String AGE_PROPERTY_NAME = "age";
 
     /** The name of the XProperty holding the date when the measurement occurred. */
     private static final String DATE_PROPERTY_NAME = "date";
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public MeasurementAgeUpdater()
+    @Override
+    public int getPriority()
     {
-        super("measurement-age-updater", new PatientChangingEvent());
+        return 500;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientChangingContext context)
     {
-        XWikiDocument doc = (XWikiDocument) source;
+        XWikiDocument doc = (XWikiDocument) context.getDocument();
 
         BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
         if (patientRecordObj == null) {
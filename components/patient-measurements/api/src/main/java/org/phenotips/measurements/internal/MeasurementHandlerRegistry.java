@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.components.InvalidatableCache;
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.slf4j.Logger;
+
+/**
+ * Keeps the available {@link MeasurementHandler measurement handlers}, already sorted in the display order and indexed
+ * by name, so that they don't have to be looked up and sorted again each time they are needed. The handlers are
+ * resolved when first needed, and resolved again after measurement handlers are registered or unregistered.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = MeasurementHandlerRegistry.class)
+@Singleton
+public class MeasurementHandlerRegistry
+{
+    /** Hardcoded list of measurements and their order. */
+    private static final String[] TARGET_ORDER = new String[] { "weight", "height", "bmi", "armspan", "sitting",
+        "hc", "philtrum", "ear", "ocd", "icd", "pfl", "ipd", "hand", "palm", "foot" };
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the different measurement handlers by name at runtime. */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    /**
+     * The currently known handlers, indexed by the component manager where they were looked up; handlers resolved
+     * while an invalidation happened aren't remembered.
+     */
+    private final InvalidatableCache<ComponentManager, Handlers> handlers = new InvalidatableCache<>();
+
+    private final InvalidatableCache.Loader<ComponentManager, Handlers, ComponentLookupException> handlersLoader =
+        new InvalidatableCache.Loader<ComponentManager, Handlers, ComponentLookupException>()
+        {
+            @Override
+            public Handlers load(ComponentManager cm) throws ComponentLookupException
+            {
+                return new Handlers(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class));
+            }
+        };
+
+    /**
+     * Get the handler for a specific kind of measurements.
+     *
+     * @param measurementType the type of measurement to return
+     * @return the requested handler, {@code null} if not found
+     */
+    public MeasurementHandler get(String measurementType)
+    {
+        return getCurrentHandlers().byName.get(measurementType);
+    }
+
+    /**
+     * Get all the measurements handlers, in the order in which they should be displayed.
+     *
+     * @return an unmodifiable list of all the measurement handlers, or an empty list if there was a problem retrieving
+     *         the actual list
+     */
+    public List<MeasurementHandler> getHandlers()
+    {
+        return getCurrentHandlers().list;
+    }
+
+    /**
+     * Get the names of all the measurements handlers, in the order in which they should be displayed.
+     *
+     * @return an unmodifiable set with the names of all the measurement handlers, or an empty set if there was a
+     *         problem retrieving the actual values
+     */
+    public Set<String> getNames()
+    {
+        return getCurrentHandlers().byName.keySet();
+    }
+
+    /** Forget the known handlers, they will be resolved again when next needed. */
+    public void invalidate()
+    {
+        this.handlers.invalidateAll();
+    }
+
+    private Handlers getCurrentHandlers()
+    {
+        try {
+            return this.handlers.get(this.componentManager.get(), this.handlersLoader);
+        } catch (ComponentLookupException ex) {
+            // Not remembered, so that the lookup is retried next time
+            this.logger.warn("Failed to list available measurements", ex);
+            return new Handlers(null);
+        }
+    }
+
+    /** Immutable snapshot of the available handlers. */
+    private static final class Handlers
+    {
+        /** The handlers, indexed by name, iterated in the display order. */
+        private final Map<String, MeasurementHandler> byName;
+
+        /** The handlers, in the display order. */
+        private final List<MeasurementHandler> list;
+
+        Handlers(Map<String, MeasurementHandler> available)
+        {
+            Map<String, MeasurementHandler> sorted = new LinkedHashMap<>();
+            if (available != null) {
+                List<String> names = new ArrayList<>(available.keySet());
+                Collections.sort(names, MeasurementNameSorter.instance);
+                for (String name : names) {
+                    sorted.put(name, available.get(name));
+                }
+            }
+            this.byName = Collections.unmodifiableMap(sorted);
+            this.list = Collections.unmodifiableList(new ArrayList<>(sorted.values()));
+        }
+    }
+
+    /**
+     * Temporary mechanism for sorting measurements, uses a hardcoded list of measurements in the desired order.
+     *
+     * @version $Id$
+     */
+    private static final class MeasurementNameSorter implements Comparator<String>
+    {
+        /** Singleton instance. */
+        private static MeasurementNameSorter instance = new MeasurementNameSorter();
+
+        @Override
+        public int compare(String n1, String n2)
+        {
+            int p1 = ArrayUtils.indexOf(TARGET_ORDER, n1);
+            int p2 = ArrayUtils.indexOf(TARGET_ORDER, n2);
+            if (p1 == -1 && p2 == -1) {
+                return n1.compareTo(n2);
+            } else if (p1 == -1) {
+                return 1;
+            } else if (p2 == -1) {
+                return -1;
+            }
+            return p1 - p2;
+        }
+    }
+}
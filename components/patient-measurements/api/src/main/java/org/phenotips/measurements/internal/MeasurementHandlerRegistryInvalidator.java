@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Refreshes the {@link MeasurementHandlerRegistry} whenever a measurement handler is registered or unregistered, for
+ * example when an extension providing new measurements is installed.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("measurement-handler-registry-invalidator")
+@Singleton
+public class MeasurementHandlerRegistryInvalidator extends AbstractEventListener
+{
+    @Inject
+    private MeasurementHandlerRegistry registry;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public MeasurementHandlerRegistryInvalidator()
+    {
+        super("measurement-handler-registry-invalidator", new ComponentDescriptorAddedEvent(MeasurementHandler.class),
+            new ComponentDescriptorRemovedEvent(MeasurementHandler.class));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.registry.invalidate();
+    }
+}
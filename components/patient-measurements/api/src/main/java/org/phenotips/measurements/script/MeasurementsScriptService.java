@@ -18,26 +18,24 @@
 package org.phenotips.measurements.script;
 
 import org.phenotips.measurements.MeasurementHandler;
-import org.phenotips.measurements.internal.AbstractMeasurementHandler;
+import org.phenotips.measurements.MeasurementsChartConfiguration;
+import org.phenotips.measurements.internal.MeasurementHandlerRegistry;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.script.service.ScriptService;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 
 /**
@@ -70,10 +68,9 @@ public class MeasurementsScriptService implements ScriptService
     @Inject
     private Logger logger;
 
-    /** Provides access to the different measurement handlers by name at runtime. */
+    /** Provides the available measurement handlers, already sorted and indexed by name. */
     @Inject
-    @Named("context")
-    private Provider<ComponentManager> componentManager;
+    private MeasurementHandlerRegistry registry;
 
     /**
      * Get the handler for a specific kind of measurements.
@@ -83,55 +80,147 @@ public class MeasurementsScriptService implements ScriptService
      */
     public MeasurementHandler get(String measurementType)
     {
-        try {
-            return this.componentManager.get().getInstance(MeasurementHandler.class, measurementType);
-        } catch (ComponentLookupException ex) {
+        MeasurementHandler result = this.registry.get(measurementType);
+        if (result == null) {
             this.logger.warn("Requested unknown measurement type [{}]", measurementType);
-            return null;
         }
+        return result;
     }
 
     /**
      * Get all the measurements handlers.
      *
-     * @return a list of all the measurement handlers, or an empty list if there was a problem retrieving the actual
-     *         list
+     * @return an unmodifiable list of all the measurement handlers, or an empty list if there was a problem retrieving
+     *         the actual list
      */
     public List<MeasurementHandler> getAvailableMeasurementHandlers()
     {
-        try {
-            List<MeasurementHandler> result = this.componentManager.get().getInstanceList(MeasurementHandler.class);
-            if (result == null) {
-                result = Collections.emptyList();
-            }
-            Collections.sort(result, MeasurementSorter.instance);
-            return result;
-        } catch (ComponentLookupException ex) {
-            this.logger.warn("Failed to list available measurements", ex);
-            return Collections.emptyList();
-        }
+        return this.registry.getHandlers();
     }
 
     /**
      * Get the names of all the measurements handlers.
      *
-     * @return a set with the names of all the measurement handlers, or an empty set if there was a problem retrieving
-     *         the actual values
+     * @return an unmodifiable set with the names of all the measurement handlers, or an empty set if there was a
+     *         problem retrieving the actual values
      */
     public Set<String> getAvailableMeasurementNames()
     {
-        try {
-            Map<String, MeasurementHandler> handlers =
-                this.componentManager.get().getInstanceMap(MeasurementHandler.class);
-            if (handlers != null) {
-                Set<String> result = new TreeSet<>(MeasurementNameSorter.instance);
-                result.addAll(handlers.keySet());
-                return result;
+        return this.registry.getNames();
+    }
+
+    /**
+     * Compute the percentiles of a series of measurements of the same type, for example all the measurements displayed
+     * on a chart, in one call.
+     *
+     * @param measurementType the type of the measurements
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param ages the ages at the time of each measurement, in months
+     * @param values the measured values, in the same order as the ages; missing or non-numeric values have the
+     *            percentile {@code 0}
+     * @return the percentile of each measurement, in the same order, or {@code -1} for ages without reference data; an
+     *         empty list if the measurement type is unknown
+     * @since 1.3
+     */
+    public List<Integer> getPercentiles(String measurementType, boolean male, List<?> ages, List<?> values)
+    {
+        MeasurementHandler handler = get(measurementType);
+        if (handler == null || ages == null || values == null) {
+            return Collections.emptyList();
+        }
+        int[] percentiles = handler.valuesToPercentiles(male, toFloatArray(ages), toDoubleArray(values));
+        List<Integer> result = new ArrayList<>(percentiles.length);
+        for (int percentile : percentiles) {
+            result.add(percentile);
+        }
+        return result;
+    }
+
+    /**
+     * Compute the standard deviations of a series of measurements of the same type, for example all the measurements
+     * displayed on a chart, in one call.
+     *
+     * @param measurementType the type of the measurements
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param ages the ages at the time of each measurement, in months
+     * @param values the measured values, in the same order as the ages; missing or non-numeric values have the
+     *            deviation {@code NaN}
+     * @return the deviation of each measurement, in the same order, or {@code NaN} for ages without reference data; an
+     *         empty list if the measurement type is unknown
+     * @since 1.3
+     */
+    public List<Double> getStandardDeviations(String measurementType, boolean male, List<?> ages, List<?> values)
+    {
+        MeasurementHandler handler = get(measurementType);
+        if (handler == null || ages == null || values == null) {
+            return Collections.emptyList();
+        }
+        double[] deviations = handler.valuesToStandardDeviations(male, toFloatArray(ages), toDoubleArray(values));
+        List<Double> result = new ArrayList<>(deviations.length);
+        for (double deviation : deviations) {
+            result.add(deviation);
+        }
+        return result;
+    }
+
+    /**
+     * Compute the percentile curves to draw on a chart, for each age tick of the chart, all in one call.
+     *
+     * @param chart the configuration of the chart to draw
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param percentiles the target percentiles, numbers between 0 and 100 (inclusive)
+     * @return a map with an entry for each requested percentile, in the requested order, holding the values for each
+     *         age tick of the chart, from the lower to the upper age limit; an empty map if the chart's measurement
+     *         type is unknown
+     * @since 1.3
+     */
+    public Map<Integer, List<Double>> getPercentileCurves(MeasurementsChartConfiguration chart, boolean male,
+        Collection<Integer> percentiles)
+    {
+        MeasurementHandler handler = get(chart.getMeasurementType());
+        if (handler == null || percentiles == null) {
+            return Collections.emptyMap();
+        }
+        float[] ages = getAgeTicks(chart);
+        Map<Integer, List<Double>> result = new LinkedHashMap<>();
+        for (Integer percentile : percentiles) {
+            List<Double> curve = new ArrayList<>(ages.length);
+            for (float age : ages) {
+                curve.add(handler.percentileToValue(male, age, percentile));
             }
-        } catch (ComponentLookupException ex) {
-            this.logger.warn("Failed to list available measurement types", ex);
+            result.put(percentile, curve);
         }
-        return Collections.emptySet();
+        return result;
+    }
+
+    /**
+     * Compute the standard deviation curves to draw on a chart, for each age tick of the chart, all in one call.
+     *
+     * @param chart the configuration of the chart to draw
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param deviations the target deviations
+     * @return a map with an entry for each requested deviation, in the requested order, holding the values for each
+     *         age tick of the chart, from the lower to the upper age limit; an empty map if the chart's measurement
+     *         type is unknown
+     * @since 1.3
+     */
+    public Map<Number, List<Double>> getStandardDeviationCurves(MeasurementsChartConfiguration chart, boolean male,
+        Collection<? extends Number> deviations)
+    {
+        MeasurementHandler handler = get(chart.getMeasurementType());
+        if (handler == null || deviations == null) {
+            return Collections.emptyMap();
+        }
+        float[] ages = getAgeTicks(chart);
+        Map<Number, List<Double>> result = new LinkedHashMap<>();
+        for (Number deviation : deviations) {
+            List<Double> curve = new ArrayList<>(ages.length);
+            for (float age : ages) {
+                curve.add(handler.standardDeviationToValue(male, age, deviation.doubleValue()));
+            }
+            result.put(deviation, curve);
+        }
+        return result;
     }
 
     /**
@@ -177,60 +266,39 @@ public String getFuzzyValue(double deviation)
     }
 
     /**
-     * Temporary mechanism for sorting measurements, uses a hardcoded list of measurements in the desired order.
+     * The ages where the vertical grid lines of a chart are drawn, from the lower to the upper age limit.
      *
-     * @version $Id$
+     * @param chart the chart configuration
+     * @return the ages, in months
      */
-    private static final class MeasurementSorter implements Comparator<MeasurementHandler>
+    private float[] getAgeTicks(MeasurementsChartConfiguration chart)
     {
-        /** Hardcoded list of measurements and their order. */
-        private static final String[] TARGET_ORDER = new String[] { "weight", "height", "bmi", "armspan", "sitting",
-            "hc", "philtrum", "ear", "ocd", "icd", "pfl", "ipd", "hand", "palm", "foot" };
-
-        /** Singleton instance. */
-        private static MeasurementSorter instance = new MeasurementSorter();
-
-        @Override
-        public int compare(MeasurementHandler o1, MeasurementHandler o2)
-        {
-            String n1 = ((AbstractMeasurementHandler) o1).getName();
-            String n2 = ((AbstractMeasurementHandler) o2).getName();
-            int p1 = ArrayUtils.indexOf(TARGET_ORDER, n1);
-            int p2 = ArrayUtils.indexOf(TARGET_ORDER, n2);
-            if (p1 == -1 && p2 == -1) {
-                return n1.compareTo(n2);
-            } else if (p1 == -1) {
-                return 1;
-            } else if (p2 == -1) {
-                return -1;
-            }
-            return p1 - p2;
+        int step = Math.max(1, chart.getAgeTickStep());
+        int count = Math.max(0, (chart.getUpperAgeLimit() - chart.getLowerAgeLimit()) / step) + 1;
+        float[] result = new float[count];
+        for (int i = 0; i < count; ++i) {
+            result[i] = chart.getLowerAgeLimit() + i * step;
         }
+        return result;
     }
 
-    /**
-     * Temporary mechanism for sorting measurements, uses a hardcoded list of measurements in the desired order.
-     *
-     * @version $Id$
-     */
-    private static final class MeasurementNameSorter implements Comparator<String>
+    private float[] toFloatArray(List<?> numbers)
     {
-        /** Singleton instance. */
-        private static MeasurementNameSorter instance = new MeasurementNameSorter();
-
-        @Override
-        public int compare(String n1, String n2)
-        {
-            int p1 = ArrayUtils.indexOf(MeasurementSorter.TARGET_ORDER, n1);
-            int p2 = ArrayUtils.indexOf(MeasurementSorter.TARGET_ORDER, n2);
-            if (p1 == -1 && p2 == -1) {
-                return n1.compareTo(n2);
-            } else if (p1 == -1) {
-                return 1;
-            } else if (p2 == -1) {
-                return -1;
-            }
-            return p1 - p2;
+        float[] result = new float[numbers.size()];
+        for (int i = 0; i < result.length; ++i) {
+            Object number = numbers.get(i);
+            result[i] = number instanceof Number ? ((Number) number).floatValue() : Float.NaN;
+        }
+        return result;
+    }
+
+    private double[] toDoubleArray(List<?> numbers)
+    {
+        double[] result = new double[numbers.size()];
+        for (int i = 0; i < result.length; ++i) {
+            Object number = numbers.get(i);
+            result[i] = number instanceof Number ? ((Number) number).doubleValue() : Double.NaN;
         }
+        return result;
     }
 }
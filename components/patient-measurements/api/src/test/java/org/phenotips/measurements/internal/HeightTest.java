@@ -92,6 +92,28 @@ public void testStandardDeviationToValue() throws ComponentLookupException
             1.0E-2);
     }
 
+    @Test
+    public void testValuesToPercentiles() throws ComponentLookupException
+    {
+        int[] percentiles = this.mocker.getComponentUnderTest().valuesToPercentiles(true,
+            new float[] { 0, 0, 1000, 349, -1 }, new double[] { 49.88, 1000, 176.54, 180.79, 50 });
+        Assert.assertArrayEquals(new int[] { 50, 100, 50, 72, -1 }, percentiles);
+        percentiles = this.mocker.getComponentUnderTest().valuesToPercentiles(false, new float[] { 0, 359 },
+            new double[] { 49.14, 173.0, 100 });
+        Assert.assertArrayEquals(new int[] { 50, 93 }, percentiles);
+    }
+
+    @Test
+    public void testValuesToStandardDeviations() throws ComponentLookupException
+    {
+        double[] deviations = this.mocker.getComponentUnderTest().valuesToStandardDeviations(true,
+            new float[] { 0, 1000, 349, -1 }, new double[] { 49.88, 176.54, 180.79, 50 });
+        Assert.assertArrayEquals(new double[] { 0, 0, 0.583, Double.NaN }, deviations, 1.0E-2);
+        deviations = this.mocker.getComponentUnderTest().valuesToStandardDeviations(false, new float[] { 359 },
+            new double[] { 173.0 });
+        Assert.assertArrayEquals(new double[] { 1.497 }, deviations, 1.0E-2);
+    }
+
     @Test
     public void testIsDoubleSided() throws ComponentLookupException
     {
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LMSTable} class.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class LMSTableTest
+{
+    @Test
+    public void emptyTableHasNoValues()
+    {
+        LMSTable table = new LMSTable().complete();
+        Assert.assertTrue(table.isEmpty());
+        Assert.assertEquals(-1, table.indexOf(0));
+        Assert.assertEquals(-1, table.indexOf(12));
+    }
+
+    @Test
+    public void missingDaysAreInterpolated()
+    {
+        LMSTable table = new LMSTable();
+        table.set(0, 1, 10, 0.1);
+        table.set(4, 2, 20, 0.2);
+        table.complete();
+        Assert.assertFalse(table.isEmpty());
+        Assert.assertEquals(1.25, table.getL(1), 1.0E-9);
+        Assert.assertEquals(15, table.getM(2), 1.0E-9);
+        Assert.assertEquals(0.175, table.getS(3), 1.0E-9);
+    }
+
+    @Test
+    public void indexOfConvertsMonthsToDays()
+    {
+        LMSTable table = new LMSTable();
+        table.set(0, 1, 10, 0.1);
+        table.set(61, 1, 20, 0.1);
+        table.complete();
+        Assert.assertEquals(0, table.indexOf(0));
+        Assert.assertEquals(30, table.indexOf(1));
+        Assert.assertEquals(61, table.indexOf(2));
+    }
+
+    @Test
+    public void agesOutsideTheReferenceDataAreHandled()
+    {
+        LMSTable table = new LMSTable();
+        table.set(10, 1, 10, 0.1);
+        table.set(20, 1, 20, 0.1);
+        table.complete();
+        Assert.assertEquals(-1, table.indexOf(-1));
+        Assert.assertEquals(-1, table.indexOf(Float.NaN));
+        // Before the first reference day
+        Assert.assertEquals(-1, table.indexOf(0));
+        // After the last reference day, the last day is used
+        Assert.assertEquals(20, table.indexOf(100));
+        Assert.assertEquals(20, table.getM(table.indexOf(100)), 1.0E-9);
+    }
+}
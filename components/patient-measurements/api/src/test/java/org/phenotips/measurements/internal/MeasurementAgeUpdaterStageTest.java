@@ -17,10 +17,11 @@
  */
 package org.phenotips.measurements.internal;
 
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingStage;
+
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.EventListener;
-import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.text.ParseException;
@@ -47,24 +48,18 @@
 import static org.mockito.Mockito.when;
 
 /**
- * Tests for the {@link MeasurementAgeUpdater} component.
+ * Tests for the {@link MeasurementAgeUpdaterStage} component.
  */
-public class MeasurementAgeUpdaterTest
+public class MeasurementAgeUpdaterStageTest
 {
 
     @Rule
-    public MockitoComponentMockingRule<EventListener> mocker =
-        new MockitoComponentMockingRule<EventListener>(MeasurementAgeUpdater.class);
-
-    @Mock
-    private Object data;
+    public MockitoComponentMockingRule<PatientChangingStage> mocker =
+        new MockitoComponentMockingRule<PatientChangingStage>(MeasurementAgeUpdaterStage.class);
 
     @Mock
     public XWikiDocument source;
 
-    @Mock
-    private Event event;
-
     @Mock
     private BaseObject patientRecordObj;
 
@@ -99,7 +94,7 @@ public void removesAgeWhenBirthDateNull() throws ComponentLookupException
     {
         when(this.patientRecordObj.getDateValue(DATE_OF_BIRTH_PROPERTY_NAME)).thenReturn(null);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).removeField(AGE_PROPERTY_NAME);
     }
 
@@ -108,7 +103,7 @@ public void removesAgeWhenMeasurementDateNull() throws ComponentLookupException
     {
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(null);
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).removeField(AGE_PROPERTY_NAME);
     }
 
@@ -117,7 +112,7 @@ public void setsAgeToZeroWhenMeasurementTypeBirth() throws ComponentLookupExcept
     {
         when(this.measurement.getStringValue("type")).thenReturn("birth");
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
 
         verify(this.measurement).setFloatValue(AGE_PROPERTY_NAME, 0);
         verify(this.measurement).removeField(DATE_PROPERTY_NAME);
@@ -136,21 +131,21 @@ public void checkAgeIsCorrectlyCalculated() throws ParseException, ComponentLook
         Date measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq(365 / 30.4375f));
 
         measureDateString = "01-01-2035 12:00:00";
         measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq((365 * 20 + 5) / 30.4375f));
 
         measureDateString = "01-03-2016 12:00:00";
         measureDate = dateFormat.parse(measureDateString);
 
         when(this.measurement.getDateValue(DATE_PROPERTY_NAME)).thenReturn(measureDate);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), eq((31 + 29 + 365) / 30.4375f));
 
     }
@@ -166,7 +161,7 @@ public void checkMultipleDatesAreUpdated() throws ComponentLookupException
         when(measurement2.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
         when(measurement3.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement2).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement3).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
@@ -185,7 +180,7 @@ public void behavesNormallyWithNullMeasurement() throws ComponentLookupException
         when(measurement2.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
         when(measurement4.getDateValue(DATE_PROPERTY_NAME)).thenReturn(new Date());
 
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
         verify(this.measurement).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement2).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
         verify(measurement4).setFloatValue(eq(AGE_PROPERTY_NAME), anyFloat());
@@ -195,13 +190,13 @@ public void behavesNormallyWithNullMeasurement() throws ComponentLookupException
     public void returnsNormallyWithNullPatientRecord() throws ComponentLookupException
     {
         when(this.source.getXObject(any(EntityReference.class))).thenReturn(null);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
     }
 
     @Test
     public void returnsNormallyWhenGivenNoMeasurementObjects() throws Exception
     {
         when(this.source.getXObjects(any(EntityReference.class))).thenReturn(null);
-        this.mocker.getComponentUnderTest().onEvent(this.event, this.source, this.data);
+        this.mocker.getComponentUnderTest().process(new PatientChangingContext(null, this.source));
     }
 }
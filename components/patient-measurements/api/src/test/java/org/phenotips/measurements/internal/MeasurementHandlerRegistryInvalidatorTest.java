@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests for the {@link MeasurementHandlerRegistryInvalidator} component.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class MeasurementHandlerRegistryInvalidatorTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(MeasurementHandlerRegistryInvalidator.class);
+
+    @Test
+    public void listensToHandlerRegistrations() throws ComponentLookupException
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getEvents()
+            .contains(new ComponentDescriptorAddedEvent(MeasurementHandler.class)));
+    }
+
+    @Test
+    public void invalidatesRegistry() throws ComponentLookupException
+    {
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        this.mocker.getComponentUnderTest().onEvent(new ComponentDescriptorAddedEvent(MeasurementHandler.class), null,
+            null);
+        Mockito.verify(registry).invalidate();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link MeasurementHandlerRegistry} component.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class MeasurementHandlerRegistryTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<MeasurementHandlerRegistry> mocker =
+        new MockitoComponentMockingRule<>(MeasurementHandlerRegistry.class);
+
+    @Test
+    public void handlersAreSortedAndIndexed() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        Map<String, MeasurementHandler> toReturn = new HashMap<>();
+        MeasurementHandler hand = Mockito.mock(MeasurementHandler.class);
+        MeasurementHandler weight = Mockito.mock(MeasurementHandler.class);
+        MeasurementHandler custom = Mockito.mock(MeasurementHandler.class);
+        toReturn.put("hand", hand);
+        toReturn.put("weight", weight);
+        toReturn.put("custom", custom);
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(toReturn);
+
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(Arrays.asList(weight, hand, custom), registry.getHandlers());
+        Assert.assertEquals(Arrays.asList("weight", "hand", "custom"), new ArrayList<>(registry.getNames()));
+        Assert.assertSame(hand, registry.get("hand"));
+        Assert.assertNull(registry.get("nothing"));
+    }
+
+    @Test
+    public void handlersAreResolvedOnlyOnce() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        Map<String, MeasurementHandler> toReturn = new HashMap<>();
+        toReturn.put("hand", Mockito.mock(MeasurementHandler.class));
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(toReturn);
+
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        registry.getHandlers();
+        registry.getNames();
+        registry.get("hand");
+        verify(cm, times(1)).getInstanceMap(MeasurementHandler.class);
+    }
+
+    @Test
+    public void invalidateResolvesHandlersAgain() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        Map<String, MeasurementHandler> toReturn = new HashMap<>();
+        toReturn.put("hand", Mockito.mock(MeasurementHandler.class));
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(toReturn);
+
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(1, registry.getHandlers().size());
+        Map<String, MeasurementHandler> updated = new HashMap<>(toReturn);
+        updated.put("foot", Mockito.mock(MeasurementHandler.class));
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(updated);
+        Assert.assertEquals(1, registry.getHandlers().size());
+
+        registry.invalidate();
+        Assert.assertEquals(2, registry.getHandlers().size());
+    }
+
+    @Test
+    public void handlersResolvedDuringInvalidationAreNotRemembered() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        final MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        final Map<String, MeasurementHandler> toReturn = new HashMap<>();
+        toReturn.put("hand", Mockito.mock(MeasurementHandler.class));
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class))
+            .thenAnswer(new Answer<Map<String, MeasurementHandler>>()
+            {
+                @Override
+                public Map<String, MeasurementHandler> answer(InvocationOnMock invocation)
+                {
+                    // A handler is registered after the handlers were listed
+                    registry.invalidate();
+                    return toReturn;
+                }
+            }).thenReturn(toReturn);
+
+        Assert.assertEquals(1, registry.getHandlers().size());
+        registry.getHandlers();
+        registry.getHandlers();
+        verify(cm, times(2)).getInstanceMap(MeasurementHandler.class);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void handlersListIsUnmodifiable() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class))
+            .thenReturn(new HashMap<String, MeasurementHandler>());
+        List<MeasurementHandler> handlers = this.mocker.getComponentUnderTest().getHandlers();
+        handlers.add(Mockito.mock(MeasurementHandler.class));
+    }
+
+    @Test
+    public void nullHandlersAreHandled() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.getInstanceMap(MeasurementHandler.class)).thenReturn(null);
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(registry.getHandlers().isEmpty());
+        Set<String> names = registry.getNames();
+        Assert.assertNotNull(names);
+        Assert.assertTrue(names.isEmpty());
+    }
+
+    @Test
+    public void failedLookupIsRetried() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.getInstanceMap(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(registry.getHandlers().isEmpty());
+        Assert.assertTrue(registry.getNames().isEmpty());
+        Assert.assertNull(registry.get("hand"));
+        verify(cm, times(3)).getInstanceMap(MeasurementHandler.class);
+    }
+}
@@ -18,14 +18,16 @@
 package org.phenotips.measurements.script;
 
 import org.phenotips.measurements.MeasurementHandler;
+import org.phenotips.measurements.MeasurementsChartConfiguration;
 import org.phenotips.measurements.internal.HeightMeasurementHandler;
+import org.phenotips.measurements.internal.MeasurementHandlerRegistry;
 
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,6 +36,8 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.when;
 
@@ -52,80 +56,114 @@
     @Test
     public void testGetWithNonExistentHint() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstance(MeasurementHandler.class, "nothing")).thenThrow(new ComponentLookupException(""));
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        when(registry.get("nothing")).thenReturn(null);
         Assert.assertNull(this.mocker.getComponentUnderTest().get("nothing"));
     }
 
     @Test
     public void testGetWithValidHint() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
         HeightMeasurementHandler handler = new HeightMeasurementHandler();
-        when(cm.getInstance(MeasurementHandler.class, "height")).thenReturn(handler);
+        when(registry.get("height")).thenReturn(handler);
         Assert.assertEquals(handler, this.mocker.getComponentUnderTest().get("height"));
     }
 
     @Test
     public void testGetAvailableMeasurementHandlers() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        List<MeasurementHandler> toReturn = new ArrayList<>();
-        toReturn.add(Mockito.mock(MeasurementHandler.class));
-        when(cm.<MeasurementHandler>getInstanceList(MeasurementHandler.class)).thenReturn(toReturn);
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        List<MeasurementHandler> toReturn = Collections.singletonList(Mockito.mock(MeasurementHandler.class));
+        when(registry.getHandlers()).thenReturn(toReturn);
         List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
         Assert.assertEquals(toReturn, response);
     }
 
     @Test
-    public void testGetAvailableMeasurementHandlersWithNull() throws ComponentLookupException
+    public void testGetAvailableMeasurementNames() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceList(MeasurementHandler.class)).thenReturn(null);
-        List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        Set<String> toReturn = Collections.singleton("hand");
+        when(registry.getNames()).thenReturn(toReturn);
+        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
+        Assert.assertEquals(toReturn, response);
     }
 
     @Test
-    public void testGetAvailableMeasurementHandlersWithException() throws ComponentLookupException
+    public void testGetPercentilesAndDeviations() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceList(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
-        List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        MeasurementHandler handler = Mockito.mock(MeasurementHandler.class);
+        when(registry.get("height")).thenReturn(handler);
+        float[] ages = new float[] { 12, 24, 36 };
+        double[] values = new double[] { 75.5, Double.NaN, 95 };
+        when(handler.valuesToPercentiles(true, ages, values)).thenReturn(new int[] { 50, 0, 45 });
+        when(handler.valuesToStandardDeviations(true, ages, values))
+            .thenReturn(new double[] { 0.1, Double.NaN, -0.2 });
+        List<?> measuredAges = Arrays.asList(12, 24L, 36.0);
+        List<?> measuredValues = Arrays.asList(75.5, null, 95);
+
+        Assert.assertEquals(Arrays.asList(50, 0, 45),
+            this.mocker.getComponentUnderTest().getPercentiles("height", true, measuredAges, measuredValues));
+        Assert.assertEquals(Arrays.asList(0.1, Double.NaN, -0.2),
+            this.mocker.getComponentUnderTest().getStandardDeviations("height", true, measuredAges, measuredValues));
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .getPercentiles("nothing", true, measuredAges, measuredValues).isEmpty());
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .getStandardDeviations("nothing", true, measuredAges, measuredValues).isEmpty());
     }
 
     @Test
-    public void testGetAvailableMeasurementNames() throws ComponentLookupException
+    public void testGetPercentileCurves() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        Map<String, MeasurementHandler> toReturn = new HashMap<>();
-        toReturn.put("hand", Mockito.mock(MeasurementHandler.class));
-        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(toReturn);
-        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertEquals(toReturn.keySet(), response);
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        MeasurementHandler handler = Mockito.mock(MeasurementHandler.class);
+        when(registry.get("height")).thenReturn(handler);
+        when(handler.percentileToValue(Mockito.anyBoolean(), Mockito.anyFloat(), Mockito.anyInt())).thenAnswer(
+            new Answer<Double>()
+            {
+                @Override
+                public Double answer(InvocationOnMock invocation)
+                {
+                    return ((Float) invocation.getArguments()[1]) * 100.0 + (Integer) invocation.getArguments()[2];
+                }
+            });
+        MeasurementsChartConfiguration chart = mockChart("height", 0, 24, 12);
+
+        Map<Integer, List<Double>> curves =
+            this.mocker.getComponentUnderTest().getPercentileCurves(chart, true, Arrays.asList(3, 50, 97));
+
+        Assert.assertEquals(Arrays.asList(3, 50, 97), new ArrayList<>(curves.keySet()));
+        Assert.assertEquals(Arrays.asList(3.0, 1203.0, 2403.0), curves.get(3));
+        Assert.assertEquals(Arrays.asList(97.0, 1297.0, 2497.0), curves.get(97));
     }
 
     @Test
-    public void testGetAvailableMeasurementNamesWithNull() throws ComponentLookupException
+    public void testGetStandardDeviationCurves() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceMap(MeasurementHandler.class)).thenReturn(null);
-        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        MeasurementHandler handler = Mockito.mock(MeasurementHandler.class);
+        when(registry.get("height")).thenReturn(handler);
+        when(handler.standardDeviationToValue(true, 6, -2)).thenReturn(60.0);
+        when(handler.standardDeviationToValue(true, 9, -2)).thenReturn(70.0);
+        when(handler.standardDeviationToValue(true, 12, -2)).thenReturn(75.0);
+        MeasurementsChartConfiguration chart = mockChart("height", 6, 13, 3);
+
+        Map<Number, List<Double>> curves = this.mocker.getComponentUnderTest().getStandardDeviationCurves(chart, true,
+            Collections.singletonList(-2));
+
+        Assert.assertEquals(Arrays.asList(60.0, 70.0, 75.0), curves.get(-2));
     }
 
     @Test
-    public void testGetAvailableMeasurementNamesWithException() throws ComponentLookupException
+    public void testGetCurvesWithUnknownMeasurement() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceMap(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
-        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        MeasurementsChartConfiguration chart = mockChart("nothing", 0, 24, 12);
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .getPercentileCurves(chart, true, Collections.singletonList(50)).isEmpty());
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .getStandardDeviationCurves(chart, true, Collections.singletonList(0)).isEmpty());
     }
 
     @Test
@@ -169,4 +207,14 @@ public void testGetFuzzyValueSD() throws ComponentLookupException
         Assert
             .assertEquals("extreme-above-normal", this.mocker.getComponentUnderTest().getFuzzyValue(Double.MAX_VALUE));
     }
+
+    private MeasurementsChartConfiguration mockChart(String type, int lowerAge, int upperAge, int ageStep)
+    {
+        MeasurementsChartConfiguration chart = Mockito.mock(MeasurementsChartConfiguration.class);
+        when(chart.getMeasurementType()).thenReturn(type);
+        when(chart.getLowerAgeLimit()).thenReturn(lowerAge);
+        when(chart.getUpperAgeLimit()).thenReturn(upperAge);
+        when(chart.getAgeTickStep()).thenReturn(ageStep);
+        return chart;
+    }
 }
@@ -17,10 +17,11 @@
  */
 package org.phenotips.tools;
 
+import org.phenotips.components.InvalidatableCache;
 import org.phenotips.configuration.RecordConfigurationManager;
 
 import org.xwiki.bridge.DocumentAccessBridge;
-import org.xwiki.bridge.event.AbstractDocumentEvent;
+import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
@@ -38,10 +39,12 @@
 import org.xwiki.velocity.VelocityManager;
 import org.xwiki.velocity.XWikiVelocityException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -59,7 +62,9 @@
 /**
  * Provides access to the phenotype mappings configured for the current space. The field mappings are defined as a JSON
  * object contained in a document. The name of that document must be configured in the "phenotypeMapping" field of a
- * "DBConfigurationClass" object attached to the homepage (WebHome) of the current space.
+ * "DBConfigurationClass" object attached to the homepage (WebHome) of the current space. Mappings can also be
+ * computed by a Velocity script. Either way, the mappings are parsed once, converted into unmodifiable structures, and
+ * cached until the document defining them is modified or deleted.
  *
  * @version $Id$
  * @since 1.0
@@ -76,9 +81,10 @@ public class PhenotypeMappingService implements ScriptService, EventListener, In
     private Logger logger;
 
     /**
-     * Cached mappings for faster responses.
+     * Cached mappings for faster responses, indexed by the serialized reference of the document defining them.
+     * Mappings parsed while their document was being modified aren't remembered.
      */
-    private Map<String, Map<String, Object>> cache = new HashMap<>();
+    private final InvalidatableCache<String, ParsedMappings> cache = new InvalidatableCache<>();
 
     /**
      * Reference serializer used for converting entities into strings.
@@ -129,13 +135,13 @@ public String getName()
     @Override
     public List<Event> getEvents()
     {
-        return Collections.emptyList();
+        return Arrays.<Event>asList(new DocumentUpdatedEvent(), new DocumentDeletedEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
-        this.cache.remove(((AbstractDocumentEvent) event).getEventFilter().getFilter());
+        this.cache.invalidate(this.serializer.serialize(((DocumentModelBridge) source).getDocumentReference()));
     }
 
     /**
@@ -199,6 +205,20 @@ public Object get(String name)
         return getMapping(name);
     }
 
+    /**
+     * Get the sections defined in a mapping, along with the phenotype categories that they group.
+     *
+     * @param name the name of the mapping, for example {@code phenotype}
+     * @return an unmodifiable map of section titles to the categories of each section, in the order in which sections
+     *         are defined, or an empty map if the mapping isn't a list of sections
+     * @since 1.3
+     */
+    public Map<String, List<String>> getSectionCategories(String name)
+    {
+        ParsedMappings mappings = getMappings();
+        return mappings == null ? Collections.<String, List<String>>emptyMap() : mappings.getSectionCategories(name);
+    }
+
     /**
      * Get the configuration for a specific property, taking into account the configuration for the current user and
      * current space.
@@ -208,21 +228,48 @@ public Object get(String name)
      */
     private Object getMapping(String mappingName)
     {
-        DocumentReference mappingDoc = getMappingDocument();
-        Object result = getMapping(mappingDoc, mappingName);
-        if (result == null) {
-            try {
-                String mappingContent = this.bridge.getDocumentContentForDefaultLanguage(mappingDoc);
-                if (mappingContent.startsWith("{{velocity")) {
-                    result = parseVelocityMapping(mappingDoc).get(mappingName);
-                } else {
-                    result = parseJSONMapping(mappingContent).get(mappingName);
-                }
-            } catch (Exception ex) {
-                this.logger.warn("Failed to access mapping: {}", ex.getMessage());
-            }
+        ParsedMappings mappings = getMappings();
+        return mappings == null ? null : mappings.values.get(mappingName);
+    }
+
+    /**
+     * Get all the mappings defined in the document configured for the current user and current space, parsing them if
+     * they aren't already cached.
+     *
+     * @return the parsed mappings, or {@code null} if they can't be parsed
+     */
+    private ParsedMappings getMappings()
+    {
+        final DocumentReference mappingDoc = getMappingDocument();
+        if (mappingDoc == null) {
+            return null;
         }
-        return result;
+        try {
+            return this.cache.get(this.serializer.serialize(mappingDoc),
+                new InvalidatableCache.Loader<String, ParsedMappings, Exception>()
+                {
+                    @Override
+                    public ParsedMappings load(String docName) throws Exception
+                    {
+                        return parseMappings(mappingDoc);
+                    }
+                });
+        } catch (Exception ex) {
+            this.logger.warn("Failed to access mapping: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private ParsedMappings parseMappings(DocumentReference mappingDoc) throws Exception
+    {
+        String mappingContent = this.bridge.getDocumentContentForDefaultLanguage(mappingDoc);
+        Map<String, Object> mappings;
+        if (mappingContent.startsWith("{{velocity")) {
+            mappings = parseVelocityMapping(mappingDoc);
+        } else {
+            mappings = parseJSONMapping(mappingContent);
+        }
+        return mappings == null ? null : new ParsedMappings(mappings);
     }
 
     private Map<String, Object> parseVelocityMapping(DocumentReference mappingDoc)
@@ -232,11 +279,8 @@ private Map<String, Object> parseVelocityMapping(DocumentReference mappingDoc)
             VelocityContext c = this.velocityManager.getVelocityContext();
             e.evaluate(c, new NullWriter(), mappingDoc.getName(),
                 this.bridge.getDocumentContentForDefaultLanguage(mappingDoc));
-            this.observationManager.addEvent(this.getName(), new DocumentUpdatedEvent(mappingDoc));
-            this.observationManager.addEvent(this.getName(), new DocumentDeletedEvent(mappingDoc));
             @SuppressWarnings("unchecked")
             Map<String, Object> mappings = (Map<String, Object>) c.get("mappings");
-            setMappings(mappingDoc, mappings);
             return mappings;
         } catch (XWikiVelocityException ex) {
             this.logger.error("Failed to get a VelocityEngine instance", ex);
@@ -270,7 +314,7 @@ private Map<String, Object> convertJSONObject(JSONObject json)
 
     private List<Object> convertJSONArray(JSONArray json)
     {
-        List<Object> result = new LinkedList<>();
+        List<Object> result = new ArrayList<>(json.length());
         for (Object value : json) {
             if (value instanceof JSONObject) {
                 result.add(convertJSONObject((JSONObject) value));
@@ -283,33 +327,6 @@ private List<Object> convertJSONArray(JSONArray json)
         return result;
     }
 
-    /**
-     * Get the configuration for a specific property, taking the configuration from a specified document.
-     *
-     * @param doc the reference of the document containing the mapping
-     * @param mappingName the name of the configuration to return
-     * @return configuration object, should be a Map
-     */
-    private Object getMapping(DocumentReference doc, String mappingName)
-    {
-        String docName = this.serializer.serialize(doc);
-        if (!this.cache.containsKey(docName)) {
-            return null;
-        }
-        return this.cache.get(docName).get(mappingName);
-    }
-
-    /**
-     * Store all the mappings defined in the specified document in the cache.
-     *
-     * @param doc the reference of the document containing the mapping
-     * @param mappings defined mappings, a map of maps
-     */
-    private void setMappings(DocumentReference doc, Map<String, Object> mappings)
-    {
-        this.cache.put(this.serializer.serialize(doc), mappings);
-    }
-
     /**
      * Determine which document was configured as the mapping source in the current user's preferences, or, if missing,
      * in the current space's preferences.
@@ -343,4 +360,74 @@ private DocumentReference getCurrentUserConfiguration()
         }
         return null;
     }
+
+    /** Converts a parsed structure into an unmodifiable one, so that it can be safely shared between requests. */
+    private static Object freeze(Object value)
+    {
+        if (value instanceof Map) {
+            Map<Object, Object> result = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                result.put(entry.getKey(), freeze(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(result);
+        } else if (value instanceof List) {
+            List<Object> result = new ArrayList<>(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                result.add(freeze(item));
+            }
+            return Collections.unmodifiableList(result);
+        }
+        return value;
+    }
+
+    /** The unmodifiable mappings defined in a document, along with the section categories computed from them. */
+    private static final class ParsedMappings
+    {
+        private static final String TITLE_KEY = "title";
+
+        private static final String CATEGORIES_KEY = "categories";
+
+        private final Map<String, Object> values;
+
+        private final Map<String, Map<String, List<String>>> sectionCategories = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        ParsedMappings(Map<String, Object> values)
+        {
+            this.values = (Map<String, Object>) freeze(values);
+            for (Map.Entry<String, Object> mapping : this.values.entrySet()) {
+                if (mapping.getValue() instanceof List) {
+                    this.sectionCategories.put(mapping.getKey(), indexSections((List<?>) mapping.getValue()));
+                }
+            }
+        }
+
+        Map<String, List<String>> getSectionCategories(String name)
+        {
+            Map<String, List<String>> result = this.sectionCategories.get(name);
+            return result == null ? Collections.<String, List<String>>emptyMap() : result;
+        }
+
+        private static Map<String, List<String>> indexSections(List<?> sections)
+        {
+            Map<String, List<String>> result = new LinkedHashMap<>();
+            for (Object item : sections) {
+                if (!(item instanceof Map) || !(((Map<?, ?>) item).get(TITLE_KEY) instanceof String)) {
+                    continue;
+                }
+                Map<?, ?> section = (Map<?, ?>) item;
+                List<String> categories = new ArrayList<>();
+                Object rawCategories = section.get(CATEGORIES_KEY);
+                if (rawCategories instanceof Collection) {
+                    for (Object category : (Collection<?>) rawCategories) {
+                        categories.add(String.valueOf(category));
+                    }
+                } else if (rawCategories instanceof String) {
+                    categories.add((String) rawCategories);
+                }
+                result.put((String) section.get(TITLE_KEY), Collections.unmodifiableList(categories));
+            }
+            return Collections.unmodifiableMap(result);
+        }
+    }
 }
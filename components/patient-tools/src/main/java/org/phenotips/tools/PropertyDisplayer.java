@@ -27,9 +27,11 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -186,23 +188,30 @@ public String display()
         // Catch-all, in case someone wants to add a qualifier
         topSectionsId.add("HP:0000001");
 
-        for (Map<String, ?> sectionTemplate : template) {
+        // The original template may be shared, so sections are copied instead of being modified
+        ListIterator<Map<String, ?>> sections = template.listIterator();
+        while (sections.hasNext()) {
+            Map<String, ?> sectionTemplate = sections.next();
             try {
                 Object templateCategoriesUC = sectionTemplate.get("categories");
                 if (templateCategoriesUC instanceof List) {
                     @SuppressWarnings("unchecked")
-                    List<String> templateCategories = (List<String>) templateCategoriesUC;
+                    List<String> templateCategories = new ArrayList<>((List<String>) templateCategoriesUC);
                     for (String category : templateCategories) {
                         topSectionsId.remove(category);
                     }
-                    templateCategories.remove("HP:0000118");
+                    boolean modified = templateCategories.remove("HP:0000118");
                     if (templateCategories.isEmpty()) {
-                        template.remove(sectionTemplate);
+                        sections.remove();
+                    } else if (modified) {
+                        Map<String, Object> section = new LinkedHashMap<>(sectionTemplate);
+                        section.put(CATEGORIES_KEY, templateCategories);
+                        sections.set(section);
                     }
                 } else {
                     String templateCategory = (String) templateCategoriesUC;
                     if (StringUtils.equals(templateCategory, "HP:0000118")) {
-                        template.remove(sectionTemplate);
+                        sections.remove();
                     } else {
                         topSectionsId.remove(templateCategory);
                     }
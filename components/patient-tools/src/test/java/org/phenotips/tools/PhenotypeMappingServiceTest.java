@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.tools;
+
+import org.phenotips.configuration.RecordConfiguration;
+import org.phenotips.configuration.RecordConfigurationManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.ObservationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PhenotypeMappingService}.
+ *
+ * @version $Id$
+ */
+public class PhenotypeMappingServiceTest
+{
+    private static final String MAPPING = "{\"phenotype\": ["
+        + "{\"type\": \"section\", \"title\": \"Growth\", \"categories\": [\"HP:0001507\"], \"data\": ["
+        + "{\"id\": \"HP:0004322\"}, {\"type\": \"subsection\", \"title\": \"Weight\", \"data\": ["
+        + "{\"id\": \"HP:0004325\"}, {\"id\": \"HP:0004324\"}]}]},"
+        + "{\"type\": \"section\", \"title\": \"Eye\", \"categories\": [\"HP:0000478\", \"HP:0000118\"], \"data\": ["
+        + "{\"id\": \"HP:0000505\"}, {\"id\": \"HP:0004322\"}]}],"
+        + "\"extraMessages\": {\"note\": \"Hello\"}}";
+
+    private final DocumentReference mappingDocument = new DocumentReference("xwiki", "PhenoTips", "Mapping");
+
+    private PhenotypeMappingService service;
+
+    private DocumentAccessBridge bridge;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.service = new PhenotypeMappingService();
+        this.bridge = mock(DocumentAccessBridge.class);
+        when(this.bridge.getDocumentContentForDefaultLanguage(this.mappingDocument)).thenReturn(MAPPING);
+        RecordConfigurationManager configurationManager = mock(RecordConfigurationManager.class);
+        RecordConfiguration configuration = mock(RecordConfiguration.class);
+        when(configurationManager.getActiveConfiguration()).thenReturn(configuration);
+        when(configuration.getPhenotypeMapping()).thenReturn(this.mappingDocument);
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(this.mappingDocument)).thenReturn("xwiki:PhenoTips.Mapping");
+
+        ReflectionUtils.setFieldValue(this.service, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(this.service, "bridge", this.bridge);
+        ReflectionUtils.setFieldValue(this.service, "configurationManager", configurationManager);
+        ReflectionUtils.setFieldValue(this.service, "serializer", serializer);
+        ReflectionUtils.setFieldValue(this.service, "observationManager", mock(ObservationManager.class));
+        this.service.initialize();
+    }
+
+    @Test
+    public void jsonMappingsAreParsedOnce() throws Exception
+    {
+        List<?> phenotype = (List<?>) this.service.getPhenotype();
+        Assert.assertEquals(2, phenotype.size());
+        Assert.assertEquals("Growth", ((Map<?, ?>) phenotype.get(0)).get("title"));
+        Assert.assertEquals(Collections.singletonMap("note", "Hello"), this.service.getExtraMessages());
+        Assert.assertSame(phenotype, this.service.get("phenotype"));
+        Assert.assertNull(this.service.getFamilyHistory());
+
+        verify(this.bridge, times(1)).getDocumentContentForDefaultLanguage(this.mappingDocument);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mappingsCantBeModified()
+    {
+        Map<?, ?> section = (Map<?, ?>) ((List<?>) this.service.getPhenotype()).get(0);
+        ((List<?>) section.get("categories")).clear();
+    }
+
+    @Test
+    public void modifyingTheMappingDocumentInvalidatesTheCache() throws Exception
+    {
+        this.service.getPhenotype();
+        when(this.bridge.getDocumentContentForDefaultLanguage(this.mappingDocument))
+            .thenReturn("{\"phenotype\": []}");
+        DocumentModelBridge document = mock(DocumentModelBridge.class);
+        when(document.getDocumentReference()).thenReturn(this.mappingDocument);
+
+        this.service.onEvent(new DocumentUpdatedEvent(this.mappingDocument), document, null);
+
+        Assert.assertEquals(Collections.emptyList(), this.service.getPhenotype());
+        verify(this.bridge, times(2)).getDocumentContentForDefaultLanguage(this.mappingDocument);
+    }
+
+    @Test
+    public void mappingsParsedWhileTheDocumentIsModifiedAreNotRemembered() throws Exception
+    {
+        final DocumentModelBridge document = mock(DocumentModelBridge.class);
+        when(document.getDocumentReference()).thenReturn(this.mappingDocument);
+        when(this.bridge.getDocumentContentForDefaultLanguage(this.mappingDocument)).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                // The document is saved right after its old content was read
+                PhenotypeMappingServiceTest.this.service.onEvent(
+                    new DocumentUpdatedEvent(PhenotypeMappingServiceTest.this.mappingDocument), document, null);
+                return MAPPING;
+            }
+        }).thenReturn("{\"phenotype\": []}");
+
+        Assert.assertEquals(2, ((List<?>) this.service.getPhenotype()).size());
+        Assert.assertEquals(Collections.emptyList(), this.service.getPhenotype());
+        Assert.assertEquals(Collections.emptyList(), this.service.getPhenotype());
+        verify(this.bridge, times(2)).getDocumentContentForDefaultLanguage(this.mappingDocument);
+    }
+
+    @Test
+    public void sectionsAreIndexed()
+    {
+        Map<String, List<String>> categories = this.service.getSectionCategories("phenotype");
+        Assert.assertEquals(Arrays.asList("Growth", "Eye"), Arrays.asList(categories.keySet().toArray()));
+        Assert.assertEquals(Arrays.asList("HP:0000478", "HP:0000118"), categories.get("Eye"));
+
+        Assert.assertTrue(this.service.getSectionCategories("extraMessages").isEmpty());
+        Assert.assertTrue(this.service.getSectionCategories("missing").isEmpty());
+    }
+}
@@ -19,19 +19,15 @@
 
 import org.phenotips.rest.AllowedActionsResolver;
 import org.phenotips.rest.Autolinker;
-import org.phenotips.rest.ParentResource;
-import org.phenotips.rest.RelatedResources;
-import org.phenotips.rest.Relation;
+import org.phenotips.rest.internal.RestLinkGraph.ResourceNode;
 import org.phenotips.rest.model.Link;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
-import org.xwiki.rest.XWikiRestComponent;
 import org.xwiki.security.authorization.Right;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -41,13 +37,13 @@
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
-import javax.ws.rs.Path;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 /**
  * An improved factory class for automatically creating links between resources, depending on the permissions that the
- * current user has.
+ * current user has. The links between resources are taken from the {@link RestLinkGraph}, so building links only
+ * requires checking the allowed actions and expanding the URI templates.
  *
  * @version $Id$
  * @since 1.3M2
@@ -60,7 +56,7 @@ public class DefaultAutolinker implements Autolinker
     private AllowedActionsResolver actionResolver;
 
     @Inject
-    private Provider<List<XWikiRestComponent>> resources;
+    private RestLinkGraph graph;
 
     private UriInfo uriInfo;
 
@@ -68,6 +64,8 @@ public class DefaultAutolinker implements Autolinker
 
     private Class<?> baseResource;
 
+    private ResourceNode baseNode;
+
     private Right grantedRight;
 
     private Set<Class<?>> linkedActionableInterfaces = new LinkedHashSet<>();
@@ -77,7 +75,8 @@ public class DefaultAutolinker implements Autolinker
     @Override
     public DefaultAutolinker forResource(Class<?> baseResource, UriInfo uriInfo)
     {
-        this.baseResource = findResourceInterface(baseResource);
+        this.baseNode = this.graph.get(baseResource);
+        this.baseResource = this.baseNode == null ? null : this.baseNode.getResource();
         this.uriInfo = uriInfo;
         for (Entry<String, List<String>> entry : this.uriInfo.getPathParameters().entrySet()) {
             if (!entry.getValue().isEmpty() && !this.extraParameters.containsKey(entry.getKey())) {
@@ -135,10 +134,15 @@ public Collection<Link> build()
         if (this.baseResource != null) {
             links.add(this.getActionableLinkToSelf());
         }
-        Set<Class<?>> endpoints = new LinkedHashSet<>(findChildResources());
-        endpoints.add(getParentResource());
+        Set<Class<?>> endpoints = new LinkedHashSet<>();
+        if (this.baseNode != null) {
+            endpoints.addAll(this.baseNode.getChildren());
+            endpoints.add(this.baseNode.getParent());
+        }
         endpoints.addAll(this.linkedActionableInterfaces);
-        endpoints.addAll(getRelatedResources());
+        if (this.baseNode != null) {
+            endpoints.addAll(this.baseNode.getRelated());
+        }
         for (Class<?> endpoint : endpoints) {
             if (endpoint != null) {
                 Link link = this.getActionableLink(endpoint);
@@ -174,7 +178,7 @@ private Link getActionableLink(Class<?> endpoint)
         try {
             Link link = new Link()
                 .withHref(this.getPath(endpoint))
-                .withRel(getRel(endpoint))
+                .withRel(this.graph.getRelation(endpoint))
                 .withAllowedMethods(this.getAllowedMethods(endpoint));
 
             return link;
@@ -186,7 +190,14 @@ private Link getActionableLink(Class<?> endpoint)
 
     private String getPath(Class<?> restInterface)
     {
-        return this.uriInfo.getBaseUriBuilder().path(restInterface).buildFromMap(this.extraParameters).toString();
+        UriBuilder builder = this.uriInfo.getBaseUriBuilder();
+        ResourceNode node = this.graph.get(restInterface);
+        if (node != null && node.getResource() == restInterface) {
+            builder.path(node.getPathTemplate());
+        } else {
+            builder.path(restInterface);
+        }
+        return builder.buildFromMap(this.extraParameters).toString();
     }
 
     private Set<String> getAllowedMethods(Class<?> restInterface)
@@ -201,92 +212,4 @@ private Link getActionableLinkToSelf()
             .withAllowedMethods(this.getAllowedMethods(this.baseResource))
             .withHref(this.uriInfo.getRequestUri().toString());
     }
-
-    private Class<?> getParentResource()
-    {
-        if (this.baseResource == null) {
-            return null;
-        }
-        ParentResource parent = this.baseResource.getAnnotation(ParentResource.class);
-        if (parent != null) {
-            return parent.value();
-        }
-        return null;
-    }
-
-    private Set<Class<?>> getRelatedResources()
-    {
-        if (this.baseResource == null) {
-            return Collections.emptySet();
-        }
-        Set<Class<?>> result = new LinkedHashSet<>();
-        RelatedResources related = this.baseResource.getAnnotation(RelatedResources.class);
-        if (related == null) {
-            return result;
-        }
-        for (Class<?> resource : related.value()) {
-            Class<?> clazz = findResourceInterface(resource);
-            if (clazz != null) {
-                result.add(findResourceInterface(resource));
-            }
-        }
-        return result;
-    }
-
-    private Set<Class<?>> findChildResources()
-    {
-        Set<Class<?>> result = new LinkedHashSet<>();
-        for (XWikiRestComponent resource : this.resources.get()) {
-            Class<?> clazz = resource.getClass();
-            while (clazz != null) {
-                for (Class<?> i : clazz.getInterfaces()) {
-                    ParentResource parentAnnotation = i.getAnnotation(ParentResource.class);
-                    if (parentAnnotation != null && parentAnnotation.value().equals(this.baseResource)) {
-                        result.add(findResourceInterface(resource));
-                    }
-                }
-                clazz = clazz.getSuperclass();
-            }
-        }
-        return result;
-    }
-
-    private Class<?> findResourceInterface(Object instance)
-    {
-        return findResourceInterface(instance.getClass());
-    }
-
-    private Class<?> findResourceInterface(Class<?> instance)
-    {
-        if (instance != null && instance.getAnnotation(Path.class) != null) {
-            return instance;
-        }
-        Class<?> clazz = instance;
-        while (clazz != null) {
-            for (Class<?> i : clazz.getInterfaces()) {
-                if (i.getAnnotation(Path.class) != null) {
-                    return i;
-                }
-            }
-            clazz = clazz.getSuperclass();
-        }
-        return null;
-    }
-
-    /**
-     * Get the relation type specified in the {@code @Relation} annotation on the target class or one of its implemented
-     * interfaces.
-     *
-     * @param resource the class of a REST resource, which must have a {@code @Relation} annotation
-     * @return the specified relation type, usually in the form of an URL, or {@code null} if not set
-     */
-    private String getRel(Class<?> resource)
-    {
-        String relation = null;
-        Relation relationAnnotation = resource.getAnnotation(Relation.class);
-        if (relationAnnotation != null) {
-            relation = relationAnnotation.value();
-        }
-        return relation;
-    }
 }
@@ -0,0 +1,298 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.components.InvalidatableCache;
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.RelatedResources;
+import org.phenotips.rest.Relation;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rest.XWikiRestComponent;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.Path;
+
+/**
+ * Keeps the links between the available REST resources, as declared by their {@link ParentResource},
+ * {@link RelatedResources}, {@link Relation} and {@link Path} annotations, so that the {@link DefaultAutolinker}
+ * doesn't have to go through all the REST components and their class hierarchies each time it builds links. The graph
+ * is computed when first needed, and computed again after REST components are registered or unregistered.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = RestLinkGraph.class)
+@Singleton
+public class RestLinkGraph
+{
+    /** The key of the only graph, all the REST resources are linked together. */
+    private static final String CURRENT_GRAPH = "current";
+
+    @Inject
+    private Provider<List<XWikiRestComponent>> resources;
+
+    /** The current graph; a graph computed while an invalidation happened isn't remembered. */
+    private final InvalidatableCache<String, Graph> graph = new InvalidatableCache<>();
+
+    private final InvalidatableCache.Loader<String, Graph, RuntimeException> graphLoader =
+        new InvalidatableCache.Loader<String, Graph, RuntimeException>()
+        {
+            @Override
+            public Graph load(String key)
+            {
+                return new Graph(RestLinkGraph.this.resources.get());
+            }
+        };
+
+    /**
+     * Get the information about a REST resource.
+     *
+     * @param resource a REST resource interface, or a class implementing one
+     * @return the information about the resource interface, or {@code null} if the class isn't a REST resource
+     */
+    public ResourceNode get(Class<?> resource)
+    {
+        if (resource == null) {
+            return null;
+        }
+        Graph current = getCurrentGraph();
+        ResourceNode result = current.nodes.get(resource);
+        if (result == null) {
+            Class<?> resourceInterface = findResourceInterface(resource);
+            result = resourceInterface == null ? ResourceNode.NONE : current.getNode(resourceInterface);
+            current.nodes.putIfAbsent(resource, result);
+        }
+        return result == ResourceNode.NONE ? null : result;
+    }
+
+    /**
+     * Get the relation type of a REST resource.
+     *
+     * @param resource the class of a REST resource
+     * @return the relation type specified in the {@code @Relation} annotation of the class, or {@code null} if not set
+     */
+    public String getRelation(Class<?> resource)
+    {
+        ResourceNode node = get(resource);
+        if (node != null && node.getResource() == resource) {
+            return node.getRelation();
+        }
+        return readRelation(resource);
+    }
+
+    /** Forget the computed graph, it will be computed again when next needed. */
+    public void invalidate()
+    {
+        this.graph.invalidateAll();
+    }
+
+    private Graph getCurrentGraph()
+    {
+        return this.graph.get(CURRENT_GRAPH, this.graphLoader);
+    }
+
+    private static Class<?> findResourceInterface(Class<?> instance)
+    {
+        if (instance.getAnnotation(Path.class) != null) {
+            return instance;
+        }
+        Class<?> clazz = instance;
+        while (clazz != null) {
+            for (Class<?> i : clazz.getInterfaces()) {
+                if (i.getAnnotation(Path.class) != null) {
+                    return i;
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+        return null;
+    }
+
+    private static String readRelation(Class<?> resource)
+    {
+        Relation relation = resource.getAnnotation(Relation.class);
+        return relation == null ? null : relation.value();
+    }
+
+    /** Snapshot of the links between the REST resources available at some point. */
+    private static final class Graph
+    {
+        /** Resource interfaces declaring their parent, indexed by parent. */
+        private final Map<Class<?>, Set<Class<?>>> children = new HashMap<>();
+
+        /** The information about resource interfaces, also indexed by the implementing classes, filled as needed. */
+        private final ConcurrentMap<Class<?>, ResourceNode> nodes = new ConcurrentHashMap<>();
+
+        Graph(List<XWikiRestComponent> resources)
+        {
+            for (XWikiRestComponent resource : resources) {
+                Class<?> resourceInterface = findResourceInterface(resource.getClass());
+                Class<?> clazz = resource.getClass();
+                while (clazz != null) {
+                    for (Class<?> i : clazz.getInterfaces()) {
+                        ParentResource parent = i.getAnnotation(ParentResource.class);
+                        if (parent != null && resourceInterface != null) {
+                            Set<Class<?>> siblings = this.children.get(parent.value());
+                            if (siblings == null) {
+                                siblings = new LinkedHashSet<>();
+                                this.children.put(parent.value(), siblings);
+                            }
+                            siblings.add(resourceInterface);
+                        }
+                    }
+                    clazz = clazz.getSuperclass();
+                }
+            }
+        }
+
+        ResourceNode getNode(Class<?> resourceInterface)
+        {
+            ResourceNode result = this.nodes.get(resourceInterface);
+            if (result == null) {
+                Set<Class<?>> related = new LinkedHashSet<>();
+                RelatedResources relatedAnnotation = resourceInterface.getAnnotation(RelatedResources.class);
+                if (relatedAnnotation != null) {
+                    for (Class<?> resource : relatedAnnotation.value()) {
+                        Class<?> relatedInterface = findResourceInterface(resource);
+                        if (relatedInterface != null) {
+                            related.add(relatedInterface);
+                        }
+                    }
+                }
+                ParentResource parent = resourceInterface.getAnnotation(ParentResource.class);
+                Set<Class<?>> resourceChildren = this.children.get(resourceInterface);
+                result = new ResourceNode(resourceInterface, resourceInterface.getAnnotation(Path.class).value(),
+                    readRelation(resourceInterface), parent == null ? null : parent.value(),
+                    resourceChildren == null ? Collections.<Class<?>>emptySet() : resourceChildren, related);
+                ResourceNode previous = this.nodes.putIfAbsent(resourceInterface, result);
+                if (previous != null) {
+                    result = previous;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The links of a REST resource interface to other resources.
+     *
+     * @version $Id$
+     * @since 1.3
+     */
+    public static final class ResourceNode
+    {
+        /** Marks classes which aren't REST resources. */
+        private static final ResourceNode NONE = new ResourceNode(null, null, null, null,
+            Collections.<Class<?>>emptySet(), Collections.<Class<?>>emptySet());
+
+        private final Class<?> resource;
+
+        private final String pathTemplate;
+
+        private final String relation;
+
+        private final Class<?> parent;
+
+        private final Set<Class<?>> children;
+
+        private final Set<Class<?>> related;
+
+        ResourceNode(Class<?> resource, String pathTemplate, String relation, Class<?> parent, Set<Class<?>> children,
+            Set<Class<?>> related)
+        {
+            this.resource = resource;
+            this.pathTemplate = pathTemplate;
+            this.relation = relation;
+            this.parent = parent;
+            this.children = Collections.unmodifiableSet(children);
+            this.related = Collections.unmodifiableSet(related);
+        }
+
+        /**
+         * The REST resource interface.
+         *
+         * @return the interface annotated with {@code @Path}
+         */
+        public Class<?> getResource()
+        {
+            return this.resource;
+        }
+
+        /**
+         * The URI template of the resource, relative to the REST base URI.
+         *
+         * @return the value of the {@code @Path} annotation
+         */
+        public String getPathTemplate()
+        {
+            return this.pathTemplate;
+        }
+
+        /**
+         * The relation type of links to this resource.
+         *
+         * @return the value of the {@code @Relation} annotation, or {@code null} if not set
+         */
+        public String getRelation()
+        {
+            return this.relation;
+        }
+
+        /**
+         * The parent of this resource.
+         *
+         * @return the value of the {@code @ParentResource} annotation, or {@code null} if not set
+         */
+        public Class<?> getParent()
+        {
+            return this.parent;
+        }
+
+        /**
+         * The resources declaring this resource as their parent.
+         *
+         * @return an unmodifiable set of resource interfaces, may be empty
+         */
+        public Set<Class<?>> getChildren()
+        {
+            return this.children;
+        }
+
+        /**
+         * The resources listed in the {@code @RelatedResources} annotation of this resource.
+         *
+         * @return an unmodifiable set of resource interfaces, may be empty
+         */
+        public Set<Class<?>> getRelated()
+        {
+            return this.related;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.RelatedResources;
+import org.phenotips.rest.Relation;
+import org.phenotips.rest.internal.RestLinkGraph.ResourceNode;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+import javax.ws.rs.Path;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link RestLinkGraph} component.
+ *
+ * @version $Id$
+ */
+public class RestLinkGraphTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<RestLinkGraph> mocker =
+        new MockitoComponentMockingRule<RestLinkGraph>(RestLinkGraph.class);
+
+    private Provider<List<XWikiRestComponent>> resources;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.resources = this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class,
+            new DefaultParameterizedType(null, List.class, XWikiRestComponent.class)));
+        when(this.resources.get()).thenReturn(
+            Arrays.<XWikiRestComponent>asList(new DefaultParent(), new DefaultChild(), new DefaultOther()));
+    }
+
+    @Test
+    public void implementationsAreResolvedToTheirResourceInterface() throws ComponentLookupException
+    {
+        ResourceNode node = this.mocker.getComponentUnderTest().get(DefaultChild.class);
+
+        Assert.assertSame(ChildResource.class, node.getResource());
+        Assert.assertSame(node, this.mocker.getComponentUnderTest().get(ChildResource.class));
+        Assert.assertEquals("/parent/{id}/child", node.getPathTemplate());
+        Assert.assertEquals("child", node.getRelation());
+        Assert.assertSame(ParentsResource.class, node.getParent());
+    }
+
+    @Test
+    public void childrenAndRelatedResourcesAreLinked() throws ComponentLookupException
+    {
+        ResourceNode parent = this.mocker.getComponentUnderTest().get(ParentsResource.class);
+        Assert.assertEquals(Collections.singleton(ChildResource.class), parent.getChildren());
+        Assert.assertTrue(parent.getRelated().isEmpty());
+        Assert.assertNull(parent.getParent());
+
+        ResourceNode other = this.mocker.getComponentUnderTest().get(OtherResource.class);
+        Assert.assertEquals(Collections.singleton(ParentsResource.class), other.getRelated());
+        Assert.assertTrue(other.getChildren().isEmpty());
+        Assert.assertNull(other.getRelation());
+    }
+
+    @Test
+    public void classesWhichArentResourcesAreIgnored() throws ComponentLookupException
+    {
+        Assert.assertNull(this.mocker.getComponentUnderTest().get(String.class));
+        Assert.assertNull(this.mocker.getComponentUnderTest().get(null));
+        Assert.assertNull(this.mocker.getComponentUnderTest().getRelation(String.class));
+        Assert.assertEquals("child", this.mocker.getComponentUnderTest().getRelation(ChildResource.class));
+    }
+
+    @Test
+    public void graphIsComputedOnceUntilInvalidated() throws ComponentLookupException
+    {
+        RestLinkGraph graph = this.mocker.getComponentUnderTest();
+        graph.get(DefaultChild.class);
+        graph.get(ParentsResource.class);
+        graph.get(OtherResource.class);
+        verify(this.resources, times(1)).get();
+
+        when(this.resources.get()).thenReturn(Arrays.<XWikiRestComponent>asList(new DefaultParent()));
+        graph.invalidate();
+        Assert.assertTrue(graph.get(ParentsResource.class).getChildren().isEmpty());
+        verify(this.resources, times(2)).get();
+    }
+
+    @Test
+    public void graphComputedDuringInvalidationIsNotRemembered() throws ComponentLookupException
+    {
+        final RestLinkGraph graph = this.mocker.getComponentUnderTest();
+        when(this.resources.get()).thenAnswer(new Answer<List<XWikiRestComponent>>()
+        {
+            @Override
+            public List<XWikiRestComponent> answer(InvocationOnMock invocation)
+            {
+                // A REST component is registered after the components were listed
+                graph.invalidate();
+                return Arrays.<XWikiRestComponent>asList(new DefaultParent());
+            }
+        }).thenReturn(Arrays.<XWikiRestComponent>asList(new DefaultParent(), new DefaultChild()));
+
+        Assert.assertTrue(graph.get(ParentsResource.class).getChildren().isEmpty());
+        Assert.assertFalse(graph.get(ParentsResource.class).getChildren().isEmpty());
+        verify(this.resources, times(2)).get();
+    }
+
+    @Path("/parent")
+    @Relation("parent")
+    public interface ParentsResource
+    {
+    }
+
+    @Path("/parent/{id}/child")
+    @Relation("child")
+    @ParentResource(ParentsResource.class)
+    public interface ChildResource
+    {
+    }
+
+    @Path("/other")
+    @RelatedResources(ParentsResource.class)
+    public interface OtherResource
+    {
+    }
+
+    private static final class DefaultParent implements ParentsResource, XWikiRestComponent
+    {
+    }
+
+    private static final class DefaultChild implements ChildResource, XWikiRestComponent
+    {
+    }
+
+    private static final class DefaultOther implements OtherResource, XWikiRestComponent
+    {
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.encryption.internal;
+
+import org.phenotips.security.encryption.CryptoUtils;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Decrypts the values of {@link EncryptedProperty encrypted properties}, remembering the most recently decrypted
+ * values, since decrypting requires an expensive key derivation. Cleartext values are kept in an in-memory LRU cache,
+ * indexed by a digest of the encrypted text, so that the encrypted values themselves are not retained. Very long values
+ * are never cached.
+ * <p>
+ * The number of remembered values is configured with the {@code phenotips.security.encryption.decryptedValuesCacheSize}
+ * property in {@code xwiki.properties}; installations which don't want any cleartext kept in memory can set it to
+ * {@code 0} to disable the cache.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = DecryptedValuesCache.class)
+@Singleton
+public class DecryptedValuesCache implements Initializable, Disposable
+{
+    private static final int DEFAULT_SIZE = 1000;
+
+    /** Values longer than this aren't cached, so that a few huge values don't fill up the memory. */
+    private static final int MAX_CACHED_LENGTH = 65536;
+
+    @Inject
+    private CryptoUtils crypto;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The remembered values, {@code null} if caching is disabled. */
+    private volatile Cache<String> values;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Integer size = this.configuration.getProperty("phenotips.security.encryption.decryptedValuesCacheSize",
+            Integer.valueOf(DEFAULT_SIZE));
+        if (size != null && size > 0) {
+            try {
+                this.values = this.cacheManager.createNewCache(new LRUCacheConfiguration("decryptedValues", size));
+            } catch (CacheException ex) {
+                throw new InitializationException("Failed to create the decrypted values cache", ex);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        Cache<String> cache = this.values;
+        this.values = null;
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * Decrypt a message using the system-wide encryption key, or return the previously decrypted value.
+     *
+     * @param encryptedMessage the message to decrypt
+     * @return the decrypted message
+     * @see CryptoUtils#decryptWithSystemKey(String)
+     */
+    public String decrypt(String encryptedMessage)
+    {
+        Cache<String> cache = this.values;
+        if (cache == null) {
+            return this.crypto.decryptWithSystemKey(encryptedMessage);
+        }
+        String key = digest(encryptedMessage);
+        String result = cache.get(key);
+        if (result == null) {
+            result = this.crypto.decryptWithSystemKey(encryptedMessage);
+            if (result != null && result.length() <= MAX_CACHED_LENGTH) {
+                cache.set(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget the decrypted value of a message, for example when the property holding it is modified.
+     *
+     * @param encryptedMessage the encrypted message whose value should be forgotten
+     */
+    public void remove(String encryptedMessage)
+    {
+        Cache<String> cache = this.values;
+        if (cache != null) {
+            cache.remove(digest(encryptedMessage));
+        }
+    }
+
+    /** Forget all the decrypted values. */
+    public void clear()
+    {
+        Cache<String> cache = this.values;
+        if (cache != null) {
+            cache.removeAll();
+        }
+    }
+
+    private String digest(String message)
+    {
+        return DigestUtils.sha256Hex(message);
+    }
+}
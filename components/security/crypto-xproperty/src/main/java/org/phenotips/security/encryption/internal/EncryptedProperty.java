@@ -17,16 +17,19 @@
  */
 package org.phenotips.security.encryption.internal;
 
+import org.phenotips.components.ComponentHandle;
 import org.phenotips.security.encryption.CryptoUtils;
 
+import org.xwiki.component.manager.ComponentLookupException;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.xpn.xwiki.objects.BaseStringProperty;
-import com.xpn.xwiki.web.Utils;
 
 /**
  * XProperty for storing a piece of text encrypted in the database. The maximum length of the values depends on the text
- * itself, but is large enough to support even a hundred megabytes.
+ * itself, but is large enough to support even a hundred megabytes. Decrypted values are remembered by the
+ * {@link DecryptedValuesCache}, unless disabled in the configuration.
  *
  * @see EncryptedMetaClass
  * @see EncryptedClass
@@ -40,6 +43,13 @@ public class EncryptedProperty extends BaseStringProperty
     /** Will be pre-pended to the values of the encrypted properties to identify that they are indeed encrypted. */
     private static final String ENCRYPTED_IDENTIFIER = "e:";
 
+    /** Properties are used too often to look up components each time. */
+    private static final ComponentHandle<CryptoUtils> CRYPTO = new ComponentHandle<>(CryptoUtils.class);
+
+    /** Properties are used too often to look up components each time. */
+    private static final ComponentHandle<DecryptedValuesCache> DECRYPTED_VALUES =
+        new ComponentHandle<>(DecryptedValuesCache.class);
+
     @Override
     public String getValue()
     {
@@ -53,6 +63,7 @@ public String getValue()
     @Override
     public void setValue(Object value)
     {
+        forgetDecryptedValue();
         if (value == null) {
             super.setValue(null);
             return;
@@ -98,7 +109,18 @@ private String encrypt(String text)
      */
     private String decrypt(String text)
     {
-        return getCryptoUtils().decryptWithSystemKey(getRawValue(text));
+        return getDecryptedValues().decrypt(getRawValue(text));
+    }
+
+    /**
+     * Remove the current value, which is about to be replaced, from the {@link DecryptedValuesCache}.
+     */
+    private void forgetDecryptedValue()
+    {
+        String oldValue = super.getValue();
+        if (oldValue != null && isEncrypted(oldValue)) {
+            getDecryptedValues().remove(getRawValue(oldValue));
+        }
     }
 
     /**
@@ -114,6 +136,21 @@ private String getRawValue(String value)
 
     private CryptoUtils getCryptoUtils()
     {
-        return Utils.getComponent(CryptoUtils.class);
+        return getComponent(CRYPTO);
+    }
+
+    private DecryptedValuesCache getDecryptedValues()
+    {
+        return getComponent(DECRYPTED_VALUES);
+    }
+
+    private <T> T getComponent(ComponentHandle<T> handle)
+    {
+        try {
+            return handle.get();
+        } catch (ComponentLookupException ex) {
+            // The encryption components are part of this module, so they should always be available
+            throw new IllegalStateException("Encryption components not available", ex);
+        }
     }
 }
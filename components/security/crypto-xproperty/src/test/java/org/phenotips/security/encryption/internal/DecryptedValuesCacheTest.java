@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.encryption.internal;
+
+import org.phenotips.security.encryption.CryptoUtils;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DecryptedValuesCache} component.
+ *
+ * @version $Id$
+ */
+public class DecryptedValuesCacheTest
+{
+    private static final String SIZE_PROPERTY = "phenotips.security.encryption.decryptedValuesCacheSize";
+
+    @Rule
+    public final MockitoComponentMockingRule<DecryptedValuesCache> mocker =
+        new MockitoComponentMockingRule<DecryptedValuesCache>(DecryptedValuesCache.class);
+
+    private CryptoUtils crypto;
+
+    private ConfigurationSource configuration;
+
+    private final Map<String, String> cachedValues = new HashMap<>();
+
+    private Cache<String> cache;
+
+    private CacheManager cacheManager;
+
+    private CacheConfiguration cacheConfiguration;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        // A cache working like a map, remembering everything
+        this.cache = mock(Cache.class);
+        doAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return DecryptedValuesCacheTest.this.cachedValues.get(invocation.getArguments()[0]);
+            }
+        }).when(this.cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                DecryptedValuesCacheTest.this.cachedValues.put((String) invocation.getArguments()[0],
+                    (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(this.cache).set(anyString(), anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                DecryptedValuesCacheTest.this.cachedValues.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(this.cache).remove(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                DecryptedValuesCacheTest.this.cachedValues.clear();
+                return null;
+            }
+        }).when(this.cache).removeAll();
+        this.cacheManager = this.mocker.getInstance(CacheManager.class);
+        doAnswer(new Answer<Cache<String>>()
+        {
+            @Override
+            public Cache<String> answer(InvocationOnMock invocation)
+            {
+                DecryptedValuesCacheTest.this.cacheConfiguration = (CacheConfiguration) invocation.getArguments()[0];
+                return DecryptedValuesCacheTest.this.cache;
+            }
+        }).when(this.cacheManager).createNewCache(any(CacheConfiguration.class));
+
+        this.crypto = this.mocker.getInstance(CryptoUtils.class);
+        when(this.crypto.decryptWithSystemKey("a")).thenReturn("A");
+        when(this.crypto.decryptWithSystemKey("b")).thenReturn("B");
+        when(this.crypto.decryptWithSystemKey("c")).thenReturn("C");
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(eq(SIZE_PROPERTY), any(Integer.class))).thenReturn(2);
+    }
+
+    @Test
+    public void decryptedValuesAreReused() throws Exception
+    {
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals("A", cache.decrypt("a"));
+        Assert.assertEquals("A", cache.decrypt("a"));
+
+        verify(this.crypto, times(1)).decryptWithSystemKey("a");
+    }
+
+    @Test
+    public void cacheIsBoundedByTheConfiguredSize() throws Exception
+    {
+        this.mocker.getComponentUnderTest();
+
+        Assert.assertTrue(this.cacheConfiguration instanceof LRUCacheConfiguration);
+        Assert.assertEquals(2,
+            ((LRUCacheConfiguration) this.cacheConfiguration).getLRUEvictionConfiguration().getMaxEntries());
+    }
+
+    @Test
+    public void encryptedValuesAreNotUsedAsKeys() throws Exception
+    {
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        cache.decrypt("a");
+
+        Assert.assertEquals(1, this.cachedValues.size());
+        Assert.assertFalse(this.cachedValues.containsKey("a"));
+    }
+
+    @Test
+    public void zeroSizeDisablesCaching() throws Exception
+    {
+        when(this.configuration.getProperty(eq(SIZE_PROPERTY), any(Integer.class))).thenReturn(0);
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals("A", cache.decrypt("a"));
+        Assert.assertEquals("A", cache.decrypt("a"));
+
+        verify(this.crypto, times(2)).decryptWithSystemKey("a");
+        verify(this.cacheManager, never()).createNewCache(any(CacheConfiguration.class));
+    }
+
+    @Test
+    public void removedValuesAreDecryptedAgain() throws Exception
+    {
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        cache.decrypt("a");
+        cache.decrypt("b");
+        cache.remove("a");
+        cache.decrypt("a");
+        cache.decrypt("b");
+
+        verify(this.crypto, times(2)).decryptWithSystemKey("a");
+        verify(this.crypto, times(1)).decryptWithSystemKey("b");
+    }
+
+    @Test
+    public void disposeClearsValues() throws Exception
+    {
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        cache.decrypt("a");
+        cache.dispose();
+        Assert.assertEquals("A", cache.decrypt("a"));
+
+        verify(this.cache).dispose();
+        verify(this.crypto, times(2)).decryptWithSystemKey("a");
+    }
+
+    @Test
+    public void longValuesAreNotCached() throws Exception
+    {
+        String longValue = StringUtils.repeat('x', 65537);
+        when(this.crypto.decryptWithSystemKey("long")).thenReturn(longValue);
+        DecryptedValuesCache cache = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals(longValue, cache.decrypt("long"));
+        Assert.assertEquals(longValue, cache.decrypt("long"));
+
+        verify(this.crypto, times(2)).decryptWithSystemKey("long");
+    }
+}
@@ -17,18 +17,15 @@
  */
 package org.phenotips.solr;
 
-import org.phenotips.obo2solr.maps.CounterMap;
-import org.phenotips.obo2solr.maps.SumMap;
-
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,7 +41,6 @@
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.MapSolrParams;
-import org.apache.solr.common.util.SimpleOrderedMap;
 
 /**
  * Provides access to the Solr server, with the main purpose of providing access to the OMIM ontology.
@@ -56,6 +52,12 @@
 @Singleton
 public class OmimScriptService extends AbstractSolrScriptService
 {
+    /** The pseudo-field holding the relevance score of each matched document. */
+    private static final String SCORE_FIELD_NAME = "score";
+
+    /** Only terms under the root of the phenotypic abnormality subontology are suggested. */
+    private static final String PHENOTYPE_ROOT = "HP:0000118";
+
     /** Provides access to the HPO ontology, for converting IDs into names and for getting all term ancestors. */
     @Inject
     @Named("hpo")
@@ -97,7 +99,7 @@ public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phe
     {
         HPOScriptService hpoService = (HPOScriptService) this.service;
         QueryResponse response;
-        List<SuggestedPhenotype> result = new LinkedList<SuggestedPhenotype>();
+        List<SuggestedPhenotype> result = new ArrayList<SuggestedPhenotype>();
         try {
             response = this.server.query(prepareParams(phenotypes, nphenotypes));
         } catch (SolrServerException | IOException ex) {
@@ -105,39 +107,63 @@ public List<SuggestedPhenotype> getDifferentialPhenotypes(Collection<String> phe
             return result;
         }
         SolrDocumentList matchingDisorders = response.getResults();
-        Map<?, ?> explanations = response.getExplainMap();
-        SumMap<String> cummulativeScore = new SumMap<String>();
-        CounterMap<String> matchCounter = new CounterMap<String>();
+        // The same symptoms appear in many disorders, so each distinct term is only expanded once
+        Map<String, Set<String>> ancestorsCache = new HashMap<String, Set<String>>();
         Set<String> allAncestors = new HashSet<String>();
         for (String phenotype : phenotypes) {
-            allAncestors.addAll(hpoService.getAllAncestorsAndSelfIDs(phenotype));
+            allAncestors.addAll(getAncestorsAndSelf(phenotype, hpoService, ancestorsCache));
         }
+        Map<String, TermScore> scores = new HashMap<String, TermScore>();
         for (SolrDocument disorder : matchingDisorders) {
-            String omimId = (String) disorder.getFieldValue(ID_FIELD_NAME);
-            @SuppressWarnings("unchecked")
-            SimpleOrderedMap<Float> omimTerm = (SimpleOrderedMap<Float>) explanations.get(omimId);
-            float score = omimTerm.get("value");
-            for (Object hpoId : disorder.getFieldValues("actual_symptom")) {
-                if (allAncestors.contains(hpoId) || nphenotypes.contains(hpoId)
-                    || !hpoService.getAllAncestorsAndSelfIDs((String) hpoId).contains("HP:0000118")) {
-                    continue;
+            Object score = disorder.getFieldValue(SCORE_FIELD_NAME);
+            Collection<Object> symptoms = disorder.getFieldValues("actual_symptom");
+            if (!(score instanceof Number) || symptoms == null) {
+                continue;
+            }
+            for (Object symptom : symptoms) {
+                String hpoId = (String) symptom;
+                TermScore termScore = scores.get(hpoId);
+                if (termScore == null) {
+                    if (allAncestors.contains(hpoId) || nphenotypes.contains(hpoId)
+                        || !getAncestorsAndSelf(hpoId, hpoService, ancestorsCache).contains(PHENOTYPE_ROOT)) {
+                        continue;
+                    }
+                    termScore = new TermScore();
+                    scores.put(hpoId, termScore);
                 }
-                cummulativeScore.addTo((String) hpoId, (double) score);
-                matchCounter.addTo((String) hpoId);
+                termScore.score += ((Number) score).floatValue();
+                ++termScore.count;
+            }
+        }
+        int minCount = 0;
+        for (TermScore termScore : scores.values()) {
+            if (minCount == 0 || termScore.count < minCount) {
+                minCount = termScore.count;
             }
         }
-        if (matchCounter.getMinValue() <= matchingDisorders.size() / 2) {
-            for (String hpoId : cummulativeScore.keySet()) {
-                SolrDocument term = hpoService.get(hpoId);
+        if (minCount <= matchingDisorders.size() / 2) {
+            for (Map.Entry<String, TermScore> termScore : scores.entrySet()) {
+                SolrDocument term = hpoService.get(termScore.getKey());
                 if (term == null) {
                     continue;
                 }
-                result.add(new SuggestedPhenotype(hpoId, (String) term.getFieldValue("name"),
-                    cummulativeScore.get(hpoId) / (matchCounter.get(hpoId) * matchCounter.get(hpoId))));
+                int count = termScore.getValue().count;
+                result.add(new SuggestedPhenotype(termScore.getKey(), (String) term.getFieldValue("name"),
+                    termScore.getValue().score / (count * count)));
             }
             Collections.sort(result);
         }
-        return result.subList(0, limit);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    private Set<String> getAncestorsAndSelf(String id, HPOScriptService hpoService, Map<String, Set<String>> cache)
+    {
+        Set<String> result = cache.get(id);
+        if (result == null) {
+            result = hpoService.getAllAncestorsAndSelfIDs(id);
+            cache.put(id, result);
+        }
+        return result;
     }
 
     /**
@@ -159,9 +185,16 @@ private MapSolrParams prepareParams(Collection<String> phenotypes, Collection<St
         params.put(CommonParams.Q, q.replaceAll("HP:", "HP\\\\:"));
         params.put(CommonParams.ROWS, "100");
         params.put(CommonParams.START, "0");
-        params.put(CommonParams.DEBUG_QUERY, Boolean.toString(true));
-        params.put(CommonParams.EXPLAIN_STRUCT, Boolean.toString(true));
+        params.put(CommonParams.FL, "*," + SCORE_FIELD_NAME);
 
         return new MapSolrParams(params);
     }
+
+    /** The cumulative score of a suggested phenotype, and the number of matching disorders in which it appears. */
+    private static final class TermScore
+    {
+        private double score;
+
+        private int count;
+    }
 }
@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.solr;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link OmimScriptService} component.
+ *
+ * @version $Id$
+ */
+public class OmimScriptServiceTest
+{
+    private static final String ROOT = "HP:0000118";
+
+    @Rule
+    public final MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(OmimScriptService.class);
+
+    private OmimScriptService service;
+
+    private SolrClient server;
+
+    private HPOScriptService hpo;
+
+    private QueryResponse response;
+
+    /** A small fixture hierarchy, child to parent. */
+    private final Map<String, String> parents = new HashMap<>();
+
+    @Before
+    public void setUp() throws ComponentLookupException, IOException, SolrServerException
+    {
+        this.service = (OmimScriptService) this.mocker.getComponentUnderTest();
+        this.server = mock(SolrClient.class);
+        this.hpo = mock(HPOScriptService.class);
+        ReflectionUtils.setFieldValue(this.service, "server", this.server);
+        ReflectionUtils.setFieldValue(this.service, "service", this.hpo);
+
+        this.response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(this.response);
+
+        this.parents.put("HP:0000001", null);
+        this.parents.put(ROOT, "HP:0000001");
+        this.parents.put("HP:0000002", ROOT);
+        this.parents.put("HP:0000003", "HP:0000002");
+        this.parents.put("HP:0000004", ROOT);
+        this.parents.put("HP:0000005", ROOT);
+        this.parents.put("HP:0000006", ROOT);
+        this.parents.put("HP:0000007", "HP:0000001");
+        when(this.hpo.getAllAncestorsAndSelfIDs(anyString())).thenAnswer(new Answer<Set<String>>()
+        {
+            @Override
+            public Set<String> answer(InvocationOnMock invocation)
+            {
+                Set<String> result = new HashSet<>();
+                String id = (String) invocation.getArguments()[0];
+                while (id != null && OmimScriptServiceTest.this.parents.containsKey(id)) {
+                    result.add(id);
+                    id = OmimScriptServiceTest.this.parents.get(id);
+                }
+                return result;
+            }
+        });
+        when(this.hpo.get(anyString())).thenAnswer(new Answer<SolrDocument>()
+        {
+            @Override
+            public SolrDocument answer(InvocationOnMock invocation)
+            {
+                SolrDocument result = new SolrDocument();
+                result.setField("id", invocation.getArguments()[0]);
+                result.setField("name", "Name of " + invocation.getArguments()[0]);
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void queryUsesScoreFieldInsteadOfExplanations() throws IOException, SolrServerException
+    {
+        setDisorders(disorder("MIM:1", 2f, "HP:0000004"));
+
+        this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"), Collections.<String>emptyList(), 5);
+
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        verify(this.server).query(params.capture());
+        Assert.assertNull(params.getValue().get(CommonParams.DEBUG_QUERY));
+        Assert.assertNull(params.getValue().get(CommonParams.EXPLAIN_STRUCT));
+        Assert.assertEquals("*,score", params.getValue().get(CommonParams.FL));
+    }
+
+    @Test
+    public void suggestionsAreRankedByCumulativeScore()
+    {
+        setDisorders(disorder("MIM:1", 4f, "HP:0000004", "HP:0000005"),
+            disorder("MIM:2", 2f, "HP:0000005", "HP:0000006"),
+            disorder("MIM:3", 1f, "HP:0000006", "HP:0000003", "HP:0000002", "HP:0000007"),
+            disorder("MIM:4", 1f, "HP:0000006"));
+
+        List<SuggestedPhenotype> result = this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"),
+            Arrays.asList("HP:0000004"), 5);
+
+        // HP:0000003 and its ancestor HP:0000002 are already selected, HP:0000004 is excluded,
+        // and HP:0000007 is not a phenotypic abnormality
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0000005", result.get(0).getId());
+        Assert.assertEquals("Name of HP:0000005", result.get(0).getName());
+        Assert.assertEquals(6.0 / 4, result.get(0).getScore(), 0.0001);
+        Assert.assertEquals("HP:0000006", result.get(1).getId());
+        Assert.assertEquals(4.0 / 9, result.get(1).getScore(), 0.0001);
+    }
+
+    @Test
+    public void resultIsTruncatedToLimit()
+    {
+        setDisorders(disorder("MIM:1", 4f, "HP:0000004"), disorder("MIM:2", 2f, "HP:0000005"),
+            disorder("MIM:3", 1f, "HP:0000006"));
+
+        List<SuggestedPhenotype> result = this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"),
+            Collections.<String>emptyList(), 2);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0000004", result.get(0).getId());
+        Assert.assertEquals("HP:0000005", result.get(1).getId());
+    }
+
+    @Test
+    public void noSuggestionsWhenNoDisordersMatch()
+    {
+        setDisorders();
+
+        Assert.assertTrue(this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"),
+            Collections.<String>emptyList(), 5).isEmpty());
+    }
+
+    @Test
+    public void failedQueryReturnsEmptyList() throws IOException, SolrServerException
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("down"));
+
+        Assert.assertTrue(this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"),
+            Collections.<String>emptyList(), 5).isEmpty());
+    }
+
+    /** Simulates a large result over a fixture index, where the same symptoms are shared by many disorders. */
+    @Test
+    public void ancestorsAreExpandedOncePerDistinctSymptom()
+    {
+        List<SolrDocument> disorders = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            disorders.add(disorder("MIM:" + i, 100 - i, "HP:0000004", "HP:000000" + (5 + i % 2), "HP:0000007"));
+        }
+        setDisorders(disorders.toArray(new SolrDocument[0]));
+
+        List<SuggestedPhenotype> result = this.service.getDifferentialPhenotypes(Arrays.asList("HP:0000003"),
+            Collections.<String>emptyList(), 10);
+
+        Assert.assertEquals(3, result.size());
+        for (String id : Arrays.asList("HP:0000003", "HP:0000004", "HP:0000005", "HP:0000006", "HP:0000007")) {
+            verify(this.hpo, atMost(1)).getAllAncestorsAndSelfIDs(id);
+        }
+    }
+
+    private void setDisorders(SolrDocument... disorders)
+    {
+        SolrDocumentList results = new SolrDocumentList();
+        results.addAll(Arrays.asList(disorders));
+        results.setNumFound(disorders.length);
+        when(this.response.getResults()).thenReturn(results);
+    }
+
+    private SolrDocument disorder(String id, float score, String... symptoms)
+    {
+        SolrDocument result = new SolrDocument();
+        result.setField("id", id);
+        result.setField("score", score);
+        for (String symptom : symptoms) {
+            result.addField("actual_symptom", symptom);
+        }
+        return result;
+    }
+}
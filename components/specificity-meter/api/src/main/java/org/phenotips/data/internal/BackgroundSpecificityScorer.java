@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientSpecificity;
+import org.phenotips.data.PatientSpecificityService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Scores one patient and stores its specificity using the {@link SpecificityRecorder}, from a background thread, in a
+ * copy of the execution context of the request which asked for the score.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = BackgroundSpecificityScorer.class)
+@Singleton
+public class BackgroundSpecificityScorer
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private PatientSpecificityService service;
+
+    @Inject
+    private SpecificityRecorder recorder;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    /**
+     * Clones the current execution context, so that it can be used in a background thread after the current request
+     * finishes.
+     *
+     * @return a cloned context, or {@code null} if there's no current context or it cannot be cloned
+     */
+    public ExecutionContext cloneContext()
+    {
+        return cloneContext(this.execution.getContext());
+    }
+
+    /**
+     * Clones an execution context, so that each background task works in its own copy.
+     *
+     * @param source the context to clone, may be {@code null}
+     * @return a cloned context, or {@code null} if the source context is {@code null} or it cannot be cloned
+     */
+    public ExecutionContext cloneContext(ExecutionContext source)
+    {
+        if (source == null) {
+            return null;
+        }
+        try {
+            return this.contextManager.clone(source);
+        } catch (ExecutionContextException ex) {
+            this.logger.warn("Failed to clone the execution context: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Scores a patient and stores the computed specificity in the patient record.
+     *
+     * @param context the execution context to score in, as returned by {@link #cloneContext()}; if {@code null}, the
+     *            current context of the calling thread is used
+     * @param patient the patient to score
+     * @return {@code true} if the score was computed and stored, {@code false} otherwise
+     */
+    public boolean score(ExecutionContext context, Patient patient)
+    {
+        if (context != null) {
+            this.execution.setContext(context);
+        }
+        try {
+            PatientSpecificity spec = this.service.getSpecificity(patient);
+            return spec != null && this.recorder.record(patient, spec);
+        } catch (Exception ex) {
+            this.logger.error("Failed to score patient [{}]: {}", patient.getDocument(), ex.getMessage());
+            return false;
+        } finally {
+            if (context != null) {
+                this.execution.removeContext();
+            }
+        }
+    }
+}
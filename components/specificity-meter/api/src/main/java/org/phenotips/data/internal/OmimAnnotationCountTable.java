@@ -0,0 +1,397 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Precomputed number of OMIM disorders annotated with each HPO phenotype. Since the OMIM index already propagates
+ * phenotype annotations to all the ancestors of each phenotype, the count for a term includes the disorders annotated
+ * with any of its descendants. The table is computed once by reading the whole OMIM index, stored on disk so that it
+ * survives restarts, and recomputed in the background when a {@link VocabularyReindexedEvent} announces that either
+ * OMIM or HPO were reindexed. A stored table is also recomputed at startup if the vocabulary versions changed.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = OmimAnnotationCountTable.class)
+@Singleton
+public class OmimAnnotationCountTable implements Initializable, Disposable, EventListener
+{
+    /** The root of the HPO phenotypic abnormalities, annotated on all the disorders with a phenotype. */
+    public static final String ROOT = "HP:0000001";
+
+    private static final String SEARCH_FOR = "symptom";
+
+    private static final String HPO_PREFIX = "HP:";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int PAGE_SIZE = 1000;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("omim")
+    private Vocabulary omim;
+
+    @Inject
+    @Named("hpo")
+    private Vocabulary hpo;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private VocabularyVersionRegistry versions;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The current table, {@code null} while a valid table isn't available. */
+    private volatile CountTable table;
+
+    /** Counts reindexing events, so that a table computed from an index being reindexed is never published. */
+    private int generation;
+
+    /** Guards {@link #generation} and the publication of new tables. */
+    private final Object lock = new Object();
+
+    /** Set while a rebuild is queued but not started yet, so that several events only queue one more rebuild. */
+    private final AtomicBoolean rebuildQueued = new AtomicBoolean();
+
+    /** Rebuilds the table one time after another, never concurrently. */
+    private ExecutorService executor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("OMIM annotation counts"));
+        this.observationManager.addListener(this);
+        CountTable stored = read(getStorageFile());
+        if (stored != null && stored.signature.equals(getSignature())) {
+            this.table = stored;
+        } else {
+            scheduleRebuild();
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Checks if the precomputed counts are available. They aren't available until they are first computed, and while
+     * they are recomputed after the vocabularies are reindexed.
+     *
+     * @return {@code true} if {@link #getCount(String)} can be used, {@code false} if the OMIM index must be queried
+     *         directly
+     */
+    public boolean isAvailable()
+    {
+        return this.table != null;
+    }
+
+    /**
+     * Returns the number of OMIM disorders annotated with a phenotype or with any of its descendants.
+     *
+     * @param termId the HPO identifier of the phenotype, for example {@code HP:0001250}
+     * @return the number of annotated disorders, or {@code -1} if the precomputed table isn't available yet, or the
+     *         identifier isn't a valid HPO identifier, in which case the OMIM index must be queried directly
+     */
+    public long getCount(String termId)
+    {
+        CountTable current = this.table;
+        int key = toKey(termId);
+        if (current == null || key <= 0) {
+            return -1;
+        }
+        return current.get(key);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "omim-annotation-count-table";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new VocabularyReindexedEvent(this.omim.getIdentifier()),
+            new VocabularyReindexedEvent(this.hpo.getIdentifier()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        synchronized (this.lock) {
+            ++this.generation;
+            this.table = null;
+        }
+        scheduleRebuild();
+    }
+
+    private void scheduleRebuild()
+    {
+        if (this.rebuildQueued.compareAndSet(false, true)) {
+            this.executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    OmimAnnotationCountTable.this.rebuildQueued.set(false);
+                    rebuild();
+                }
+            });
+        }
+    }
+
+    private void rebuild()
+    {
+        int startGeneration;
+        synchronized (this.lock) {
+            startGeneration = this.generation;
+        }
+        String signature = getSignature();
+        this.logger.debug("Computing the OMIM annotation counts for [{}]", signature);
+        Map<Integer, int[]> counts = new HashMap<>();
+        Map<String, String> options = new HashMap<>();
+        options.put("fl", "id " + SEARCH_FOR);
+        options.put("rows", String.valueOf(PAGE_SIZE));
+        options.put("sort", "id asc");
+        options.put("spellcheck", Boolean.toString(false));
+        int start = 0;
+        List<VocabularyTerm> page;
+        do {
+            options.put("start", String.valueOf(start));
+            page = this.omim.search(Collections.singletonMap(SEARCH_FOR, ROOT), options);
+            for (VocabularyTerm disorder : page) {
+                countAnnotations(disorder.get(SEARCH_FOR), counts);
+            }
+            start += page.size();
+        } while (page.size() == PAGE_SIZE);
+
+        CountTable result = new CountTable(signature, counts);
+        synchronized (this.lock) {
+            if (this.generation != startGeneration) {
+                // The vocabularies were reindexed meanwhile, a new rebuild is already queued
+                return;
+            }
+            write(result, getStorageFile());
+            this.table = result;
+        }
+        this.logger.info("Computed the annotation counts of [{}] phenotypes from [{}] OMIM disorders", result.size,
+            start);
+    }
+
+    private void countAnnotations(Object annotations, Map<Integer, int[]> counts)
+    {
+        if (annotations == null) {
+            return;
+        }
+        Collection<?> values =
+            annotations instanceof Collection ? (Collection<?>) annotations : Collections.singleton(annotations);
+        for (Object value : values) {
+            int key = toKey(String.valueOf(value));
+            if (key > 0) {
+                int[] count = counts.get(key);
+                if (count == null) {
+                    counts.put(key, new int[] { 1 });
+                } else {
+                    ++count[0];
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies the indexed vocabulary versions, as known by the {@link VocabularyVersionRegistry}, without querying
+     * the indexes.
+     *
+     * @return a short identifier of the current indexes
+     */
+    private String getSignature()
+    {
+        return this.versions.getVersion(this.omim) + '/' + this.versions.getVersion(this.hpo);
+    }
+
+    private File getStorageFile()
+    {
+        return new File(new File(this.environment.getPermanentDirectory(), "specificity"), "omim-annotations.bin");
+    }
+
+    private CountTable read(File file)
+    {
+        if (!file.canRead()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String signature = in.readUTF();
+            int size = in.readInt();
+            CountTable result = new CountTable(signature, size);
+            for (int i = 0; i < size; ++i) {
+                result.put(in.readInt(), in.readInt());
+            }
+            return result;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the stored OMIM annotation counts: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private void write(CountTable table, File file)
+    {
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(table.signature);
+            out.writeInt(table.size);
+            for (int i = 0; i < table.keys.length; ++i) {
+                if (table.keys[i] != 0) {
+                    out.writeInt(table.keys[i]);
+                    out.writeInt(table.values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            this.logger.warn("Failed to store the OMIM annotation counts: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Converts an HPO identifier into its numeric part, used as the key in the table.
+     *
+     * @param termId an identifier like {@code HP:0001250}
+     * @return the numeric part of the identifier, for example {@code 1250}, or {@code 0} if the identifier isn't a
+     *         valid HPO identifier
+     */
+    private static int toKey(String termId)
+    {
+        if (termId == null || !termId.startsWith(HPO_PREFIX)) {
+            return 0;
+        }
+        String number = termId.substring(HPO_PREFIX.length());
+        if (!StringUtils.isNumeric(number) || number.isEmpty() || number.length() > 9) {
+            return 0;
+        }
+        return Integer.parseInt(number);
+    }
+
+    /**
+     * Compact open addressing hash table from positive {@code int} keys to {@code int} counts, avoiding the memory
+     * overhead of boxed map entries. Not modified once published.
+     */
+    private static final class CountTable
+    {
+        private final String signature;
+
+        private final int[] keys;
+
+        private final int[] values;
+
+        private final int mask;
+
+        private int size;
+
+        CountTable(String signature, int expectedSize)
+        {
+            this.signature = signature;
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+            this.keys = new int[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        CountTable(String signature, Map<Integer, int[]> counts)
+        {
+            this(signature, counts.size());
+            for (Map.Entry<Integer, int[]> count : counts.entrySet()) {
+                put(count.getKey(), count.getValue()[0]);
+            }
+        }
+
+        void put(int key, int value)
+        {
+            int i = slot(key);
+            if (this.keys[i] == 0) {
+                this.keys[i] = key;
+                ++this.size;
+            }
+            this.values[i] = value;
+        }
+
+        int get(int key)
+        {
+            int i = slot(key);
+            return this.keys[i] == key ? this.values[i] : 0;
+        }
+
+        private int slot(int key)
+        {
+            int i = (key * 0x9E3779B9) & this.mask;
+            while (this.keys[i] != 0 && this.keys[i] != key) {
+                i = (i + 1) & this.mask;
+            }
+            return i;
+        }
+    }
+}
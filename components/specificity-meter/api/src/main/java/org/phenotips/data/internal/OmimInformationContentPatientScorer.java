@@ -67,13 +67,17 @@ public class OmimInformationContentPatientScorer implements PatientScorer, Initi
     @Named("hpo")
     private Vocabulary hpo;
 
+    /** Precomputed phenotype annotation counts, used instead of querying OMIM for each phenotype. */
+    @Inject
+    private OmimAnnotationCountTable counts;
+
     /** The total information present in OMIM that is reachable through phenotypes. */
     private double totalTerms;
 
     @Override
     public void initialize() throws InitializationException
     {
-        this.totalTerms = this.omim.count(Collections.singletonMap(SEARCH_FOR, "HP:0000001"));
+        this.totalTerms = this.omim.count(Collections.singletonMap(SEARCH_FOR, OmimAnnotationCountTable.ROOT));
     }
 
     @Override
@@ -86,8 +90,9 @@ public PatientSpecificity getSpecificity(Patient patient)
     @Override
     public double getScore(Patient patient)
     {
-        Pair<Double, Integer> symptomsScore = process(patient, true);
-        Pair<Double, Integer> negativeSymptomsScore = process(patient, false);
+        double total = getTotalTerms();
+        Pair<Double, Integer> symptomsScore = process(patient, true, total);
+        Pair<Double, Integer> negativeSymptomsScore = process(patient, false, total);
         double score = 0;
 
         if (symptomsScore.getRight() + negativeSymptomsScore.getRight() > 0) {
@@ -102,15 +107,16 @@ public double getScore(Patient patient)
      * @param p the patient profile to score
      * @param presentFeatures whether the score for positive ({@code true}) or negative ({@code false}) features is
      *            computed
+     * @param total the total number of disorders reachable through phenotypes
      * @return the score (information content) and the number of features
      */
-    private Pair<Double, Integer> process(Patient p, boolean presentFeatures)
+    private Pair<Double, Integer> process(Patient p, boolean presentFeatures, double total)
     {
         double score = 0;
         int count = 0;
         for (Feature f : p.getFeatures()) {
             if (StringUtils.isNotEmpty(f.getId()) && f.isPresent() == presentFeatures) {
-                score += informationContent(f);
+                score += informationContent(f, total);
                 count++;
             }
         }
@@ -123,12 +129,13 @@ private Pair<Double, Integer> process(Patient p, boolean presentFeatures)
      * nearest represented ancestor is considered, with a slight boost for even more specificity.
      *
      * @param f the target feature to measure
+     * @param total the total number of disorders reachable through phenotypes
      * @return the information content captured by this term
      */
-    private double informationContent(Feature f)
+    private double informationContent(Feature f, double total)
     {
         String toSearch = f.getId();
-        double ic = informationContent(this.omim.count(Collections.singletonMap(SEARCH_FOR, toSearch)));
+        double ic = informationContent(count(toSearch), total);
         int i = 0;
 
         while (ic == 0 && ++i < 5) {
@@ -141,7 +148,7 @@ private double informationContent(Feature f)
                 break;
             }
             toSearch = parents.iterator().next().getId();
-            ic = informationContent(this.omim.count(Collections.singletonMap(SEARCH_FOR, toSearch)));
+            ic = informationContent(count(toSearch), total);
         }
         return ic * (1 + i / 5);
     }
@@ -150,11 +157,31 @@ private double informationContent(Feature f)
      * How much information is contained in {@code n} terms out of the whole ontology?
      *
      * @param n the number of selected terms
+     * @param total the total number of terms
      * @return the information content captured by the selected terms
      */
-    private double informationContent(long n)
+    private double informationContent(long n, double total)
+    {
+        return n == 0 ? 0 : -Math.log((n * 1.0) / total) / Math.log(2);
+    }
+
+    /**
+     * How many OMIM disorders are annotated with a phenotype? The precomputed counts are used when available, otherwise
+     * the OMIM index is queried.
+     *
+     * @param termId the HPO identifier of the phenotype
+     * @return the number of annotated disorders
+     */
+    private long count(String termId)
+    {
+        long count = this.counts.isAvailable() ? this.counts.getCount(termId) : -1;
+        return count >= 0 ? count : this.omim.count(Collections.singletonMap(SEARCH_FOR, termId));
+    }
+
+    private double getTotalTerms()
     {
-        return n == 0 ? 0 : -Math.log((n * 1.0) / this.totalTerms) / Math.log(2);
+        long total = this.counts.isAvailable() ? this.counts.getCount(OmimAnnotationCountTable.ROOT) : -1;
+        return total > 0 ? total : this.totalTerms;
     }
 
     private Date now()
@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.ExecutionContext;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Rescores many patients in the background, with a bounded number of concurrent requests to the scoring services.
+ * Bulk rescoring jobs run on their own thread, so that a long job never delays the scoring of patients which just
+ * changed, done by the {@link SpecificityScoringWorker}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = SpecificityBulkRescorer.class)
+@Singleton
+public class SpecificityBulkRescorer implements Initializable, Disposable
+{
+    private static final String THREAD_NAME = "PhenoTips specificity rescoring";
+
+    private static final int DEFAULT_BULK_CONCURRENCY = 4;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private BackgroundSpecificityScorer scorer;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Runs the scheduled bulk rescoring jobs, one at a time. */
+    private ExecutorService executor;
+
+    /** How many patients can be scored at the same time by a bulk rescoring job. */
+    private int bulkConcurrency;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Integer configured = this.configuration.getProperty("phenotips.patientScoring.bulkConcurrency", Integer.class);
+        this.bulkConcurrency = configured == null ? DEFAULT_BULK_CONCURRENCY : Math.max(1, configured);
+        this.executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory(THREAD_NAME));
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Schedules the bulk rescoring of many patients in the background.
+     *
+     * @param patients the patients to rescore
+     * @see #rescore(Iterator)
+     */
+    public void scheduleRescoring(final Iterator<Patient> patients)
+    {
+        final ExecutionContext context = this.scorer.cloneContext();
+        this.executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int scored = rescore(patients, context);
+                SpecificityBulkRescorer.this.logger.info("Rescored [{}] patients", scored);
+            }
+        });
+    }
+
+    /**
+     * Scores and stores the specificity of all the given patients, waiting until all the patients are processed. At
+     * most {@code phenotips.patientScoring.bulkConcurrency} patients are scored at the same time, and patients are only
+     * retrieved from the iterator as processing slots become available.
+     *
+     * @param patients the patients to rescore
+     * @return the number of patients successfully scored
+     */
+    public int rescore(Iterator<Patient> patients)
+    {
+        return rescore(patients, this.scorer.cloneContext());
+    }
+
+    /**
+     * Scores the given patients, each one in its own copy of the given context.
+     *
+     * @param patients the patients to rescore
+     * @param baseContext the context of the request which asked for the rescoring, may be {@code null}
+     * @return the number of patients successfully scored
+     */
+    private int rescore(Iterator<Patient> patients, ExecutionContext baseContext)
+    {
+        final AtomicInteger scored = new AtomicInteger();
+        final Semaphore slots = new Semaphore(this.bulkConcurrency);
+        ExecutorService pool =
+            Executors.newFixedThreadPool(this.bulkConcurrency, new DaemonThreadFactory(THREAD_NAME + " (bulk)"));
+        try {
+            while (patients.hasNext()) {
+                final Patient patient = patients.next();
+                if (patient == null) {
+                    continue;
+                }
+                slots.acquire();
+                final ExecutionContext context = this.scorer.cloneContext(baseContext);
+                pool.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            if (SpecificityBulkRescorer.this.scorer.score(context, patient)) {
+                                scored.incrementAndGet();
+                            }
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            // wait for all the running tasks to finish
+            slots.acquire(this.bulkConcurrency);
+        } catch (InterruptedException ex) {
+            this.logger.warn("Bulk rescoring interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        return scored.get();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.Constants;
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientSpecificity;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Stores the computed patient specificity in the patient record, in an object of type
+ * {@code PhenoTips.SpecificityClass}, along with a digest of the phenotypic profile that was scored, so that the score
+ * can be served without recomputing it, and recomputed only when the profile changes.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = SpecificityRecorder.class)
+@Singleton
+public class SpecificityRecorder
+{
+    /** The XClass used for storing the specificity score. */
+    public static final EntityReference CLASS_REFERENCE = new EntityReference("SpecificityClass",
+        EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
+    private static final String SCORE = "score";
+
+    private static final String DATE = "date";
+
+    private static final String SERVER = "server";
+
+    private static final String PROFILE = "profile";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Returns the last specificity score stored in the patient record.
+     *
+     * @param patient the patient whose score is requested
+     * @return the stored specificity, or {@code null} if the patient was never scored
+     */
+    public PatientSpecificity getStoredSpecificity(Patient patient)
+    {
+        try {
+            return read((XWikiDocument) this.bridge.getDocument(patient.getDocument()));
+        } catch (Exception ex) {
+            this.logger.error("Failed to read the specificity of patient [{}]: {}", patient.getDocument(),
+                ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the specificity score stored in a patient document.
+     *
+     * @param doc the patient document
+     * @return the stored specificity, or {@code null} if the patient was never scored
+     */
+    public PatientSpecificity read(XWikiDocument doc)
+    {
+        BaseObject specificity = doc.getXObject(CLASS_REFERENCE);
+        if (specificity == null) {
+            return null;
+        }
+        Date date = specificity.getDateValue(DATE);
+        if (date == null) {
+            return null;
+        }
+        return new PatientSpecificity(specificity.getDoubleValue(SCORE), date, specificity.getStringValue(SERVER));
+    }
+
+    /**
+     * Checks if the score stored in the patient document was computed for the current phenotypic profile of the
+     * patient.
+     *
+     * @param patient the current version of the patient
+     * @param doc the patient document
+     * @return {@code true} if the stored score is still valid, {@code false} if the patient was never scored, or if its
+     *         profile changed since it was last scored
+     */
+    public boolean isUpToDate(Patient patient, XWikiDocument doc)
+    {
+        BaseObject specificity = doc.getXObject(CLASS_REFERENCE);
+        return specificity != null && StringUtils.equals(specificity.getStringValue(PROFILE), getProfile(patient));
+    }
+
+    /**
+     * Stores a specificity score in the patient record, and saves the record as a minor edit. The score is derived
+     * data, recorded in the background, so the record keeps its last author instead of being attributed to the user
+     * whose request triggered the scoring.
+     *
+     * @param patient the patient that was scored
+     * @param spec the computed specificity
+     * @return {@code true} if the score was successfully saved, {@code false} otherwise
+     */
+    public boolean record(Patient patient, PatientSpecificity spec)
+    {
+        try {
+            XWikiContext context = this.xcontextProvider.get();
+            XWikiDocument original = context.getWiki().getDocument(patient.getDocument(), context);
+            XWikiDocument doc = original.clone();
+            BaseObject specificity = doc.getXObject(CLASS_REFERENCE, true, context);
+            specificity.setDoubleValue(SCORE, spec.getScore());
+            specificity.setDateValue(DATE, spec.getComputationDate());
+            specificity.setStringValue(SERVER, spec.getComputingMethod());
+            specificity.setStringValue(PROFILE, getProfile(patient));
+            doc.setAuthorReference(original.getAuthorReference());
+            doc.setContentAuthorReference(original.getContentAuthorReference());
+            context.getWiki().saveDocument(doc, "Updated specificity score", true, context);
+            return true;
+        } catch (Exception ex) {
+            this.logger.error("Failed to store the specificity of patient [{}]: {}", patient.getDocument(),
+                ex.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Computes a digest of the phenotypic profile of a patient, i.e. of its positive and negative features, which
+     * changes whenever the patient's specificity needs to be recomputed.
+     *
+     * @param patient the patient to process
+     * @return a short digest
+     */
+    public String getProfile(Patient patient)
+    {
+        StringBuilder result = new StringBuilder();
+        for (Feature f : patient.getFeatures()) {
+            if (StringUtils.isNotEmpty(f.getId())) {
+                if (!f.isPresent()) {
+                    result.append('-');
+                }
+                result.append(f.getId()).append(' ');
+            }
+        }
+        return DigestUtils.sha1Hex(result.toString());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Monitors patient changes and submits the patients whose phenotypic profile changed to the
+ * {@link SpecificityScoringWorker background scorer}. Saving the new score changes the patient again, but since the
+ * stored score then matches the current profile, this doesn't trigger another scoring.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("specificity-score-updater")
+@Singleton
+public class SpecificityScoreUpdater extends AbstractEventListener
+{
+    @Inject
+    private SpecificityRecorder recorder;
+
+    @Inject
+    private SpecificityScoringWorker worker;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public SpecificityScoreUpdater()
+    {
+        super("specificity-score-updater", new PatientChangedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        Patient patient = ((PatientChangedEvent) event).getPatient();
+        if (patient == null || !(source instanceof XWikiDocument)) {
+            return;
+        }
+        if (!this.recorder.isUpToDate(patient, (XWikiDocument) source)) {
+            this.worker.schedule(patient);
+        }
+    }
+}
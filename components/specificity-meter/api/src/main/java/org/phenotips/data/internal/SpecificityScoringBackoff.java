@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Remembers the patients whose scoring failed, so that they aren't scored again every time they are loaded. After a
+ * failure, a patient can be scored again after a delay which doubles after each failure, from one minute up to one day.
+ * At most 10000 failing patients are remembered, and patients which aren't loaded for two days are
+ * forgotten.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = SpecificityScoringBackoff.class)
+@Singleton
+public class SpecificityScoringBackoff implements Initializable
+{
+    /** How many failing patients are remembered at most. */
+    private static final int MAX_TRACKED_PATIENTS = 10000;
+
+    /** How long to wait before trying again to score a patient after the first failure, in milliseconds. */
+    private static final long INITIAL_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /** The delay between retries doubles after each failure, up to this limit, in milliseconds. */
+    private static final long MAX_RETRY_DELAY = TimeUnit.DAYS.toMillis(1);
+
+    /** Failures not looked at for this long are forgotten, in seconds. */
+    private static final int MAX_IDLE = (int) TimeUnit.DAYS.toSeconds(2);
+
+    @Inject
+    private CacheManager cacheManager;
+
+    /** Patients whose last scoring failed, and when they can be scored again. */
+    private Cache<Failure> failures;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.failures = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("specificityScoringFailures", MAX_TRACKED_PATIENTS, MAX_IDLE));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the specificity scoring failures cache", ex);
+        }
+    }
+
+    /**
+     * Checks if a patient can be scored now.
+     *
+     * @param patient the patient document
+     * @return {@code false} if the last scoring of this patient failed not long ago, {@code true} otherwise
+     */
+    public boolean canRetry(DocumentReference patient)
+    {
+        Failure failure = this.failures.get(patient.toString());
+        return failure == null || System.currentTimeMillis() >= failure.retryAfter;
+    }
+
+    /**
+     * Records a failed scoring, doubling the delay before the patient can be scored again.
+     *
+     * @param patient the patient document
+     */
+    public void recordFailure(DocumentReference patient)
+    {
+        String key = patient.toString();
+        Failure previous = this.failures.get(key);
+        int attempts = previous == null ? 1 : previous.attempts + 1;
+        long delay = MAX_RETRY_DELAY;
+        // avoid overflowing the shift for patients failing for a long time
+        if (attempts < Long.SIZE - 1) {
+            delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << (attempts - 1));
+        }
+        this.failures.set(key, new Failure(attempts, System.currentTimeMillis() + delay));
+    }
+
+    /**
+     * Forgets the previous failures of a patient, for example because it was successfully scored, or because its
+     * profile changed and deserves a new attempt.
+     *
+     * @param patient the patient document
+     */
+    public void reset(DocumentReference patient)
+    {
+        this.failures.remove(patient.toString());
+    }
+
+    /** A failed scoring attempt: how many attempts failed in a row, and when the patient can be scored again. */
+    private static final class Failure
+    {
+        private final int attempts;
+
+        private final long retryAfter;
+
+        Failure(int attempts, long retryAfter)
+        {
+            this.attempts = attempts;
+            this.retryAfter = retryAfter;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Computes patient specificity scores in the background, outside of the request which changed the patient, and stores
+ * them in the patient record using the {@link BackgroundSpecificityScorer}. Patients are scored one at a time, in the
+ * order in which they changed; rescoring many patients at once is done separately, by the
+ * {@link SpecificityBulkRescorer}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = SpecificityScoringWorker.class)
+@Singleton
+public class SpecificityScoringWorker implements Initializable, Disposable
+{
+    private static final String THREAD_NAME = "PhenoTips specificity scoring";
+
+    @Inject
+    private BackgroundSpecificityScorer scorer;
+
+    @Inject
+    private SpecificityScoringBackoff backoff;
+
+    /** Scores patients one at a time, in the order in which they were changed. */
+    private ExecutorService executor;
+
+    /** Patients already waiting to be scored, used for not scoring the same patient several times in a row. */
+    private Set<DocumentReference> pending =
+        Collections.newSetFromMap(new ConcurrentHashMap<DocumentReference, Boolean>());
+
+    /** Patients being scored right now. */
+    private Set<DocumentReference> running =
+        Collections.newSetFromMap(new ConcurrentHashMap<DocumentReference, Boolean>());
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory(THREAD_NAME));
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Schedules a patient for scoring in the background, for example because its phenotypic profile changed. If the
+     * patient is already waiting to be scored, nothing happens.
+     *
+     * @param patient the patient to score
+     */
+    public void schedule(final Patient patient)
+    {
+        // a changed profile deserves a new attempt, even if scoring the previous one failed
+        this.backoff.reset(patient.getDocument());
+        enqueue(patient);
+    }
+
+    /**
+     * Schedules a patient which doesn't have a score yet for scoring in the background. Unlike
+     * {@link #schedule(Patient)}, this is meant to be called every time such a patient is loaded, so nothing happens if
+     * the patient is already waiting to be scored or being scored right now, and patients whose scoring failed are only
+     * tried again after a delay, as decided by the {@link SpecificityScoringBackoff}.
+     *
+     * @param patient the patient to score
+     */
+    public void scheduleMissingScore(Patient patient)
+    {
+        DocumentReference reference = patient.getDocument();
+        if (this.running.contains(reference) || !this.backoff.canRetry(reference)) {
+            return;
+        }
+        enqueue(patient);
+    }
+
+    private void enqueue(final Patient patient)
+    {
+        final DocumentReference reference = patient.getDocument();
+        if (!this.pending.add(reference)) {
+            return;
+        }
+        final ExecutionContext context = this.scorer.cloneContext();
+        this.executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SpecificityScoringWorker.this.running.add(reference);
+                SpecificityScoringWorker.this.pending.remove(reference);
+                try {
+                    if (SpecificityScoringWorker.this.scorer.score(context, patient)) {
+                        SpecificityScoringWorker.this.backoff.reset(reference);
+                    } else {
+                        SpecificityScoringWorker.this.backoff.recordFailure(reference);
+                    }
+                } finally {
+                    SpecificityScoringWorker.this.running.remove(reference);
+                }
+            }
+        });
+    }
+}
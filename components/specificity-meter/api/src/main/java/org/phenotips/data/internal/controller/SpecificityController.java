@@ -22,7 +22,8 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.PatientSpecificity;
-import org.phenotips.data.PatientSpecificityService;
+import org.phenotips.data.internal.SpecificityRecorder;
+import org.phenotips.data.internal.SpecificityScoringWorker;
 
 import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.component.annotation.Component;
@@ -46,8 +47,11 @@
 
 import org.json.JSONObject;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
- * Exposes the patient profile specificity.
+ * Exposes the patient profile specificity. The score is computed in the background whenever the patient's phenotypic
+ * profile changes, and stored in the patient record, so loading a patient never waits for the remote scoring services.
  *
  * @version $Id$
  * @since 1.0M12
@@ -61,9 +65,13 @@ public class SpecificityController implements PatientDataController<Object>, Ini
     /** The name of the data module exposed by this class. */
     private static final String NAME = "specificity";
 
-    /** The actual service performing the specificity computation. */
+    /** Reads the stored specificity score. */
+    @Inject
+    private SpecificityRecorder recorder;
+
+    /** Computes missing scores in the background. */
     @Inject
-    private PatientSpecificityService service;
+    private SpecificityScoringWorker worker;
 
     private DateFormat isoDateFormat;
 
@@ -77,8 +85,14 @@ public void initialize() throws InitializationException
     @Override
     public PatientData<Object> load(Patient patient)
     {
-        PatientSpecificity spec = this.service.getSpecificity(patient);
-        if (spec != null) {
+        // The patient was just loaded from its document, no need to retrieve the document again
+        DocumentModelBridge doc = patient.getXDocument();
+        PatientSpecificity spec = doc instanceof XWikiDocument ? this.recorder.read((XWikiDocument) doc)
+            : this.recorder.getStoredSpecificity(patient);
+        if (spec == null) {
+            // Never scored before, the score will be available once the background scoring finishes
+            this.worker.scheduleMissingScore(patient);
+        } else {
             Map<String, Object> data = new LinkedHashMap<String, Object>();
             data.put("score", spec.getScore());
             data.put("date", this.isoDateFormat.format(spec.getComputationDate()));
@@ -91,7 +105,7 @@ public PatientData<Object> load(Patient patient)
     @Override
     public void save(Patient patient, DocumentModelBridge doc)
     {
-        // Nothing to save, the score is always computed
+        // Nothing to save, the score is stored by the background scorer
     }
 
     @Override
@@ -124,7 +138,7 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
     @Override
     public PatientData<Object> readJSON(JSONObject json)
     {
-        // No need to read this, the score is not persisted
+        // No need to read this, the score is always computed from the phenotypic profile
         return null;
     }
 
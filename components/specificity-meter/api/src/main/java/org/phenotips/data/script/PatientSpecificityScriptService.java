@@ -24,6 +24,7 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientSpecificityService;
 
+import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -226,6 +227,12 @@ public DocumentReference getReporter()
             return null;
         }
 
+        @Override
+        public DocumentModelBridge getXDocument()
+        {
+            return null;
+        }
+
         @Override
         public Set<? extends Feature> getFeatures()
         {
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientSpecificity;
+import org.phenotips.data.PatientSpecificityService;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BackgroundSpecificityScorerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<BackgroundSpecificityScorer> mocker =
+        new MockitoComponentMockingRule<BackgroundSpecificityScorer>(BackgroundSpecificityScorer.class);
+
+    private PatientSpecificityService service;
+
+    private SpecificityRecorder recorder;
+
+    private Execution execution;
+
+    private Patient patient = mock(Patient.class);
+
+    private PatientSpecificity spec = new PatientSpecificity(0.5, new Date(), "local");
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.service = this.mocker.getInstance(PatientSpecificityService.class);
+        this.recorder = this.mocker.getInstance(SpecificityRecorder.class);
+        this.execution = this.mocker.getInstance(Execution.class);
+        when(this.patient.getDocument()).thenReturn(new DocumentReference("wiki", "data", "P0000001"));
+        when(this.recorder.record(any(Patient.class), any(PatientSpecificity.class))).thenReturn(true);
+    }
+
+    @Test
+    public void scoreComputesAndStoresTheSpecificity() throws ComponentLookupException
+    {
+        when(this.service.getSpecificity(this.patient)).thenReturn(this.spec);
+        Assert.assertTrue(this.mocker.getComponentUnderTest().score(null, this.patient));
+        Mockito.verify(this.recorder).record(this.patient, this.spec);
+        Mockito.verify(this.execution, Mockito.never()).setContext(any(ExecutionContext.class));
+    }
+
+    @Test
+    public void scoreRunsInTheGivenContext() throws ComponentLookupException
+    {
+        ExecutionContext context = mock(ExecutionContext.class);
+        when(this.service.getSpecificity(this.patient)).thenReturn(this.spec);
+        Assert.assertTrue(this.mocker.getComponentUnderTest().score(context, this.patient));
+        InOrder order = Mockito.inOrder(this.execution, this.service);
+        order.verify(this.execution).setContext(context);
+        order.verify(this.service).getSpecificity(this.patient);
+        order.verify(this.execution).removeContext();
+    }
+
+    @Test
+    public void scoreWithoutSpecificityDoesNotStoreAnything() throws ComponentLookupException
+    {
+        Assert.assertFalse(this.mocker.getComponentUnderTest().score(null, this.patient));
+        Mockito.verifyZeroInteractions(this.recorder);
+    }
+
+    @Test
+    public void scoreWithFailingScorerDoesNotStoreAnything() throws ComponentLookupException
+    {
+        ExecutionContext context = mock(ExecutionContext.class);
+        when(this.service.getSpecificity(this.patient)).thenThrow(new IllegalStateException("Service unavailable"));
+        Assert.assertFalse(this.mocker.getComponentUnderTest().score(context, this.patient));
+        Mockito.verifyZeroInteractions(this.recorder);
+        Mockito.verify(this.execution).removeContext();
+    }
+
+    @Test
+    public void cloneContextClonesTheCurrentContext() throws Exception
+    {
+        ExecutionContext current = mock(ExecutionContext.class);
+        ExecutionContext clone = mock(ExecutionContext.class);
+        when(this.execution.getContext()).thenReturn(current);
+        ExecutionContextManager contextManager = this.mocker.getInstance(ExecutionContextManager.class);
+        when(contextManager.clone(current)).thenReturn(clone);
+        Assert.assertSame(clone, this.mocker.getComponentUnderTest().cloneContext());
+    }
+
+    @Test
+    public void cloneContextReturnsNullWithoutAUsableContext() throws Exception
+    {
+        Assert.assertNull(this.mocker.getComponentUnderTest().cloneContext());
+
+        ExecutionContext current = mock(ExecutionContext.class);
+        ExecutionContextManager contextManager = this.mocker.getInstance(ExecutionContextManager.class);
+        when(contextManager.clone(current)).thenThrow(new ExecutionContextException("Failed"));
+        Assert.assertNull(this.mocker.getComponentUnderTest().cloneContext(current));
+    }
+}
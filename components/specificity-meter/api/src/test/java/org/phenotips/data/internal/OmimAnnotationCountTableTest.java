@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OmimAnnotationCountTableTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<OmimAnnotationCountTable> mocker =
+        new MockitoComponentMockingRule<OmimAnnotationCountTable>(OmimAnnotationCountTable.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Vocabulary omim;
+
+    private Vocabulary hpo;
+
+    private VocabularyVersionRegistry versions;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+
+        this.omim = this.mocker.getInstance(Vocabulary.class, "omim");
+        this.hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        when(this.omim.getIdentifier()).thenReturn("omim");
+        when(this.hpo.getIdentifier()).thenReturn("hpo");
+        this.versions = this.mocker.getInstance(VocabularyVersionRegistry.class);
+        when(this.versions.getVersion(this.omim)).thenReturn("2016-01-01");
+        when(this.versions.getVersion(this.hpo)).thenReturn("1234");
+
+        List<VocabularyTerm> disorders = Arrays.asList(
+            mockDisorder("HP:0000001", "HP:0000118", "HP:0001250"),
+            mockDisorder("HP:0000001", "HP:0000118", "HP:0001250", "HP:0001263"),
+            mockDisorder("HP:0000001", "HP:0000118"));
+        when(this.omim.search(Matchers.eq(Collections.singletonMap("symptom", "HP:0000001")),
+            Matchers.<Map<String, String>>any())).thenReturn(disorders);
+    }
+
+    @Test
+    public void countsAreComputedInTheBackground() throws Exception
+    {
+        OmimAnnotationCountTable table = this.mocker.getComponentUnderTest();
+        waitUntilAvailable(table);
+
+        Assert.assertEquals(3, table.getCount("HP:0000001"));
+        Assert.assertEquals(3, table.getCount("HP:0000118"));
+        Assert.assertEquals(2, table.getCount("HP:0001250"));
+        Assert.assertEquals(1, table.getCount("HP:0001263"));
+        Assert.assertEquals(0, table.getCount("HP:0000707"));
+        Assert.assertEquals(-1, table.getCount("MIM:123456"));
+        Assert.assertEquals(-1, table.getCount(null));
+        Assert.assertTrue(new File(this.folder.getRoot(), "specificity/omim-annotations.bin").isFile());
+    }
+
+    @Test
+    public void storedCountsAreReusedAfterRestart() throws Exception
+    {
+        waitUntilAvailable(this.mocker.getComponentUnderTest());
+
+        OmimAnnotationCountTable restarted = new OmimAnnotationCountTable();
+        ReflectionUtils.setFieldValue(restarted, "logger", this.mocker.getMockedLogger());
+        ReflectionUtils.setFieldValue(restarted, "omim", this.omim);
+        ReflectionUtils.setFieldValue(restarted, "hpo", this.hpo);
+        ReflectionUtils.setFieldValue(restarted, "environment", this.mocker.getInstance(Environment.class));
+        ReflectionUtils.setFieldValue(restarted, "versions", this.versions);
+        ReflectionUtils.setFieldValue(restarted, "observationManager",
+            this.mocker.getInstance(ObservationManager.class));
+        restarted.initialize();
+
+        Assert.assertTrue(restarted.isAvailable());
+        Assert.assertEquals(2, restarted.getCount("HP:0001250"));
+        Mockito.verify(this.omim, Mockito.times(1)).search(Matchers.<Map<String, ?>>any(),
+            Matchers.<Map<String, String>>any());
+    }
+
+    @Test
+    public void storedCountsForOtherVersionsAreRecomputed() throws Exception
+    {
+        waitUntilAvailable(this.mocker.getComponentUnderTest());
+
+        when(this.versions.getVersion(this.hpo)).thenReturn("1235");
+        OmimAnnotationCountTable restarted = new OmimAnnotationCountTable();
+        ReflectionUtils.setFieldValue(restarted, "logger", this.mocker.getMockedLogger());
+        ReflectionUtils.setFieldValue(restarted, "omim", this.omim);
+        ReflectionUtils.setFieldValue(restarted, "hpo", this.hpo);
+        ReflectionUtils.setFieldValue(restarted, "environment", this.mocker.getInstance(Environment.class));
+        ReflectionUtils.setFieldValue(restarted, "versions", this.versions);
+        ReflectionUtils.setFieldValue(restarted, "observationManager",
+            this.mocker.getInstance(ObservationManager.class));
+        restarted.initialize();
+
+        waitUntilAvailable(restarted);
+        Mockito.verify(this.omim, Mockito.times(2)).search(Matchers.<Map<String, ?>>any(),
+            Matchers.<Map<String, String>>any());
+    }
+
+    @Test
+    public void countsAreRecomputedAfterReindexing() throws Exception
+    {
+        OmimAnnotationCountTable table = this.mocker.getComponentUnderTest();
+        waitUntilAvailable(table);
+        Mockito.verify(this.mocker.getInstance(ObservationManager.class)).addListener(table);
+
+        table.onEvent(new VocabularyReindexedEvent("hpo"), this.hpo, null);
+        waitUntilAvailable(table);
+        Mockito.verify(this.omim, Mockito.times(2)).search(Matchers.<Map<String, ?>>any(),
+            Matchers.<Map<String, String>>any());
+    }
+
+    @Test
+    public void onlyOmimAndHpoReindexingIsObserved() throws Exception
+    {
+        List<Event> events = ((EventListener) this.mocker.getComponentUnderTest()).getEvents();
+        Assert.assertEquals(2, events.size());
+        Assert.assertTrue(events.get(0).matches(new VocabularyReindexedEvent("omim")));
+        Assert.assertTrue(events.get(1).matches(new VocabularyReindexedEvent("hpo")));
+        Assert.assertFalse(events.get(0).matches(new VocabularyReindexedEvent("hgnc")));
+        Assert.assertFalse(events.get(1).matches(new VocabularyReindexedEvent("hgnc")));
+    }
+
+    @Test
+    public void availabilityDoesNotQueryTheIndexes() throws Exception
+    {
+        OmimAnnotationCountTable table = this.mocker.getComponentUnderTest();
+        waitUntilAvailable(table);
+        table.isAvailable();
+        Mockito.verify(this.omim, Mockito.never()).getVersion();
+        Mockito.verify(this.hpo, Mockito.never()).getVersion();
+        Mockito.verify(this.omim, Mockito.never()).count(Matchers.<Map<String, ?>>any());
+    }
+
+    private void waitUntilAvailable(OmimAnnotationCountTable table) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && !table.isAvailable(); ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(table.isAvailable());
+    }
+
+    private VocabularyTerm mockDisorder(String... symptoms)
+    {
+        VocabularyTerm disorder = mock(VocabularyTerm.class);
+        when(disorder.get("symptom")).thenReturn(Arrays.asList(symptoms));
+        return disorder;
+    }
+}
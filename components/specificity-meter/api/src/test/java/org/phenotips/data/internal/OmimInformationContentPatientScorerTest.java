@@ -109,6 +109,24 @@ public void getScoreUsesInformationContent() throws Exception
         Assert.assertEquals(0.56, score, 0.01);
     }
 
+    @Test
+    public void getScoreUsesPrecomputedCountsWhenAvailable() throws Exception
+    {
+        OmimAnnotationCountTable counts = this.mocker.getInstance(OmimAnnotationCountTable.class);
+        when(counts.isAvailable()).thenReturn(true);
+        when(counts.getCount("HP:0000001")).thenReturn(60L);
+        when(counts.getCount("HP:1")).thenReturn(3L);
+        when(counts.getCount("HP:2")).thenReturn(1L);
+        when(counts.getCount("HP:3")).thenReturn(0L);
+        when(counts.getCount("HP:4")).thenReturn(2L);
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+        Mockito.reset(this.omim);
+
+        double score = this.mocker.getComponentUnderTest().getScore(this.patient);
+        Assert.assertEquals(0.56, score, 0.01);
+        Mockito.verifyZeroInteractions(this.omim);
+    }
+
     @Test
     public void getSpecificityWithNoFeaturesReturns0() throws ComponentLookupException
     {
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpecificityBulkRescorerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SpecificityBulkRescorer> mocker =
+        new MockitoComponentMockingRule<SpecificityBulkRescorer>(SpecificityBulkRescorer.class);
+
+    private BackgroundSpecificityScorer scorer;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.scorer = this.mocker.getInstance(BackgroundSpecificityScorer.class);
+        when(this.scorer.score(any(ExecutionContext.class), any(Patient.class))).thenReturn(true);
+    }
+
+    @Test
+    public void rescoreScoresAllPatientsWithBoundedConcurrency() throws Exception
+    {
+        ReflectionUtils.setFieldValue(this.mocker.getComponentUnderTest(), "bulkConcurrency", 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        // A local stub scorer which takes a while to answer, just like the remote scoring services
+        when(this.scorer.score(any(ExecutionContext.class), any(Patient.class))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return true;
+            }
+        });
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            patients.add(mockPatient(i));
+        }
+
+        Assert.assertEquals(10, this.mocker.getComponentUnderTest().rescore(patients.iterator()));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        for (Patient patient : patients) {
+            Mockito.verify(this.scorer).score(any(ExecutionContext.class), eq(patient));
+        }
+    }
+
+    @Test
+    public void rescoreCountsOnlyStoredScores() throws ComponentLookupException
+    {
+        Patient scored = mockPatient(1);
+        Patient unscored = mockPatient(2);
+        when(this.scorer.score(any(ExecutionContext.class), eq(unscored))).thenReturn(false);
+        List<Patient> patients = new ArrayList<>();
+        patients.add(scored);
+        patients.add(null);
+        patients.add(unscored);
+
+        Assert.assertEquals(1, this.mocker.getComponentUnderTest().rescore(patients.iterator()));
+        Mockito.verify(this.scorer).score(any(ExecutionContext.class), eq(scored));
+        Mockito.verify(this.scorer).score(any(ExecutionContext.class), eq(unscored));
+    }
+
+    @Test
+    public void rescoreWithNoPatientsDoesNothing() throws ComponentLookupException
+    {
+        Assert.assertEquals(0, this.mocker.getComponentUnderTest().rescore(Collections.<Patient>emptyIterator()));
+        Mockito.verify(this.scorer, Mockito.never()).score(any(ExecutionContext.class), any(Patient.class));
+    }
+
+    @Test
+    public void scheduleRescoringScoresEachPatientInACopyOfTheCallerContext() throws ComponentLookupException
+    {
+        ExecutionContext callerContext = mock(ExecutionContext.class);
+        ExecutionContext patientContext = mock(ExecutionContext.class);
+        when(this.scorer.cloneContext()).thenReturn(callerContext);
+        when(this.scorer.cloneContext(callerContext)).thenReturn(patientContext);
+        Patient patient = mockPatient(1);
+
+        this.mocker.getComponentUnderTest().scheduleRescoring(Collections.singletonList(patient).iterator());
+
+        Mockito.verify(this.scorer, Mockito.timeout(5000)).score(patientContext, patient);
+    }
+
+    private Patient mockPatient(int id)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getDocument()).thenReturn(new DocumentReference("wiki", "data", "P000000" + id));
+        return patient;
+    }
+}
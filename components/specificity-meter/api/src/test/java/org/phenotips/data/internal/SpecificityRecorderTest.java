@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientSpecificity;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpecificityRecorderTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SpecificityRecorder> mocker =
+        new MockitoComponentMockingRule<SpecificityRecorder>(SpecificityRecorder.class);
+
+    private DocumentReference patientReference = new DocumentReference("wiki", "data", "P0000001");
+
+    private Patient patient = mock(Patient.class);
+
+    private XWikiDocument doc = mock(XWikiDocument.class);
+
+    private BaseObject specificity = mock(BaseObject.class);
+
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private Set<Feature> features = new LinkedHashSet<>();
+
+    private Date date = new Date();
+
+    @Before
+    public void setup() throws Exception
+    {
+        when(this.patient.getDocument()).thenReturn(this.patientReference);
+        Feature feature = mock(Feature.class);
+        when(feature.getId()).thenReturn("HP:1");
+        when(feature.isPresent()).thenReturn(true);
+        this.features.add(feature);
+        feature = mock(Feature.class);
+        when(feature.getId()).thenReturn("HP:2");
+        when(feature.isPresent()).thenReturn(false);
+        this.features.add(feature);
+        Mockito.doReturn(this.features).when(this.patient).getFeatures();
+
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getDocument(this.patientReference)).thenReturn(this.doc);
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(this.context);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+
+        when(this.specificity.getDoubleValue("score")).thenReturn(0.25);
+        when(this.specificity.getDateValue("date")).thenReturn(this.date);
+        when(this.specificity.getStringValue("server")).thenReturn("monarchinitiative.org");
+    }
+
+    @Test
+    public void getStoredSpecificityReadsTheStoredScore() throws ComponentLookupException
+    {
+        when(this.doc.getXObject(SpecificityRecorder.CLASS_REFERENCE)).thenReturn(this.specificity);
+        PatientSpecificity result = this.mocker.getComponentUnderTest().getStoredSpecificity(this.patient);
+        Assert.assertEquals(0.25, result.getScore(), 0.0);
+        Assert.assertEquals(this.date, result.getComputationDate());
+        Assert.assertEquals("monarchinitiative.org", result.getComputingMethod());
+    }
+
+    @Test
+    public void getStoredSpecificityWithNoScoreReturnsNull() throws ComponentLookupException
+    {
+        Assert.assertNull(this.mocker.getComponentUnderTest().getStoredSpecificity(this.patient));
+        when(this.doc.getXObject(SpecificityRecorder.CLASS_REFERENCE)).thenReturn(this.specificity);
+        when(this.specificity.getDateValue("date")).thenReturn(null);
+        Assert.assertNull(this.mocker.getComponentUnderTest().getStoredSpecificity(this.patient));
+    }
+
+    @Test
+    public void getStoredSpecificityWithExceptionReturnsNull() throws Exception
+    {
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getDocument(this.patientReference)).thenThrow(new Exception());
+        Assert.assertNull(this.mocker.getComponentUnderTest().getStoredSpecificity(this.patient));
+    }
+
+    @Test
+    public void isUpToDateComparesProfiles() throws ComponentLookupException
+    {
+        SpecificityRecorder recorder = this.mocker.getComponentUnderTest();
+        Assert.assertFalse(recorder.isUpToDate(this.patient, this.doc));
+
+        when(this.doc.getXObject(SpecificityRecorder.CLASS_REFERENCE)).thenReturn(this.specificity);
+        when(this.specificity.getStringValue("profile")).thenReturn(recorder.getProfile(this.patient));
+        Assert.assertTrue(recorder.isUpToDate(this.patient, this.doc));
+
+        Feature feature = mock(Feature.class);
+        when(feature.getId()).thenReturn("HP:3");
+        when(feature.isPresent()).thenReturn(true);
+        this.features.add(feature);
+        Assert.assertFalse(recorder.isUpToDate(this.patient, this.doc));
+    }
+
+    @Test
+    public void getProfileDistinguishesNegativeFeatures() throws ComponentLookupException
+    {
+        SpecificityRecorder recorder = this.mocker.getComponentUnderTest();
+        String profile = recorder.getProfile(this.patient);
+        Feature feature = this.features.iterator().next();
+        when(feature.isPresent()).thenReturn(false);
+        Assert.assertNotEquals(profile, recorder.getProfile(this.patient));
+    }
+
+    @Test
+    public void recordStoresScoreAndProfile() throws Exception
+    {
+        XWikiDocument clone = mock(XWikiDocument.class);
+        when(this.xwiki.getDocument(this.patientReference, this.context)).thenReturn(this.doc);
+        when(this.doc.clone()).thenReturn(clone);
+        when(clone.getXObject(SpecificityRecorder.CLASS_REFERENCE, true, this.context)).thenReturn(this.specificity);
+        DocumentReference author = new DocumentReference("wiki", "XWiki", "Author");
+        when(this.doc.getAuthorReference()).thenReturn(author);
+        when(this.doc.getContentAuthorReference()).thenReturn(author);
+
+        SpecificityRecorder recorder = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(recorder.record(this.patient, new PatientSpecificity(0.5, this.date, "local")));
+
+        Mockito.verify(this.specificity).setDoubleValue("score", 0.5);
+        Mockito.verify(this.specificity).setDateValue("date", this.date);
+        Mockito.verify(this.specificity).setStringValue("server", "local");
+        Mockito.verify(this.specificity).setStringValue("profile", recorder.getProfile(this.patient));
+        Mockito.verify(clone).setAuthorReference(author);
+        Mockito.verify(clone).setContentAuthorReference(author);
+        Mockito.verify(this.xwiki).saveDocument(clone, "Updated specificity score", true, this.context);
+    }
+
+    @Test
+    public void recordWithExceptionReturnsFalse() throws Exception
+    {
+        when(this.xwiki.getDocument(this.patientReference, this.context)).thenThrow(new XWikiException());
+        Assert.assertFalse(
+            this.mocker.getComponentUnderTest().record(this.patient, new PatientSpecificity(0.5, this.date, "local")));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpecificityScoreUpdaterTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(SpecificityScoreUpdater.class);
+
+    private SpecificityRecorder recorder;
+
+    private SpecificityScoringWorker worker;
+
+    private Patient patient = mock(Patient.class);
+
+    private XWikiDocument doc = mock(XWikiDocument.class);
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.recorder = this.mocker.getInstance(SpecificityRecorder.class);
+        this.worker = this.mocker.getInstance(SpecificityScoringWorker.class);
+    }
+
+    @Test
+    public void changedProfileIsScheduledForScoring() throws ComponentLookupException
+    {
+        when(this.recorder.isUpToDate(this.patient, this.doc)).thenReturn(false);
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangedEvent(this.patient, null), this.doc, null);
+        Mockito.verify(this.worker).schedule(this.patient);
+    }
+
+    @Test
+    public void unchangedProfileIsNotScoredAgain() throws ComponentLookupException
+    {
+        when(this.recorder.isUpToDate(this.patient, this.doc)).thenReturn(true);
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangedEvent(this.patient, null), this.doc, null);
+        Mockito.verifyZeroInteractions(this.worker);
+    }
+
+    @Test
+    public void missingPatientIsIgnored() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangedEvent(null, null), this.doc, null);
+        Mockito.verifyZeroInteractions(this.recorder, this.worker);
+    }
+
+    @Test
+    public void listensOnlyToPatientChanges() throws ComponentLookupException
+    {
+        Assert.assertEquals("specificity-score-updater", this.mocker.getComponentUnderTest().getName());
+        Assert.assertEquals(1, this.mocker.getComponentUnderTest().getEvents().size());
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getEvents().get(0).matches(
+            new PatientChangedEvent(this.patient, null)));
+        Assert.assertFalse(this.mocker.getComponentUnderTest().getEvents().get(0).matches(
+            new PatientDeletedEvent(this.patient, null)));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class SpecificityScoringBackoffTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SpecificityScoringBackoff> mocker =
+        new MockitoComponentMockingRule<SpecificityScoringBackoff>(SpecificityScoringBackoff.class);
+
+    private final Map<String, Object> cachedValues = new HashMap<>();
+
+    private CacheConfiguration cacheConfiguration;
+
+    private DocumentReference patient = new DocumentReference("wiki", "data", "P0000001");
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUpCache() throws Exception
+    {
+        // A cache working like a map, remembering everything
+        final Cache<Object> cache = mock(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return SpecificityScoringBackoffTest.this.cachedValues.get(invocation.getArguments()[0]);
+            }
+        }).when(cache).get(anyString());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                SpecificityScoringBackoffTest.this.cachedValues.put((String) invocation.getArguments()[0],
+                    invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), any());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                SpecificityScoringBackoffTest.this.cachedValues.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(anyString());
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        doAnswer(new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation)
+            {
+                SpecificityScoringBackoffTest.this.cacheConfiguration =
+                    (CacheConfiguration) invocation.getArguments()[0];
+                return cache;
+            }
+        }).when(cacheManager).createNewCache(any(CacheConfiguration.class));
+    }
+
+    @Test
+    public void patientsWithoutFailuresCanBeScored() throws ComponentLookupException
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().canRetry(this.patient));
+    }
+
+    @Test
+    public void failedPatientsAreNotRetriedRightAway() throws ComponentLookupException
+    {
+        SpecificityScoringBackoff backoff = this.mocker.getComponentUnderTest();
+        backoff.recordFailure(this.patient);
+        Assert.assertFalse(backoff.canRetry(this.patient));
+        Assert.assertTrue(backoff.canRetry(new DocumentReference("wiki", "data", "P0000002")));
+    }
+
+    @Test
+    public void resetAllowsScoringAgain() throws ComponentLookupException
+    {
+        SpecificityScoringBackoff backoff = this.mocker.getComponentUnderTest();
+        backoff.recordFailure(this.patient);
+        backoff.reset(this.patient);
+        Assert.assertTrue(backoff.canRetry(this.patient));
+    }
+
+    @Test
+    public void manyFailuresDoNotOverflowTheDelay() throws ComponentLookupException
+    {
+        SpecificityScoringBackoff backoff = this.mocker.getComponentUnderTest();
+        for (int i = 0; i < 100; ++i) {
+            backoff.recordFailure(this.patient);
+        }
+        Assert.assertFalse(backoff.canRetry(this.patient));
+    }
+
+    @Test
+    public void failuresAreBoundedAndExpire() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest();
+        Assert.assertTrue(this.cacheConfiguration instanceof LRUCacheConfiguration);
+        LRUCacheConfiguration configuration = (LRUCacheConfiguration) this.cacheConfiguration;
+        Assert.assertTrue(configuration.getLRUEvictionConfiguration().getMaxEntries() > 0);
+        Assert.assertTrue(configuration.getLRUEvictionConfiguration().getTimeToLive() > 0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpecificityScoringWorkerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SpecificityScoringWorker> mocker =
+        new MockitoComponentMockingRule<SpecificityScoringWorker>(SpecificityScoringWorker.class);
+
+    private BackgroundSpecificityScorer scorer;
+
+    private SpecificityScoringBackoff backoff;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.scorer = this.mocker.getInstance(BackgroundSpecificityScorer.class);
+        this.backoff = this.mocker.getInstance(SpecificityScoringBackoff.class);
+        when(this.scorer.score(any(ExecutionContext.class), any(Patient.class))).thenReturn(true);
+        when(this.backoff.canRetry(any(DocumentReference.class))).thenReturn(true);
+    }
+
+    @Test
+    public void scheduleScoresInTheBackground() throws ComponentLookupException
+    {
+        Patient patient = mockPatient(1);
+        this.mocker.getComponentUnderTest().schedule(patient);
+        Mockito.verify(this.scorer, Mockito.timeout(5000)).score(any(ExecutionContext.class), eq(patient));
+        Mockito.verify(this.backoff, Mockito.timeout(5000).times(2)).reset(patient.getDocument());
+    }
+
+    @Test
+    public void failuresAreRecorded() throws Exception
+    {
+        Patient patient = mockPatient(1);
+        when(this.scorer.score(any(ExecutionContext.class), eq(patient))).thenReturn(false);
+        this.mocker.getComponentUnderTest().schedule(patient);
+        Mockito.verify(this.backoff, Mockito.timeout(5000)).recordFailure(patient.getDocument());
+    }
+
+    @Test
+    public void failedPatientsAreNotRetriedBeforeTheBackoffAllowsIt() throws Exception
+    {
+        Patient patient = mockPatient(1);
+        when(this.backoff.canRetry(patient.getDocument())).thenReturn(false);
+        SpecificityScoringWorker worker = this.mocker.getComponentUnderTest();
+
+        worker.scheduleMissingScore(patient);
+        waitForQueue(2);
+        Mockito.verify(this.scorer, Mockito.never()).score(any(ExecutionContext.class), eq(patient));
+
+        // A changed profile is scored right away
+        worker.schedule(patient);
+        Mockito.verify(this.scorer, Mockito.timeout(5000)).score(any(ExecutionContext.class), eq(patient));
+    }
+
+    @Test
+    public void patientsBeingScoredAreNotScheduledAgain() throws Exception
+    {
+        final Patient patient = mockPatient(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.scorer.score(any(ExecutionContext.class), eq(patient))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return true;
+            }
+        });
+        SpecificityScoringWorker worker = this.mocker.getComponentUnderTest();
+
+        worker.scheduleMissingScore(patient);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        worker.scheduleMissingScore(patient);
+        release.countDown();
+        waitForQueue(2);
+
+        Mockito.verify(this.scorer, Mockito.times(1)).score(any(ExecutionContext.class), eq(patient));
+    }
+
+    /** Patients are scored one at a time, so once another patient is being scored, all the previous ones are done. */
+    private void waitForQueue(int id) throws ComponentLookupException
+    {
+        Patient marker = mockPatient(id);
+        this.mocker.getComponentUnderTest().schedule(marker);
+        Mockito.verify(this.scorer, Mockito.timeout(5000)).score(any(ExecutionContext.class), eq(marker));
+    }
+
+    private Patient mockPatient(int id)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getDocument()).thenReturn(new DocumentReference("wiki", "data", "P000000" + id));
+        return patient;
+    }
+}
@@ -23,7 +23,8 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.PatientSpecificity;
-import org.phenotips.data.PatientSpecificityService;
+import org.phenotips.data.internal.SpecificityRecorder;
+import org.phenotips.data.internal.SpecificityScoringWorker;
 
 import org.xwiki.cache.CacheException;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -48,6 +49,8 @@
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 import static org.mockito.Mockito.when;
 
 public class SpecificityControllerTest
@@ -58,7 +61,9 @@
     @Mock
     private PatientSpecificity spec;
 
-    private PatientSpecificityService service;
+    private SpecificityRecorder recorder;
+
+    private SpecificityScoringWorker worker;
 
     private Date date;
 
@@ -76,7 +81,8 @@ public void setup() throws CacheException, ComponentLookupException
         MockitoAnnotations.initMocks(this);
         this.isoDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
         this.isoDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        this.service = this.mocker.getInstance(PatientSpecificityService.class);
+        this.recorder = this.mocker.getInstance(SpecificityRecorder.class);
+        this.worker = this.mocker.getInstance(SpecificityScoringWorker.class);
         when(this.spec.getComputingMethod()).thenReturn("monarchinitiative.org");
         Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT+02:00"), Locale.ROOT);
         c.set(2010, 2, 20, 14, 20, 0);
@@ -86,7 +92,7 @@ public void setup() throws CacheException, ComponentLookupException
         when(this.spec.getComputationDate()).thenReturn(this.date);
         when(this.spec.getScore()).thenReturn(0.25);
 
-        when(this.service.getSpecificity(this.patient)).thenReturn(this.spec);
+        when(this.recorder.getStoredSpecificity(this.patient)).thenReturn(this.spec);
     }
 
     @Test
@@ -98,13 +104,27 @@ public void load() throws ComponentLookupException
         Assert.assertEquals(0.25, (double) result.get("score"), 0.0);
         Assert.assertEquals(this.dateStr, result.get("date"));
         Assert.assertEquals("monarchinitiative.org", result.get("server"));
+        Mockito.verifyZeroInteractions(this.worker);
+    }
+
+    @Test
+    public void loadReadsTheAlreadyLoadedPatientDocument() throws ComponentLookupException
+    {
+        XWikiDocument doc = Mockito.mock(XWikiDocument.class);
+        when(this.patient.getXDocument()).thenReturn(doc);
+        when(this.recorder.read(doc)).thenReturn(this.spec);
+
+        PatientData<Object> result = this.mocker.getComponentUnderTest().load(this.patient);
+        Assert.assertEquals(0.25, (double) result.get("score"), 0.0);
+        Mockito.verify(this.recorder, Mockito.never()).getStoredSpecificity(this.patient);
     }
 
     @Test
-    public void loadWithNoSpecificityDoesNothing() throws ComponentLookupException
+    public void loadWithNoSpecificitySchedulesScoring() throws ComponentLookupException
     {
-        when(this.service.getSpecificity(this.patient)).thenReturn(null);
+        when(this.recorder.getStoredSpecificity(this.patient)).thenReturn(null);
         Assert.assertNull(this.mocker.getComponentUnderTest().load(this.patient));
+        Mockito.verify(this.worker).scheduleMissingScore(this.patient);
     }
 
     @Test
@@ -193,7 +213,7 @@ public void saveDoesNothing() throws ComponentLookupException
     {
         this.mocker.getComponentUnderTest().save(this.patient, null);
         this.mocker.getComponentUnderTest().save(null, null);
-        Mockito.verifyZeroInteractions(this.service);
+        Mockito.verifyZeroInteractions(this.recorder, this.worker);
     }
 
     @Test
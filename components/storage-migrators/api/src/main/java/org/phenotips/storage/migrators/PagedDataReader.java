@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A {@link DataReader} which can list its data in a stable order, one page at a time, and load entities one by one, so
+ * that large stores can be migrated without holding all the data in memory, and an interrupted migration can be
+ * resumed after the last migrated entity.
+ *
+ * @param <T> the type of data managed by this reader, one of the classes from the data model
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public interface PagedDataReader<T> extends DataReader<T>
+{
+    /**
+     * Lists the data available in this store, in a stable order, starting after the given entity. References are
+     * retrieved from the store one page at a time, as the iterator advances. Entities discarded while iterating do not
+     * affect the entities returned next.
+     *
+     * @param after the last entity already processed, or {@code null} to list from the start
+     * @return references identifying the data, in a stable order
+     */
+    Iterator<EntityReference> listData(EntityReference after);
+
+    /**
+     * Loads one entity from this store.
+     *
+     * @param reference a reference identifying the entity, as returned by {@link #listData(EntityReference)}
+     * @return the loaded entity, or {@code null} if it failed to be retrieved from the store
+     */
+    T getEntity(EntityReference reference);
+
+    /**
+     * Permanently deletes several entities from this store, at once.
+     *
+     * @param references references identifying the entities to delete, as returned by
+     *            {@link #listData(EntityReference)}
+     * @return {@code true} if all the entities were successfully deleted, {@code false} in case of failure
+     */
+    boolean discardData(Collection<EntityReference> references);
+}
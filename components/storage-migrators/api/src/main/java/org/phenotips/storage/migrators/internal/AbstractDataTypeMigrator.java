@@ -20,25 +20,39 @@
 import org.phenotips.storage.migrators.DataReader;
 import org.phenotips.storage.migrators.DataTypeMigrator;
 import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.PagedDataReader;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+
 /**
  * Implementation for the {@link DataTypeMigrator} role, which tries to use all available {@link DataReader}s that
  * {@link DataReader#hasData() have data} and {@link DataWriter#storeEntity(Object) write} the retrieved data to the
- * currently enabled {@link DataWriter storage engine}.
+ * currently enabled {@link DataWriter storage engine}. Data from {@link PagedDataReader paged readers} is migrated by a
+ * {@link MigrationPipeline}, writing several entities in parallel and resuming an interrupted migration from its last
+ * checkpoint; other readers are migrated one entity at a time.
  *
  * @param <T> the type of data managed by this migrator, one of the classes from the data model
  * @version $Id$
@@ -49,6 +63,19 @@
     /** The current default storage engine assumed by XWiki if no specific store is enabled. */
     private static final String DEFAULT_STORE = "hibernate";
 
+    /** How many entities are written in parallel. */
+    private static final int WRITER_THREADS = 4;
+
+    /** How many entities can be loaded in memory at the same time. */
+    private static final int MAX_PENDING = 4 * WRITER_THREADS;
+
+    /** How many entities are processed between checkpoints, and discarded at once from the old store. */
+    private static final int BATCH_SIZE = 100;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access tot the configuration file where the storage engines are configured. */
     @Inject
     @Named("legacy")
@@ -58,6 +85,22 @@
     @Inject
     private Provider<ComponentManager> cm;
 
+    /** Provides the current wiki, used for identifying migration checkpoints. */
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    /** Stores the progress of paged migrations. */
+    @Inject
+    private MigrationCheckpoints checkpoints;
+
+    /** Used for setting up the execution context of writer threads. */
+    @Inject
+    private Execution execution;
+
+    /** Used for cloning the current execution context into writer threads. */
+    @Inject
+    private ExecutionContextManager contextManager;
+
     @Override
     public boolean migrate()
     {
@@ -79,14 +122,39 @@ public boolean migrate()
                 continue;
             }
 
-            Iterator<T> data = reader.getData();
-            while (data.hasNext()) {
-                T item = data.next();
-                if (writer.storeEntity(item)) {
-                    reader.discardEntity(item);
-                } else {
-                    allDataMigrated = false;
-                }
+            boolean migrated;
+            if (reader instanceof PagedDataReader) {
+                migrated = migratePaged((PagedDataReader<T>) reader, writer, entry.getKey());
+            } else {
+                migrated = migrateSequentially(reader, writer);
+            }
+            allDataMigrated = migrated && allDataMigrated;
+        }
+        return allDataMigrated;
+    }
+
+    private boolean migratePaged(PagedDataReader<T> reader, DataWriter<T> writer, String readerHint)
+    {
+        ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, new WriterThreadFactory());
+        try {
+            String checkpointKey = this.wikiDescriptorManager.getCurrentWikiId() + '/' + readerHint;
+            return new MigrationPipeline<>(reader, writer, writers, MAX_PENDING, BATCH_SIZE, this.checkpoints,
+                checkpointKey, this.logger).run();
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+    private boolean migrateSequentially(DataReader<T> reader, DataWriter<T> writer)
+    {
+        boolean allDataMigrated = true;
+        Iterator<T> data = reader.getData();
+        while (data.hasNext()) {
+            T item = data.next();
+            if (writer.storeEntity(item)) {
+                reader.discardEntity(item);
+            } else {
+                allDataMigrated = false;
             }
         }
         return allDataMigrated;
@@ -130,4 +198,53 @@ private Type getImplementationType()
      * @return a key valid in {@code xwiki.cfg}, such as {@code xwiki.store.attachment.hint}
      */
     protected abstract String getStoreConfigurationKey();
+
+    /**
+     * Creates the writer threads, each one running in a clone of the execution context of the thread doing the
+     * migration, so that writers can access the wiki.
+     */
+    private final class WriterThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            final ExecutionContext context = cloneContext();
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (context != null) {
+                        AbstractDataTypeMigrator.this.execution.setContext(context);
+                    }
+                    try {
+                        r.run();
+                    } finally {
+                        if (context != null) {
+                            AbstractDataTypeMigrator.this.execution.removeContext();
+                        }
+                    }
+                }
+            }, "PhenoTips " + getDataType() + " migration " + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private ExecutionContext cloneContext()
+        {
+            ExecutionContext current = AbstractDataTypeMigrator.this.execution.getContext();
+            if (current == null) {
+                return null;
+            }
+            try {
+                return AbstractDataTypeMigrator.this.contextManager.clone(current);
+            } catch (ExecutionContextException ex) {
+                AbstractDataTypeMigrator.this.logger.warn("Failed to clone the execution context: {}",
+                    ex.getMessage());
+                return null;
+            }
+        }
+    }
 }
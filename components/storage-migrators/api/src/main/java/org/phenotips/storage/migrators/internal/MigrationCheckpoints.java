@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Remembers, in the permanent directory, the last entity processed by each running migration, so that a migration
+ * interrupted by a server shutdown or crash can resume after that entity instead of starting over.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = MigrationCheckpoints.class)
+@Singleton
+public class MigrationCheckpoints
+{
+    private static final String FILE_NAME = "storage-migrators/checkpoints.properties";
+
+    private static final String TYPE_SEPARATOR = ":";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    /**
+     * Get the last entity processed by a migration.
+     *
+     * @param key identifies the migration, for example the wiki, data type and source store
+     * @return the last processed entity, or {@code null} if the migration was never interrupted
+     */
+    public synchronized EntityReference get(String key)
+    {
+        String value = load().getProperty(key);
+        if (StringUtils.isEmpty(value) || !value.contains(TYPE_SEPARATOR)) {
+            return null;
+        }
+        try {
+            EntityType type = EntityType.valueOf(StringUtils.substringBefore(value, TYPE_SEPARATOR));
+            return this.resolver.resolve(StringUtils.substringAfter(value, TYPE_SEPARATOR), type);
+        } catch (IllegalArgumentException ex) {
+            this.logger.warn("Ignoring invalid migration checkpoint [{}]", value);
+            return null;
+        }
+    }
+
+    /**
+     * Remember the last entity processed by a migration.
+     *
+     * @param key identifies the migration, for example the wiki, data type and source store
+     * @param processed the last processed entity, all the entities listed before it were processed as well; if
+     *            {@code null}, the checkpoint is removed, and the next migration will start from the beginning
+     */
+    public synchronized void set(String key, EntityReference processed)
+    {
+        Properties checkpoints = load();
+        if (processed == null) {
+            if (checkpoints.remove(key) == null) {
+                return;
+            }
+        } else {
+            checkpoints.setProperty(key, processed.getType().name() + TYPE_SEPARATOR
+                + this.serializer.serialize(processed));
+        }
+        store(checkpoints);
+    }
+
+    private Properties load()
+    {
+        Properties result = new Properties();
+        File file = getFile();
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                result.load(in);
+            } catch (IOException ex) {
+                this.logger.warn("Failed to read the migration checkpoints: {}", ex.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void store(Properties checkpoints)
+    {
+        File file = getFile();
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            // Write a temporary file and then replace the old one, so that a crash never leaves a truncated file
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                checkpoints.store(out, null);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to store the migration checkpoints: {}", ex.getMessage());
+        }
+    }
+
+    private File getFile()
+    {
+        return new File(this.environment.getPermanentDirectory(), FILE_NAME);
+    }
+}
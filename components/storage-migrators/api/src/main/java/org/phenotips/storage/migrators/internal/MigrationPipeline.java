@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.PagedDataReader;
+
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+
+/**
+ * Migrates the data from one {@link PagedDataReader} into a {@link DataWriter}. Entities are read and discarded by the
+ * calling thread, one at a time, while writing them happens in parallel in a pool of writer threads. Only a bounded
+ * number of entities is loaded in memory at any time, since an entity is released as soon as it is written.
+ * Successfully written entities are discarded from the old store in batches, and after each batch the last processed
+ * entity is saved as a checkpoint, so that an interrupted migration resumes after it. Once all the data is processed,
+ * the checkpoint is removed.
+ * <p>
+ * A pipeline can only be {@link #run() run} once.
+ * </p>
+ *
+ * @param <T> the type of data being migrated
+ * @version $Id$
+ * @since 1.3
+ */
+public class MigrationPipeline<T>
+{
+    private final PagedDataReader<T> reader;
+
+    private final DataWriter<T> writer;
+
+    private final ExecutorService writers;
+
+    private final int maxPending;
+
+    private final int batchSize;
+
+    private final MigrationCheckpoints checkpoints;
+
+    private final String checkpointKey;
+
+    private final Logger logger;
+
+    /** Entities being written, in the order in which they were read. */
+    private final Deque<PendingEntity> pending = new ArrayDeque<>();
+
+    /** Entities written, but not discarded from the old store yet. */
+    private final List<EntityReference> written = new ArrayList<>();
+
+    /** The last entity processed, for which all the previously read entities were processed as well. */
+    private EntityReference lastProcessed;
+
+    /** How many entities were processed since the last checkpoint. */
+    private int processedSinceCheckpoint;
+
+    private boolean allDataMigrated = true;
+
+    /**
+     * Simple constructor passing all the needed services and settings.
+     *
+     * @param reader the store to migrate from
+     * @param writer the store to migrate to
+     * @param writers the pool of threads in which entities are written
+     * @param maxPending the maximum number of entities loaded in memory at the same time
+     * @param batchSize how many entities are processed between checkpoints, and discarded at once from the old store
+     * @param checkpoints where checkpoints are saved
+     * @param checkpointKey identifies the checkpoint of this migration
+     * @param logger logging helper
+     */
+    public MigrationPipeline(PagedDataReader<T> reader, DataWriter<T> writer, ExecutorService writers, int maxPending,
+        int batchSize, MigrationCheckpoints checkpoints, String checkpointKey, Logger logger)
+    {
+        this.reader = reader;
+        this.writer = writer;
+        this.writers = writers;
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+        this.checkpoints = checkpoints;
+        this.checkpointKey = checkpointKey;
+        this.logger = logger;
+    }
+
+    /**
+     * Migrates all the data, waiting until all the entities are processed.
+     *
+     * @return {@code true} if all the data was successfully migrated, {@code false} in case of failure
+     */
+    public boolean run()
+    {
+        EntityReference start = this.checkpoints.get(this.checkpointKey);
+        if (start != null) {
+            this.logger.info("Resuming the migration of [{}] after [{}]", this.checkpointKey, start);
+        }
+        try {
+            Iterator<EntityReference> references = this.reader.listData(start);
+            while (references.hasNext()) {
+                EntityReference reference = references.next();
+                final T entity = this.reader.getEntity(reference);
+                Future<Boolean> result = null;
+                if (entity != null) {
+                    result = this.writers.submit(new Callable<Boolean>()
+                    {
+                        @Override
+                        public Boolean call()
+                        {
+                            return MigrationPipeline.this.writer.storeEntity(entity);
+                        }
+                    });
+                }
+                this.pending.add(new PendingEntity(reference, result));
+                // Wait for the oldest entity if too many are in memory, and process any other already written ones
+                while (this.pending.size() >= this.maxPending
+                    || (!this.pending.isEmpty() && this.pending.peek().isDone())) {
+                    complete(this.pending.poll());
+                }
+            }
+            while (!this.pending.isEmpty()) {
+                complete(this.pending.poll());
+            }
+            checkpoint();
+            // Everything was processed, next time start from the beginning to retry any failed entities
+            this.checkpoints.set(this.checkpointKey, null);
+        } catch (InterruptedException ex) {
+            // The checkpoint is left in place, the migration will resume from there
+            this.logger.warn("Migration of [{}] interrupted", this.checkpointKey);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return this.allDataMigrated;
+    }
+
+    private void complete(PendingEntity entity) throws InterruptedException
+    {
+        if (isStored(entity)) {
+            this.written.add(entity.reference);
+        } else {
+            this.allDataMigrated = false;
+        }
+        this.lastProcessed = entity.reference;
+        if (++this.processedSinceCheckpoint >= this.batchSize) {
+            checkpoint();
+        }
+    }
+
+    private boolean isStored(PendingEntity entity) throws InterruptedException
+    {
+        if (entity.result == null) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(entity.result.get());
+        } catch (ExecutionException ex) {
+            this.logger.error("Failed to migrate [{}]: {}", entity.reference, ex.getCause().getMessage(),
+                ex.getCause());
+            return false;
+        }
+    }
+
+    private void checkpoint()
+    {
+        if (!this.written.isEmpty()) {
+            if (!this.reader.discardData(this.written)) {
+                this.allDataMigrated = false;
+            }
+            this.written.clear();
+        }
+        if (this.processedSinceCheckpoint > 0) {
+            this.checkpoints.set(this.checkpointKey, this.lastProcessed);
+            this.processedSinceCheckpoint = 0;
+        }
+    }
+
+    private static final class PendingEntity
+    {
+        private final EntityReference reference;
+
+        /** The result of writing the entity, {@code null} if the entity couldn't be loaded. */
+        private final Future<Boolean> result;
+
+        PendingEntity(EntityReference reference, Future<Boolean> result)
+        {
+            this.reference = reference;
+            this.result = result;
+        }
+
+        boolean isDone()
+        {
+            return this.result == null || this.result.isDone();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.PagedDataReader;
+import org.phenotips.storage.migrators.Type;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link MigrationPipeline}.
+ *
+ * @version $Id$
+ */
+public class MigrationPipelineTest
+{
+    private static final String KEY = "xwiki/test";
+
+    private MigrationCheckpoints checkpoints;
+
+    private ExecutorService writers;
+
+    private MemoryStore reader;
+
+    private Set<String> stored;
+
+    private Set<String> failing;
+
+    @Before
+    public void setup()
+    {
+        this.checkpoints = mock(MigrationCheckpoints.class);
+        this.writers = Executors.newFixedThreadPool(3);
+        this.reader = new MemoryStore(10);
+        this.stored = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.failing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.writers.shutdownNow();
+    }
+
+    @Test
+    public void allDataIsMigratedAndDiscardedInBatches()
+    {
+        Assert.assertTrue(newPipeline().run());
+
+        Assert.assertEquals(10, this.stored.size());
+        Assert.assertTrue(this.reader.data.isEmpty());
+        Assert.assertEquals(3, this.reader.discardCalls);
+        InOrder order = inOrder(this.checkpoints);
+        order.verify(this.checkpoints).set(KEY, ref(3));
+        order.verify(this.checkpoints).set(KEY, ref(7));
+        order.verify(this.checkpoints).set(KEY, ref(9));
+        order.verify(this.checkpoints).set(KEY, null);
+    }
+
+    @Test
+    public void migrationResumesAfterCheckpoint()
+    {
+        when(this.checkpoints.get(KEY)).thenReturn(ref(5));
+
+        Assert.assertTrue(newPipeline().run());
+
+        Assert.assertEquals(4, this.stored.size());
+        Assert.assertFalse(this.stored.contains("e5"));
+        Assert.assertTrue(this.stored.contains("e6"));
+        Assert.assertEquals(6, this.reader.data.size());
+    }
+
+    @Test
+    public void failedEntitiesAreKept()
+    {
+        this.failing.add("e2");
+
+        Assert.assertFalse(newPipeline().run());
+
+        Assert.assertEquals(9, this.stored.size());
+        Assert.assertEquals(Collections.singletonList("e2"), this.reader.data);
+    }
+
+    private MigrationPipeline<String> newPipeline()
+    {
+        DataWriter<String> writer = new DataWriter<String>()
+        {
+            @Override
+            public Type getType()
+            {
+                return new Type("test", "memory");
+            }
+
+            @Override
+            public boolean storeEntity(String entity)
+            {
+                return !MigrationPipelineTest.this.failing.contains(entity)
+                    && MigrationPipelineTest.this.stored.add(entity);
+            }
+        };
+        return new MigrationPipeline<>(this.reader, writer, this.writers, 2, 4, this.checkpoints, KEY,
+            mock(Logger.class));
+    }
+
+    private static EntityReference ref(int index)
+    {
+        return new EntityReference("e" + index, EntityType.DOCUMENT);
+    }
+
+    /** Holds the data in a sorted list, like a database would. */
+    private static final class MemoryStore implements PagedDataReader<String>
+    {
+        private final List<String> data = Collections.synchronizedList(new ArrayList<String>());
+
+        private int discardCalls;
+
+        MemoryStore(int size)
+        {
+            for (int i = 0; i < size; ++i) {
+                this.data.add("e" + i);
+            }
+        }
+
+        @Override
+        public Type getType()
+        {
+            return new Type("test", "old");
+        }
+
+        @Override
+        public boolean hasData()
+        {
+            return !this.data.isEmpty();
+        }
+
+        @Override
+        public Iterator<EntityReference> listData()
+        {
+            return listData(null);
+        }
+
+        @Override
+        public Iterator<EntityReference> listData(EntityReference after)
+        {
+            List<EntityReference> result = new ArrayList<>();
+            for (String entity : new ArrayList<>(this.data)) {
+                if (after == null || entity.compareTo(after.getName()) > 0) {
+                    result.add(new EntityReference(entity, EntityType.DOCUMENT));
+                }
+            }
+            return result.iterator();
+        }
+
+        @Override
+        public Iterator<String> getData()
+        {
+            return new ArrayList<>(this.data).iterator();
+        }
+
+        @Override
+        public String getEntity(EntityReference reference)
+        {
+            return reference.getName();
+        }
+
+        @Override
+        public boolean discardEntity(String entity)
+        {
+            return this.data.remove(entity);
+        }
+
+        @Override
+        public boolean discardData(Collection<EntityReference> references)
+        {
+            ++this.discardCalls;
+            for (EntityReference reference : references) {
+                this.data.remove(reference.getName());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean discardAllData()
+        {
+            this.data.clear();
+            return true;
+        }
+    }
+}
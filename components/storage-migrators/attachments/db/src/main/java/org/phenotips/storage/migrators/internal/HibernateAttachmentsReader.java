@@ -18,16 +18,24 @@
 package org.phenotips.storage.migrators.internal;
 
 import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.PagedDataReader;
 import org.phenotips.storage.migrators.Type;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -48,7 +56,8 @@
 
 /**
  * {@link DataReader} that can read {@link XWikiAttachment attachment} contents and history from a Hibernate-managed
- * database (the default storage engine of XWiki).
+ * database (the default storage engine of XWiki). Attachments are listed one page at a time, ordered by document and
+ * file name, and each attachment is only loaded when needed.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -56,7 +65,7 @@
 @Component
 @Named("attachments/hibernate")
 @Singleton
-public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
+public class HibernateAttachmentsReader implements PagedDataReader<XWikiAttachment>
 {
     private static final Type TYPE = new Type("attachments", "hibernate");
 
@@ -64,6 +73,18 @@ public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
         "select d.fullName, a.filename from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
             + " where a.docId = d.id and c.id = a.id";
 
+    private static final String ORDER = " order by d.fullName, a.filename";
+
+    private static final String DATA_PAGE_QUERY = DATA_RETRIEVE_QUERY + ORDER;
+
+    private static final String DATA_PAGE_AFTER_QUERY = DATA_RETRIEVE_QUERY
+        + " and (d.fullName > ? or (d.fullName = ? and a.filename > ?))" + ORDER;
+
+    /** How many attachment references are retrieved with one query. */
+    private static final int PAGE_SIZE = 100;
+
+    private static final String IDS = "ids";
+
     @Inject
     private Logger logger;
 
@@ -83,6 +104,10 @@ public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
     @Named("current")
     private DocumentReferenceResolver<String> resolver;
 
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
     @Inject
     private Provider<XWikiContext> context;
 
@@ -106,26 +131,34 @@ public boolean hasData()
     @Override
     public Iterator<EntityReference> listData()
     {
-        try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            return new ReferenceIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to list the database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
-        }
+        return listData(null);
+    }
+
+    @Override
+    public Iterator<EntityReference> listData(EntityReference after)
+    {
+        return new ReferenceIterator(after);
     }
 
     @Override
     public Iterator<XWikiAttachment> getData()
+    {
+        return new AttachmentIterator(listData(null));
+    }
+
+    @Override
+    public XWikiAttachment getEntity(EntityReference reference)
     {
         try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            this.logger.debug("Found [{}] attachments in the database", data.size());
-            return new AttachmentIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to get the list of database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
+            XWikiAttachment att = newAttachment(reference);
+            this.store.loadAttachmentContent(att, this.context.get(), true);
+            this.archiveStore.loadArchive(att, this.context.get(), true);
+            this.logger.debug("Loaded [{}] from the database", att.getReference());
+            return att;
+        } catch (Exception ex) {
+            this.logger.error("Failed to read attachment from the database store: {}", ex.getMessage(), ex);
         }
+        return null;
     }
 
     @Override
@@ -149,6 +182,36 @@ public boolean discardEntity(XWikiAttachment entity)
         return true;
     }
 
+    @Override
+    public boolean discardData(Collection<EntityReference> references)
+    {
+        if (references.isEmpty()) {
+            return true;
+        }
+        List<Long> ids = new ArrayList<>(references.size());
+        for (EntityReference reference : references) {
+            ids.add(newAttachment(reference).getId());
+        }
+        boolean transaction = false;
+        try {
+            transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
+            Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
+            session.createQuery("delete from XWikiAttachmentContent where id in (:ids)")
+                .setParameterList(IDS, ids).executeUpdate();
+            session.createQuery("delete from XWikiAttachmentArchive where id in (:ids)")
+                .setParameterList(IDS, ids).executeUpdate();
+            this.logger.debug("Deleted [{}] attachments from the database", ids.size());
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to cleanup attachments from the database: {}", ex.getMessage());
+            return false;
+        } finally {
+            if (transaction) {
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean discardAllData()
     {
@@ -169,27 +232,49 @@ public boolean discardAllData()
         return true;
     }
 
+    private XWikiAttachment newAttachment(EntityReference reference)
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference(reference.extractReference(EntityType.DOCUMENT)));
+        return new XWikiAttachment(doc, reference.getName());
+    }
+
+    /** Lists attachment references one page at a time, continuing after the last reference of the previous page. */
     private class ReferenceIterator implements Iterator<EntityReference>
     {
-        private Iterator<Object[]> data;
+        private Iterator<Object[]> page;
+
+        private boolean lastPage;
 
-        ReferenceIterator(List<Object[]> data)
+        private Object[] last;
+
+        ReferenceIterator(EntityReference after)
         {
-            this.data = data.iterator();
+            if (after != null) {
+                this.last = new Object[] {
+                    HibernateAttachmentsReader.this.serializer.serialize(after.extractReference(EntityType.DOCUMENT)),
+                    after.getName() };
+            }
+            this.page = Collections.emptyIterator();
         }
 
         @Override
         public boolean hasNext()
         {
-            return this.data.hasNext();
+            if (!this.page.hasNext() && !this.lastPage) {
+                fetchPage();
+            }
+            return this.page.hasNext();
         }
 
         @Override
         public EntityReference next()
         {
-            Object[] item = this.data.next();
-            return new AttachmentReference(String.valueOf(item[1]),
-                HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(item[0])));
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.page.next();
+            return new AttachmentReference(String.valueOf(this.last[1]),
+                HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(this.last[0])));
         }
 
         @Override
@@ -197,42 +282,49 @@ public void remove()
         {
             throw new UnsupportedOperationException();
         }
+
+        private void fetchPage()
+        {
+            try {
+                List<Object[]> data;
+                if (this.last == null) {
+                    data = HibernateAttachmentsReader.this.docStore.search(DATA_PAGE_QUERY, PAGE_SIZE, 0,
+                        HibernateAttachmentsReader.this.context.get());
+                } else {
+                    data = HibernateAttachmentsReader.this.docStore.search(DATA_PAGE_AFTER_QUERY, PAGE_SIZE, 0,
+                        Arrays.asList(this.last[0], this.last[0], this.last[1]),
+                        HibernateAttachmentsReader.this.context.get());
+                }
+                this.lastPage = data.size() < PAGE_SIZE;
+                this.page = data.iterator();
+            } catch (XWikiException ex) {
+                HibernateAttachmentsReader.this.logger.warn("Failed to list the database attachments: {}",
+                    ex.getMessage());
+                this.lastPage = true;
+                this.page = Collections.emptyIterator();
+            }
+        }
     }
 
     private class AttachmentIterator implements Iterator<XWikiAttachment>
     {
-        private Iterator<Object[]> data;
+        private Iterator<EntityReference> references;
 
-        AttachmentIterator(List<Object[]> data)
+        AttachmentIterator(Iterator<EntityReference> references)
         {
-            this.data = data.iterator();
+            this.references = references;
         }
 
         @Override
         public boolean hasNext()
         {
-            return this.data.hasNext();
+            return this.references.hasNext();
         }
 
         @Override
         public XWikiAttachment next()
         {
-            Object[] item = this.data.next();
-            try {
-                XWikiDocument doc =
-                    new XWikiDocument(HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(item[0])));
-                XWikiAttachment att = new XWikiAttachment(doc, String.valueOf(item[1]));
-                HibernateAttachmentsReader.this.store.loadAttachmentContent(att,
-                    HibernateAttachmentsReader.this.context.get(), true);
-                HibernateAttachmentsReader.this.archiveStore.loadArchive(att,
-                    HibernateAttachmentsReader.this.context.get(), true);
-                HibernateAttachmentsReader.this.logger.debug("Loaded [{}] from the database", att.getReference());
-                return att;
-            } catch (Exception ex) {
-                HibernateAttachmentsReader.this.logger.error("Failed to read attachment from the database store: {}",
-                    ex.getMessage(), ex);
-            }
-            return null;
+            return getEntity(this.references.next());
         }
 
         @Override
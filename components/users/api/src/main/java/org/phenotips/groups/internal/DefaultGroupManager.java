@@ -25,17 +25,12 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.stability.Unstable;
 import org.xwiki.users.User;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -65,17 +60,13 @@ public class DefaultGroupManager implements GroupManager
 
     /** Used for searching for groups. */
     @Inject
-    private QueryManager qm;
+    private GroupMembershipGraph membershipGraph;
 
     /** Solves partial group references in the current wiki. */
     @Inject
     @Named("current")
     private DocumentReferenceResolver<String> resolver;
 
-    @Inject
-    @Named("compactwiki")
-    private EntityReferenceSerializer<String> compactSerializer;
-
     @Override
     public Set<Group> getGroupsForUser(User user)
     {
@@ -87,36 +78,8 @@ public Set<Group> getGroupsForUser(User user)
 
         Set<Group> result = new LinkedHashSet<>();
         try {
-            Query q =
-                this.qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (:u, :su)", Query.XWQL);
-            q.bindValue("u", profile.toString());
-            q.bindValue("su", this.compactSerializer.serialize(profile));
-            List<Object> groups = q.execute();
-            List<Object> nestedGroups = new ArrayList<>(groups);
-            while (!nestedGroups.isEmpty()) {
-                StringBuilder qs = new StringBuilder("from doc.object(XWiki.XWikiGroups) grp where grp.member in (");
-                for (int i = 0; i < nestedGroups.size(); ++i) {
-                    if (i > 0) {
-                        qs.append(',');
-                    }
-                    qs.append('?').append(i + 1);
-                }
-                qs.append(')');
-                q = this.qm.createQuery(qs.toString(), Query.XWQL);
-                for (int i = 0; i < nestedGroups.size(); ++i) {
-                    String formalGroupName =
-                        this.resolver.resolve(String.valueOf(nestedGroups.get(i)), GROUP_SPACE).toString();
-                    q.bindValue(i + 1, formalGroupName);
-                }
-                nestedGroups = q.execute();
-                nestedGroups.removeAll(groups);
-                groups.addAll(nestedGroups);
-            }
-            q = this.qm.createQuery(
-                "from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp", Query.XWQL);
-            groups.retainAll(q.execute());
-            for (Object groupName : groups) {
-                result.add(getGroup(String.valueOf(groupName)));
+            for (String groupName : this.membershipGraph.getGroups(profile)) {
+                result.add(getGroup(groupName));
             }
         } catch (QueryException ex) {
             this.logger.warn("Failed to search for user's groups: {}", ex.getMessage());
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal;
+
+import org.phenotips.components.InvalidatableCache;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Keeps, for each wiki, the graph of group memberships defined by the {@code XWiki.XWikiGroups} objects, so that the
+ * groups of a user, including the groups it belongs to through nested groups, can be found without querying the
+ * database each time. The graph of a wiki is loaded when first needed, and loaded again after a group is modified.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = GroupMembershipGraph.class)
+@Singleton
+public class GroupMembershipGraph
+{
+    /** The space where groups are stored. */
+    private static final EntityReference GROUP_SPACE = new EntityReference("Groups", EntityType.SPACE);
+
+    /** Logging helper. */
+    @Inject
+    private Logger logger;
+
+    /** Used for loading the groups. */
+    @Inject
+    private QueryManager qm;
+
+    /** Solves partial group references in the current wiki. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactSerializer;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /** The loaded graphs, indexed by wiki; a graph loaded while a group was being modified isn't remembered. */
+    private final InvalidatableCache<String, Graph> graphs = new InvalidatableCache<>();
+
+    private final InvalidatableCache.Loader<String, Graph, QueryException> graphLoader =
+        new InvalidatableCache.Loader<String, Graph, QueryException>()
+        {
+            @Override
+            public Graph load(String wiki) throws QueryException
+            {
+                return loadGraph();
+            }
+        };
+
+    /**
+     * Get the PhenoTips groups that a user or group belongs to, either directly or through other groups.
+     *
+     * @param member the profile of a user, or the document of a group, in the current wiki
+     * @return the names of the groups, directly containing groups first; may be empty
+     * @throws QueryException if loading the groups fails
+     */
+    public Collection<String> getGroups(DocumentReference member) throws QueryException
+    {
+        Graph graph = getGraph();
+        Set<String> result = new LinkedHashSet<>();
+        Queue<String> toVisit = new LinkedList<>();
+        addGroups(graph, member.toString(), result, toVisit);
+        addGroups(graph, this.compactSerializer.serialize(member), result, toVisit);
+        while (!toVisit.isEmpty()) {
+            addGroups(graph, graph.getMemberName(toVisit.poll()), result, toVisit);
+        }
+        result.retainAll(graph.phenotipsGroups);
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Forget the graph of a wiki, it will be loaded again when next needed.
+     *
+     * @param wiki the identifier of the wiki where groups changed
+     */
+    public void invalidate(String wiki)
+    {
+        this.graphs.invalidate(wiki);
+    }
+
+    private void addGroups(Graph graph, String member, Set<String> result, Queue<String> toVisit)
+    {
+        List<String> groups = graph.groups.get(member);
+        if (groups == null) {
+            return;
+        }
+        for (String group : groups) {
+            if (result.add(group)) {
+                toVisit.add(group);
+            }
+        }
+    }
+
+    private Graph getGraph() throws QueryException
+    {
+        return this.graphs.get(this.xcontextProvider.get().getWikiId(), this.graphLoader);
+    }
+
+    private Graph loadGraph() throws QueryException
+    {
+        Query q = this.qm.createQuery("select doc.fullName, grp.member from Document doc, "
+            + "doc.object(XWiki.XWikiGroups) grp where grp.member <> ''", Query.XWQL);
+        List<Object[]> memberships = q.execute();
+        q = this.qm.createQuery(
+            "from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp", Query.XWQL);
+        List<Object> phenotipsGroups = q.execute();
+        this.logger.debug("Loaded [{}] group memberships", memberships.size());
+        return new Graph(memberships, phenotipsGroups);
+    }
+
+    /** Snapshot of the group memberships in a wiki. */
+    private final class Graph
+    {
+        /** The groups directly containing each member, indexed by member name, as stored in the group objects. */
+        private final Map<String, List<String>> groups = new HashMap<>();
+
+        /** The names of the groups, as used when a group is a member of another group, indexed by group name. */
+        private final Map<String, String> memberNames = new HashMap<>();
+
+        private final Set<String> phenotipsGroups = new HashSet<>();
+
+        Graph(List<Object[]> memberships, List<Object> phenotipsGroups)
+        {
+            for (Object[] membership : memberships) {
+                String group = String.valueOf(membership[0]);
+                String member = String.valueOf(membership[1]);
+                List<String> memberGroups = this.groups.get(member);
+                if (memberGroups == null) {
+                    memberGroups = new ArrayList<>(1);
+                    this.groups.put(member, memberGroups);
+                }
+                if (!memberGroups.contains(group)) {
+                    memberGroups.add(group);
+                }
+                if (!this.memberNames.containsKey(group)) {
+                    this.memberNames.put(group,
+                        GroupMembershipGraph.this.resolver.resolve(group, GROUP_SPACE).toString());
+                }
+            }
+            for (Object group : phenotipsGroups) {
+                this.phenotipsGroups.add(String.valueOf(group));
+            }
+        }
+
+        String getMemberName(String group)
+        {
+            return this.memberNames.get(group);
+        }
+    }
+}
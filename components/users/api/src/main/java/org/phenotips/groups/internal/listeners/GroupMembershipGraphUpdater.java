@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal.listeners;
+
+import org.phenotips.groups.Group;
+import org.phenotips.groups.internal.GroupMembershipGraph;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Event listener that makes the {@link GroupMembershipGraph} reload the group memberships of a wiki when a group
+ * document from that wiki is created, modified or deleted.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("phenotips-group-membership-updater")
+@Singleton
+public class GroupMembershipGraphUpdater implements EventListener
+{
+    /** The XClass holding the members of a group. */
+    private static final EntityReference MEMBERS_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
+    @Inject
+    private GroupMembershipGraph graph;
+
+    @Override
+    public String getName()
+    {
+        return "phenotips-group-membership-updater";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        if (isGroup(doc) || isGroup(doc.getOriginalDocument())) {
+            this.graph.invalidate(doc.getDocumentReference().getWikiReference().getName());
+        }
+    }
+
+    private boolean isGroup(XWikiDocument doc)
+    {
+        return doc != null
+            && (doc.getXObject(MEMBERS_CLASS) != null || doc.getXObject(Group.CLASS_REFERENCE) != null);
+    }
+}
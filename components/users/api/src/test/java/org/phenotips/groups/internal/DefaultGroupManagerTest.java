@@ -25,24 +25,18 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
-import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -67,52 +61,16 @@ public void getGroupsForUser() throws ComponentLookupException, QueryException
         User u = mock(User.class);
         DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "Admin");
         when(u.getProfileDocument()).thenReturn(userProfile);
-        EntityReferenceSerializer<String> serializer =
-            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
-        when(serializer.serialize(userProfile)).thenReturn("XWiki.Admin");
-
-        QueryManager qm = this.mocker.getInstance(QueryManager.class);
-        Query q = mock(Query.class);
-        when(q.bindValue("u", "xwiki:XWiki.Admin")).thenReturn(q);
-        when(q.bindValue("su", "XWiki.Admin")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (:u, :su)", Query.XWQL))
-            .thenReturn(q);
-        List<Object> groupNames = new LinkedList<Object>();
-        groupNames.add("Groups.Group A");
-        groupNames.add("Group B Administrators");
-        when(q.<Object>execute()).thenReturn(groupNames);
+
+        GroupMembershipGraph graph = this.mocker.getInstance(GroupMembershipGraph.class);
+        when(graph.getGroups(userProfile)).thenReturn(Arrays.asList("Groups.Group A", "Groups.Group B"));
 
         DocumentReferenceResolver<String> resolver =
             this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
         DocumentReference a = new DocumentReference("xwiki", "Groups", "Group A");
         when(resolver.resolve(eq("Groups.Group A"), eq(GROUP_SPACE))).thenReturn(a);
-        DocumentReference ba = new DocumentReference("xwiki", "Groups", "Group B Administrators");
-        when(resolver.resolve(eq("Group B Administrators"), eq(GROUP_SPACE))).thenReturn(ba);
-
-        q = mock(Query.class);
-        when(q.bindValue(1, "xwiki:Groups.Group A")).thenReturn(q);
-        when(q.bindValue(2, "xwiki:Groups.Group B Administrators")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (?1,?2)", Query.XWQL))
-            .thenReturn(q);
-        groupNames = new LinkedList<Object>();
-        groupNames.add("Groups.Group B");
-        when(q.<Object>execute()).thenReturn(groupNames);
-
-        q = mock(Query.class);
         DocumentReference b = new DocumentReference("xwiki", "Groups", "Group B");
         when(resolver.resolve(eq("Groups.Group B"), eq(GROUP_SPACE))).thenReturn(b);
-        when(q.bindValue(1, "xwiki:Groups.Group B")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (?1)", Query.XWQL))
-            .thenReturn(q);
-        when(q.<Object>execute()).thenReturn(Collections.emptyList());
-
-        q = mock(Query.class);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp",
-            Query.XWQL)).thenReturn(q);
-        groupNames = new LinkedList<Object>();
-        groupNames.add("Groups.Group A");
-        groupNames.add("Groups.Group B");
-        when(q.<Object>execute()).thenReturn(groupNames);
 
         Set<Group> result = this.mocker.getComponentUnderTest().getGroupsForUser(u);
         Assert.assertEquals(2, result.size());
@@ -138,11 +96,8 @@ public void getGroupsForUserWithException() throws ComponentLookupException, Que
         DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "Admin");
         when(u.getProfileDocument()).thenReturn(userProfile);
 
-        QueryManager qm = this.mocker.getInstance(QueryManager.class);
-        Query q = mock(Query.class);
-        when(q.bindValue(any(String.class), any(String.class))).thenReturn(q);
-        when(qm.createQuery(any(String.class), any(String.class))).thenReturn(q);
-        when(q.<String>execute()).thenThrow(new QueryException("Failed", q, null));
+        GroupMembershipGraph graph = this.mocker.getInstance(GroupMembershipGraph.class);
+        when(graph.getGroups(userProfile)).thenThrow(new QueryException("Failed", null, null));
 
         Assert.assertTrue(this.mocker.getComponentUnderTest().getGroupsForUser(u).isEmpty());
     }
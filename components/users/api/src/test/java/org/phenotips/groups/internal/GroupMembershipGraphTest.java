@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link GroupMembershipGraph} component.
+ *
+ * @version $Id$
+ */
+public class GroupMembershipGraphTest
+{
+    private static final EntityReference GROUP_SPACE = new EntityReference("Groups", EntityType.SPACE);
+
+    private static final String MEMBERSHIPS_QUERY =
+        "select doc.fullName, grp.member from Document doc, doc.object(XWiki.XWikiGroups) grp where grp.member <> ''";
+
+    private static final String PHENOTIPS_GROUPS_QUERY =
+        "from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp";
+
+    @Rule
+    public final MockitoComponentMockingRule<GroupMembershipGraph> mocker =
+        new MockitoComponentMockingRule<>(GroupMembershipGraph.class);
+
+    private final DocumentReference admin = new DocumentReference("xwiki", "XWiki", "Admin");
+
+    private QueryManager qm;
+
+    private Query membershipsQuery;
+
+    private Query phenotipsGroupsQuery;
+
+    private List<Object[]> memberships = new ArrayList<>();
+
+    private List<Object> phenotipsGroups = new ArrayList<>();
+
+    @Before
+    public void setup() throws ComponentLookupException, QueryException
+    {
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        when(contextProvider.get()).thenReturn(context);
+        when(context.getWikiId()).thenReturn("xwiki");
+
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
+        when(serializer.serialize(any(DocumentReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return StringUtils.substringAfter(invocation.getArguments()[0].toString(), ":");
+            }
+        });
+
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve(anyString(), eq(GROUP_SPACE))).thenAnswer(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation)
+            {
+                String name = (String) invocation.getArguments()[0];
+                return new DocumentReference("xwiki", "Groups", StringUtils.substringAfter(name, "Groups."));
+            }
+        });
+
+        this.qm = this.mocker.getInstance(QueryManager.class);
+        this.membershipsQuery = mock(Query.class);
+        when(this.qm.createQuery(MEMBERSHIPS_QUERY, Query.XWQL)).thenReturn(this.membershipsQuery);
+        when(this.membershipsQuery.<Object[]>execute()).thenReturn(this.memberships);
+        this.phenotipsGroupsQuery = mock(Query.class);
+        when(this.qm.createQuery(PHENOTIPS_GROUPS_QUERY, Query.XWQL)).thenReturn(this.phenotipsGroupsQuery);
+        when(this.phenotipsGroupsQuery.<Object>execute()).thenReturn(this.phenotipsGroups);
+    }
+
+    /** Groups are found both directly and through nested groups, and only PhenoTips groups are returned. */
+    @Test
+    public void getGroupsFollowsNestedGroups() throws ComponentLookupException, QueryException
+    {
+        addMember("Groups.Group A", "xwiki:XWiki.Admin");
+        addMember("Groups.Group B Administrators", "XWiki.Admin");
+        addMember("Groups.Group B", "xwiki:Groups.Group B Administrators");
+        addMember("Groups.Group C", "xwiki:Groups.Group B");
+        addMember("Groups.Group D", "xwiki:XWiki.Other");
+        this.phenotipsGroups.addAll(Arrays.asList("Groups.Group A", "Groups.Group B", "Groups.Group C",
+            "Groups.Group D"));
+
+        Collection<String> result = this.mocker.getComponentUnderTest().getGroups(this.admin);
+        Assert.assertEquals(Arrays.asList("Groups.Group A", "Groups.Group B", "Groups.Group C"),
+            new ArrayList<>(result));
+    }
+
+    /** Cycles between groups don't cause infinite loops. */
+    @Test
+    public void getGroupsWithCycles() throws ComponentLookupException, QueryException
+    {
+        addMember("Groups.Group A", "xwiki:XWiki.Admin");
+        addMember("Groups.Group B", "xwiki:Groups.Group A");
+        addMember("Groups.Group A", "xwiki:Groups.Group B");
+        this.phenotipsGroups.addAll(Arrays.asList("Groups.Group A", "Groups.Group B"));
+
+        Collection<String> result = this.mocker.getComponentUnderTest().getGroups(this.admin);
+        Assert.assertEquals(Arrays.asList("Groups.Group A", "Groups.Group B"), new ArrayList<>(result));
+    }
+
+    /** The memberships are loaded once, and only loaded again after the graph is invalidated. */
+    @Test
+    public void graphIsLoadedOnceUntilInvalidated() throws ComponentLookupException, QueryException
+    {
+        addMember("Groups.Group A", "xwiki:XWiki.Admin");
+        this.phenotipsGroups.add("Groups.Group A");
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+        verify(this.membershipsQuery, times(1)).execute();
+
+        addMember("Groups.Group B", "xwiki:XWiki.Admin");
+        this.phenotipsGroups.add("Groups.Group B");
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+
+        graph.invalidate("otherwiki");
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+
+        graph.invalidate("xwiki");
+        Assert.assertEquals(2, graph.getGroups(this.admin).size());
+        verify(this.membershipsQuery, times(2)).execute();
+    }
+
+    /** A graph loaded while a group was being modified is used once, but isn't remembered. */
+    @Test
+    public void graphLoadedDuringInvalidationIsNotRemembered() throws ComponentLookupException, QueryException
+    {
+        addMember("Groups.Group A", "xwiki:XWiki.Admin");
+        this.phenotipsGroups.add("Groups.Group A");
+        final GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+        when(this.membershipsQuery.<Object[]>execute()).thenAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                // A group is modified after its memberships were read
+                graph.invalidate("xwiki");
+                return new ArrayList<>(GroupMembershipGraphTest.this.memberships);
+            }
+        }).thenReturn(this.memberships);
+
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+        addMember("Groups.Group B", "xwiki:XWiki.Admin");
+        this.phenotipsGroups.add("Groups.Group B");
+        Assert.assertEquals(2, graph.getGroups(this.admin).size());
+        verify(this.membershipsQuery, times(2)).execute();
+    }
+
+    /** Failures aren't remembered, the next call tries to load the memberships again. */
+    @Test
+    public void getGroupsWithException() throws ComponentLookupException, QueryException
+    {
+        when(this.membershipsQuery.<Object[]>execute()).thenThrow(new QueryException("Failed", null, null))
+            .thenReturn(this.memberships);
+        addMember("Groups.Group A", "xwiki:XWiki.Admin");
+        this.phenotipsGroups.add("Groups.Group A");
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+
+        try {
+            graph.getGroups(this.admin);
+            Assert.fail("The query failure should have been reported");
+        } catch (QueryException ex) {
+            // Expected
+        }
+        Assert.assertEquals(1, graph.getGroups(this.admin).size());
+    }
+
+    /** Many users in many nested groups are handled with a single load of the memberships. */
+    @Test
+    public void getGroupsWithManyUsers() throws ComponentLookupException, QueryException
+    {
+        for (int g = 0; g < 100; ++g) {
+            String group = "Groups.Group " + g;
+            this.phenotipsGroups.add(group);
+            if (g > 0) {
+                addMember(group, "xwiki:Groups.Group " + (g - 1));
+            }
+        }
+        for (int u = 0; u < 5000; ++u) {
+            addMember("Groups.Group " + (u % 100), "xwiki:XWiki.User" + u);
+        }
+        GroupMembershipGraph graph = this.mocker.getComponentUnderTest();
+
+        for (int u = 0; u < 5000; ++u) {
+            Collection<String> result = graph.getGroups(new DocumentReference("xwiki", "XWiki", "User" + u));
+            Assert.assertEquals(100 - u % 100, result.size());
+        }
+        verify(this.membershipsQuery, times(1)).execute();
+        verify(this.phenotipsGroupsQuery, times(1)).execute();
+    }
+
+    private void addMember(String group, String member)
+    {
+        this.memberships.add(new Object[] { group, member });
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.components;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.lang.reflect.Type;
+
+import javax.inject.Provider;
+
+/**
+ * Looks up a component once and returns the same instance on the following calls, for code which needs a component on
+ * a hot path, where looking it up in the component manager on each use is too expensive. The component is looked up
+ * again after any component is registered or unregistered, so that a component replaced at runtime, for example by an
+ * installed extension, is picked up.
+ * <p>
+ * Only use this for singleton components which aren't overridden in a specific wiki or for a specific user, since the
+ * instance found in the first context where it is looked up is then used in all the other contexts.
+ * </p>
+ *
+ * @param <T> the type of the component
+ * @version $Id$
+ * @since 1.3
+ */
+public final class ComponentHandle<T>
+{
+    /** Where the component is looked up, {@code null} if the {@link ComponentManagerRegistry} should be used. */
+    private final Provider<ComponentManager> componentManager;
+
+    private final Type role;
+
+    /** The hint of the component, {@code null} for the default implementation. */
+    private final String hint;
+
+    private volatile Resolved<T> resolved;
+
+    /**
+     * Handle for the default implementation of a role, looked up in the
+     * {@link ComponentManagerRegistry#getContextComponentManager() context component manager}.
+     *
+     * @param role the role of the component
+     */
+    public ComponentHandle(Type role)
+    {
+        this(null, role, null);
+    }
+
+    /**
+     * Handle for a specific implementation of a role, looked up in the
+     * {@link ComponentManagerRegistry#getContextComponentManager() context component manager}.
+     *
+     * @param role the role of the component
+     * @param hint the hint of the component
+     */
+    public ComponentHandle(Type role, String hint)
+    {
+        this(null, role, hint);
+    }
+
+    /**
+     * Handle for a specific implementation of a role, looked up in a specific component manager.
+     *
+     * @param componentManager provides the component manager where the component is looked up
+     * @param role the role of the component
+     * @param hint the hint of the component, {@code null} for the default implementation
+     */
+    public ComponentHandle(Provider<ComponentManager> componentManager, Type role, String hint)
+    {
+        this.componentManager = componentManager;
+        this.role = role;
+        this.hint = hint;
+    }
+
+    /**
+     * Get the component, looking it up only if this is the first call, or if the components changed since the last
+     * lookup.
+     *
+     * @return the component instance
+     * @throws ComponentLookupException if the component can't be found
+     */
+    public T get() throws ComponentLookupException
+    {
+        ComponentManager cm = this.componentManager == null ? ComponentManagerRegistry.getContextComponentManager()
+            : this.componentManager.get();
+        // Read the version before the lookup, so that a component registered meanwhile causes a new lookup next time
+        int version = ComponentManagerRegistry.getComponentsVersion();
+        Resolved<T> current = this.resolved;
+        if (current == null || current.version != version || current.componentManager != cm) {
+            T instance = this.hint == null ? cm.<T>getInstance(this.role) : cm.<T>getInstance(this.role, this.hint);
+            current = new Resolved<>(instance, cm, version);
+            this.resolved = current;
+        }
+        return current.instance;
+    }
+
+    /** A looked up component, along with the state of the components at the time of the lookup. */
+    private static final class Resolved<T>
+    {
+        private final T instance;
+
+        private final ComponentManager componentManager;
+
+        private final int version;
+
+        Resolved(T instance, ComponentManager componentManager, int version)
+        {
+            this.instance = instance;
+            this.componentManager = componentManager;
+            this.version = version;
+        }
+    }
+}
@@ -18,6 +18,9 @@
 package org.phenotips.components;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.ApplicationStartedEvent;
@@ -25,6 +28,7 @@
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,7 +38,8 @@
 /**
  * Provides access to the component manager to non-components. The component manager type returned is "context", which
  * takes into account custom components available in the current scope: local wiki components, user-specific components,
- * etc.
+ * etc. It also keeps track of component (un)registrations, so that {@link ComponentHandle component handles} know
+ * when to look up their component again.
  *
  * @version $Id$
  * @since 1.0M8
@@ -49,6 +54,9 @@ public class ComponentManagerRegistry implements EventListener
     @Named("context")
     private static Provider<ComponentManager> cmProvider;
 
+    /** Incremented each time a component is registered or unregistered. */
+    private static final AtomicInteger COMPONENTS_VERSION = new AtomicInteger();
+
     /**
      * Use this method to get the current context component manager.
      *
@@ -60,6 +68,16 @@ public static ComponentManager getContextComponentManager()
         return cmProvider.get();
     }
 
+    /**
+     * Identifies the current state of the registered components.
+     *
+     * @return a number which changes each time a component is registered or unregistered
+     */
+    static int getComponentsVersion()
+    {
+        return COMPONENTS_VERSION.get();
+    }
+
     @Override
     public String getName()
     {
@@ -69,12 +87,16 @@ public String getName()
     @Override
     public List<Event> getEvents()
     {
-        return Arrays.<Event>asList(new ApplicationStartedEvent());
+        return Arrays.<Event>asList(new ApplicationStartedEvent(), new ComponentDescriptorAddedEvent(),
+            new ComponentDescriptorRemovedEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
-        // Nothing to do, we just wanted to get the component manager provider injected
+        // On application start there's nothing to do, we just wanted to get the component manager provider injected
+        if (event instanceof ComponentDescriptorEvent) {
+            COMPONENTS_VERSION.incrementAndGet();
+        }
     }
 }
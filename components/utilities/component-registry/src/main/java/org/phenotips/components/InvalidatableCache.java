@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.components;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps values which are expensive to compute, such as structures built from the database or from the registered
+ * components, until they are explicitly invalidated because their source changed. Invalidating a key while its value
+ * is being computed discards the computed value, so that a value computed from stale data is never remembered: each
+ * load is tied to the entry present when it started, and the value is only stored if that entry is still in place.
+ * <p>
+ * There is no size limit, so only use this for a small, known set of keys, such as one entry per wiki.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ * @version $Id$
+ * @since 1.3
+ */
+public final class InvalidatableCache<K, V>
+{
+    /** The current entries; an entry without a value marks a value being loaded. */
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Get the value stored for a key, without loading it.
+     *
+     * @param key the key to look up
+     * @return the stored value, or {@code null} if the value isn't loaded
+     */
+    public V getIfPresent(K key)
+    {
+        Entry<V> entry = this.entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Get the value stored for a key, loading it if needed. A loaded value is only stored if the key wasn't
+     * invalidated while loading it, and {@code null} values and failures aren't remembered, so the value is loaded
+     * again on the next call.
+     *
+     * @param key the key to look up
+     * @param loader computes the value if it isn't already stored
+     * @param <E> the type of exception thrown when loading fails
+     * @return the stored or loaded value, may be {@code null} if the loader returned {@code null}
+     * @throws E if loading the value fails
+     */
+    public <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E
+    {
+        Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            Entry<V> pending = new Entry<>(null);
+            entry = this.entries.putIfAbsent(key, pending);
+            if (entry == null) {
+                entry = pending;
+            }
+        }
+        if (entry.value != null) {
+            return entry.value;
+        }
+        boolean stored = false;
+        try {
+            V result = loader.load(key);
+            // Atomically checks that the entry wasn't invalidated or replaced since the load started
+            stored = result != null && this.entries.replace(key, entry, new Entry<>(result));
+            return result;
+        } finally {
+            if (!stored) {
+                this.entries.remove(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Forget the value of a key, it will be loaded again when next needed. A load in progress for this key won't store
+     * its value.
+     *
+     * @param key the key whose source changed
+     */
+    public void invalidate(K key)
+    {
+        this.entries.remove(key);
+    }
+
+    /** Forget all the values, they will be loaded again when next needed. Loads in progress won't store values. */
+    public void invalidateAll()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * Computes the value of a key.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     * @param <E> the type of exception thrown when loading fails
+     * @version $Id$
+     * @since 1.3
+     */
+    public interface Loader<K, V, E extends Exception>
+    {
+        /**
+         * Compute the current value of a key.
+         *
+         * @param key the key to compute
+         * @return the computed value, or {@code null} if there's no value to remember
+         * @throws E if computing the value fails
+         */
+        V load(K key) throws E;
+    }
+
+    /** A stored value, compared by identity so that each load can check that its entry is still current. */
+    private static final class Entry<V>
+    {
+        private final V value;
+
+        Entry(V value)
+        {
+            this.value = value;
+        }
+    }
+}
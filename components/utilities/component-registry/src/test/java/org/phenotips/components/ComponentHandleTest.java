@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.components;
+
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ComponentHandle}.
+ *
+ * @version $Id$
+ */
+public class ComponentHandleTest
+{
+    private ComponentManager cm;
+
+    private Provider<ComponentManager> cmProvider;
+
+    private Runnable component = mock(Runnable.class);
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.cm = mock(ComponentManager.class);
+        this.cmProvider = mock(Provider.class);
+        when(this.cmProvider.get()).thenReturn(this.cm);
+        when(this.cm.getInstance(Runnable.class)).thenReturn(this.component);
+        when(this.cm.getInstance(Runnable.class, "other")).thenReturn(this.component);
+    }
+
+    @Test
+    public void componentIsLookedUpOnlyOnce() throws ComponentLookupException
+    {
+        ComponentHandle<Runnable> handle = new ComponentHandle<>(this.cmProvider, Runnable.class, null);
+        Assert.assertSame(this.component, handle.get());
+        Assert.assertSame(this.component, handle.get());
+        verify(this.cm, times(1)).getInstance(Runnable.class);
+    }
+
+    @Test
+    public void hintIsUsedForLookingUpTheComponent() throws ComponentLookupException
+    {
+        ComponentHandle<Runnable> handle = new ComponentHandle<>(this.cmProvider, Runnable.class, "other");
+        Assert.assertSame(this.component, handle.get());
+        Assert.assertSame(this.component, handle.get());
+        verify(this.cm, times(1)).getInstance(Runnable.class, "other");
+    }
+
+    @Test
+    public void componentIsLookedUpAgainAfterComponentsChange() throws ComponentLookupException
+    {
+        ComponentHandle<Runnable> handle = new ComponentHandle<>(this.cmProvider, Runnable.class, null);
+        Assert.assertSame(this.component, handle.get());
+
+        Runnable replacement = mock(Runnable.class);
+        when(this.cm.getInstance(Runnable.class)).thenReturn(replacement);
+        new ComponentManagerRegistry().onEvent(new ComponentDescriptorAddedEvent(Runnable.class), null, null);
+
+        Assert.assertSame(replacement, handle.get());
+        Assert.assertSame(replacement, handle.get());
+        verify(this.cm, times(2)).getInstance(Runnable.class);
+    }
+
+    @Test
+    public void componentIsLookedUpAgainInADifferentComponentManager() throws ComponentLookupException
+    {
+        ComponentHandle<Runnable> handle = new ComponentHandle<>(this.cmProvider, Runnable.class, null);
+        Assert.assertSame(this.component, handle.get());
+
+        ComponentManager otherCM = mock(ComponentManager.class);
+        Runnable otherComponent = mock(Runnable.class);
+        when(otherCM.getInstance(Runnable.class)).thenReturn(otherComponent);
+        when(this.cmProvider.get()).thenReturn(otherCM);
+
+        Assert.assertSame(otherComponent, handle.get());
+    }
+
+    @Test
+    public void lookupFailuresArePropagatedAndNotRemembered() throws ComponentLookupException
+    {
+        when(this.cm.getInstance(Runnable.class)).thenThrow(new ComponentLookupException("Missing"))
+            .thenReturn(this.component);
+        ComponentHandle<Runnable> handle = new ComponentHandle<>(this.cmProvider, Runnable.class, null);
+        try {
+            handle.get();
+            Assert.fail("Lookup failures should be reported");
+        } catch (ComponentLookupException ex) {
+            // Expected
+        }
+        Assert.assertSame(this.component, handle.get());
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.phenotips.components;
 
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.observation.event.ApplicationStartedEvent;
@@ -58,8 +60,20 @@ public void testGetName() throws ComponentLookupException
     public void testGetEvents() throws ComponentLookupException
     {
         List<Event> events = this.mocker.getComponentUnderTest().getEvents();
-        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(3, events.size());
         Assert.assertTrue(events.get(0).matches(new ApplicationStartedEvent()));
+        Assert.assertTrue(events.get(1).matches(new ComponentDescriptorAddedEvent(Object.class)));
+        Assert.assertTrue(events.get(2).matches(new ComponentDescriptorRemovedEvent(Object.class)));
+    }
+
+    @Test
+    public void testComponentEventsChangeTheComponentsVersion() throws ComponentLookupException
+    {
+        int version = ComponentManagerRegistry.getComponentsVersion();
+        this.mocker.getComponentUnderTest().onEvent(new ApplicationStartedEvent(), null, null);
+        Assert.assertEquals(version, ComponentManagerRegistry.getComponentsVersion());
+        this.mocker.getComponentUnderTest().onEvent(new ComponentDescriptorAddedEvent(Object.class), null, null);
+        Assert.assertNotEquals(version, ComponentManagerRegistry.getComponentsVersion());
     }
 
     @Test
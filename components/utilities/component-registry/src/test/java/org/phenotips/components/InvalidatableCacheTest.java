@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.components;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InvalidatableCache}.
+ *
+ * @version $Id$
+ */
+public class InvalidatableCacheTest
+{
+    private final InvalidatableCache<String, String> cache = new InvalidatableCache<>();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final InvalidatableCache.Loader<String, String, RuntimeException> loader =
+        new InvalidatableCache.Loader<String, String, RuntimeException>()
+        {
+            @Override
+            public String load(String key)
+            {
+                return key + InvalidatableCacheTest.this.loads.incrementAndGet();
+            }
+        };
+
+    @Test
+    public void valuesAreLoadedOnlyOnce()
+    {
+        Assert.assertNull(this.cache.getIfPresent("a"));
+        Assert.assertEquals("a1", this.cache.get("a", this.loader));
+        Assert.assertEquals("a1", this.cache.get("a", this.loader));
+        Assert.assertEquals("a1", this.cache.getIfPresent("a"));
+        Assert.assertEquals("b2", this.cache.get("b", this.loader));
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void valuesAreLoadedAgainAfterInvalidation()
+    {
+        this.cache.get("a", this.loader);
+        this.cache.get("b", this.loader);
+
+        this.cache.invalidate("a");
+        Assert.assertNull(this.cache.getIfPresent("a"));
+        Assert.assertEquals("b2", this.cache.getIfPresent("b"));
+        Assert.assertEquals("a3", this.cache.get("a", this.loader));
+
+        this.cache.invalidateAll();
+        Assert.assertNull(this.cache.getIfPresent("a"));
+        Assert.assertNull(this.cache.getIfPresent("b"));
+    }
+
+    @Test
+    public void valuesLoadedDuringAnInvalidationArentStored()
+    {
+        final InvalidatableCache.Loader<String, String, RuntimeException> invalidating =
+            new InvalidatableCache.Loader<String, String, RuntimeException>()
+            {
+                @Override
+                public String load(String key)
+                {
+                    // The source changes after the stale value was read
+                    InvalidatableCacheTest.this.cache.invalidate(key);
+                    return "stale";
+                }
+            };
+
+        Assert.assertEquals("stale", this.cache.get("a", invalidating));
+        Assert.assertNull(this.cache.getIfPresent("a"));
+        Assert.assertEquals("a1", this.cache.get("a", this.loader));
+        Assert.assertEquals("a1", this.cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void valuesLoadedDuringAFullInvalidationArentStored()
+    {
+        final InvalidatableCache.Loader<String, String, RuntimeException> invalidating =
+            new InvalidatableCache.Loader<String, String, RuntimeException>()
+            {
+                @Override
+                public String load(String key)
+                {
+                    InvalidatableCacheTest.this.cache.invalidateAll();
+                    return "stale";
+                }
+            };
+
+        Assert.assertEquals("stale", this.cache.get("a", invalidating));
+        Assert.assertNull(this.cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void failuresAndNullValuesArentRemembered() throws Exception
+    {
+        InvalidatableCache.Loader<String, String, Exception> failing =
+            new InvalidatableCache.Loader<String, String, Exception>()
+            {
+                @Override
+                public String load(String key) throws Exception
+                {
+                    throw new Exception("Failed");
+                }
+            };
+        try {
+            this.cache.get("a", failing);
+            Assert.fail("The failure should have been reported");
+        } catch (Exception ex) {
+            Assert.assertEquals("Failed", ex.getMessage());
+        }
+        Assert.assertNull(this.cache.getIfPresent("a"));
+
+        InvalidatableCache.Loader<String, String, RuntimeException> empty =
+            new InvalidatableCache.Loader<String, String, RuntimeException>()
+            {
+                @Override
+                public String load(String key)
+                {
+                    return null;
+                }
+            };
+        Assert.assertNull(this.cache.get("a", empty));
+        Assert.assertEquals("a1", this.cache.get("a", this.loader));
+    }
+}
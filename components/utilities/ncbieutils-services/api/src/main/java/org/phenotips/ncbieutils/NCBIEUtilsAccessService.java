@@ -18,13 +18,18 @@
 package org.phenotips.ncbieutils;
 
 import org.phenotips.ncbieutils.internal.AbstractSpecializedNCBIEUtilsAccessService;
+import org.phenotips.ncbieutils.internal.EUtilsClient;
+import org.phenotips.ncbieutils.internal.SummaryCache;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
+
 /**
  * Script service exposing services provided by the online NCBI Entrez Utilities webserver.
  *
@@ -36,9 +41,18 @@
 @Singleton
 public class NCBIEUtilsAccessService implements ScriptService
 {
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private EUtilsClient client;
+
+    @Inject
+    private SummaryCache cache;
+
     public NCBIEUtilsService get(final String name)
     {
-        return new AbstractSpecializedNCBIEUtilsAccessService()
+        return new AbstractSpecializedNCBIEUtilsAccessService(this.logger, this.client, this.cache)
         {
             @Override
             public String getDatabaseName()
@@ -19,48 +19,33 @@
 
 import org.phenotips.ncbieutils.NCBIEUtilsService;
 
-import java.io.BufferedInputStream;
-import java.io.StringWriter;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
- * Base implementation for {@link NCBIEUtilsService}.
+ * Base implementation for {@link NCBIEUtilsService}. Document summaries are remembered in a {@link SummaryCache}, and
+ * the missing ones are requested in batches, many identifiers per request. All requests go through the shared
+ * {@link EUtilsClient}, which keeps the request rate under the limits imposed by NCBI.
  *
  * @version $Id$
  */
 public abstract class AbstractSpecializedNCBIEUtilsAccessService implements NCBIEUtilsService
 {
-    @Inject
-    private Logger logger;
-
-    protected static final String SERVER_URL = "http://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
-
     protected static final String TERM_SEARCH_QUERY_SCRIPT = "esearch.fcgi";
 
     protected static final String TERM_SEARCH_PARAM_NAME = "term";
@@ -75,8 +60,51 @@ public abstract class AbstractSpecializedNCBIEUtilsAccessService implements NCBI
 
     protected static final String DB_PARAM_NAME = "db";
 
+    /** How many identifiers are sent in one summary request. */
+    protected static final int SUMMARY_BATCH_SIZE = 100;
+
+    private static final String TITLE = "Title";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private EUtilsClient client;
+
+    @Inject
+    private SummaryCache cache;
+
+    /** Default constructor, used when the service is a component, and the needed services are injected. */
+    protected AbstractSpecializedNCBIEUtilsAccessService()
+    {
+        // Nothing to do, the fields are injected
+    }
+
+    /**
+     * Constructor used when the service is not a component, passing the services that would otherwise be injected.
+     *
+     * @param logger logging helper
+     * @param client the client used for sending requests
+     * @param cache where summaries are remembered
+     */
+    protected AbstractSpecializedNCBIEUtilsAccessService(Logger logger, EUtilsClient client, SummaryCache cache)
+    {
+        this.logger = logger;
+        this.client = client;
+        this.cache = cache;
+    }
+
     protected abstract String getDatabaseName();
 
+    /**
+     * @return the address of the NCBI Entrez Utilities server, as configured with the
+     *         {@code phenotips.ncbieutils.serverURL} property, always ending with a slash
+     */
+    protected String getServerURL()
+    {
+        return this.client.getServerURL();
+    }
+
     @Override
     public List<Map<String, Object>> getSuggestions(final String query)
     {
@@ -116,49 +144,21 @@ public String getSuggestionsXML(final String query, final int rows, final int st
     @Override
     public String getName(String id)
     {
-        String url = composeURL(TERM_SUMMARY_QUERY_SCRIPT, TERM_SUMMARY_PARAM_NAME, id);
-        String result = id;
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("DocSum");
-            if (nodes.getLength() > 0) {
-                Map<String, String> idToName = this.getNameForId(nodes.item(0));
-                result = idToName.get(id);
-                if (result != null && !id.equals(result)) {
-                    return result;
-                }
-            }
-            this.logger.warn("Name not found for OMIM id " + id);
+        String result = getNames(Collections.singletonList(id)).get(id);
+        if (result == null || id.equals(result)) {
+            this.logger.warn("Name not found for {} id {}", getDatabaseName(), id);
             return id;
-        } catch (Exception ex) {
-            this.logger.error("Error while trying to retrieve name for " + getDatabaseName() + " id " + id + " "
-                + ex.getClass().getName() + " " + ex.getMessage(), ex);
         }
-        return id;
+        return result;
     }
 
     @Override
     public Map<String, String> getNames(List<String> idList)
     {
         Map<String, String> result = new HashMap<String, String>();
-        String queryList = getSerializedList(idList);
-        String url = composeURL(TERM_SUMMARY_QUERY_SCRIPT, TERM_SUMMARY_PARAM_NAME, queryList);
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("DocSum");
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Map<String, String> idToName = this.getNameForId(nodes.item(i));
-                for (String id : idToName.keySet()) {
-                    if (idList.contains(id)) {
-                        result.put(id, idToName.get(id));
-                    } else {
-                        this.logger.warn("Unrequested " + getDatabaseName() + " id " + id);
-                    }
-                }
-            }
-        } catch (Exception ex) {
-            this.logger.error("Error while trying to retrieve name for " + getDatabaseName() + " ids " + queryList
-                + " " + ex.getClass().getName() + " " + ex.getMessage(), ex);
+        for (Map.Entry<String, Map<String, Object>> summary : getSummaryMap(idList).entrySet()) {
+            Object name = summary.getValue().get(TITLE);
+            result.put(summary.getKey(), name instanceof String ? (String) name : summary.getKey());
         }
         return result;
     }
@@ -170,15 +170,12 @@ public String getCorrectedQuery(String query)
         // response type: XML
         // get corrected query from /eSpellResult/CorrectedQuery (single element)
         // use original query if this element is empty
-        String url = composeURL(SPELL_CHECK_QUERY_SCRIPT, SPELL_CHECK_PARAM_NAME, query);
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("CorrectedQuery");
-            if (nodes.getLength() > 0) {
-                String result = nodes.item(0).getTextContent();
-                result = StringUtils.trim(result);
-                return StringUtils.isNotEmpty(result) ? result : query;
-            }
+        try (InputStream response = this.client.query(SPELL_CHECK_QUERY_SCRIPT,
+            composeParameters(SPELL_CHECK_PARAM_NAME, query))) {
+            String result = EUtilsResponseParser.parseCorrectedQuery(response);
+            return StringUtils.isNotEmpty(result) ? result : query;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
             this.logger.error("Error while trying to retrieve corrected query for " + query + " "
                 + ex.getClass().getName() + " " + ex.getMessage(), ex);
@@ -191,83 +188,23 @@ public List<String> getMatches(final String query, final int rows, final int sta
     {
         // response example at http://eutils.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi?db=omim&term=down
         // response type: XML
-        // get corrected query from /eSearchResult/IdList/Id (multiple elements)
-        String url = composeURL(TERM_SEARCH_QUERY_SCRIPT, TERM_SEARCH_PARAM_NAME, query, rows, start);
-        List<String> result = new ArrayList<String>();
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("IdList");
-            if (nodes.getLength() > 0) {
-                nodes = nodes.item(0).getChildNodes();
-                for (int i = 0; i < nodes.getLength(); ++i) {
-                    Node n = nodes.item(i);
-                    if (n.getNodeType() == Node.ELEMENT_NODE && n.getNodeName().equals("Id")) {
-                        result.add(n.getTextContent());
-                    }
-                }
-            }
-
+        // get matching identifiers from /eSearchResult/IdList/Id (multiple elements)
+        try (InputStream response = this.client.query(TERM_SEARCH_QUERY_SCRIPT,
+            composeParameters(TERM_SEARCH_PARAM_NAME, query) + "&RetMax=" + rows + "&RetStart=" + start)) {
+            return EUtilsResponseParser.parseIds(response);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
             this.logger.error("Error while trying to retrieve matches for " + query + " " + ex.getClass().getName()
                 + " " + ex.getMessage(), ex);
         }
-        return result;
+        return new ArrayList<String>();
     }
 
     @Override
     public List<Map<String, Object>> getSummaries(List<String> idList)
     {
-        // response example at
-        // http://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=omim&id=190685,605298,604829,602917,601088,602523,602259
-        // response type: XML
-        // return it
-        String queryList = getSerializedList(idList);
-        String url = composeURL(TERM_SUMMARY_QUERY_SCRIPT, TERM_SUMMARY_PARAM_NAME, queryList);
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("Item");
-            // OMIM titles are all UPPERCASE, try to fix this
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node n = nodes.item(i);
-                if (n.getNodeType() == Node.ELEMENT_NODE) {
-                    if (n.getFirstChild() != null) {
-                        n.replaceChild(response.createTextNode(fixCase(n.getTextContent())), n.getFirstChild());
-                    }
-                }
-            }
-            List<Map<String, Object>> result = new LinkedList<Map<String, Object>>();
-            nodes = response.getElementsByTagName("DocSum");
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Element n = (Element) nodes.item(i);
-                Map<String, Object> doc = new HashMap<String, Object>();
-                doc.put("id", n.getElementsByTagName("Id").item(0).getTextContent());
-                NodeList items = n.getElementsByTagName("Item");
-                for (int j = 0; j < items.getLength(); ++j) {
-                    Element item = (Element) items.item(j);
-                    if ("List".equals(item.getAttribute("Type"))) {
-                        NodeList subitems = item.getElementsByTagName("Item");
-                        if (subitems.getLength() > 0) {
-                            List<String> values = new ArrayList<String>(subitems.getLength());
-                            for (int k = 0; k < subitems.getLength(); ++k) {
-                                values.add(subitems.item(k).getTextContent());
-                            }
-                            doc.put(item.getAttribute("Name"), values);
-                        }
-                    } else {
-                        String value = item.getTextContent();
-                        if (StringUtils.isNotEmpty(value)) {
-                            doc.put(item.getAttribute("Name"), value);
-                        }
-                    }
-                }
-                result.add(doc);
-            }
-            return result;
-        } catch (Exception ex) {
-            this.logger.error("Error while trying to retrieve summaries for ids " + idList + " "
-                + ex.getClass().getName() + " " + ex.getMessage(), ex);
-        }
-        return Collections.emptyList();
+        return new LinkedList<Map<String, Object>>(getSummaryMap(idList).values());
     }
 
     protected String getSummariesXML(List<String> idList)
@@ -276,27 +213,12 @@ protected String getSummariesXML(List<String> idList)
         // http://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=omim&id=190685,605298,604829,602917,601088,602523,602259
         // response type: XML
         // return it
-        String queryList = getSerializedList(idList);
-        String url = composeURL(TERM_SUMMARY_QUERY_SCRIPT, TERM_SUMMARY_PARAM_NAME, queryList);
-        try {
-            Document response = readXML(url);
-            NodeList nodes = response.getElementsByTagName("Item");
-            // OMIM titles are all UPPERCASE, try to fix this
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node n = nodes.item(i);
-                if (n.getNodeType() == Node.ELEMENT_NODE) {
-                    if (n.getFirstChild() != null) {
-                        n.replaceChild(response.createTextNode(fixCase(n.getTextContent())), n.getFirstChild());
-                    }
-                }
-            }
-            Source source = new DOMSource(response);
-            StringWriter stringWriter = new StringWriter();
-            Result result = new StreamResult(stringWriter);
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
-            transformer.transform(source, result);
-            return stringWriter.getBuffer().toString();
+        String queryList = StringUtils.join(idList, ',');
+        try (InputStream response = this.client.query(TERM_SUMMARY_QUERY_SCRIPT,
+            composeParameters(TERM_SUMMARY_PARAM_NAME, queryList))) {
+            return EUtilsResponseParser.fixSummariesCase(response);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
             this.logger.error("Error while trying to retrieve summaries for ids " + idList + " "
                 + ex.getClass().getName() + " " + ex.getMessage(), ex);
@@ -304,94 +226,61 @@ protected String getSummariesXML(List<String> idList)
         return "";
     }
 
-    private Map<String, String> getNameForId(Node source)
+    /**
+     * Get the summaries of some documents, from the cache if available, otherwise from the server, in batches.
+     *
+     * @param idList the identifiers of the requested documents
+     * @return the found summaries, indexed by their identifier, in the requested order
+     */
+    private Map<String, Map<String, Object>> getSummaryMap(List<String> idList)
     {
-        Map<String, String> result = new HashMap<String, String>();
-        String id = null, name = null;
-        NodeList data = source.getChildNodes();
-        for (int i = 0; i < data.getLength(); ++i) {
-            Node n = data.item(i);
-            if (n.getNodeType() != Node.ELEMENT_NODE) {
-                continue;
-            }
-            if ("Id".equals(n.getNodeName())) {
-                id = n.getTextContent();
-            } else if ("Item".equals(n.getNodeName())) {
-                NamedNodeMap attrs = n.getAttributes();
-                if (attrs.getNamedItem("Name") != null && "Title".equals(attrs.getNamedItem("Name").getNodeValue())) {
-                    name = n.getTextContent();
+        Set<String> ids = new LinkedHashSet<>(idList);
+        ids.remove(null);
+        Map<String, Map<String, Object>> found = this.cache.get(getDatabaseName(), ids);
+        List<String> missing = new ArrayList<>(ids);
+        missing.removeAll(found.keySet());
+        for (int i = 0; i < missing.size(); i += SUMMARY_BATCH_SIZE) {
+            List<String> batch = missing.subList(i, Math.min(missing.size(), i + SUMMARY_BATCH_SIZE));
+            Map<String, Map<String, Object>> retrieved = fetchSummaries(batch);
+            for (String id : retrieved.keySet()) {
+                if (!batch.contains(id)) {
+                    this.logger.warn("Unrequested {} id {}", getDatabaseName(), id);
                 }
             }
+            retrieved.keySet().retainAll(batch);
+            this.cache.put(getDatabaseName(), retrieved);
+            found.putAll(retrieved);
         }
-        if (id != null) {
-            if (name != null) {
-                result.put(id, fixCase(name));
-            } else {
-                result.put(id, id);
+
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            if (found.containsKey(id)) {
+                result.put(id, found.get(id));
             }
         }
         return result;
     }
 
-    private String composeURL(String scriptName, String paramName, String query)
+    private Map<String, Map<String, Object>> fetchSummaries(List<String> ids)
     {
-        try {
-            return SERVER_URL + scriptName + "?" + DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "="
-                + URLEncoder.encode(query, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            return SERVER_URL + scriptName + "?" + DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "="
-                + query;
+        try (InputStream response = this.client.query(TERM_SUMMARY_QUERY_SCRIPT,
+            composeParameters(TERM_SUMMARY_PARAM_NAME, StringUtils.join(ids, ',')))) {
+            return EUtilsResponseParser.parseSummaries(response);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            this.logger.error("Error while trying to retrieve summaries for " + getDatabaseName() + " ids " + ids
+                + " " + ex.getClass().getName() + " " + ex.getMessage(), ex);
         }
+        return new HashMap<>();
     }
 
-    private String composeURL(String scriptName, String paramName, String query, final int rows, final int start)
+    private String composeParameters(String paramName, String query)
     {
         try {
-            return SERVER_URL + scriptName + "?" + DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "="
-                + URLEncoder.encode(query, "UTF-8") + "&RetMax=" + rows + "&RetStart=" + start;
+            return DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "=" + URLEncoder.encode(query, "UTF-8");
         } catch (UnsupportedEncodingException ex) {
-            return SERVER_URL + scriptName + "?" + DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "="
-                + query + "&RetMax=" + rows + "&RetStart=" + start;
-        }
-    }
-
-    private org.w3c.dom.Document readXML(String url)
-    {
-        try {
-            BufferedInputStream in = new BufferedInputStream(new URL(url).openStream());
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            org.w3c.dom.Document result = dBuilder.parse(in);
-            result.getDocumentElement().normalize();
-            return result;
-        } catch (Exception ex) {
-            this.logger.error("Error while trying to retrieve data from URL " + url + " " + ex.getClass().getName()
-                + " " + ex.getMessage(), ex);
-            return null;
-        }
-    }
-
-    private static String fixCase(String text)
-    {
-        if (text == null || text.length() == 0) {
-            return "";
-        }
-        if (StringUtils.isAllUpperCase(text.replaceAll("[^a-zA-Z]", ""))) {
-            return StringUtils.capitalize(text.toLowerCase());
-        }
-        return text;
-    }
-
-    private static String getSerializedList(List<String> list)
-    {
-        String result = "";
-        if (!list.isEmpty()) {
-            StringBuilder listBuilder = new StringBuilder();
-            for (String item : list) {
-                listBuilder.append(',').append(item);
-            }
-            result = listBuilder.substring(1);
+            return DB_PARAM_NAME + '=' + getDatabaseName() + "&" + paramName + "=" + query;
         }
-        return result;
     }
 }
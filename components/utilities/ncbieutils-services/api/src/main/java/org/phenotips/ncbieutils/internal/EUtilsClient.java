@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Sends requests to the NCBI Entrez Utilities server. NCBI blocks clients sending more than a few requests per second,
+ * so requests from all the services are throttled here, waiting for their turn if needed.
+ * <p>
+ * The server address and the maximum number of requests per second can be configured with the
+ * {@code phenotips.ncbieutils.serverURL} and {@code phenotips.ncbieutils.maxRequestsPerSecond} properties in
+ * {@code xwiki.properties}.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = EUtilsClient.class)
+@Singleton
+public class EUtilsClient implements Initializable
+{
+    /** The default address of the NCBI Entrez Utilities server. */
+    public static final String DEFAULT_SERVER_URL = "http://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+
+    /** NCBI allows up to three requests per second from clients without an API key. */
+    private static final int DEFAULT_REQUESTS_PER_SECOND = 3;
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final int READ_TIMEOUT = 30000;
+
+    /** Requests which would have to wait longer than this for their turn fail right away, in nanoseconds. */
+    private static final long MAX_WAIT = TimeUnit.SECONDS.toNanos(10);
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private String serverURL;
+
+    /** The minimum time between two requests, in nanoseconds. */
+    private long interval;
+
+    /** The earliest time when the next request can be sent, as returned by {@link System#nanoTime()}. */
+    private long nextSlot;
+
+    private boolean firstRequest = true;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.serverURL = this.configuration.getProperty("phenotips.ncbieutils.serverURL", DEFAULT_SERVER_URL);
+        if (!StringUtils.endsWith(this.serverURL, "/")) {
+            this.serverURL += '/';
+        }
+        int requestsPerSecond = this.configuration.getProperty("phenotips.ncbieutils.maxRequestsPerSecond",
+            Integer.valueOf(DEFAULT_REQUESTS_PER_SECOND));
+        this.interval = requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+    }
+
+    /**
+     * @return the address of the NCBI Entrez Utilities server, as configured, always ending with a slash
+     */
+    public String getServerURL()
+    {
+        return this.serverURL;
+    }
+
+    /**
+     * Send a request to one of the Entrez Utilities, waiting first if too many requests were recently sent.
+     *
+     * @param scriptName the name of the utility to call, for example {@code esummary.fcgi}
+     * @param parameters the URL-encoded query string
+     * @return the response body, which must be closed by the caller
+     * @throws IOException if the request fails, or if there are already so many pending requests that this one would
+     *             have to wait too long for its turn
+     * @throws InterruptedException if the current thread is interrupted while waiting for its turn
+     */
+    public InputStream query(String scriptName, String parameters) throws IOException, InterruptedException
+    {
+        waitForTurn();
+        URLConnection connection = new URL(this.serverURL + scriptName + '?' + parameters).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return new BufferedInputStream(connection.getInputStream());
+    }
+
+    /**
+     * Reserves the next free request slot, and waits until that slot comes. The lock is only held while reserving, so
+     * that waiting requests don't block each other. If the next free slot is too far in the future, no slot is
+     * reserved and the request fails instead of piling up.
+     *
+     * @throws IOException if the request would have to wait too long
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    private void waitForTurn() throws IOException, InterruptedException
+    {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = (this.firstRequest || now - this.nextSlot > 0) ? now : this.nextSlot;
+            wait = slot - now;
+            if (wait > MAX_WAIT) {
+                throw new IOException("Too many pending requests to the NCBI server, try again later");
+            }
+            this.firstRequest = false;
+            this.nextSlot = slot + this.interval;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
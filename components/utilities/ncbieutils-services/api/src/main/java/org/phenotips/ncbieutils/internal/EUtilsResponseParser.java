@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Parses the XML responses sent by the NCBI Entrez Utilities, streaming through them instead of building a DOM. DTDs
+ * referenced by the responses are not fetched.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public final class EUtilsResponseParser
+{
+    private static final String ITEM = "Item";
+
+    private static final String NAME = "Name";
+
+    private static final String TYPE = "Type";
+
+    private static final String ID = "Id";
+
+    private static final String DOCSUM = "DocSum";
+
+    private static final String LIST_TYPE = "List";
+
+    /** Marks open items of type {@code Structure}, which hold sub-items but don't have a list value. */
+    private static final List<String> STRUCTURE = new ArrayList<>(0);
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private EUtilsResponseParser()
+    {
+        // Utility class, only static methods
+    }
+
+    /**
+     * Parse an {@code esummary} response.
+     *
+     * @param in the response body
+     * @return the summaries found in the response, indexed by their identifier, in the order they were sent; each
+     *         summary holds the {@code id}, and the text of each item (with the case of all-uppercase titles fixed), and
+     *         the list of texts of the sub-items for items of type {@code List}
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    public static Map<String, Map<String, Object>> parseSummaries(InputStream in) throws XMLStreamException
+    {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            Map<String, Object> summary = null;
+            // The values of the currently open List and Structure items; values are added to all the enclosing lists
+            Deque<List<String>> openLists = new LinkedList<>();
+            Deque<String> openListNames = new LinkedList<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (DOCSUM.equals(element)) {
+                        summary = new HashMap<>();
+                    } else if (summary != null && ID.equals(element) && openLists.isEmpty()) {
+                        String id = StringUtils.trim(reader.getElementText());
+                        summary.put("id", id);
+                        result.put(id, summary);
+                    } else if (summary != null && ITEM.equals(element)) {
+                        String name = reader.getAttributeValue(null, NAME);
+                        String type = reader.getAttributeValue(null, TYPE);
+                        if (LIST_TYPE.equals(type) || "Structure".equals(type)) {
+                            openLists.push(LIST_TYPE.equals(type) ? new ArrayList<String>() : STRUCTURE);
+                            openListNames.push(name);
+                        } else {
+                            String value = fixCase(reader.getElementText());
+                            for (List<String> list : openLists) {
+                                if (list != STRUCTURE) {
+                                    list.add(value);
+                                }
+                            }
+                            if (StringUtils.isNotEmpty(value)) {
+                                summary.put(name, value);
+                            }
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (ITEM.equals(element) && !openLists.isEmpty()) {
+                        List<String> values = openLists.pop();
+                        String name = openListNames.pop();
+                        if (values != STRUCTURE && !values.isEmpty() && summary != null) {
+                            summary.put(name, values);
+                        }
+                    } else if (DOCSUM.equals(element)) {
+                        summary = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Parse an {@code esearch} response.
+     *
+     * @param in the response body
+     * @return the matching identifiers, may be empty
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    public static List<String> parseIds(InputStream in) throws XMLStreamException
+    {
+        List<String> result = new ArrayList<>();
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            boolean inIdList = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("IdList".equals(reader.getLocalName())) {
+                        inIdList = true;
+                    } else if (inIdList && ID.equals(reader.getLocalName())) {
+                        result.add(reader.getElementText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "IdList".equals(reader.getLocalName())) {
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Parse an {@code espell} response.
+     *
+     * @param in the response body
+     * @return the corrected query, or {@code null} if the response doesn't contain a correction
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    public static String parseCorrectedQuery(InputStream in) throws XMLStreamException
+    {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && "CorrectedQuery".equals(reader.getLocalName())) {
+                    return StringUtils.trimToNull(reader.getElementText());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return null;
+    }
+
+    /**
+     * Copy an {@code esummary} response, fixing the case of all-uppercase item values.
+     *
+     * @param in the response body
+     * @return the response, serialized as a string
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    public static String fixSummariesCase(InputStream in) throws XMLStreamException
+    {
+        StringWriter result = new StringWriter();
+        XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(in);
+        XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(result);
+        try {
+            StringBuilder text = null;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    flushText(text, writer);
+                    text = ITEM.equals(event.asStartElement().getName().getLocalPart()) ? new StringBuilder() : null;
+                } else if (event.isCharacters() && text != null) {
+                    text.append(event.asCharacters().getData());
+                    continue;
+                } else if (event.isEndElement()) {
+                    flushText(text, writer);
+                    text = null;
+                }
+                writer.add(event);
+            }
+            writer.flush();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return result.toString();
+    }
+
+    /**
+     * NCBI titles, especially from OMIM, are often in all uppercase; change such texts to sentence case.
+     *
+     * @param text the text to fix
+     * @return the text with a fixed case, or the text itself if not all uppercase
+     */
+    public static String fixCase(String text)
+    {
+        if (text == null || text.length() == 0) {
+            return "";
+        }
+        if (StringUtils.isAllUpperCase(text.replaceAll("[^a-zA-Z]", ""))) {
+            return StringUtils.capitalize(text.toLowerCase());
+        }
+        return text;
+    }
+
+    private static void flushText(StringBuilder text, XMLEventWriter writer) throws XMLStreamException
+    {
+        if (text != null && text.length() > 0) {
+            writer.add(EVENT_FACTORY.createCharacters(fixCase(text.toString())));
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Remembers the document summaries retrieved from the NCBI Entrez Utilities server, so that the same publications or
+ * diseases aren't requested again and again. Summaries are kept in memory and saved in the permanent directory, so that
+ * they survive restarts, and are discarded after a while, one week by default, so that changes on the NCBI side are
+ * eventually picked up.
+ * <p>
+ * The number of seconds a summary is kept can be configured with the {@code phenotips.ncbieutils.cacheTimeToLive}
+ * property in {@code xwiki.properties}; {@code 0} disables the cache.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = SummaryCache.class)
+@Singleton
+public class SummaryCache implements Initializable, Disposable
+{
+    private static final String FILE_NAME = "ncbieutils/summaries.bin";
+
+    private static final long DEFAULT_TIME_TO_LIVE = TimeUnit.DAYS.toSeconds(7);
+
+    /** At most this many summaries are remembered, the oldest ones are discarded first. */
+    private static final int MAX_ENTRIES = 50000;
+
+    /** Identifies the format of the cache file. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte STRING_VALUE = 0;
+
+    private static final byte LIST_VALUE = 1;
+
+    /** Strings longer than this can only come from a corrupted file. */
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    /** Changes are saved by a background task once per minute, and when the platform stops. */
+    private static final long STORE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String THREAD_NAME = "NCBI summary cache writer";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** How long a summary is valid, in milliseconds. */
+    private long timeToLive;
+
+    private final Map<String, CachedSummary> summaries = new ConcurrentHashMap<>();
+
+    /** Whether there are summaries which weren't saved yet. */
+    private final AtomicBoolean modified = new AtomicBoolean();
+
+    /** Saves the changes in the background, so that requests never wait for the file to be written. */
+    private ScheduledExecutorService writer;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.timeToLive = TimeUnit.SECONDS.toMillis(this.configuration.getProperty(
+            "phenotips.ncbieutils.cacheTimeToLive", Long.valueOf(DEFAULT_TIME_TO_LIVE)));
+        if (this.timeToLive > 0) {
+            load();
+            this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.writer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, STORE_INTERVAL, STORE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.writer != null) {
+            this.writer.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * Get the remembered summaries of some documents.
+     *
+     * @param database the NCBI database holding the documents, for example {@code pubmed}
+     * @param ids the identifiers of the requested documents
+     * @return the summaries which are remembered and not expired yet, indexed by their identifier, may be empty
+     */
+    public Map<String, Map<String, Object>> get(String database, Collection<String> ids)
+    {
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            CachedSummary entry = this.summaries.get(getKey(database, id));
+            if (entry != null && !entry.isExpired(now, this.timeToLive)) {
+                result.put(id, copy(entry.summary));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remember some newly retrieved summaries. They are saved in the permanent directory later, in the background, or
+     * when the platform stops.
+     *
+     * @param database the NCBI database holding the documents, for example {@code pubmed}
+     * @param retrieved the retrieved summaries, indexed by their identifier
+     */
+    public void put(String database, Map<String, Map<String, Object>> retrieved)
+    {
+        if (this.timeToLive <= 0 || retrieved.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Map<String, Object>> summary : retrieved.entrySet()) {
+            this.summaries.put(getKey(database, summary.getKey()), new CachedSummary(copy(summary.getValue()), now));
+        }
+        this.modified.set(true);
+    }
+
+    /** Saves the cache in the permanent directory, if there are unsaved changes. */
+    void flush()
+    {
+        if (this.modified.compareAndSet(true, false)) {
+            store();
+        }
+    }
+
+    private String getKey(String database, String id)
+    {
+        return database + '/' + id;
+    }
+
+    /**
+     * Copies a summary, so that changes made by the caller don't affect the cache, and vice versa.
+     *
+     * @param summary the summary to copy
+     * @return a copy of the summary, with copies of its list values
+     */
+    private Map<String, Object> copy(Map<String, Object> summary)
+    {
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, Object> field : summary.entrySet()) {
+            Object value = field.getValue();
+            if (value instanceof Collection) {
+                List<String> values = new ArrayList<>();
+                for (Object item : (Collection<?>) value) {
+                    values.add(String.valueOf(item));
+                }
+                value = values;
+            } else if (value != null) {
+                value = String.valueOf(value);
+            }
+            result.put(field.getKey(), value);
+        }
+        return result;
+    }
+
+    /** Discards expired summaries, and then the oldest ones if there are still too many. */
+    private void evict()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<CachedSummary> entries = this.summaries.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().isExpired(now, this.timeToLive)) {
+                entries.remove();
+            }
+        }
+        if (this.summaries.size() > MAX_ENTRIES) {
+            List<Map.Entry<String, CachedSummary>> sorted = new ArrayList<>(this.summaries.entrySet());
+            Collections.sort(sorted, new Comparator<Map.Entry<String, CachedSummary>>()
+            {
+                @Override
+                public int compare(Map.Entry<String, CachedSummary> o1, Map.Entry<String, CachedSummary> o2)
+                {
+                    return Long.compare(o1.getValue().retrieved, o2.getValue().retrieved);
+                }
+            });
+            for (int i = 0; i < sorted.size() - MAX_ENTRIES; ++i) {
+                this.summaries.remove(sorted.get(i).getKey());
+            }
+        }
+    }
+
+    private void load()
+    {
+        File file = getFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+            Files.newInputStream(file.toPath()))))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = readString(in);
+                long retrieved = in.readLong();
+                int fields = in.readInt();
+                Map<String, Object> summary = new HashMap<>();
+                for (int j = 0; j < fields; ++j) {
+                    String name = readString(in);
+                    if (in.readByte() == LIST_VALUE) {
+                        int size = in.readInt();
+                        List<String> values = new ArrayList<>(size);
+                        for (int k = 0; k < size; ++k) {
+                            values.add(readString(in));
+                        }
+                        summary.put(name, values);
+                    } else {
+                        summary.put(name, readString(in));
+                    }
+                }
+                this.summaries.put(key, new CachedSummary(summary, retrieved));
+            }
+            evict();
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the cached NCBI summaries: {}", ex.getMessage());
+            this.summaries.clear();
+        }
+    }
+
+    private synchronized void store()
+    {
+        evict();
+        File file = getFile();
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            // Write a temporary file and then replace the old one, so that a crash never leaves a truncated file
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                Files.newOutputStream(temp.toPath()))))) {
+                List<Map.Entry<String, CachedSummary>> entries = new ArrayList<>(this.summaries.entrySet());
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, CachedSummary> entry : entries) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue().retrieved);
+                    writeSummary(out, entry.getValue().summary);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to store the cached NCBI summaries: {}", ex.getMessage());
+            // try again later
+            this.modified.set(true);
+        }
+    }
+
+    private void writeSummary(DataOutputStream out, Map<String, Object> summary) throws IOException
+    {
+        out.writeInt(summary.size());
+        for (Map.Entry<String, Object> field : summary.entrySet()) {
+            writeString(out, field.getKey());
+            if (field.getValue() instanceof List) {
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>) field.getValue();
+                out.writeByte(LIST_VALUE);
+                out.writeInt(values.size());
+                for (String value : values) {
+                    writeString(out, value);
+                }
+            } else {
+                out.writeByte(STRING_VALUE);
+                writeString(out, (String) field.getValue());
+            }
+        }
+    }
+
+    /** Strings are written as length-prefixed UTF-8, since {@link DataOutputStream#writeUTF} is limited to 64KB. */
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File getFile()
+    {
+        return new File(this.environment.getPermanentDirectory(), FILE_NAME);
+    }
+
+    /** A remembered summary, along with the time when it was retrieved. */
+    private static final class CachedSummary
+    {
+        private final Map<String, Object> summary;
+
+        private final long retrieved;
+
+        CachedSummary(Map<String, Object> summary, long retrieved)
+        {
+            this.summary = summary;
+            this.retrieved = retrieved;
+        }
+
+        boolean isExpired(long now, long timeToLive)
+        {
+            return now - this.retrieved > timeToLive;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils;
+
+import org.phenotips.ncbieutils.internal.EUtilsClient;
+import org.phenotips.ncbieutils.internal.SummaryCache;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the NCBI Entrez Utilities services, against a local server replaying recorded responses.
+ *
+ * @version $Id$
+ */
+public class NCBIEUtilsAccessServiceTest
+{
+    private static final String GENEREVIEWS_ID = "20301425";
+
+    private static final String ARTICLE_ID = "7545954";
+
+    @Rule
+    public final TemporaryFolder permanentDirectory = new TemporaryFolder();
+
+    private HttpServer server;
+
+    /** The paths and query strings of the requests received by the server. */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private ConfigurationSource configuration;
+
+    private Environment environment;
+
+    private EUtilsClient client;
+
+    private SummaryCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new RecordedResponsesHandler());
+        this.server.start();
+
+        this.configuration = mock(ConfigurationSource.class);
+        when(this.configuration.getProperty(eq("phenotips.ncbieutils.serverURL"), anyString()))
+            .thenReturn("http://localhost:" + this.server.getAddress().getPort());
+        when(this.configuration.getProperty(eq("phenotips.ncbieutils.maxRequestsPerSecond"), any(Integer.class)))
+            .thenReturn(100);
+        when(this.configuration.getProperty(eq("phenotips.ncbieutils.cacheTimeToLive"), any(Long.class)))
+            .thenReturn(3600L);
+        this.environment = mock(Environment.class);
+        when(this.environment.getPermanentDirectory()).thenReturn(this.permanentDirectory.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+        this.server.stop(0);
+    }
+
+    @Test
+    public void summariesAreRequestedInOneBatchAndCached() throws Exception
+    {
+        NCBIEUtilsService pubmed = newService("pubmed");
+
+        List<Map<String, Object>> summaries = pubmed.getSummaries(Arrays.asList(GENEREVIEWS_ID, ARTICLE_ID));
+
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertEquals("/esummary.fcgi?db=pubmed&id=20301425%2C7545954", this.requests.get(0));
+        Assert.assertEquals(2, summaries.size());
+        Map<String, Object> summary = summaries.get(0);
+        Assert.assertEquals(GENEREVIEWS_ID, summary.get("id"));
+        Assert.assertEquals("Brca1- and brca2-associated hereditary breast and ovarian cancer", summary.get("Title"));
+        Assert.assertEquals(Arrays.asList("Petrucelli N", "Daly MB"), summary.get("AuthorList"));
+        Assert.assertEquals("2010/03/20 06:00", summary.get("pubmed"));
+        Assert.assertEquals(ARTICLE_ID, summaries.get(1).get("id"));
+
+        Assert.assertEquals("Novel inherited mutations and variable expressivity of BRCA1 alleles.",
+            pubmed.getName(ARTICLE_ID));
+        Assert.assertEquals(2, pubmed.getNames(Arrays.asList(ARTICLE_ID, GENEREVIEWS_ID)).size());
+        Assert.assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void cachedSummariesSurviveRestarts() throws Exception
+    {
+        newService("pubmed").getSummaries(Arrays.asList(GENEREVIEWS_ID, ARTICLE_ID));
+        this.cache.dispose();
+
+        NCBIEUtilsService pubmed = newService("pubmed");
+        Map<String, String> names = pubmed.getNames(Collections.singletonList(ARTICLE_ID));
+
+        Assert.assertEquals("Novel inherited mutations and variable expressivity of BRCA1 alleles.",
+            names.get(ARTICLE_ID));
+        Assert.assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void cacheIsSavedInTheBackground() throws Exception
+    {
+        newService("pubmed").getSummaries(Arrays.asList(GENEREVIEWS_ID, ARTICLE_ID));
+        File file = new File(this.permanentDirectory.getRoot(), "ncbieutils/summaries.bin");
+        Assert.assertFalse(file.exists());
+
+        this.cache.dispose();
+        Assert.assertTrue(file.isFile());
+    }
+
+    @Test
+    public void summariesAreNotSharedBetweenDatabases() throws Exception
+    {
+        newService("pubmed").getSummaries(Collections.singletonList(ARTICLE_ID));
+        newService("omim").getSummaries(Collections.singletonList(ARTICLE_ID));
+
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void suggestionsUseTheCorrectedQuery() throws Exception
+    {
+        List<Map<String, Object>> suggestions = newService("pubmed").getSuggestions("brac1", 2, 0);
+
+        Assert.assertEquals(3, this.requests.size());
+        Assert.assertEquals("/espell.fcgi?db=pubmed&term=brac1", this.requests.get(0));
+        Assert.assertEquals("/esearch.fcgi?db=pubmed&term=brca1&RetMax=2&RetStart=0", this.requests.get(1));
+        Assert.assertEquals(2, suggestions.size());
+    }
+
+    @Test
+    public void suggestionsXMLHasFixedCase() throws Exception
+    {
+        String xml = newService("pubmed").getSuggestionsXML("brca1");
+
+        Assert.assertTrue(xml.contains(">Brca1- and brca2-associated hereditary breast and ovarian cancer<"));
+        Assert.assertTrue(xml.contains(">Daly MB</Item>"));
+    }
+
+    @Test
+    public void requestsAreThrottled() throws Exception
+    {
+        when(this.configuration.getProperty(eq("phenotips.ncbieutils.maxRequestsPerSecond"), any(Integer.class)))
+            .thenReturn(10);
+        NCBIEUtilsService pubmed = newService("pubmed");
+
+        long start = System.nanoTime();
+        pubmed.getCorrectedQuery("brac1");
+        pubmed.getCorrectedQuery("brac1");
+        pubmed.getCorrectedQuery("brac1");
+
+        Assert.assertEquals(3, this.requests.size());
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void requestsFailFastWhenTheyWouldWaitTooLong() throws Exception
+    {
+        NCBIEUtilsService pubmed = newService("pubmed");
+        // Only one request per hour
+        ReflectionUtils.setFieldValue(this.client, "interval", TimeUnit.HOURS.toNanos(1));
+
+        Assert.assertEquals("brca1", pubmed.getCorrectedQuery("brac1"));
+        long start = System.nanoTime();
+        Assert.assertEquals("brac1", pubmed.getCorrectedQuery("brac1"));
+
+        Assert.assertEquals(1, this.requests.size());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void configuredServerIsUsed() throws Exception
+    {
+        newService("pubmed");
+
+        Assert.assertEquals("http://localhost:" + this.server.getAddress().getPort() + '/',
+            this.client.getServerURL());
+    }
+
+    @Test
+    public void failedRequestsReturnEmptyResults() throws Exception
+    {
+        // Nothing listens on this port
+        when(this.configuration.getProperty(eq("phenotips.ncbieutils.serverURL"), anyString()))
+            .thenReturn("http://localhost:1");
+        NCBIEUtilsService pubmed = newService("pubmed");
+
+        Assert.assertTrue(pubmed.getSummaries(Collections.singletonList(ARTICLE_ID)).isEmpty());
+        Assert.assertEquals(ARTICLE_ID, pubmed.getName(ARTICLE_ID));
+        Assert.assertEquals("brac1", pubmed.getCorrectedQuery("brac1"));
+    }
+
+    private NCBIEUtilsService newService(String database) throws Exception
+    {
+        this.client = new EUtilsClient();
+        ReflectionUtils.setFieldValue(this.client, "configuration", this.configuration);
+        this.client.initialize();
+
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+        this.cache = new SummaryCache();
+        ReflectionUtils.setFieldValue(this.cache, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(this.cache, "environment", this.environment);
+        ReflectionUtils.setFieldValue(this.cache, "configuration", this.configuration);
+        this.cache.initialize();
+
+        NCBIEUtilsAccessService service = new NCBIEUtilsAccessService();
+        ReflectionUtils.setFieldValue(service, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(service, "client", this.client);
+        ReflectionUtils.setFieldValue(service, "cache", this.cache);
+        return service.get(database);
+    }
+
+    /** Replies to each utility with a response recorded from the NCBI server. */
+    private final class RecordedResponsesHandler implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            NCBIEUtilsAccessServiceTest.this.requests.add(exchange.getRequestURI().toString());
+            String script = exchange.getRequestURI().getPath().substring(1);
+            try (InputStream response = getClass().getResourceAsStream("/eutils/" + script + ".xml")) {
+                if (response == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                for (int read = response.read(chunk); read > 0; read = response.read(chunk)) {
+                    buffer.write(chunk, 0, read);
+                }
+                byte[] body = buffer.toByteArray();
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -43,8 +43,8 @@
      *            is used
      * @param height the desired height of the raster image, in pixels; if 0 or a negative number, the image's native
      *            size is used
-     * @return the file where the PNG is stored
-     * @throws IOException if temporary files can't be accessed
+     * @return the file where the PNG is stored; the file may be shared with other requests, and must not be modified
+     * @throws IOException if the content isn't a valid SVG image, or temporary files can't be accessed
      */
     File rasterizeToTemporaryFile(String content, int width, int height) throws IOException;
 
@@ -58,7 +58,7 @@
      * @param height the desired height of the raster image, in pixels; if 0 or a negative number, the image's native
      *            size is used
      * @return the temporary resource where the PNG is stored
-     * @throws IOException if temporary files can't be accessed
+     * @throws IOException if the content isn't a valid SVG image, or temporary files can't be accessed
      */
     TemporaryResourceReference rasterizeToTemporaryResource(String content, int width, int height) throws IOException;
 
@@ -73,7 +73,7 @@
      *            size is used
      * @param targetContext the document which will "own" the new temporary resource
      * @return the temporary resource where the PNG is stored
-     * @throws IOException if temporary files can't be accessed
+     * @throws IOException if the content isn't a valid SVG image, or temporary files can't be accessed
      */
     TemporaryResourceReference rasterizeToTemporaryResource(String content, int width, int height,
         DocumentReference targetContext) throws IOException;
@@ -86,7 +86,7 @@ TemporaryResourceReference rasterizeToTemporaryResource(String content, int widt
      *            is used
      * @param height the desired height of the raster image, in pixels; if 0 or a negative number, the image's native
      *            size is used
-     * @throws IOException if writing the response fails
+     * @throws IOException if the content isn't a valid SVG image, or writing the response fails
      */
     void rasterizeToResponse(String content, int width, int height) throws IOException;
 }
@@ -28,26 +28,22 @@
 import org.xwiki.resource.temporary.TemporaryResourceReference;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.batik.transcoder.SVGAbstractTranscoder;
-import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 
 /**
- * The straight-forward implementation of the {@link SVGUtils} role.
+ * The straight-forward implementation of the {@link SVGUtils} role. Images are rendered through the
+ * {@link RasterCache}, so an image that was already rasterized with the same size isn't rendered again.
  *
  * @version $Id$
  * @since 1.3M1
@@ -58,8 +54,6 @@ public class DefaultSVGUtils implements SVGUtils
 {
     private static final String TEMP_DIR_NAME = "svg";
 
-    private static final String RASTER_FILE_EXTENSION = ".png";
-
     @Inject
     private Logger logger;
 
@@ -76,12 +70,23 @@ public class DefaultSVGUtils implements SVGUtils
     @Inject
     private Container container;
 
+    @Inject
+    private RasterCache cache;
+
     @Override
     public File rasterizeToTemporaryFile(String content, int width, int height) throws IOException
     {
-        File out = getTempFile(content.hashCode());
-        rasterizeToFile(content, out, width, height);
-        return out;
+        // The cached raster may be evicted once released, so the caller gets its own copy
+        File raster = this.cache.get(content, width, height);
+        try {
+            File tempDir = getBaseTempDir();
+            tempDir.mkdirs();
+            File out = new File(tempDir, raster.getName());
+            copyToFile(raster, out);
+            return out;
+        } finally {
+            this.cache.release(raster);
+        }
     }
 
     @Override
@@ -95,9 +100,14 @@ public TemporaryResourceReference rasterizeToTemporaryResource(String content, i
     public TemporaryResourceReference rasterizeToTemporaryResource(String content, int width, int height,
         DocumentReference targetContext) throws IOException
     {
-        File out = getContextTempFile(content.hashCode(), targetContext);
-        rasterizeToFile(content, out, width, height);
-        return new TemporaryResourceReference(TEMP_DIR_NAME, out.getName(), targetContext);
+        File raster = this.cache.get(content, width, height);
+        try {
+            File out = new File(getTempDir(targetContext), raster.getName());
+            copyToFile(raster, out);
+            return new TemporaryResourceReference(TEMP_DIR_NAME, out.getName(), targetContext);
+        } finally {
+            this.cache.release(raster);
+        }
     }
 
     @Override
@@ -107,60 +117,35 @@ public void rasterizeToResponse(String content, int width, int height) throws IO
             return;
         }
         HttpServletResponse response = ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
-        File result = rasterizeToTemporaryFile(content, width, height);
-        response.setContentLength((int) result.length());
-        response.setContentType("image/png");
-        OutputStream os = response.getOutputStream();
-        FileUtils.copyFile(result, os);
-        os.flush();
+        File result = this.cache.get(content, width, height);
+        try {
+            response.setContentLength((int) result.length());
+            response.setContentType("image/png");
+            OutputStream os = response.getOutputStream();
+            FileUtils.copyFile(result, os);
+            os.flush();
+        } finally {
+            this.cache.release(result);
+        }
     }
 
-    private void rasterizeToFile(String content, File out, int width, int height) throws IOException
+    private void copyToFile(File raster, File out) throws IOException
     {
         if (out.exists()) {
             this.logger.debug("Reusing existing temporary raster image: {}", out.getAbsolutePath());
             return;
         }
-        try (OutputStream fout = new FileOutputStream(out)) {
-            this.logger.debug("Rasterizing to temp file: {}", out.getAbsolutePath());
-            TranscoderInput input = new TranscoderInput(new StringReader(content));
-            TranscoderOutput output = new TranscoderOutput(fout);
-            rasterize(input, output, width, height);
-        }
-    }
-
-    private void rasterize(TranscoderInput input, TranscoderOutput output, int width, int height)
-    {
-        PNGTranscoder transcoder = new PNGTranscoder();
-
-        if (width > 0) {
-            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, new Float(width));
-        }
-        if (height > 0) {
-            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_HEIGHT, new Float(height));
-        }
-
-        // Set maximum width and height to 8k to avoid DoS attacks
-        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, new Float(8192));
-        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, new Float(8192));
-
+        // The name of the raster identifies its content, so a copy made concurrently by another request is identical
+        File temp = File.createTempFile(out.getName(), ".tmp", out.getParentFile());
         try {
-            transcoder.transcode(input, output);
-        } catch (TranscoderException ex) {
-            this.logger.warn("Failed to rasterize SVG image: {}", ex.getMessage());
+            Files.copy(raster.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
         }
     }
 
-    private File getTempFile(int hashcode)
-    {
-        return new File(getBaseTempDir(), Math.abs(hashcode) + RASTER_FILE_EXTENSION);
-    }
-
-    private File getContextTempFile(int hashcode, DocumentReference targetContext)
-    {
-        return new File(getTempDir(targetContext), Math.abs(hashcode) + RASTER_FILE_EXTENSION);
-    }
-
     private File getTempDir(DocumentReference targetContext)
     {
         File tempDir = getBaseTempDir();
@@ -0,0 +1,404 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.platform.svg.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.slf4j.Logger;
+
+/**
+ * Rasterizes SVG images as PNG, keeping the rendered images in a bounded directory, indexed by a digest of the SVG
+ * content and the requested size, so that an image which didn't change isn't rendered again. The least recently used
+ * images are removed once the total size of the cached images exceeds the limit configured with the
+ * {@code phenotips.svg.rasterCacheSize} property in {@code xwiki.properties}, in megabytes.
+ * <p>
+ * Images are rendered by a bounded pool of worker threads, whose size is configured with the
+ * {@code phenotips.svg.rasterizationThreads} property. Concurrent requests for the same image wait for a single
+ * rendering.
+ * </p>
+ * <p>
+ * The images returned by {@link #get(String, int, int)} are pinned, so that they aren't evicted while they are being
+ * served, until they are {@link #release(File) released}.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component(roles = RasterCache.class)
+@Singleton
+public class RasterCache implements Initializable, Disposable
+{
+    private static final String THREAD_NAME = "SVG rasterization";
+
+    private static final String RASTER_FILE_EXTENSION = ".png";
+
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final int DEFAULT_SIZE = 100;
+
+    private static final int DEFAULT_THREADS = 2;
+
+    /** Maximum width and height of the rendered images, to avoid DoS attacks. */
+    private static final Float MAX_IMAGE_SIZE = Float.valueOf(8192);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    @Inject
+    private Logger logger;
+
+    /** Used to get the temporary directory. */
+    @Inject
+    private Environment environment;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The sizes of the cached images, indexed by key, from the least to the most recently used. */
+    private final Map<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** How many callers are currently using each cached image, indexed by key; guarded by {@link #index}. */
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    /** Images being rendered, indexed by key. */
+    private final ConcurrentMap<String, Future<File>> renderings = new ConcurrentHashMap<>();
+
+    /** The total size of the cached images, in bytes. */
+    private long totalSize;
+
+    private long maxSize;
+
+    private File directory;
+
+    private ExecutorService workers;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Integer size = this.configuration.getProperty("phenotips.svg.rasterCacheSize", Integer.valueOf(DEFAULT_SIZE));
+        this.maxSize = (size == null ? DEFAULT_SIZE : Math.max(0, size)) * MEGABYTE;
+        Integer threads = this.configuration.getProperty("phenotips.svg.rasterizationThreads",
+            Integer.valueOf(DEFAULT_THREADS));
+        this.workers = Executors.newFixedThreadPool(threads == null ? DEFAULT_THREADS : Math.max(1, threads),
+            new DaemonThreadFactory(THREAD_NAME));
+        // Outside the temporary resources directory, so that cached images can't be requested directly
+        this.directory = new File(this.environment.getTemporaryDirectory(), "svg-cache");
+        this.directory.mkdirs();
+        loadIndex();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.workers.shutdownNow();
+    }
+
+    /**
+     * Get an SVG image rasterized as PNG, rendering it if it isn't already cached. The returned file is pinned in the
+     * cache, and {@link #release(File)} must be called once it is no longer needed.
+     *
+     * @param content the SVG image
+     * @param width the desired width of the raster image, in pixels; if 0 or a negative number, the image's native size
+     *            is used
+     * @param height the desired height of the raster image, in pixels; if 0 or a negative number, the image's native
+     *            size is used
+     * @return the file where the PNG is stored; the file is shared, and must not be modified
+     * @throws IOException if the content isn't a valid SVG image, or the cached file can't be written
+     */
+    public File get(String content, int width, int height) throws IOException
+    {
+        String key = getKey(content, width, height);
+        File result = getCached(key);
+        // The image may be evicted after it is rendered and before it can be pinned, in which case it is rendered again
+        while (result == null) {
+            awaitRendering(key, content, width, height);
+            result = getCached(key);
+        }
+        return result;
+    }
+
+    /**
+     * Unpin an image returned by {@link #get(String, int, int)}, allowing it to be evicted from the cache.
+     *
+     * @param file the file returned by {@link #get(String, int, int)}
+     */
+    public void release(File file)
+    {
+        String key = file.getName().substring(0, file.getName().length() - RASTER_FILE_EXTENSION.length());
+        synchronized (this.index) {
+            Integer count = this.pins.remove(key);
+            if (count != null && count > 1) {
+                this.pins.put(key, count - 1);
+            }
+            evict();
+        }
+    }
+
+    private void awaitRendering(final String key, final String content, final int width, final int height)
+        throws IOException
+    {
+        Future<File> rendering = this.renderings.get(key);
+        if (rendering == null) {
+            FutureTask<File> task = new FutureTask<>(new Callable<File>()
+            {
+                @Override
+                public File call() throws IOException
+                {
+                    return render(key, content, width, height);
+                }
+            });
+            rendering = this.renderings.putIfAbsent(key, task);
+            if (rendering == null) {
+                rendering = task;
+                this.workers.execute(task);
+            }
+        }
+        try {
+            rendering.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the SVG image to be rasterized");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Get and pin a cached image.
+     *
+     * @param key the key of the image
+     * @return the cached image, or {@code null} if it isn't cached
+     */
+    private File getCached(String key)
+    {
+        File file = getFile(key);
+        synchronized (this.index) {
+            if (this.index.get(key) != null) {
+                if (file.isFile()) {
+                    Integer count = this.pins.get(key);
+                    this.pins.put(key, count == null ? 1 : count + 1);
+                    return file;
+                }
+                // Removed from the temporary directory by someone else
+                this.totalSize -= this.index.remove(key);
+            }
+        }
+        return null;
+    }
+
+    private File render(String key, String content, int width, int height) throws IOException
+    {
+        File temp = null;
+        try {
+            File result = getFile(key);
+            // The image may have been rendered between the check done by the caller and the start of this rendering
+            synchronized (this.index) {
+                if (this.index.containsKey(key) && result.isFile()) {
+                    return result;
+                }
+            }
+            temp = File.createTempFile(key, TEMP_FILE_EXTENSION, this.directory);
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                this.logger.debug("Rasterizing SVG image: {}", result.getAbsolutePath());
+                rasterize(new TranscoderInput(new StringReader(content)), new TranscoderOutput(out), width, height);
+            } catch (TranscoderException ex) {
+                throw new IOException("Failed to rasterize SVG image: " + ex.getMessage(), ex);
+            }
+            Files.move(temp.toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            add(key, result.length());
+            return result;
+        } finally {
+            this.renderings.remove(key);
+            if (temp != null) {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+    private void rasterize(TranscoderInput input, TranscoderOutput output, int width, int height)
+        throws TranscoderException
+    {
+        PNGTranscoder transcoder = new PNGTranscoder();
+
+        if (width > 0) {
+            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, Float.valueOf(width));
+        }
+        if (height > 0) {
+            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_HEIGHT, Float.valueOf(height));
+        }
+
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, MAX_IMAGE_SIZE);
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, MAX_IMAGE_SIZE);
+
+        transcoder.transcode(input, output);
+    }
+
+    private void add(String key, long size)
+    {
+        synchronized (this.index) {
+            Long previous = this.index.put(key, size);
+            if (previous != null) {
+                this.totalSize -= previous;
+            }
+            this.totalSize += size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used images until the total size is under the limit. Pinned images are skipped, and
+     * the most recent image is always kept, even if it is larger than the limit. Must be called while holding the lock
+     * on {@link #index}.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> entries = this.index.entrySet().iterator();
+        int remaining = this.index.size();
+        while (this.totalSize > this.maxSize && remaining-- > 1) {
+            Map.Entry<String, Long> eldest = entries.next();
+            if (this.pins.containsKey(eldest.getKey())) {
+                continue;
+            }
+            this.totalSize -= eldest.getValue();
+            entries.remove();
+            if (!getFile(eldest.getKey()).delete()) {
+                this.logger.debug("Failed to delete cached raster image [{}]", eldest.getKey());
+            }
+        }
+    }
+
+    /** Rebuilds the index from the images cached by a previous run, and removes any unfinished renderings. */
+    private void loadIndex()
+    {
+        File[] files = this.directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                if (file.getName().endsWith(TEMP_FILE_EXTENSION)) {
+                    file.delete();
+                    return false;
+                }
+                return file.isFile() && file.getName().endsWith(RASTER_FILE_EXTENSION);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File f1, File f2)
+            {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            add(file.getName().substring(0, file.getName().length() - RASTER_FILE_EXTENSION.length()),
+                file.length());
+        }
+    }
+
+    private File getFile(String key)
+    {
+        return new File(this.directory, key + RASTER_FILE_EXTENSION);
+    }
+
+    private String getKey(String content, int width, int height)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            digest.update(("\n" + Math.max(0, width) + 'x' + Math.max(0, height)).getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is required to be supported by all Java platforms
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String name;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, this.name + " " + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
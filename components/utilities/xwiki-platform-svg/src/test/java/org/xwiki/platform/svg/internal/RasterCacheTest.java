@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.platform.svg.internal;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link RasterCache} component.
+ *
+ * @version $Id$
+ */
+public class RasterCacheTest
+{
+    private static final String IMAGE = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"20\" height=\"10\">"
+        + "<rect width=\"20\" height=\"10\" fill=\"red\"/></svg>";
+
+    @Rule
+    public final TemporaryFolder temporaryDirectory = new TemporaryFolder();
+
+    @Rule
+    public final MockitoComponentMockingRule<RasterCache> mocker =
+        new MockitoComponentMockingRule<RasterCache>(RasterCache.class);
+
+    private File cacheDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(this.temporaryDirectory.getRoot());
+        this.cacheDirectory = new File(this.temporaryDirectory.getRoot(), "svg-cache");
+    }
+
+    @Test
+    public void imagesAreRenderedOnceAndReused() throws Exception
+    {
+        File cold = this.mocker.getComponentUnderTest().get(IMAGE, 0, 0);
+        byte[] png = Files.readAllBytes(cold.toPath());
+        Assert.assertEquals((byte) 0x89, png[0]);
+        Assert.assertEquals('P', png[1]);
+        long rendered = cold.lastModified();
+
+        File warm = this.mocker.getComponentUnderTest().get(IMAGE, 0, 0);
+
+        Assert.assertEquals(cold, warm);
+        Assert.assertEquals(rendered, warm.lastModified());
+        Assert.assertEquals(1, this.cacheDirectory.list().length);
+    }
+
+    @Test
+    public void differentSizesAreCachedSeparately() throws Exception
+    {
+        File original = this.mocker.getComponentUnderTest().get(IMAGE, 0, 0);
+        File resized = this.mocker.getComponentUnderTest().get(IMAGE, 40, 20);
+
+        Assert.assertNotEquals(original, resized);
+        Assert.assertTrue(resized.length() > 0);
+        Assert.assertEquals(2, this.cacheDirectory.list().length);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneRendering() throws Exception
+    {
+        final RasterCache cache = this.mocker.getComponentUnderTest();
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                results.add(requests.submit(new Callable<File>()
+                {
+                    @Override
+                    public File call() throws IOException
+                    {
+                        return cache.get(IMAGE, 100, 50);
+                    }
+                }));
+            }
+            File first = results.get(0).get();
+            for (Future<File> result : results) {
+                Assert.assertEquals(first, result.get());
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+        // No leftover partial renderings
+        Assert.assertEquals(1, this.cacheDirectory.list().length);
+    }
+
+    @Test
+    public void pinnedImagesAreNotEvicted() throws Exception
+    {
+        RasterCache cache = this.mocker.getComponentUnderTest();
+        // Only one image fits in the cache
+        ReflectionUtils.setFieldValue(cache, "maxSize", 1L);
+
+        File pinned = cache.get(IMAGE, 0, 0);
+        File released = cache.get(IMAGE, 40, 20);
+        cache.release(released);
+        File latest = cache.get(IMAGE, 60, 30);
+        cache.release(latest);
+
+        Assert.assertTrue(pinned.isFile());
+        Assert.assertFalse(released.exists());
+        Assert.assertTrue(latest.isFile());
+
+        cache.release(pinned);
+
+        Assert.assertFalse(pinned.exists());
+        Assert.assertTrue(latest.isFile());
+    }
+
+    @Test
+    public void evictedImagesAreRenderedAgain() throws Exception
+    {
+        RasterCache cache = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(cache, "maxSize", 1L);
+
+        File first = cache.get(IMAGE, 0, 0);
+        cache.release(first);
+        cache.release(cache.get(IMAGE, 40, 20));
+        Assert.assertFalse(first.exists());
+
+        File again = cache.get(IMAGE, 0, 0);
+        Assert.assertEquals(first, again);
+        Assert.assertTrue(again.isFile());
+        cache.release(again);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidImagesFail() throws Exception
+    {
+        try {
+            this.mocker.getComponentUnderTest().get("not an image", 0, 0);
+        } finally {
+            Assert.assertEquals(0, this.cacheDirectory.list().length);
+        }
+    }
+}
@@ -20,7 +20,9 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides access to the available vocabularies and their terms.
@@ -43,6 +45,18 @@
      */
     VocabularyTerm resolveTerm(String termId);
 
+    /**
+     * Retrieve several terms at once, possibly from different vocabularies. Terms belonging to the same vocabulary are
+     * fetched together, which is much faster than {@link #resolveTerm(String) resolving} them one by one.
+     *
+     * @param termIds the term identifiers, in the format {@code <vocabulary prefix>:<term id>}
+     * @return the found terms, indexed by the requested identifiers; identifiers which don't resolve to a term are not
+     *         included; if a requested identifier is an alternative or obsolete identifier, the mapped term may have a
+     *         different {@link VocabularyTerm#getId() identifier}
+     * @since 1.3
+     */
+    Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds);
+
     /**
      * Retrieve a vocabulary given its identifier.
      *
@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Keeps in memory the version and size of the available vocabularies, so that they can be served without querying the
+ * vocabulary indexes, or even remote services, each time they are needed. The information is updated whenever a
+ * vocabulary is reindexed, and, for vocabularies served by remote services, once it is older than a few minutes.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface VocabularyVersionRegistry
+{
+    /**
+     * Get the version of a vocabulary.
+     *
+     * @param vocabulary the target vocabulary
+     * @return the version, as returned by {@link Vocabulary#getVersion()} when it was last retrieved
+     */
+    String getVersion(Vocabulary vocabulary);
+
+    /**
+     * Get the number of terms in a vocabulary.
+     *
+     * @param vocabulary the target vocabulary
+     * @return the number of terms, as returned by {@link Vocabulary#size()} when it was last retrieved
+     */
+    long getSize(Vocabulary vocabulary);
+
+    /**
+     * Get the time when a vocabulary was last reindexed.
+     *
+     * @param vocabulary the target vocabulary
+     * @return the date of the last reindex, or {@code null} if the vocabulary wasn't reindexed since the platform
+     *         started
+     */
+    Date getLastReindexDate(Vocabulary vocabulary);
+
+    /**
+     * Get the versions of all the available vocabularies.
+     *
+     * @return an unmodifiable map with the vocabulary names as keys, and their versions as values; vocabularies without
+     *         a known version are not included
+     */
+    Map<String, String> getVersions();
+
+    /**
+     * Retrieve again the version and size of a vocabulary, for example after it has been reindexed.
+     *
+     * @param vocabulary the vocabulary whose information is outdated
+     * @param reindexed {@code true} if this refresh follows a reindex of the vocabulary, in which case the reindex date
+     *            is also updated
+     */
+    void refresh(Vocabulary vocabulary, boolean reindexed);
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.events;
+
+import org.xwiki.observation.event.Event;
+import org.xwiki.stability.Unstable;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Notifies that a vocabulary was reindexed, so that any information cached about it, such as its version, is outdated.
+ * The event source is the reindexed {@link org.phenotips.vocabulary.Vocabulary}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public class VocabularyReindexedEvent implements Event
+{
+    private final String vocabularyId;
+
+    /**
+     * Constructor for notifying that a specific vocabulary was reindexed, or for listening to the reindexing of a
+     * specific vocabulary.
+     *
+     * @param vocabularyId the {@link org.phenotips.vocabulary.Vocabulary#getIdentifier() identifier} of the vocabulary
+     */
+    public VocabularyReindexedEvent(String vocabularyId)
+    {
+        this.vocabularyId = vocabularyId;
+    }
+
+    /** Default constructor, to be used for declaring that a listener wants to observe all reindexed vocabularies. */
+    public VocabularyReindexedEvent()
+    {
+        this(null);
+    }
+
+    /**
+     * The reindexed vocabulary.
+     *
+     * @return the identifier of the vocabulary, {@code null} for events matching any vocabulary
+     */
+    public String getVocabularyId()
+    {
+        return this.vocabularyId;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof VocabularyReindexedEvent && (this.vocabularyId == null
+            || StringUtils.equals(this.vocabularyId, ((VocabularyReindexedEvent) otherEvent).getVocabularyId()));
+    }
+}
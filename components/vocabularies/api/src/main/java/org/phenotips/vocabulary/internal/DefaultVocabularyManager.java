@@ -26,9 +26,13 @@
 import org.xwiki.component.phase.InitializationException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -74,6 +78,44 @@ public VocabularyTerm resolveTerm(String termId)
         return null;
     }
 
+    @Override
+    public Map<String, VocabularyTerm> resolveTerms(Collection<String> termIds)
+    {
+        Map<Vocabulary, Set<String>> idsByVocabulary = new LinkedHashMap<>();
+        for (String termId : termIds) {
+            Vocabulary vocabulary = getVocabularyForTerm(termId);
+            if (vocabulary != null) {
+                Set<String> ids = idsByVocabulary.get(vocabulary);
+                if (ids == null) {
+                    ids = new LinkedHashSet<>();
+                    idsByVocabulary.put(vocabulary, ids);
+                }
+                ids.add(termId);
+            }
+        }
+
+        Map<String, VocabularyTerm> result = new HashMap<>();
+        for (Map.Entry<Vocabulary, Set<String>> entry : idsByVocabulary.entrySet()) {
+            Map<String, VocabularyTerm> found = new HashMap<>();
+            for (VocabularyTerm term : entry.getKey().getTerms(entry.getValue())) {
+                if (term != null) {
+                    found.put(term.getId(), term);
+                }
+            }
+            for (String termId : entry.getValue()) {
+                VocabularyTerm term = found.get(termId);
+                if (term == null) {
+                    // Not a primary identifier, the vocabulary may still know it as an alternative identifier
+                    term = entry.getKey().getTerm(termId);
+                }
+                if (term != null) {
+                    result.put(termId, term);
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public Vocabulary getVocabulary(String vocabularyId)
     {
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.internal.solr.AbstractSolrVocabulary;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Default implementation of the {@link VocabularyVersionRegistry} component. The information about each vocabulary is
+ * retrieved the first time it is requested, and then only when the vocabulary is reindexed. Vocabularies which aren't
+ * indexed locally, such as the remote HGNC service, can change at any time, so their information is retrieved again
+ * once it is older than five minutes. If a vocabulary doesn't report a version, for example because a remote service
+ * is not reachable, the missing version is also kept for five minutes, so that an unreachable service isn't queried
+ * again on every request.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class DefaultVocabularyVersionRegistry implements VocabularyVersionRegistry
+{
+    /** The currently available vocabularies. */
+    @Inject
+    private Map<String, Vocabulary> vocabularies;
+
+    /** How long the information about a remote vocabulary is kept, in milliseconds. */
+    private long remoteTimeToLive = TimeUnit.MINUTES.toMillis(5);
+
+    /** The known vocabulary information, indexed by vocabulary identifier. */
+    private final Map<String, VocabularyInfo> info = new ConcurrentHashMap<>();
+
+    @Override
+    public String getVersion(Vocabulary vocabulary)
+    {
+        return getInfo(vocabulary).version;
+    }
+
+    @Override
+    public long getSize(Vocabulary vocabulary)
+    {
+        return getInfo(vocabulary).size;
+    }
+
+    @Override
+    public Date getLastReindexDate(Vocabulary vocabulary)
+    {
+        Date result = getInfo(vocabulary).lastReindex;
+        return result == null ? null : new Date(result.getTime());
+    }
+
+    @Override
+    public Map<String, String> getVersions()
+    {
+        Map<String, String> result = new HashMap<>();
+        for (Entry<String, Vocabulary> vocabulary : this.vocabularies.entrySet()) {
+            String version = getVersion(vocabulary.getValue());
+            if (StringUtils.isNotBlank(version)) {
+                result.put(vocabulary.getKey(), version);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public void refresh(Vocabulary vocabulary, boolean reindexed)
+    {
+        VocabularyInfo previous = this.info.get(vocabulary.getIdentifier());
+        Date lastReindex = reindexed ? new Date() : (previous == null ? null : previous.lastReindex);
+        load(vocabulary, lastReindex);
+    }
+
+    private VocabularyInfo getInfo(Vocabulary vocabulary)
+    {
+        VocabularyInfo result = this.info.get(vocabulary.getIdentifier());
+        if (result == null || result.expires < System.currentTimeMillis()) {
+            result = load(vocabulary, result == null ? null : result.lastReindex);
+        }
+        return result;
+    }
+
+    private VocabularyInfo load(Vocabulary vocabulary, Date lastReindex)
+    {
+        String version = vocabulary.getVersion();
+        long expires = vocabulary instanceof AbstractSolrVocabulary && StringUtils.isNotBlank(version)
+            ? Long.MAX_VALUE : System.currentTimeMillis() + this.remoteTimeToLive;
+        VocabularyInfo result = new VocabularyInfo(version, vocabulary.size(), lastReindex, expires);
+        this.info.put(vocabulary.getIdentifier(), result);
+        return result;
+    }
+
+    /** The information remembered about one vocabulary. */
+    private static final class VocabularyInfo
+    {
+        private final String version;
+
+        private final long size;
+
+        private final Date lastReindex;
+
+        /** When this information must be retrieved again, as a timestamp in milliseconds. */
+        private final long expires;
+
+        VocabularyInfo(String version, long size, Date lastReindex, long expires)
+        {
+            this.version = version;
+            this.size = size;
+            this.lastReindex = lastReindex;
+            this.expires = expires;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 import org.phenotips.vocabulary.VocabularyExtension;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import org.xwiki.stability.Unstable;
 
@@ -75,6 +76,7 @@ public int reindex(String sourceUrl)
             for (VocabularyExtension ext : this.extensions) {
                 ext.indexingEnded(this);
             }
+            this.observationManager.notify(new VocabularyReindexedEvent(getIdentifier()), this);
         }
         return retval;
     }
@@ -22,6 +22,7 @@
 import org.phenotips.obo2solr.TermData;
 import org.phenotips.vocabulary.VocabularyExtension;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -94,6 +95,7 @@ public int reindex(String sourceUrl)
             for (VocabularyExtension ext : this.extensions) {
                 ext.indexingEnded(this);
             }
+            this.observationManager.notify(new VocabularyReindexedEvent(getIdentifier()), this);
         }
         return retval;
     }
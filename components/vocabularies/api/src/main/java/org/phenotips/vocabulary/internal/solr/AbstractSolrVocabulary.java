@@ -25,6 +25,7 @@
 
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.ObservationManager;
 
 import java.util.Collection;
 import java.util.HashMap;
@@ -77,6 +78,10 @@ public abstract class AbstractSolrVocabulary implements Vocabulary, Initializabl
     @Inject
     protected List<VocabularyExtension> extensions;
 
+    /** Used for notifying that this vocabulary was reindexed. */
+    @Inject
+    protected ObservationManager observationManager;
+
     @Override
     public void initialize() throws InitializationException
     {
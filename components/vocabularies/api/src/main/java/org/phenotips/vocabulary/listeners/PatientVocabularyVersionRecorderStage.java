@@ -19,20 +19,17 @@
 
 import org.phenotips.Constants;
 import org.phenotips.data.Patient;
-import org.phenotips.data.events.PatientChangingEvent;
-import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.data.events.PatientChangingContext;
+import org.phenotips.data.events.PatientChangingStage;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.observation.AbstractEventListener;
-import org.xwiki.observation.event.Event;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -54,7 +51,7 @@
 @Component
 @Named("vocabulary-version-recorder")
 @Singleton
-public class PatientVocabularyVersionRecorder extends AbstractEventListener
+public class PatientVocabularyVersionRecorderStage implements PatientChangingStage
 {
     /** The name of the class where version info (name, version) is stored. */
     private static final EntityReference VERSION_RECORDER_REFERENCE = new EntityReference("OntologyVersionClass",
@@ -64,24 +61,24 @@ public class PatientVocabularyVersionRecorder extends AbstractEventListener
 
     private static final String VERSION_FIELD = "version";
 
-    /** Access to services that are needed to get the vocabulary version. */
+    /** Remembers the vocabulary versions, since retrieving them for each save is expensive. */
     @Inject
-    private Map<String, Vocabulary> ontologies;
+    private VocabularyVersionRegistry versions;
 
     @Inject
     private Execution execution;
 
-    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
-    public PatientVocabularyVersionRecorder()
+    @Override
+    public int getPriority()
     {
-        super("vocabulary-version-recorder", new PatientChangingEvent());
+        return 100;
     }
 
     @Override
-    public void onEvent(Event event, Object source, Object data)
+    public void process(PatientChangingContext changingContext)
     {
         XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-        XWikiDocument doc = (XWikiDocument) source;
+        XWikiDocument doc = (XWikiDocument) changingContext.getDocument();
 
         BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
         if (patientRecordObj == null) {
@@ -124,14 +121,6 @@ public void onEvent(Event event, Object source, Object data)
      */
     public Map<String, String> getOntologiesVersions()
     {
-        Map<String, String> result = new HashMap<>();
-
-        for (Entry<String, Vocabulary> ontology : this.ontologies.entrySet()) {
-            String version = ontology.getValue().getVersion();
-            if (StringUtils.isNotBlank(version)) {
-                result.put(ontology.getKey(), version);
-            }
-        }
-        return result;
+        return this.versions.getVersions();
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.listeners;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Updates the {@link VocabularyVersionRegistry} whenever a vocabulary is reindexed.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("vocabulary-version-registry-updater")
+@Singleton
+public class VocabularyVersionRegistryUpdater extends AbstractEventListener
+{
+    @Inject
+    private VocabularyVersionRegistry registry;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public VocabularyVersionRegistryUpdater()
+    {
+        super("vocabulary-version-registry-updater", new VocabularyReindexedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (source instanceof Vocabulary) {
+            this.registry.refresh((Vocabulary) source, true);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
+import org.phenotips.vocabulary.internal.solr.AbstractSolrVocabulary;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultVocabularyVersionRegistry} component.
+ *
+ * @version $Id$
+ */
+public class DefaultVocabularyVersionRegistryTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<VocabularyVersionRegistry> mocker =
+        new MockitoComponentMockingRule<VocabularyVersionRegistry>(DefaultVocabularyVersionRegistry.class);
+
+    private Vocabulary vocabulary;
+
+    @Before
+    public void setUp()
+    {
+        this.vocabulary = mock(Vocabulary.class);
+        when(this.vocabulary.getIdentifier()).thenReturn("hpo");
+        when(this.vocabulary.getVersion()).thenReturn("2016-06-01");
+        when(this.vocabulary.size()).thenReturn(15000L);
+    }
+
+    @Test
+    public void informationIsRetrievedOnlyOnce() throws ComponentLookupException
+    {
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals("2016-06-01", registry.getVersion(this.vocabulary));
+        Assert.assertEquals(15000L, registry.getSize(this.vocabulary));
+        Assert.assertEquals("2016-06-01", registry.getVersion(this.vocabulary));
+
+        verify(this.vocabulary, times(1)).getVersion();
+        verify(this.vocabulary, times(1)).size();
+    }
+
+    @Test
+    public void reindexUpdatesInformation() throws ComponentLookupException
+    {
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertEquals("2016-06-01", registry.getVersion(this.vocabulary));
+
+        when(this.vocabulary.getVersion()).thenReturn("2016-09-01");
+        when(this.vocabulary.size()).thenReturn(15500L);
+        registry.refresh(this.vocabulary, true);
+
+        Assert.assertEquals("2016-09-01", registry.getVersion(this.vocabulary));
+        Assert.assertEquals(15500L, registry.getSize(this.vocabulary));
+    }
+
+    @Test
+    public void remoteInformationExpires() throws ComponentLookupException
+    {
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(registry, "remoteTimeToLive", -1L);
+        Assert.assertEquals("2016-06-01", registry.getVersion(this.vocabulary));
+
+        when(this.vocabulary.getVersion()).thenReturn("2016-09-01");
+        Assert.assertEquals("2016-09-01", registry.getVersion(this.vocabulary));
+    }
+
+    @Test
+    public void indexedInformationDoesNotExpire() throws ComponentLookupException
+    {
+        Vocabulary indexed = mock(AbstractSolrVocabulary.class);
+        when(indexed.getIdentifier()).thenReturn("omim");
+        when(indexed.getVersion()).thenReturn("2016-06-01");
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(registry, "remoteTimeToLive", -1L);
+        Assert.assertEquals("2016-06-01", registry.getVersion(indexed));
+
+        when(indexed.getVersion()).thenReturn("2016-09-01");
+        Assert.assertEquals("2016-06-01", registry.getVersion(indexed));
+        verify(indexed, times(1)).getVersion();
+    }
+
+    @Test
+    public void missingVersionsAreRememberedForAWhile() throws ComponentLookupException
+    {
+        when(this.vocabulary.getVersion()).thenReturn("");
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals("", registry.getVersion(this.vocabulary));
+        Assert.assertEquals("", registry.getVersion(this.vocabulary));
+        verify(this.vocabulary, times(1)).getVersion();
+    }
+
+    @Test
+    public void missingVersionsOfIndexedVocabulariesExpire() throws ComponentLookupException
+    {
+        Vocabulary indexed = mock(AbstractSolrVocabulary.class);
+        when(indexed.getIdentifier()).thenReturn("omim");
+        when(indexed.getVersion()).thenReturn(null);
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(registry, "remoteTimeToLive", -1L);
+        Assert.assertNull(registry.getVersion(indexed));
+
+        when(indexed.getVersion()).thenReturn("2016-06-01");
+        Assert.assertEquals("2016-06-01", registry.getVersion(indexed));
+    }
+
+    @Test
+    public void reindexDateIsRecorded() throws ComponentLookupException
+    {
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertNull(registry.getLastReindexDate(this.vocabulary));
+
+        long before = System.currentTimeMillis();
+        registry.refresh(this.vocabulary, true);
+        Date reindexed = registry.getLastReindexDate(this.vocabulary);
+        Assert.assertNotNull(reindexed);
+        Assert.assertTrue(reindexed.getTime() >= before);
+
+        registry.refresh(this.vocabulary, false);
+        Assert.assertEquals(reindexed, registry.getLastReindexDate(this.vocabulary));
+    }
+
+    @Test
+    public void reindexDateIsKeptWhenRemoteInformationExpires() throws ComponentLookupException
+    {
+        VocabularyVersionRegistry registry = this.mocker.getComponentUnderTest();
+        ReflectionUtils.setFieldValue(registry, "remoteTimeToLive", -1L);
+        registry.refresh(this.vocabulary, true);
+        Date reindexed = registry.getLastReindexDate(this.vocabulary);
+
+        when(this.vocabulary.getVersion()).thenReturn("2016-09-01");
+        Assert.assertEquals("2016-09-01", registry.getVersion(this.vocabulary));
+        Assert.assertEquals(reindexed, registry.getLastReindexDate(this.vocabulary));
+    }
+}
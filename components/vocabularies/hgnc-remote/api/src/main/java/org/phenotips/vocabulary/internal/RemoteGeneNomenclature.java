@@ -19,6 +19,7 @@
 
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
@@ -30,6 +31,7 @@
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.observation.ObservationManager;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -124,6 +126,10 @@ public class RemoteGeneNomenclature implements Vocabulary, Initializable
     @Inject
     private CacheManager cacheFactory;
 
+    /** Used for notifying that the cached data was cleared. */
+    @Inject
+    private ObservationManager observationManager;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -336,6 +342,7 @@ public int reindex(String ontologyUrl)
     {
         // Remote vocabulary, we cannot reindex, but we can clear the local cache
         this.cache.removeAll();
+        this.observationManager.notify(new VocabularyReindexedEvent(getIdentifier()), this);
         return 0;
     }
 
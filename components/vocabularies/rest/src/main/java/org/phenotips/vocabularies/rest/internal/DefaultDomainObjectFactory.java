@@ -21,10 +21,12 @@
 import org.phenotips.vocabularies.rest.model.VocabularyTermSummary;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyVersionRegistry;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.stability.Unstable;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.json.JSONObject;
@@ -38,6 +40,10 @@
 @Singleton
 public class DefaultDomainObjectFactory implements DomainObjectFactory
 {
+    /** Serves the vocabulary sizes and versions without querying each vocabulary. */
+    @Inject
+    private VocabularyVersionRegistry versions;
+
     @Override
     public org.phenotips.vocabularies.rest.model.Vocabulary createVocabularyRepresentation(Vocabulary vocabulary)
     {
@@ -47,8 +53,8 @@ public org.phenotips.vocabularies.rest.model.Vocabulary createVocabularyRepresen
             .withIdentifier(vocabulary.getIdentifier())
             .withName(vocabulary.getName())
             .withAliases(vocabulary.getAliases())
-            .withSize(vocabulary.size())
-            .withVersion(vocabulary.getVersion());
+            .withSize(this.versions.getSize(vocabulary))
+            .withVersion(this.versions.getVersion(vocabulary));
         try {
             result.withDefaultSourceLocation(vocabulary.getDefaultSourceLocation());
         } catch (UnsupportedOperationException e) {